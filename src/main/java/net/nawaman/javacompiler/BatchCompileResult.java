@@ -0,0 +1,72 @@
+package net.nawaman.javacompiler;
+
+/**
+ * The result of a batch compilation.
+ *
+ * The codes in a batch are partitioned into independent groups that are compiled concurrently. Beside the error report,
+ *   the result tells the number of the groups, the elapsed (wall-clock) time and the total time spent compiling each
+ *   group - which is about the time the groups would take if compiled one after another.
+ **/
+final public class BatchCompileResult {
+    
+    BatchCompileResult(
+            final String pError,
+            final int    pGroupCount,
+            final long   pWallTimeNanos,
+            final long   pGroupTimeNanos) {
+        this.error          = pError;
+        this.groupCount     = pGroupCount;
+        this.wallTimeNanos  = pWallTimeNanos;
+        this.groupTimeNanos = pGroupTimeNanos;
+    }
+    
+    final private String error;
+    final private int    groupCount;
+    final private long   wallTimeNanos;
+    final private long   groupTimeNanos;
+    
+    /** Returns the error report or null if the compilation succeeded (same as JavaCompiler.compile(...)). */
+    public String getError() {
+        return this.error;
+    }
+    
+    /** Checks if the compilation succeeded */
+    public boolean isSuccess() {
+        return (this.error == null);
+    }
+    
+    /** Returns the number of the independent groups the codes were partitioned into */
+    public int getGroupCount() {
+        return this.groupCount;
+    }
+    
+    /** Returns the elapsed time of the batch compilation (in nanoseconds) */
+    public long getWallTimeNanos() {
+        return this.wallTimeNanos;
+    }
+    
+    /** Returns the sum of the time spent compiling each group (in nanoseconds) - the estimated serial time */
+    public long getGroupTimeNanos() {
+        return this.groupTimeNanos;
+    }
+    
+    /** Returns the speedup of the batch compilation comparing to compiling the groups serially */
+    public double getSpeedup() {
+        if (this.wallTimeNanos <= 0)
+            return 1.0;
+        
+        return ((double)this.groupTimeNanos) / this.wallTimeNanos;
+    }
+    
+    /** {@inheritDoc} */ @Override
+    public String toString() {
+        return String.format(
+                "BatchCompileResult[success=%s, groups=%d, wall=%.2fms, serial=%.2fms, speedup=%.2fx]",
+                this.isSuccess(),
+                this.groupCount,
+                this.wallTimeNanos  / 1000000.0,
+                this.groupTimeNanos / 1000000.0,
+                this.getSpeedup());
+    }
+
+}
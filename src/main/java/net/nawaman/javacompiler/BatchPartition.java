@@ -0,0 +1,152 @@
+package net.nawaman.javacompiler;
+
+import java.util.*;
+import java.util.regex.*;
+
+/**
+ * Partitions the codes of a batch into independent groups that can be compiled concurrently.
+ *
+ * Two codes are in the same group if one may refer to a type of the other. The types a code refers to are known from
+ *   the dependency graph if the code was compiled before (in the incremental mode). Otherwise, the code is scanned for
+ *   the simple names of the types declared by the other codes (the file name of a code is its top-level type name).
+ *   The scan may put independent codes together but never puts dependent codes apart.
+ **/
+final class BatchPartition {
+    
+    static private final Pattern IDENTIFIER
+                                = Pattern.compile("[\\p{javaJavaIdentifierStart}][\\p{javaJavaIdentifierPart}]*");
+    
+    private BatchPartition() {}
+    
+    /**
+     * Partitions the codes automatically.
+     *
+     * @param pCodes  the codes by their names.
+     * @param pGraph  the dependency graph of the previously compiled codes (may be null).
+     **/
+    static List<Set<String>> Of(
+            final Map<String, String> pCodes,
+            final DependencyGraph     pGraph) {
+        final ArrayList<String> aNames = new ArrayList<String>(new TreeSet<String>(pCodes.keySet()));
+        
+        // The simple type names declared by each code
+        final HashMap<String, Set<Integer>> aDeclarers = new HashMap<String, Set<Integer>>();
+        for (int i = 0; i < aNames.size(); i++) {
+            for (final String aType : GetDeclaredTypes(aNames.get(i), pGraph))
+                aDeclarers.computeIfAbsent(aType, K -> new HashSet<Integer>()).add(i);
+        }
+        
+        final int[] aParents = new int[aNames.size()];
+        for (int i = 0; i < aParents.length; i++)
+            aParents[i] = i;
+        
+        for (int i = 0; i < aNames.size(); i++) {
+            for (final String aType : GetReferencedTypes(aNames.get(i), pCodes.get(aNames.get(i)), pGraph)) {
+                final Set<Integer> aDeclarerIndexes = aDeclarers.get(aType);
+                if (aDeclarerIndexes == null)
+                    continue;
+                
+                for (final int aIndex : aDeclarerIndexes)
+                    Union(aParents, i, aIndex);
+            }
+        }
+        
+        final LinkedHashMap<Integer, Set<String>> aGroups = new LinkedHashMap<Integer, Set<String>>();
+        for (int i = 0; i < aNames.size(); i++)
+            aGroups.computeIfAbsent(Find(aParents, i), K -> new TreeSet<String>()).add(aNames.get(i));
+        
+        return new ArrayList<Set<String>>(aGroups.values());
+    }
+    
+    /**
+     * Uses the given groups - the names that are not known are ignored and the codes that are not in any group are put
+     *   together in another group.
+     **/
+    static List<Set<String>> Of(
+            final Collection<? extends Collection<String>> pGroups,
+            final Set<String>                              pNames) {
+        final ArrayList<Set<String>> aGroups    = new ArrayList<Set<String>>();
+        final TreeSet<String>        aRemaining = new TreeSet<String>(pNames);
+        for (final Collection<String> aGivenGroup : pGroups) {
+            final TreeSet<String> aGroup = new TreeSet<String>();
+            for (final String aName : aGivenGroup) {
+                if (aRemaining.remove(aName))
+                    aGroup.add(aName);
+            }
+            if (!aGroup.isEmpty())
+                aGroups.add(aGroup);
+        }
+        if (!aRemaining.isEmpty())
+            aGroups.add(aRemaining);
+        
+        return aGroups;
+    }
+    
+    // Privates --------------------------------------------------------------------------------------------------------
+    
+    static private Set<String> GetDeclaredTypes(
+            final String          pName,
+            final DependencyGraph pGraph) {
+        final HashSet<String> aTypes = new HashSet<String>();
+        aTypes.add(GetSimpleName(pName));
+        
+        final DependencyGraph.Unit aUnit = (pGraph == null) ? null : pGraph.getUnit(pName);
+        if (aUnit != null) {
+            for (final String aType : aUnit.producedTypes)
+                aTypes.add(GetSimpleName(aType));
+        }
+        return aTypes;
+    }
+    
+    static private Set<String> GetReferencedTypes(
+            final String          pName,
+            final String          pCode,
+            final DependencyGraph pGraph) {
+        final HashSet<String> aTypes = new HashSet<String>();
+        
+        // The recorded types are only valid if the code has not changed.
+        final DependencyGraph.Unit aUnit = (pGraph == null) ? null : pGraph.getUnit(pName);
+        if ((aUnit != null) && aUnit.hash.equals(ContentHash.Of(pCode))) {
+            for (final String aType : aUnit.referencedTypes)
+                aTypes.add(GetSimpleName(aType));
+            return aTypes;
+        }
+        
+        final Matcher aMatcher = IDENTIFIER.matcher(pCode);
+        while (aMatcher.find())
+            aTypes.add(aMatcher.group());
+        return aTypes;
+    }
+    
+    /** Returns the simple name of a type name or of a code name ('pkg/Name.java') */
+    static private String GetSimpleName(final String pName) {
+        String aName = pName;
+        if (aName.endsWith(MemoryFileManager.SOURCE_FILE_SUFFIX))
+            aName = aName.substring(0, aName.length() - MemoryFileManager.SOURCE_FILE_SUFFIX_LENGTH);
+        
+        final int aIndex = Math.max(aName.lastIndexOf('.'), aName.lastIndexOf('/'));
+        return aName.substring(aIndex + 1);
+    }
+    
+    static private int Find(
+            final int[] pParents,
+            final int   pIndex) {
+        int aIndex = pIndex;
+        while (pParents[aIndex] != aIndex) {
+            pParents[aIndex] = pParents[pParents[aIndex]];
+            aIndex           = pParents[aIndex];
+        }
+        return aIndex;
+    }
+    
+    static private void Union(
+            final int[] pParents,
+            final int   pIndex1,
+            final int   pIndex2) {
+        final int aRoot1 = Find(pParents, pIndex1);
+        final int aRoot2 = Find(pParents, pIndex2);
+        if (aRoot1 != aRoot2)
+            pParents[Math.max(aRoot1, aRoot2)] = Math.min(aRoot1, aRoot2);
+    }
+
+}
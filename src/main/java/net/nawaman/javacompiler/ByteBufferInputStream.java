@@ -0,0 +1,55 @@
+package net.nawaman.javacompiler;
+
+import java.io.*;
+import java.nio.*;
+
+/** The input stream of the bytes in a buffer (e.g. the byte code kept off the heap or a mapped file) */
+final class ByteBufferInputStream extends InputStream {
+    
+    ByteBufferInputStream(final ByteBuffer pBuffer) {
+        this.buffer = pBuffer;
+    }
+    
+    final private ByteBuffer buffer;
+    
+    /** {@inheritDoc} */ @Override
+    public int read() {
+        return this.buffer.hasRemaining() ? (this.buffer.get() & 0xFF) : -1;
+    }
+    /** {@inheritDoc} */ @Override
+    public int read(
+            final byte[] pBytes,
+            final int    pOffset,
+            final int    pLength) {
+        if (pLength == 0)
+            return 0;
+        if (!this.buffer.hasRemaining())
+            return -1;
+        
+        final int aLength = Math.min(pLength, this.buffer.remaining());
+        this.buffer.get(pBytes, pOffset, aLength);
+        return aLength;
+    }
+    /** {@inheritDoc} */ @Override
+    public long skip(final long pCount) {
+        final int aCount = (int)Math.max(0, Math.min(pCount, this.buffer.remaining()));
+        this.buffer.position(this.buffer.position() + aCount);
+        return aCount;
+    }
+    /** {@inheritDoc} */ @Override
+    public int available() {
+        return this.buffer.remaining();
+    }
+    
+    /** Returns the next bytes as a read-only buffer sharing the bytes (not copied) and skips them */
+    ByteBuffer slice(final int pLength) throws IOException {
+        if ((pLength < 0) || (pLength > this.buffer.remaining()))
+            throw new EOFException();
+        
+        final ByteBuffer aSlice = this.buffer.slice();
+        aSlice.limit(pLength);
+        this.buffer.position(this.buffer.position() + pLength);
+        return aSlice.asReadOnlyBuffer();
+    }
+
+}
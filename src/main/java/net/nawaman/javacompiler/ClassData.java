@@ -1,6 +1,7 @@
 package net.nawaman.javacompiler;
 
 import java.io.*;
+import java.nio.*;
 import java.util.*;
 
 /** Data of Class - for persistence */
@@ -13,8 +14,6 @@ final public class ClassData implements Serializable {
     
     static private int CACHE_INDEX__HAS_CODE   = 0;
     static private int CACHE_INDEX__HAS_NOCODE = 1;
-    static private HashMap<JCompiler, HashMap<String, ClassData[]>> CACHE_CLASS_DATAS =
-            new HashMap<JCompiler, HashMap<String, ClassData[]>>();
     
     static private int GetCacheIndex(final boolean pIsToSaveCode) {
         final int aCacheIndex = pIsToSaveCode
@@ -23,22 +22,29 @@ final public class ClassData implements Serializable {
         return aCacheIndex;
     }
     
+    /** Forgets the ClassData prepared for the classes of the JCompiler */
+    static void ClearCache(final JCompiler pJCompiler) {
+        final HashMap<String, ClassData[]> aCache = pJCompiler.getClassDataCache();
+        synchronized (aCache) {
+            aCache.clear();
+        }
+    }
+    
     static ClassData GetClassData(
             final String    pName,
             final JCompiler pJCompiler,
             final boolean   pIsToSaveCode) {
         
-        final HashMap<String, ClassData[]> aCache = ClassData.CACHE_CLASS_DATAS.get(pJCompiler);
-        if (aCache == null)
-            return null;
-        
-        final int         aCacheIndex = GetCacheIndex(pIsToSaveCode);
-        final ClassData[] aClassDatas = aCache.get(pName);
-        if (aClassDatas == null)
-            return null;
-        
-        final ClassData aClassData = aClassDatas[aCacheIndex];
-        return aClassData;
+        final HashMap<String, ClassData[]> aCache = pJCompiler.getClassDataCache();
+        synchronized (aCache) {
+            final int         aCacheIndex = GetCacheIndex(pIsToSaveCode);
+            final ClassData[] aClassDatas = aCache.get(pName);
+            if (aClassDatas == null)
+                return null;
+            
+            final ClassData aClassData = aClassDatas[aCacheIndex];
+            return aClassData;
+        }
     }
             
     static ClassData NewClassData(
@@ -48,29 +54,26 @@ final public class ClassData implements Serializable {
             final JavaClassMemoryFileObject JCMFO,
             final boolean                   pIsToSaveCode) {
         
-        HashMap<String, ClassData[]> aCache = ClassData.CACHE_CLASS_DATAS.get(pJCompiler);
-        if (aCache == null) {
-            aCache = new HashMap<String, ClassData[]>();
-            ClassData.CACHE_CLASS_DATAS.put(pJCompiler, aCache);
-        }
-        
-        ClassData[] aClassDatas = aCache.get(pName);
-        if (aClassDatas == null) {
-            aClassDatas = new ClassData[2];
-            aCache.put(pName, aClassDatas);
-        }
-        
-        final int aCacheIndex = GetCacheIndex(pIsToSaveCode);
-        ClassData aClassData  = aClassDatas[aCacheIndex];
-        if (aClassData == null) {
-            aClassData               = new ClassData(pName, pJCompiler, pClass, JCMFO, pIsToSaveCode);
-            aClassDatas[aCacheIndex] = aClassData;
+        final HashMap<String, ClassData[]> aCache = pJCompiler.getClassDataCache();
+        synchronized (aCache) {
+            ClassData[] aClassDatas = aCache.get(pName);
+            if (aClassDatas == null) {
+                aClassDatas = new ClassData[2];
+                aCache.put(pName, aClassDatas);
+            }
             
-            aClassData.prepareEnclosingClassDatas(pJCompiler, pClass);
-            aClassData.prepareEnclosedClassDatas (pJCompiler, pClass);
+            final int aCacheIndex = GetCacheIndex(pIsToSaveCode);
+            ClassData aClassData  = aClassDatas[aCacheIndex];
+            if (aClassData == null) {
+                aClassData               = new ClassData(pName, pJCompiler, pClass, JCMFO, pIsToSaveCode);
+                aClassDatas[aCacheIndex] = aClassData;
+                
+                aClassData.prepareEnclosingClassDatas(pJCompiler, pClass);
+                aClassData.prepareEnclosedClassDatas (pJCompiler, pClass);
+            }
+            
+            return aClassData;
         }
-        
-        return aClassData;
     }
     
     private ClassData(
@@ -82,15 +85,40 @@ final public class ClassData implements Serializable {
         
         this.name  = JCMFO.getName();
         this.path  = JCMFO.getPath();
-        this.bytes = JCMFO.getBAOS().toByteArray().clone();
+        this.bytes = ClassData.getNonNullByteArray(JCMFO.getByteCode());
         this.code  = pIsToSaveCode ? pJCompiler.getCode(pName) : null;
     }
+    /** Creates a ClassData from the decoded data - used by ClassDataCodec */
+    ClassData(
+            final String pName,
+            final String pPath,
+            final byte[] pBytes,
+            final String pCode) {
+        this.name  = pName;
+        this.path  = pPath;
+        this.bytes = pBytes;
+        this.code  = pCode;
+    }
+    /** Creates a ClassData with the byte code in the buffer (e.g. a mapped file) - used by ClassDataCodec */
+    ClassData(
+            final String     pName,
+            final String     pPath,
+            final ByteBuffer pByteCode,
+            final String     pCode) {
+        this.name        = pName;
+        this.path        = pPath;
+        this.bytes       = null;
+        this.mappedBytes = pByteCode.asReadOnlyBuffer();
+        this.code        = pCode;
+    }
     
-    // Required data
+    // Required data - the byte code is in the byte array or (not serialized as is) in the buffer
     final private String name;
     final private String path;
     final private byte[] bytes;
     
+    private transient ByteBuffer mappedBytes = null;
+    
     // Optional data 
     private String      code            = null;
     private ClassData   enclosingClass  = null;
@@ -112,6 +140,8 @@ final public class ClassData implements Serializable {
     
     /** Returns the length of the byte code */
     public int getByteCount() {
+        if (this.mappedBytes != null)
+            return this.mappedBytes.remaining();
         if (this.bytes == null)
             return 0;
         
@@ -120,20 +150,47 @@ final public class ClassData implements Serializable {
     }
     /** Returns the byte at the position */
     public Byte getByte(final int I) {
-        if ((I < 0) || (I > this.bytes.length)) 
+        if ((I < 0) || (I >= this.getByteCount())) 
             return null;
         
-        final Byte aByte = this.bytes[I];
+        final Byte aByte = (this.mappedBytes != null) ? this.mappedBytes.get(I) : this.bytes[I];
         return aByte;
     }
     
-    /** Returns the bytes */
+    /** Checks if the byte code is in a buffer (e.g. a region of a mapped file) rather than in a byte array */
+    boolean isMapped() {
+        return (this.mappedBytes != null);
+    }
+    /** Returns the bytes (shared - must not be modified) - a copy if the byte code is in a buffer */
     byte[] getRawBytes() {
-        return this.bytes;
+        if (this.mappedBytes == null)
+            return this.bytes;
+        
+        final byte[] aBytes = new byte[this.mappedBytes.remaining()];
+        this.mappedBytes.duplicate().get(aBytes);
+        return aBytes;
     }
-    /** Returns the bytes */
+    /** Returns a copy of the bytes */
     public byte[] getBytes() {
-        return this.bytes.clone();
+        return (this.mappedBytes != null) ? this.getRawBytes() : this.bytes.clone();
+    }
+    /** Returns a read-only view of the bytes (no copy) */
+    public ByteBuffer getByteBuffer() {
+        return (this.mappedBytes != null)
+                ? this.mappedBytes.duplicate()
+                : ByteBuffer.wrap(this.bytes).asReadOnlyBuffer();
+    }
+    
+    /** Writes the fields as the default serialization does - with the byte code in the buffer as the bytes */
+    private void writeObject(final ObjectOutputStream pOutput) throws IOException {
+        final ObjectOutputStream.PutField aFields = pOutput.putFields();
+        aFields.put("name",            this.name);
+        aFields.put("path",            this.path);
+        aFields.put("bytes",           this.getRawBytes());
+        aFields.put("code",            this.code);
+        aFields.put("enclosingClass",  this.enclosingClass);
+        aFields.put("enclosedClasses", this.enclosedClasses);
+        pOutput.writeFields();
     }
     
     /** Prepare the enclosing ClassDatas - used by JCompiler */
@@ -195,6 +252,41 @@ final public class ClassData implements Serializable {
         return aClassData;
     }
     
+    /** Sets the enclosing and the enclosed ClassDatas - used by ClassDataCodec */
+    void setEnclosures(
+            final ClassData   pEnclosingClass,
+            final ClassData[] pEnclosedClasses) {
+        this.enclosingClass  = pEnclosingClass;
+        this.enclosedClasses = pEnclosedClasses;
+    }
+    
+    // Encoding --------------------------------------------------------------------------------------------------------
+    
+    /** Returns the compact binary encoding of this ClassData (with its enclosing and enclosed ClassDatas) */
+    public byte[] encode() {
+        return ClassDataCodec.Encode(this);
+    }
+    /** Writes the compact binary encoding of this ClassData (with its enclosing and enclosed ClassDatas) */
+    public void encode(final DataOutput pOutput) throws IOException {
+        ClassDataCodec.Encode(this, pOutput);
+    }
+    
+    /** Decodes the ClassData from its compact binary encoding (see encode()) */
+    static public ClassData Decode(final byte[] pBytes) throws IOException {
+        return ClassDataCodec.Decode(pBytes);
+    }
+    /** Reads the ClassData from its compact binary encoding (see encode(DataOutput)) */
+    static public ClassData Decode(final DataInput pInput) throws IOException {
+        return ClassDataCodec.Decode(pInput);
+    }
+    /**
+     * Decodes the ClassData from its compact binary encoding in the buffer (from its position) - the byte code is not
+     *   copied but shared with the buffer (e.g. a mapped file) so the buffer must not be modified.
+     **/
+    static public ClassData Decode(final ByteBuffer pBuffer) throws IOException {
+        return ClassDataCodec.Decode(pBuffer);
+    }
+    
     /** Returns a shared empty byte array if the given array is null or empty */
     static byte[] getNonNullByteArray(final byte[] pBytes) {
         if ((pBytes == null) || (pBytes.length == 0))
@@ -0,0 +1,325 @@
+package net.nawaman.javacompiler;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.charset.*;
+import java.util.*;
+
+/**
+ * The compact binary encoding of ClassData (see ClassData.encode() and ClassData.Decode(byte[])).
+ *
+ * The Java serialization of a ClassData carries the class descriptors and recurses through the enclosing and the
+ *   enclosed ClassData. The encoding writes the ClassData reachable from the given one as a flat table instead (the
+ *   given one first) - each entry with its name, path, byte code and code length-prefixed and its enclosing and
+ *   enclosed ClassData as indexes into the table. The ClassData with and without the code of the same class share the
+ *   byte code so the byte code already written is referred to by the index of its entry.
+ *
+ * <pre>
+ * classdata := SHORT(MAGIC) BYTE(VERSION) INT(count) entry[count]
+ * entry     := STRING(name) STRING(path) BYTES(bytes) STRING(code) INT(enclosing) INT(n) INT(enclosed)[n]
+ * STRING    := INT(length) byte[length]       - UTF-8, the length is -1 for null
+ * BYTES     := INT(length) byte[length] | INT(-2 - index)   - or the byte code of the entry at the index
+ * </pre>
+ * An index is -1 for none.
+ **/
+final class ClassDataCodec {
+    
+    /** The first bytes of an encoded ClassData - "JC" (never the magic of the Java serialization) */
+    static final short MAGIC   = 0x4A43;
+    /** The version of the encoding */
+    static final byte  VERSION = 1;
+    
+    static private final Charset UTF8 = StandardCharsets.UTF_8;
+    
+    static private final String INVALID_DATA = "Invalid encoded ClassData: %s";
+    
+    // The smallest entry is six INTs (a name, no path, no byte code, no code, no enclosing and no enclosed).
+    static private final int MIN_ENTRY_SIZE = 6 * 4;
+    // The arrays of a length not backed by the data (read from a stream) grow by up to this while being read.
+    static private final int INITIAL_SIZE   = 8 * 1024;
+    
+    private ClassDataCodec() {}
+    
+    /** Checks if the bytes are an encoded ClassData (not a serialized one) */
+    static boolean IsEncoded(final byte[] pBytes) {
+        return (pBytes != null)
+            && (pBytes.length >= 2)
+            && ((((pBytes[0] & 0xFF) << 8) | (pBytes[1] & 0xFF)) == MAGIC);
+    }
+    
+    /** Encodes the ClassData (with the ClassData reachable from it) */
+    static byte[] Encode(final ClassData pClassData) {
+        final ByteArrayOutputStream aBytes = new ByteArrayOutputStream(pClassData.getByteCount() + 256);
+        try {
+            Encode(pClassData, new DataOutputStream(aBytes));
+        } catch (IOException E) {
+            throw new RuntimeException("Internal Error: Writing to a byte array fails.", E);
+        }
+        return aBytes.toByteArray();
+    }
+    /** Encodes the ClassData (with the ClassData reachable from it) to the output */
+    static void Encode(
+            final ClassData  pClassData,
+            final DataOutput pOutput)
+            throws IOException {
+        final ArrayList<ClassData>                aClassDatas = new ArrayList<ClassData>();
+        final IdentityHashMap<ClassData, Integer> aIndexes    = new IdentityHashMap<ClassData, Integer>();
+        AddClassData(pClassData, aClassDatas, aIndexes);
+        for (int i = 0; i < aClassDatas.size(); i++) {
+            final ClassData aClassData = aClassDatas.get(i);
+            AddClassData(aClassData.getEnclosingClassClassData(), aClassDatas, aIndexes);
+            for (int e = 0; e < aClassData.getEnclosedClassDataCount(); e++)
+                AddClassData(aClassData.getEnclosedClassData(e), aClassDatas, aIndexes);
+        }
+        
+        pOutput.writeShort(MAGIC);
+        pOutput.writeByte(VERSION);
+        pOutput.writeInt(aClassDatas.size());
+        
+        final IdentityHashMap<byte[], Integer> aByteIndexes = new IdentityHashMap<byte[], Integer>();
+        for (int i = 0; i < aClassDatas.size(); i++) {
+            final ClassData aClassData = aClassDatas.get(i);
+            final byte[]    aBytes     = aClassData.getRawBytes();
+            final Integer   aByteIndex = aByteIndexes.putIfAbsent(aBytes, i);
+            
+            WriteString(pOutput, aClassData.getName());
+            WriteString(pOutput, aClassData.getPath());
+            if (aByteIndex == null)
+                WriteBytes(pOutput, aBytes);
+            else
+                pOutput.writeInt(-2 - aByteIndex);
+            WriteString(pOutput, aClassData.getCode());
+            pOutput.writeInt(IndexOf(aClassData.getEnclosingClassClassData(), aIndexes));
+            
+            final int aEnclosedCount = aClassData.getEnclosedClassDataCount();
+            pOutput.writeInt(aEnclosedCount);
+            for (int e = 0; e < aEnclosedCount; e++)
+                pOutput.writeInt(IndexOf(aClassData.getEnclosedClassData(e), aIndexes));
+        }
+    }
+    
+    /** Decodes the ClassData */
+    static ClassData Decode(final byte[] pBytes) throws IOException {
+        final ByteArrayInputStream aBytes = new ByteArrayInputStream(pBytes);
+        return Decode(new DataInputStream(aBytes), pBytes.length, null);
+    }
+    /** Decodes the ClassData from the input */
+    static ClassData Decode(final DataInput pInput) throws IOException {
+        return Decode(pInput, Integer.MAX_VALUE, null);
+    }
+    /** Decodes the ClassData from the buffer (from its position) - the byte code is shared with the buffer */
+    static ClassData Decode(final ByteBuffer pBuffer) throws IOException {
+        final ByteBufferInputStream aBuffer = new ByteBufferInputStream(pBuffer.duplicate());
+        return Decode(new DataInputStream(aBuffer), aBuffer.available(), aBuffer);
+    }
+    
+    // Privates --------------------------------------------------------------------------------------------------------
+    
+    static private void AddClassData(
+            final ClassData                           pClassData,
+            final ArrayList<ClassData>                pClassDatas,
+            final IdentityHashMap<ClassData, Integer> pIndexes) {
+        if ((pClassData == null) || pIndexes.containsKey(pClassData))
+            return;
+        
+        pIndexes.put(pClassData, pClassDatas.size());
+        pClassDatas.add(pClassData);
+    }
+    static private int IndexOf(
+            final ClassData                           pClassData,
+            final IdentityHashMap<ClassData, Integer> pIndexes) {
+        return (pClassData == null) ? -1 : pIndexes.get(pClassData);
+    }
+    
+    static private void WriteString(
+            final DataOutput pOutput,
+            final String     pString)
+            throws IOException {
+        if (pString == null) {
+            pOutput.writeInt(-1);
+            return;
+        }
+        WriteBytes(pOutput, pString.getBytes(UTF8));
+    }
+    static private void WriteBytes(
+            final DataOutput pOutput,
+            final byte[]     pBytes)
+            throws IOException {
+        pOutput.writeInt(pBytes.length);
+        pOutput.write(pBytes);
+    }
+    
+    /**
+     * Decodes the ClassData - no length in the data may be more than the limit (the length of the data if known). The
+     *   byte code is sliced from the buffer (the one the input reads from) if given.
+     * 
+     * The counts and the lengths are bounded by the bytes they need in the limit and the arrays of them grow as the
+     *   data is read, so a corrupted count fails with StreamCorruptedException (or EOFException) rather than
+     *   allocating the memory it claims.
+     **/
+    static private ClassData Decode(
+            final DataInput             pInput,
+            final int                   pLimit,
+            final ByteBufferInputStream pBuffer)
+            throws IOException {
+        final int aMagic = pInput.readShort() & 0xFFFF;
+        if (aMagic != MAGIC)
+            throw new StreamCorruptedException(String.format(INVALID_DATA, "no magic"));
+        
+        final int aVersion = pInput.readByte();
+        if (aVersion != VERSION)
+            throw new StreamCorruptedException(String.format(INVALID_DATA, "unknown version " + aVersion));
+        
+        final int aCount = ReadLength(pInput, pLimit / MIN_ENTRY_SIZE);
+        if (aCount == 0)
+            throw new StreamCorruptedException(String.format(INVALID_DATA, "no class"));
+        
+        final int                  aInitial    = Math.min(aCount, INITIAL_SIZE / MIN_ENTRY_SIZE);
+        final ArrayList<ClassData> aClassDatas = new ArrayList<ClassData>(aInitial);
+        final ArrayList<int[]>     aLinks      = new ArrayList<int[]>(aInitial);
+        for (int i = 0; i < aCount; i++) {
+            final String     aName  = ReadString(pInput, pLimit);
+            final String     aPath  = ReadString(pInput, pLimit);
+            final ByteBuffer aSlice = (pBuffer != null) ? ReadSlice(pInput, pLimit, pBuffer, aClassDatas, i) : null;
+            final byte[]     aBytes = (pBuffer == null) ? ReadBytes(pInput, pLimit, aClassDatas, i)          : null;
+            final String     aCode  = ReadString(pInput, pLimit);
+            if (aName == null)
+                throw new StreamCorruptedException(String.format(INVALID_DATA, "no name"));
+            
+            // The enclosing index followed by the enclosed indexes
+            final int   aEnclosing     = pInput.readInt();
+            final int   aEnclosedCount = ReadLength(pInput, pLimit / 4);
+            final int[] aLink          = ReadLink(pInput, aEnclosing, aEnclosedCount);
+            
+            final ClassData aClassData = (aSlice != null)
+                                       ? new ClassData(aName, aPath, aSlice, aCode)
+                                       : new ClassData(aName, aPath, ClassData.getNonNullByteArray(aBytes), aCode);
+            aClassDatas.add(aClassData);
+            aLinks.add(aLink);
+        }
+        
+        for (int i = 0; i < aCount; i++) {
+            final int[]       aLink     = aLinks.get(i);
+            final ClassData[] aEnclosed = (aLink.length == 1)
+                                        ? ClassData.EMPTY_ARRAY_CLASSDATA
+                                        : new ClassData[aLink.length - 1];
+            for (int e = 1; e < aLink.length; e++)
+                aEnclosed[e - 1] = ClassDataAt(aClassDatas, aLink[e]);
+            
+            aClassDatas.get(i).setEnclosures(ClassDataAt(aClassDatas, aLink[0]), aEnclosed);
+        }
+        return aClassDatas.get(0);
+    }
+    
+    static private ClassData ClassDataAt(
+            final List<ClassData> pClassDatas,
+            final int             pIndex)
+            throws IOException {
+        if (pIndex == -1)
+            return null;
+        if ((pIndex < 0) || (pIndex >= pClassDatas.size()))
+            throw new StreamCorruptedException(String.format(INVALID_DATA, "index out of range " + pIndex));
+        
+        return pClassDatas.get(pIndex);
+    }
+    
+    /** Reads the enclosed indexes (after the enclosing index) - the count is not trusted for the array size */
+    static private int[] ReadLink(
+            final DataInput pInput,
+            final int       pEnclosing,
+            final int       pEnclosedCount)
+            throws IOException {
+        final long aLength = (long)pEnclosedCount + 1;
+        int[]      aLink   = new int[(int)Math.min(aLength, INITIAL_SIZE / 4)];
+        aLink[0] = pEnclosing;
+        for (int e = 1; e < aLength; e++) {
+            if (e == aLink.length)
+                aLink = Arrays.copyOf(aLink, (int)Math.min(aLength, 2L * aLink.length));
+            aLink[e] = pInput.readInt();
+        }
+        return aLink;
+    }
+    /** Reads the bytes - the length is not trusted for the array size */
+    static private byte[] ReadFully(
+            final DataInput pInput,
+            final int       pLength)
+            throws IOException {
+        byte[] aBytes = new byte[Math.min(pLength, INITIAL_SIZE)];
+        int    aRead  = 0;
+        while (true) {
+            pInput.readFully(aBytes, aRead, aBytes.length - aRead);
+            aRead = aBytes.length;
+            if (aRead == pLength)
+                return aBytes;
+            
+            aBytes = Arrays.copyOf(aBytes, (int)Math.min(pLength, 2L * aBytes.length));
+        }
+    }
+    
+    static private int ReadLength(
+            final DataInput pInput,
+            final int       pLimit)
+            throws IOException {
+        final int aLength = pInput.readInt();
+        if ((aLength < 0) || (aLength > pLimit))
+            throw new StreamCorruptedException(String.format(INVALID_DATA, "invalid length " + aLength));
+        
+        return aLength;
+    }
+    static private String ReadString(
+            final DataInput pInput,
+            final int       pLimit)
+            throws IOException {
+        final int aLength = pInput.readInt();
+        if (aLength == -1)
+            return null;
+        if ((aLength < 0) || (aLength > pLimit))
+            throw new StreamCorruptedException(String.format(INVALID_DATA, "invalid length " + aLength));
+        
+        final byte[] aBytes = ReadFully(pInput, aLength);
+        return new String(aBytes, UTF8);
+    }
+    static private ByteBuffer ReadSlice(
+            final DataInput             pInput,
+            final int                   pLimit,
+            final ByteBufferInputStream pBuffer,
+            final List<ClassData>       pClassDatas,
+            final int                   pIndex)
+            throws IOException {
+        final int aLength = pInput.readInt();
+        if (aLength < -1) {
+            // The byte code of an entry before
+            final int aIndex = -2 - aLength;
+            if (aIndex >= pIndex)
+                throw new StreamCorruptedException(String.format(INVALID_DATA, "index out of range " + aIndex));
+            
+            return pClassDatas.get(aIndex).getByteBuffer();
+        }
+        if ((aLength < 0) || (aLength > pLimit))
+            throw new StreamCorruptedException(String.format(INVALID_DATA, "invalid length " + aLength));
+        
+        return pBuffer.slice(aLength);
+    }
+    static private byte[] ReadBytes(
+            final DataInput   pInput,
+            final int         pLimit,
+            final List<ClassData> pClassDatas,
+            final int             pIndex)
+            throws IOException {
+        final int aLength = pInput.readInt();
+        if (aLength < -1) {
+            // The byte code of an entry before
+            final int aIndex = -2 - aLength;
+            if (aIndex >= pIndex)
+                throw new StreamCorruptedException(String.format(INVALID_DATA, "index out of range " + aIndex));
+            
+            return pClassDatas.get(aIndex).getRawBytes();
+        }
+        if ((aLength < 0) || (aLength > pLimit))
+            throw new StreamCorruptedException(String.format(INVALID_DATA, "invalid length " + aLength));
+        
+        final byte[] aBytes = ReadFully(pInput, aLength);
+        return aBytes;
+    }
+
+}
@@ -0,0 +1,150 @@
+package net.nawaman.javacompiler;
+
+import java.util.*;
+
+/**
+ * The ClassData read from a JCO stream (see JavaCompilerObjectInputStream) - indexed by the name of their top-level
+ *   classes and only added to the JavaCompiler when one of their classes is resolved.
+ *
+ * The exact name of each class (the top-level one and each of its nested ones) is mapped to the name of its top-level
+ *   class so a nested class is found even when a top-level class has '$' in its name.
+ *
+ * A ClassData is added with the ClassData of the classes its byte code (or the byte code of its nested classes) may
+ *   refer to (see ClassReferences) so the classes needed to define its classes are there too. The ClassData of the
+ *   classes that are never resolved are never added.
+ **/
+final class ClassDataIndex {
+    
+    ClassDataIndex(final JavaCompiler pJavaCompiler) {
+        this.javaCompiler = pJavaCompiler;
+    }
+    
+    final private JavaCompiler               javaCompiler;
+    final private HashMap<String, ClassData> pendingClassDatas = new HashMap<String, ClassData>();
+    final private HashMap<String, String>    topLevelNames     = new HashMap<String, String>();
+    final private HashSet<String>            addedNames        = new HashSet<String>();
+    
+    /** Indexes the ClassData of a top-level class (with its nested classes) - the ones of the same name are ignored */
+    void index(final ClassData pClassData) {
+        final String aName = ClassNameOf(pClassData);
+        if (this.addedNames.contains(aName) || this.pendingClassDatas.containsKey(aName))
+            return;
+        
+        this.pendingClassDatas.put(aName, pClassData);
+        this.mapNames(pClassData, aName);
+    }
+    
+    /** Adds the ClassData of the class (and the ones it needs) if it is not added yet */
+    void ensure(final String pClassName) {
+        final String aName = this.pendingNameOf(ElementNameOf(pClassName));
+        if (aName == null)
+            return;
+        
+        final ArrayDeque<String> aNames = new ArrayDeque<String>();
+        aNames.add(aName);
+        while (!aNames.isEmpty()) {
+            final String    UName      = aNames.poll();
+            final ClassData aClassData = this.pendingClassDatas.remove(UName);
+            if (aClassData == null)
+                continue;
+            
+            this.addedNames.add(UName);
+            this.unmapNames(aClassData, UName);
+            this.javaCompiler.addClassData(aClassData);
+            this.addReferences(aClassData, aNames);
+        }
+    }
+    /** Adds all the ClassData not added yet */
+    void ensureAll() {
+        for (final String aName : new ArrayList<String>(this.pendingClassDatas.keySet()))
+            this.ensure(aName);
+    }
+    
+    /** Returns the number of the ClassData not added yet */
+    int getPendingCount() {
+        return this.pendingClassDatas.size();
+    }
+    
+    // Privates --------------------------------------------------------------------------------------------------------
+    
+    /**
+     * Returns the name of the pending top-level class of the class or null if it is not pending - a class that is not
+     *   a member class (e.g. 'A$1') is of the top-level class of the closest enclosing class mapped.
+     **/
+    private String pendingNameOf(final String pClassName) {
+        String aClassName = pClassName;
+        while (true) {
+            final String aName = this.topLevelNames.get(aClassName);
+            if (aName != null)
+                return aName;
+            
+            final int     aIndex       = aClassName.lastIndexOf('$');
+            final boolean aIsNotMember = (aIndex > 0) && (aIndex < (aClassName.length() - 1))
+                                      && Character.isDigit(aClassName.charAt(aIndex + 1));
+            if (!aIsNotMember)
+                return null;
+            
+            aClassName = aClassName.substring(0, aIndex);
+        }
+    }
+    
+    /** Maps the names of the class and its nested classes to the name of their top-level class */
+    private void mapNames(
+            final ClassData pClassData,
+            final String    pTopLevelName) {
+        if (pClassData == null)
+            return;
+        
+        this.topLevelNames.putIfAbsent(ClassNameOf(pClassData), pTopLevelName);
+        for (int i = 0; i < pClassData.getEnclosedClassDataCount(); i++)
+            this.mapNames(pClassData.getEnclosedClassData(i), pTopLevelName);
+    }
+    /** Removes the names of the class and its nested classes mapped to the name of their top-level class */
+    private void unmapNames(
+            final ClassData pClassData,
+            final String    pTopLevelName) {
+        if (pClassData == null)
+            return;
+        
+        this.topLevelNames.remove(ClassNameOf(pClassData), pTopLevelName);
+        for (int i = 0; i < pClassData.getEnclosedClassDataCount(); i++)
+            this.unmapNames(pClassData.getEnclosedClassData(i), pTopLevelName);
+    }
+    
+    /** Queues the pending top-level classes the ClassData (and its nested ClassData) refers to */
+    private void addReferences(
+            final ClassData          pClassData,
+            final ArrayDeque<String> pNames) {
+        if (pClassData == null)
+            return;
+        
+        for (final String RName : ClassReferences.Of(pClassData.getByteBuffer())) {
+            final String aName = this.pendingNameOf(RName);
+            if (aName != null)
+                pNames.add(aName);
+        }
+        for (int i = 0; i < pClassData.getEnclosedClassDataCount(); i++)
+            this.addReferences(pClassData.getEnclosedClassData(i), pNames);
+    }
+    
+    /** Returns the class name of the ClassData (its name is the name of the class file) */
+    static private String ClassNameOf(final ClassData pClassData) {
+        final String aName = pClassData.getName();
+        return aName.endsWith(MemoryFileManager.CLASS_FILE_SUFFIX)
+                ? aName.substring(0, aName.length() - MemoryFileManager.CLASS_FILE_SUFFIX_LENGTH)
+                : aName;
+    }
+    
+    /** Returns the name of the element class of an array class (e.g. '[[Lp.A;' to 'p.A') or the name itself */
+    static private String ElementNameOf(final String pClassName) {
+        int aStart = 0;
+        while ((aStart < pClassName.length()) && (pClassName.charAt(aStart) == '['))
+            aStart++;
+        if (aStart == 0)
+            return pClassName;
+        
+        final boolean aIsObject = pClassName.startsWith("L", aStart) && pClassName.endsWith(";");
+        return aIsObject ? pClassName.substring(aStart + 1, pClassName.length() - 1) : pClassName;
+    }
+
+}
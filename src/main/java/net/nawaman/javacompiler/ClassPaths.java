@@ -4,6 +4,7 @@ import java.io.*;
 import java.net.*;
 import java.security.*;
 import java.util.*;
+import java.util.concurrent.*;
 
 /**
  * Manage classpaths for the Compiler.
@@ -12,21 +13,57 @@ import java.util.*;
  **/
 final class ClassPaths {
     
-    static private final String CLASSPATH_NOTFOUND_OR_INVALID =
+    static final String CLASSPATH_NOTFOUND_OR_INVALID =
                 "The give class path URL is not found or mal-formed: %s.";
     
-    static private final String CLASSPATH_JAR_FILE_NOTFOUND = "The give jar file is not found.";
+    static final String CLASSPATH_JAR_FILE_NOTFOUND = "The give jar file is not found.";
+    
+    static private final int MAX_CACHED_URL_COUNT = 1024;
+    
+    // The URLs of the classpath paths already made (making one normalizes '~' and '..' which is not cheap)
+    static private final ConcurrentHashMap<String, URL> ClasspathURLs = new ConcurrentHashMap<String, URL>();
     
     ClassPaths(final JCompiler pJCompiler) {
-        this.jcompiler  = pJCompiler;
-        this.classPaths = System.getProperty("java.class.path") + File.pathSeparator + ".";
+        final ClassLoader aParent = pJCompiler.getParent();
+        this.jcompiler = pJCompiler;
+        this.base      = (aParent instanceof JCompiler)
+                       ? ((JCompiler)aParent).getClassPaths().getEntries()
+                       : ClasspathEntries.Default;
+        this.entries   = this.base;
     }
     
     private JCompiler jcompiler;
-    private String    classPaths;
+    
+    // The entries not from the URLs of the JCompiler (the application classpaths) and all the entries
+    private          ClasspathEntries base;
+    private volatile ClasspathEntries entries;
+    
+    // The state fingerprint and the entries it is of (see getClasspathStateFingerprint())
+    private ClasspathEntries stateEntries     = null;
+    private String           stateFingerprint = null;
     
     public String getClasspaths() {
-        return this.classPaths;
+        return this.entries.getClasspath();
+    }
+    /** Returns the classpath entries */
+    ClasspathEntries getEntries() {
+        return this.entries;
+    }
+    /** Returns the fingerprint of the classpath entries */
+    String getClasspathFingerprint() {
+        return this.entries.getFingerprint();
+    }
+    /**
+     * Returns the fingerprint of the classpath entries and the states of their files (see
+     *   ClasspathEntries.getStateFingerprint()) - computed once for the entries.
+     **/
+    synchronized String getClasspathStateFingerprint() {
+        final ClasspathEntries aEntries = this.entries;
+        if (aEntries != this.stateEntries) {
+            this.stateFingerprint = aEntries.getStateFingerprint();
+            this.stateEntries     = aEntries;
+        }
+        return this.stateFingerprint;
     }
     
     /** Add a jar file as class path into the ClassLoader */
@@ -42,109 +79,8 @@ final class ClassPaths {
             final String  pUrlPath,
             final boolean pIsRemove) {
         try {        
-            String aUrlPath = pUrlPath.trim();
-            
-            if(aUrlPath.startsWith("file:/") && !aUrlPath.startsWith("file://"))
-                aUrlPath = "file:///" + aUrlPath.substring("file:/".length());
-            
-            if(!aUrlPath.contains("://"))
-                aUrlPath = "file://" + (new File(aUrlPath)).getAbsolutePath().toString();
-            
-            if(aUrlPath.contains("~") || aUrlPath.contains("..")) {
-                aUrlPath = RemovePrefix("jar:",    aUrlPath);
-                aUrlPath = RemovePrefix("file://", aUrlPath);
-                
-                aUrlPath = (new File(aUrlPath)).getAbsolutePath();
-                String[] Paths = aUrlPath.split(((File.separatorChar == '\\') ? "\\\\" : File.separator));
-                if((Paths != null) && (Paths.length != 0)) {
-                    Vector<String> VPaths = new Vector<String>();
-                    
-                    for(int i = 0; i < Paths.length; i++) {
-                        final String aPath = Paths[i];
-                        if (aPath.length() == 1) {
-                            final char C = aPath.charAt(0);
-                            if (C == '.')
-                                continue;
-                            if (C == '~') {
-                                VPaths.clear();
-                                VPaths.add(System.getProperty("user.home"));
-                                continue;
-                            }
-                        }
-                        if (aPath.equals("..")) {
-                            if(VPaths.size() > 0)
-                                VPaths.remove(VPaths.size() - 1);
-                            continue;
-                        }
-                        VPaths.add(aPath);
-                    }
-                    StringBuffer SB = new StringBuffer();
-                    for(int i = 0; i < VPaths.size(); i++) {
-                        SB.append(VPaths.get(i));
-                        SB.append(File.separator);
-                    }
-                    aUrlPath = SB.toString();
-                    while(aUrlPath.startsWith(File.separator + File.separator)) aUrlPath = aUrlPath.substring(1);
-                    if(!aUrlPath.startsWith(File.separator)) aUrlPath = File.separator + aUrlPath; 
-                    aUrlPath = "file://" + aUrlPath; 
-                }
-            }
-            
-            if(aUrlPath.endsWith(".jar"))  aUrlPath += "!/";
-            aUrlPath = EnsureSuffix("/", aUrlPath);
-            if(aUrlPath.endsWith(".jar!/") && !aUrlPath.startsWith("jar:")) {
-                if(!aUrlPath.contains("://")) aUrlPath = "file://" + (new File(aUrlPath)).getAbsolutePath().toString();
-                aUrlPath = "jar:" + aUrlPath;
-            }
-            
-            final URL url = new URL(aUrlPath);
-            
-            JCompiler TheJC     = this.jcompiler;
-            boolean   IsRemoved = false;
-            // Create a new one if needed (if the compiler has been used to compile something,
-            //   the new should be used instead)
-            if(this.jcompiler.hasCompiled() || pIsRemove) {    // Create a new one if needed
-                TheJC = AccessController.doPrivileged(new PrivilegedAction<JCompiler>() {
-                    public JCompiler run() {
-                        return new JCompiler(jcompiler);
-                    }
-                });
-                // Copy
-                final URL[] Us = this.jcompiler.getURLs();
-                if (Us != null) {
-                    for (int i = 0; i < Us.length; i++) {
-                        URL aURL = Us[i];
-                        if (aURL == null)
-                            continue;
-                        
-                        if (this.compareURLs(aURL, url)) {
-                            if(pIsRemove) {
-                                IsRemoved = true;
-                                // Just skip this URL
-                                continue;
-                            } else {
-                             // Already added so, no need to do anything
-                                return this.jcompiler;
-                            }
-                        }
-                        this.addClasspathURL(Us[i].toString());
-                    }
-                }
-            }
-            if(pIsRemove) return IsRemoved ? TheJC : this.jcompiler;
-            TheJC.addURL(url);
-            
-            String Path = url.getPath();
-            if(Path.endsWith(  ".jar!/"))
-                Path = Path.substring(0, Path.length() - "!/".length());
-            
-            Path = RemovePrefix("jar:",  Path);
-            Path = RemovePrefix("file:", Path);
-            
-            this.classPaths += java.io.File.pathSeparator;
-            this.classPaths += Path;
-            
-            return TheJC;
+            final URL url = NewClasspathURL(pUrlPath);
+            return this.changeURLs(Collections.singletonList(new Change(url, pIsRemove)));
         } catch(MalformedURLException MUE) {
             throw new RuntimeException(
                     new FileNotFoundException(
@@ -182,71 +118,201 @@ final class ClassPaths {
             final String  pPath,
             final boolean pIsRemove) {
         try {
-            String aPath = pPath;
-            
-            aPath = EnsurePrefix("file:", aPath, "file://");
-            aPath = EnsurePrefix("jar:" , aPath);
-            aPath = EnsureSuffix("!/"   , aPath);
+            final URL aURLPath = NewJarURL(pPath);
+            return this.changeURLs(Collections.singletonList(new Change(aURLPath, pIsRemove)));
+        } catch(MalformedURLException MUE) {
+            throw new RuntimeException(new FileNotFoundException(CLASSPATH_JAR_FILE_NOTFOUND));
+        }
+    }
+    
+    /** Adds the URL to the JCompiler and its path to the classpaths */
+    void addURL(final URL pURL) {
+        this.addURLs(Collections.singletonList(pURL));
+    }
+    /** Adds the URLs to the JCompiler and their paths to the classpaths */
+    void addURLs(final Collection<URL> pURLs) {
+        final Vector<String> aPaths = new Vector<String>();
+        for (final URL aURL : pURLs) {
+            this.jcompiler.addURL(aURL);
+            aPaths.add(ClasspathEntries.Normalize(GetPath(aURL)));
+        }
+        this.entries = this.entries.add(aPaths);
+        
+        // The jar files are indexed so javac does not have to scan them (see MemoryFileManager.list(...)).
+        PackageIndex.Instance.addAll(aPaths);
+    }
+    
+    // Batch -----------------------------------------------------------------------------------------------------------
+    
+    /** A classpath change of a batch */
+    static final class Change {
+        Change(
+                final URL     pURL,
+                final boolean pIsRemove) {
+            this.url      = pURL;
+            this.isRemove = pIsRemove;
+        }
+        
+        final URL     url;
+        final boolean isRemove;
+    }
+    
+    /**
+     * Applies the changes (in order) at once and returns the JCompiler with the resulting classpaths.
+     * 
+     * The same JCompiler is returned if the changes make no difference. At most one new JCompiler is created - only if
+     *   the JCompiler has compiled or a classpath is removed (just like the changes done one by one).
+     **/
+    JCompiler changeURLs(final Collection<Change> pChanges) {
+        final URL[]       aCurrentURLs = this.jcompiler.getURLs();
+        final Vector<URL> aURLs        = new Vector<URL>(Arrays.asList(aCurrentURLs));
+        for (final Change aChange : pChanges) {
+            final int aIndex = this.indexOfURL(aURLs, aChange.url);
+            if (aChange.isRemove) {
+                if (aIndex != -1)
+                    aURLs.remove(aIndex);
+            } else if (aIndex == -1)
+                aURLs.add(aChange.url);
+        }
+        
+        boolean aIsRemoved = false;
+        for (final URL aURL : aCurrentURLs)
+            aIsRemoved |= (this.indexOfURL(aURLs, aURL) == -1);
+        
+        final List<URL> aCurrentURLList = Arrays.asList(aCurrentURLs);
+        final List<URL> aAddedURLs      = new Vector<URL>();
+        for (final URL aURL : aURLs) {
+            if (this.indexOfURL(aCurrentURLList, aURL) == -1)
+                aAddedURLs.add(aURL);
+        }
+        if (!aIsRemoved && aAddedURLs.isEmpty())
+            return this.jcompiler;
+        
+        if (!aIsRemoved && !this.jcompiler.hasCompiled()) {
+            this.addURLs(aAddedURLs);
+            return this.jcompiler;
+        }
+        
+        // The new JCompiler has all the URLs so its classpaths are the base ones and the URLs (no removed ones).
+        final JCompiler TheJC = AccessController.doPrivileged(new PrivilegedAction<JCompiler>() {
+            public JCompiler run() {
+                return new JCompiler(jcompiler);
+            }
+        });
+        final ClassPaths aClassPaths = TheJC.getClassPaths();
+        aClassPaths.base    = this.base;
+        aClassPaths.entries = this.base;
+        aClassPaths.addURLs(aURLs);
+        return TheJC;
+    }
+    private int indexOfURL(
+            final List<URL> pURLs,
+            final URL       pURL) {
+        for (int i = 0; i < pURLs.size(); i++) {
+            if (this.compareURLs(pURLs.get(i), pURL))
+                return i;
+        }
+        return -1;
+    }
+    
+    // URLs ------------------------------------------------------------------------------------------------------------
+    
+    /** Creates the URL of the classpath (a directory or a jar file) */
+    static URL NewClasspathURL(final String pUrlPath) throws MalformedURLException {
+        URL aURL = ClasspathURLs.get(pUrlPath);
+        if (aURL == null) {
+            aURL = MakeClasspathURL(pUrlPath);
+            if (ClasspathURLs.size() >= MAX_CACHED_URL_COUNT)
+                ClasspathURLs.clear();
+            ClasspathURLs.put(pUrlPath, aURL);
+        }
+        return aURL;
+    }
+    static private URL MakeClasspathURL(final String pUrlPath) throws MalformedURLException {
+        String aUrlPath = pUrlPath.trim();
+        
+        if(aUrlPath.startsWith("file:/") && !aUrlPath.startsWith("file://"))
+            aUrlPath = "file:///" + aUrlPath.substring("file:/".length());
+        
+        if(!aUrlPath.contains("://"))
+            aUrlPath = "file://" + (new File(aUrlPath)).getAbsolutePath().toString();
+        
+        if(aUrlPath.contains("~") || aUrlPath.contains("..")) {
+            aUrlPath = RemovePrefix("jar:",    aUrlPath);
+            aUrlPath = RemovePrefix("file://", aUrlPath);
             
-            final URL aURLPath  = new URL(aPath);
-            JCompiler TheJC     = this.jcompiler;
-            boolean   IsRemoved = false;
-            // Create a new one if needed (it the compiler has been used to compile something,
-            //   the one should be used instead)
-            if(this.jcompiler.hasCompiled()) {
-                TheJC = AccessController.doPrivileged(new PrivilegedAction<JCompiler>() {
-                    public JCompiler run() {
-                        final JCompiler aJCompiler = new JCompiler(jcompiler);
-                        return aJCompiler;
-                    }
-                });
+            aUrlPath = (new File(aUrlPath)).getAbsolutePath();
+            String[] Paths = aUrlPath.split(((File.separatorChar == '\\') ? "\\\\" : File.separator));
+            if((Paths != null) && (Paths.length != 0)) {
+                Vector<String> VPaths = new Vector<String>();
                 
-                final URL[] Us = this.jcompiler.getURLs();
-                if (Us != null) {
-                    for (int i = 0; i < Us.length; i++) {
-                        final URL aURL = Us[i];
-                        if (aURL == null)
+                for(int i = 0; i < Paths.length; i++) {
+                    final String aPath = Paths[i];
+                    if (aPath.length() == 1) {
+                        final char C = aPath.charAt(0);
+                        if (C == '.')
+                            continue;
+                        if (C == '~') {
+                            VPaths.clear();
+                            VPaths.add(System.getProperty("user.home"));
                             continue;
-                        
-                        final boolean IsURLEquals = this.compareURLs(aURL, aURLPath);
-                        if (IsURLEquals) {
-                            if (pIsRemove) {
-                                IsRemoved = true;
-                                // Just skip this URL
-                                continue;
-                            } else {
-                                // Already added so, no need to do anything
-                                return this.jcompiler;
-                            }
                         }
-                        final String aURLString = aURL.toString();
-                        this.addClasspathURL(aURLString);
                     }
+                    if (aPath.equals("..")) {
+                        if(VPaths.size() > 0)
+                            VPaths.remove(VPaths.size() - 1);
+                        continue;
+                    }
+                    VPaths.add(aPath);
                 }
-                
-                if(pIsRemove) {
-                    return IsRemoved
-                            ? TheJC
-                            : this.jcompiler;
+                StringBuffer SB = new StringBuffer();
+                for(int i = 0; i < VPaths.size(); i++) {
+                    SB.append(VPaths.get(i));
+                    SB.append(File.separator);
                 }
+                aUrlPath = SB.toString();
+                while(aUrlPath.startsWith(File.separator + File.separator)) aUrlPath = aUrlPath.substring(1);
+                if(!aUrlPath.startsWith(File.separator)) aUrlPath = File.separator + aUrlPath; 
+                aUrlPath = "file://" + aUrlPath; 
             }
-            
-            TheJC.addURL(aURLPath);
-            
-            String Path = aURLPath.getPath();
-            if(Path.endsWith(".jar!/")) Path = Path.substring(0, Path.length() - "!/".length());
-            this.classPaths += java.io.File.pathSeparator;
-            this.classPaths += Path;
-            
-            return TheJC;
-            
-        } catch(MalformedURLException MUE) {
-            throw new RuntimeException(new FileNotFoundException(CLASSPATH_JAR_FILE_NOTFOUND));
         }
+        
+        if(aUrlPath.endsWith(".jar"))  aUrlPath += "!/";
+        aUrlPath = EnsureSuffix("/", aUrlPath);
+        if(aUrlPath.endsWith(".jar!/") && !aUrlPath.startsWith("jar:")) {
+            if(!aUrlPath.contains("://")) aUrlPath = "file://" + (new File(aUrlPath)).getAbsolutePath().toString();
+            aUrlPath = "jar:" + aUrlPath;
+        }
+        
+        final URL aURL = new URL(aUrlPath);
+        return aURL;
+    }
+    
+    /** Creates the URL of the jar file */
+    static URL NewJarURL(final String pPath) throws MalformedURLException {
+        String aPath = pPath;
+        
+        aPath = EnsurePrefix("file:", aPath, "file://");
+        aPath = EnsurePrefix("jar:" , aPath);
+        aPath = EnsureSuffix("!/"   , aPath);
+        
+        final URL aURL = new URL(aPath);
+        return aURL;
     }
     
     // Private -------------------------------------------------------------------------------------
     
+    /** Returns the path of the URL for the classpath string */
+    static private String GetPath(final URL pURL) {
+        String Path = pURL.getPath();
+        if(Path.endsWith(  ".jar!/"))
+            Path = Path.substring(0, Path.length() - "!/".length());
+        
+        Path = RemovePrefix("jar:",  Path);
+        Path = RemovePrefix("file:", Path);
+        return Path;
+    }
+    
     static private String EnsurePrefix(
             final String pPrefix,
             final String pString) {
@@ -0,0 +1,98 @@
+package net.nawaman.javacompiler;
+
+import java.nio.*;
+import java.nio.charset.*;
+import java.util.*;
+
+/**
+ * Finds the classes a class file may refer to from the names in its constant pool.
+ *
+ * The class names (e.g. 'p/Outer$Inner'), the descriptors and the signatures are all UTF-8 constants so the names of
+ *   the top-level classes (e.g. 'p.Outer') are taken from every such constant. As '$' may be in a top-level name too,
+ *   a name is taken with each of its parts before a '$' (e.g. 'p.Outer$Inner' and 'p.Outer'). Any other constant that
+ *   looks like a class name (a string literal, for example) is taken as well - a class may be thought to be referred
+ *   to but a class referred to is never missed.
+ **/
+final class ClassReferences {
+    
+    static private final int MAGIC = 0xCAFEBABE;
+    
+    static private final String DELIMITERS = ";<>()[:*+-^.";
+    
+    private ClassReferences() {}
+    
+    /** Returns the binary names of the top-level classes the byte code may refer to (empty if it cannot be read) */
+    static Set<String> Of(final ByteBuffer pByteCode) {
+        final HashSet<String> aNames = new HashSet<String>();
+        try {
+            final ByteBuffer aBuffer = pByteCode.duplicate();
+            if (aBuffer.getInt() != MAGIC)
+                return Collections.emptySet();
+            
+            aBuffer.getShort();    // Minor version
+            aBuffer.getShort();    // Major version
+            final int aCount = aBuffer.getShort() & 0xFFFF;
+            for (int i = 1; i < aCount; i++) {
+                final int aTag = aBuffer.get();
+                switch (aTag) {
+                    case 1: {    // Utf8
+                        final byte[] aBytes = new byte[aBuffer.getShort() & 0xFFFF];
+                        aBuffer.get(aBytes);
+                        AddNames(aNames, new String(aBytes, StandardCharsets.UTF_8));
+                        break;
+                    }
+                    case 7: case 8: case 16: case 19: case 20:
+                        Skip(aBuffer, 2);
+                        break;
+                    case 15:
+                        Skip(aBuffer, 3);
+                        break;
+                    case 3: case 4: case 9: case 10: case 11: case 12: case 17: case 18:
+                        Skip(aBuffer, 4);
+                        break;
+                    case 5: case 6:
+                        // Long and Double take two entries.
+                        Skip(aBuffer, 8);
+                        i++;
+                        break;
+                    default:
+                        return Collections.emptySet();
+                }
+            }
+        } catch (BufferUnderflowException | IllegalArgumentException E) {
+            return Collections.emptySet();
+        }
+        return Collections.unmodifiableSet(aNames);
+    }
+    
+    // Privates --------------------------------------------------------------------------------------------------------
+    
+    static private void Skip(
+            final ByteBuffer pBuffer,
+            final int        pLength) {
+        pBuffer.position(pBuffer.position() + pLength);
+    }
+    
+    /** Adds the top-level class names of the parts of the name, descriptor or signature */
+    static private void AddNames(
+            final Set<String> pNames,
+            final String      pConstant) {
+        final StringTokenizer aTokens = new StringTokenizer(pConstant, DELIMITERS);
+        while (aTokens.hasMoreTokens()) {
+            final String aToken = aTokens.nextToken();
+            AddName(pNames, aToken);
+            // An object type in a descriptor (e.g. 'Lp/Outer') or a type variable (e.g. 'TT').
+            if ((aToken.length() > 1) && ((aToken.charAt(0) == 'L') || (aToken.charAt(0) == 'T')))
+                AddName(pNames, aToken.substring(1));
+        }
+    }
+    static private void AddName(
+            final Set<String> pNames,
+            final String      pInternalName) {
+        final String aName = pInternalName.replace('/', '.');
+        pNames.add(aName);
+        for (int i = aName.indexOf('$', 1); i > 0; i = aName.indexOf('$', i + 1))
+            pNames.add(aName.substring(0, i));
+    }
+
+}
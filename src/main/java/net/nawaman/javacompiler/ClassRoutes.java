@@ -0,0 +1,79 @@
+package net.nawaman.javacompiler;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * The routes from the names of the compiled classes (and the codes) to the JCompilers holding them.
+ *
+ * A classpath change after a compilation creates a new JCompiler whose parent is the previous one. All the JCompilers
+ *   of such a chain share the routes so a class compiled by any of them is found without walking up the chain. As the
+ *   parent JCompiler is asked first when loading a class, the route to the oldest JCompiler (the one closest to the
+ *   root) is kept when more than one JCompiler has the same class.
+ *
+ * The routes are read without locking. A route is only used by a JCompiler if the JCompiler of the route is the
+ *   JCompiler itself or one of its parents (see JCompiler.isInChain(...)) - a JCompiler falls back to walking up the
+ *   chain otherwise.
+ **/
+final class ClassRoutes {
+    
+    /** A route to a JCompiler (and the class file object) */
+    static final class Route {
+        Route(
+                final JCompiler                 pJCompiler,
+                final JavaClassMemoryFileObject pJCMFO) {
+            this.jcompiler = pJCompiler;
+            this.jcmfo     = pJCMFO;
+        }
+        
+        final JCompiler                 jcompiler;
+        final JavaClassMemoryFileObject jcmfo;
+    }
+    
+    final private ConcurrentHashMap<String, Route> classes    = new ConcurrentHashMap<String, Route>();
+    final private ConcurrentHashMap<String, Route> codes      = new ConcurrentHashMap<String, Route>();
+    final private AtomicLong                       generation = new AtomicLong();
+    
+    /** Returns the route to the class or null if no JCompiler of the chain has the class */
+    Route getClassRoute(final String pClassName) {
+        return this.classes.get(pClassName);
+    }
+    /** Returns the route to the code or null if no JCompiler of the chain has compiled the code */
+    Route getCodeRoute(final String pCodeName) {
+        return this.codes.get(pCodeName);
+    }
+    
+    /** Adds the route to the class of the JCompiler */
+    void addClass(
+            final String                    pClassName,
+            final JCompiler                 pJCompiler,
+            final JavaClassMemoryFileObject pJCMFO) {
+        this.classes.merge(pClassName, new Route(pJCompiler, pJCMFO), ClassRoutes::Select);
+        this.generation.incrementAndGet();
+    }
+    /** Adds the route to the code compiled by the JCompiler */
+    void addCode(
+            final String    pCodeName,
+            final JCompiler pJCompiler) {
+        this.codes.merge(pCodeName, new Route(pJCompiler, null), ClassRoutes::Select);
+    }
+    
+    /** Returns the generation of the chain - it changes every time classes or classpaths are added to the chain */
+    long getGeneration() {
+        return this.generation.get();
+    }
+    /** Changes the generation (for the changes not known to the routes) */
+    void newGeneration() {
+        this.generation.incrementAndGet();
+    }
+    
+    // Privates --------------------------------------------------------------------------------------------------------
+    
+    /** Selects the route to the older JCompiler - the newer route of the same JCompiler replaces the old one */
+    static private Route Select(
+            final Route pOldRoute,
+            final Route pNewRoute) {
+        return (pNewRoute.jcompiler.getChainDepth() <= pOldRoute.jcompiler.getChainDepth()) ? pNewRoute : pOldRoute;
+    }
+
+}
@@ -0,0 +1,160 @@
+package net.nawaman.javacompiler;
+
+import java.io.*;
+import java.nio.file.*;
+import java.security.*;
+import java.util.*;
+import java.util.stream.*;
+
+/**
+ * An ordered set of classpath entries (the paths of the directories and the jar files).
+ *
+ * The entries are normalized (absolute without '.' and '..') so the same directory or jar file is only in the set
+ *   once. The set is immutable - adding entries returns a new set. The fingerprint of the set is stable (the same for
+ *   the same entries in the same order, even in another process) and is updated incrementally - each entry is hashed
+ *   together with the fingerprint of the entries before it. The state fingerprint also covers the size and the last
+ *   modified time of each jar file and of each class, code and jar file in each directory (so a file replaced in
+ *   place changes it) - it is not cheap so it is computed when asked for. The classpath string (for javac '-cp') is
+ *   made once when first asked for.
+ **/
+final class ClasspathEntries {
+    
+    /** The entries of the classpath of the application (and the current directory) */
+    static final ClasspathEntries Default = new ClasspathEntries(new String[0], ContentHash.Of())
+                                                .add(DefaultEntries());
+    
+    private ClasspathEntries(
+            final String[] pEntries,
+            final String   pFingerprint) {
+        this.entries     = pEntries;
+        this.entrySet    = new HashSet<String>(Arrays.asList(pEntries));
+        this.fingerprint = pFingerprint;
+    }
+    
+    final private String[]    entries;
+    final private Set<String> entrySet;
+    final private String      fingerprint;
+    
+    private volatile String classpath = null;
+    
+    /** Returns the set with the given paths added (the ones already in the set are ignored) */
+    ClasspathEntries add(final Collection<String> pPaths) {
+        final LinkedHashSet<String> aNewEntries = new LinkedHashSet<String>();
+        for (final String aPath : pPaths) {
+            final String aEntry = Normalize(aPath);
+            if ((aEntry != null) && !this.entrySet.contains(aEntry))
+                aNewEntries.add(aEntry);
+        }
+        if (aNewEntries.isEmpty())
+            return this;
+        
+        final String[] aEntries     = Arrays.copyOf(this.entries, this.entries.length + aNewEntries.size());
+        String         aFingerprint = this.fingerprint;
+        int            aIndex       = this.entries.length;
+        for (final String aEntry : aNewEntries) {
+            aEntries[aIndex++] = aEntry;
+            aFingerprint       = ContentHash.Of(aFingerprint, aEntry);
+        }
+        return new ClasspathEntries(aEntries, aFingerprint);
+    }
+    
+    /** Checks if the path is in the set */
+    boolean contains(final String pPath) {
+        return this.entrySet.contains(Normalize(pPath));
+    }
+    /** Returns the entries */
+    List<String> getEntries() {
+        return Collections.unmodifiableList(Arrays.asList(this.entries));
+    }
+    /** Returns the number of the entries */
+    int size() {
+        return this.entries.length;
+    }
+    
+    /** Returns the fingerprint of the entries */
+    String getFingerprint() {
+        return this.fingerprint;
+    }
+    /** Returns the fingerprint of the entries and the current states of their files (see UpdateState(...)) */
+    String getStateFingerprint() {
+        final MessageDigest aDigest = ContentHash.NewDigest();
+        ContentHash.Update(aDigest, this.fingerprint);
+        for (final String aEntry : this.entries)
+            UpdateState(aDigest, new File(aEntry));
+        
+        final String aFingerprint = ContentHash.ToHex(aDigest.digest());
+        return aFingerprint;
+    }
+    
+    /** Returns the classpath string */
+    String getClasspath() {
+        String aClasspath = this.classpath;
+        if (aClasspath == null) {
+            aClasspath     = String.join(File.pathSeparator, this.entries);
+            this.classpath = aClasspath;
+        }
+        return aClasspath;
+    }
+    
+    /** {@inheritDoc} */ @Override
+    public String toString() {
+        return this.getClasspath();
+    }
+    
+    // Privates --------------------------------------------------------------------------------------------------------
+    
+    static private List<String> DefaultEntries() {
+        final ArrayList<String> aPaths = new ArrayList<String>();
+        for (final String aPath : System.getProperty("java.class.path", "").split(File.pathSeparator))
+            aPaths.add(aPath);
+        aPaths.add(".");
+        return aPaths;
+    }
+    
+    /**
+     * Adds the state of the entry - the size and the last modified time of the jar file or of each of the files in the
+     *   directory that javac may read from a classpath (the class, code and jar files).
+     **/
+    static private void UpdateState(
+            final MessageDigest pDigest,
+            final File          pEntry) {
+        if (!pEntry.isDirectory()) {
+            ContentHash.Update(pDigest, pEntry.length() + ":" + pEntry.lastModified());
+            return;
+        }
+        
+        final Path aRoot = pEntry.toPath();
+        try (final Stream<Path> aPaths = Files.walk(aRoot)) {
+            final Iterator<Path> aFiles = aPaths.filter(ClasspathEntries::IsStateFile).sorted().iterator();
+            while (aFiles.hasNext()) {
+                final Path aFile = aFiles.next();
+                final File aIOFile = aFile.toFile();
+                final String aState  = aRoot.relativize(aFile) + ":" + aIOFile.length() + ":" + aIOFile.lastModified();
+                ContentHash.Update(pDigest, aState);
+            }
+        } catch (IOException | UncheckedIOException E) {
+            // The files not reached are left out - the same next time unless the directory is changed.
+            ContentHash.Update(pDigest, null);
+        }
+    }
+    static private boolean IsStateFile(final Path pPath) {
+        final String aName = pPath.getFileName().toString();
+        return (aName.endsWith(MemoryFileManager.CLASS_FILE_SUFFIX)
+             || aName.endsWith(MemoryFileManager.SOURCE_FILE_SUFFIX)
+             || aName.endsWith(".jar"))
+            && Files.isRegularFile(pPath);
+    }
+    
+    /** Normalizes the path - returns null for an empty path */
+    static String Normalize(final String pPath) {
+        if ((pPath == null) || (pPath.trim().length() == 0))
+            return null;
+        
+        try {
+            return Paths.get(pPath.trim()).toAbsolutePath().normalize().toString();
+        } catch (InvalidPathException E) {
+            return pPath.trim();
+        }
+    }
+
+}
@@ -0,0 +1,97 @@
+package net.nawaman.javacompiler;
+
+import java.io.*;
+import java.net.*;
+import java.util.*;
+
+/**
+ * A batch of classpath changes of a JavaCompiler.
+ *
+ * The changes are only recorded until the batch is committed - then they are applied at once (in order) producing at
+ *   most one new class loader and one new classpath string. Changing the classpaths one by one after a compilation
+ *   creates a new class loader (with all the classpaths copied) for each change.
+ *
+ * See JavaCompiler.beginClasspathChange()
+ **/
+final public class ClasspathTransaction {
+    
+    ClasspathTransaction(final JavaCompiler pJavaCompiler) {
+        this.javaCompiler = pJavaCompiler;
+    }
+    
+    final private JavaCompiler              javaCompiler;
+    final private Vector<ClassPaths.Change> changes = new Vector<ClassPaths.Change>();
+    
+    private boolean isDone = false;
+    
+    /** Adds a classpath (a directory or a jar file) */
+    public ClasspathTransaction addClasspathURL(final String pUrlPath) {
+        this.addChange(NewClasspathURL(pUrlPath), false);
+        return this;
+    }
+    /** Removes a classpath (a directory or a jar file) */
+    public ClasspathTransaction removeClasspathURL(final String pUrlPath) {
+        this.addChange(NewClasspathURL(pUrlPath), true);
+        return this;
+    }
+    
+    /** Adds a jar file */
+    public ClasspathTransaction addJarFile(final String pPath) {
+        this.addChange(NewJarURL(pPath), false);
+        return this;
+    }
+    /** Removes a jar file */
+    public ClasspathTransaction removeJarFile(final String pPath) {
+        this.addChange(NewJarURL(pPath), true);
+        return this;
+    }
+    
+    /** Returns the number of the changes recorded */
+    public int getChangeCount() {
+        return this.changes.size();
+    }
+    
+    /** Applies the changes at once - returns true if the classpaths of the JavaCompiler are changed */
+    public synchronized boolean commit() {
+        this.ensureNotDone();
+        this.isDone = true;
+        return this.javaCompiler.commitClasspathChanges(this.changes);
+    }
+    /** Discards the changes */
+    public synchronized void rollback() {
+        this.ensureNotDone();
+        this.isDone = true;
+        this.changes.clear();
+    }
+    
+    // Privates --------------------------------------------------------------------------------------------------------
+    
+    private synchronized void addChange(
+            final URL     pURL,
+            final boolean pIsRemove) {
+        this.ensureNotDone();
+        this.changes.add(new ClassPaths.Change(pURL, pIsRemove));
+    }
+    private void ensureNotDone() {
+        if (this.isDone)
+            throw new IllegalStateException("The classpath changes are already committed or rolled back.");
+    }
+    
+    static private URL NewClasspathURL(final String pUrlPath) {
+        try {
+            return ClassPaths.NewClasspathURL(pUrlPath);
+        } catch(MalformedURLException MUE) {
+            throw new RuntimeException(
+                    new FileNotFoundException(
+                            String.format(ClassPaths.CLASSPATH_NOTFOUND_OR_INVALID, pUrlPath)));
+        }
+    }
+    static private URL NewJarURL(final String pPath) {
+        try {
+            return ClassPaths.NewJarURL(pPath);
+        } catch(MalformedURLException MUE) {
+            throw new RuntimeException(new FileNotFoundException(ClassPaths.CLASSPATH_JAR_FILE_NOTFOUND));
+        }
+    }
+
+}
@@ -0,0 +1,79 @@
+package net.nawaman.javacompiler;
+
+/**
+ * The report of a loader chain compaction.
+ *
+ * A classpath change after a compilation creates a new class loader whose parent is the previous one so the chain of
+ *   the class loaders grows with the changes. The compaction collapses the chain into a single class loader with the
+ *   compiled classes, the compiled codes and the classpaths still visible to the last one.
+ **/
+final public class CompactionReport {
+    
+    CompactionReport(
+            final int     pDepthBefore,
+            final int     pDepthAfter,
+            final int     pClassCount,
+            final int     pCodeCount,
+            final int     pURLCount,
+            final long    pTimeNanos,
+            final boolean pIsAutomatic) {
+        this.depthBefore = pDepthBefore;
+        this.depthAfter  = pDepthAfter;
+        this.classCount  = pClassCount;
+        this.codeCount   = pCodeCount;
+        this.urlCount    = pURLCount;
+        this.timeNanos   = pTimeNanos;
+        this.isAutomatic = pIsAutomatic;
+    }
+    
+    final private int     depthBefore;
+    final private int     depthAfter;
+    final private int     classCount;
+    final private int     codeCount;
+    final private int     urlCount;
+    final private long    timeNanos;
+    final private boolean isAutomatic;
+    
+    /** Returns the depth of the loader chain before the compaction (0 for a single class loader) */
+    public int getDepthBefore() {
+        return this.depthBefore;
+    }
+    /** Returns the depth of the loader chain after the compaction */
+    public int getDepthAfter() {
+        return this.depthAfter;
+    }
+    /** Returns the number of the compiled classes carried over */
+    public int getClassCount() {
+        return this.classCount;
+    }
+    /** Returns the number of the compiled codes carried over */
+    public int getCodeCount() {
+        return this.codeCount;
+    }
+    /** Returns the number of the classpath URLs carried over */
+    public int getURLCount() {
+        return this.urlCount;
+    }
+    /** Returns the time spent compacting (in nanoseconds) */
+    public long getTimeNanos() {
+        return this.timeNanos;
+    }
+    /** Checks if the compaction was done automatically (because the chain was deeper than the threshold) */
+    public boolean isAutomatic() {
+        return this.isAutomatic;
+    }
+    
+    /** {@inheritDoc} */ @Override
+    public String toString() {
+        return String.format(
+                "CompactionReport[depth=%d->%d, classes=%d, codes=%d, urls=%d, time=%.2fms, automatic=%s]",
+                this.depthBefore,
+                this.depthAfter,
+                this.classCount,
+                this.codeCount,
+                this.urlCount,
+                this.timeNanos / 1000000.0,
+                this.isAutomatic);
+    }
+
+}
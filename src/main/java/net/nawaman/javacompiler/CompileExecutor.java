@@ -0,0 +1,58 @@
+package net.nawaman.javacompiler;
+
+import java.lang.reflect.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * The executor that runs the asynchronous compilations.
+ *
+ * By default, each compilation runs on its own virtual thread when the JDK supports it (JDK 21+) - found by reflection
+ *   as this library is built for older JDKs. Otherwise, the compilations run on a fixed pool of daemon threads as many
+ *   as the maximum number of the javac engines. The executor can be replaced with JavaCompiler.SetCompileExecutor(...).
+ **/
+final class CompileExecutor {
+    
+    static private final String THREAD_NAME_PREFIX = "JavaCompiler-async-";
+    
+    static private Executor CurrentExecutor = null;
+    
+    private CompileExecutor() {}
+    
+    /** Returns the executor (the default executor is created on the first use) */
+    static synchronized Executor Get() {
+        if (CurrentExecutor == null)
+            CurrentExecutor = NewDefaultExecutor();
+        return CurrentExecutor;
+    }
+    
+    /** Changes the executor - null to use the default executor */
+    static synchronized void Set(final Executor pExecutor) {
+        CurrentExecutor = pExecutor;
+    }
+    
+    /** Creates the default executor */
+    static Executor NewDefaultExecutor() {
+        final Executor aVirtualExecutor = NewVirtualThreadExecutor();
+        if (aVirtualExecutor != null)
+            return aVirtualExecutor;
+        
+        final AtomicInteger aThreadCount = new AtomicInteger();
+        return Executors.newFixedThreadPool(CompilerEnginePool.DEFAULT_MAX_SIZE, pRunnable -> {
+            final Thread aThread = new Thread(pRunnable, THREAD_NAME_PREFIX + aThreadCount.incrementAndGet());
+            aThread.setDaemon(true);
+            return aThread;
+        });
+    }
+    
+    /** Returns a virtual-thread-per-task executor or null if the JDK does not support virtual threads */
+    static Executor NewVirtualThreadExecutor() {
+        try {
+            final Method aFactory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (Executor)aFactory.invoke(null);
+        } catch (ReflectiveOperationException | RuntimeException E) {
+            return null;
+        }
+    }
+    
+}
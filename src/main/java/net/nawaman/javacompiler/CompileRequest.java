@@ -0,0 +1,90 @@
+package net.nawaman.javacompiler;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import javax.tools.*;
+
+import com.sun.source.util.*;
+
+/**
+ * A request to compile the codes of a JCompiler - the options, the diagnostic listener and the state of the request.
+ *
+ * The request collects the names of the classes produced by the compilation and can be cancelled. A cancelled request
+ *   aborts the running javac task at its next event (as this request listens to the task) by throwing a
+ *   CancellationException.
+ **/
+final class CompileRequest implements TaskListener {
+    
+    CompileRequest(
+            final String[]                            pJavaCOptions,
+            final DiagnosticCollector<JavaFileObject> pDiagnosticListener) {
+        this(pJavaCOptions, pDiagnosticListener, false);
+    }
+    
+    CompileRequest(
+            final String[]                            pJavaCOptions,
+            final DiagnosticCollector<JavaFileObject> pDiagnosticListener,
+            final boolean                             pIsUnit) {
+        this.javaCOptions       = pJavaCOptions;
+        this.diagnosticListener = pDiagnosticListener;
+        this.isUnit             = pIsUnit;
+    }
+    
+    final private String[]                            javaCOptions;
+    final private DiagnosticCollector<JavaFileObject> diagnosticListener;
+    final private boolean                             isUnit;
+    final private Vector<String>                      producedClassNames = new Vector<String>();
+    
+    private volatile boolean isCancelled = false;
+    
+    /** Returns the javac options */
+    String[] getJavaCOptions() {
+        return this.javaCOptions;
+    }
+    /** Returns the diagnostic listener (null if the errors are to be reported as text) */
+    DiagnosticCollector<JavaFileObject> getDiagnosticListener() {
+        return this.diagnosticListener;
+    }
+    
+    /** Checks if the request is to compile a throwaway unit (the JCompiler does not keep the codes or the classes) */
+    boolean isUnit() {
+        return this.isUnit;
+    }
+    
+    /** Records the binary name of a class produced by the compilation */
+    void addProducedClassName(final String pClassName) {
+        this.producedClassNames.add(pClassName);
+    }
+    /** Returns the binary names of the classes produced by the compilation */
+    List<String> getProducedClassNames() {
+        return Collections.unmodifiableList(new ArrayList<String>(this.producedClassNames));
+    }
+    
+    /** Cancels the request - the running javac task is aborted */
+    void cancel() {
+        this.isCancelled = true;
+    }
+    /** Checks if the request is cancelled */
+    boolean isCancelled() {
+        return this.isCancelled;
+    }
+    /** Throws CancellationException if the request is cancelled */
+    void checkCancelled() {
+        if (this.isCancelled)
+            throw new CancellationException("The compilation was cancelled.");
+    }
+    
+    // TaskListener ----------------------------------------------------------------------------------------------------
+    
+    /** {@inheritDoc} */ @Override
+    public void started(final TaskEvent pEvent) {
+        this.checkCancelled();
+    }
+    
+    /** {@inheritDoc} */ @Override
+    public void finished(final TaskEvent pEvent) {
+        this.checkCancelled();
+    }
+    
+}
@@ -0,0 +1,81 @@
+package net.nawaman.javacompiler;
+
+import java.util.*;
+
+import javax.tools.*;
+
+/**
+ * The result of an asynchronous compilation.
+ *
+ * Beside the error report, the result has the names of the classes produced, the diagnostics reported by javac and
+ *   the time the compilation waited to be started and took to be done.
+ **/
+final public class CompileResult {
+    
+    CompileResult(
+            final List<String>                               pClassNames,
+            final List<Diagnostic<? extends JavaFileObject>> pDiagnostics,
+            final long                                       pQueueTimeNanos,
+            final long                                       pCompileTimeNanos) {
+        this.classNames       = Collections.unmodifiableList(new ArrayList<String>(pClassNames));
+        this.diagnostics      = Collections.unmodifiableList(new ArrayList<>(pDiagnostics));
+        this.queueTimeNanos   = pQueueTimeNanos;
+        this.compileTimeNanos = pCompileTimeNanos;
+    }
+    
+    final private List<String>                               classNames;
+    final private List<Diagnostic<? extends JavaFileObject>> diagnostics;
+    final private long                                       queueTimeNanos;
+    final private long                                       compileTimeNanos;
+    
+    /** Checks if the compilation succeeded (there is no error diagnostic) */
+    public boolean isSuccess() {
+        for (final Diagnostic<? extends JavaFileObject> aDiagnostic : this.diagnostics) {
+            if (aDiagnostic.getKind() == Diagnostic.Kind.ERROR)
+                return false;
+        }
+        return true;
+    }
+    
+    /** Returns the error report or null if the compilation succeeded */
+    public String getError() {
+        final StringBuilder aError = new StringBuilder();
+        for (final Diagnostic<? extends JavaFileObject> aDiagnostic : this.diagnostics) {
+            if (aDiagnostic.getKind() == Diagnostic.Kind.ERROR)
+                aError.append(aDiagnostic).append("\n");
+        }
+        return (aError.length() == 0) ? null : aError.toString();
+    }
+    
+    /** Returns the binary names of the classes produced by the compilation */
+    public List<String> getClassNames() {
+        return this.classNames;
+    }
+    
+    /** Returns the diagnostics reported by the compilation (including the warnings) */
+    public List<Diagnostic<? extends JavaFileObject>> getDiagnostics() {
+        return this.diagnostics;
+    }
+    
+    /** Returns the time the compilation waited before it was started (in nanoseconds) */
+    public long getQueueTimeNanos() {
+        return this.queueTimeNanos;
+    }
+    
+    /** Returns the time the compilation took (in nanoseconds) */
+    public long getCompileTimeNanos() {
+        return this.compileTimeNanos;
+    }
+    
+    /** {@inheritDoc} */ @Override
+    public String toString() {
+        return String.format(
+                "CompileResult[success=%s, classes=%s, diagnostics=%d, queue=%.2fms, compile=%.2fms]",
+                this.isSuccess(),
+                this.classNames,
+                this.diagnostics.size(),
+                this.queueTimeNanos   / 1000000.0,
+                this.compileTimeNanos / 1000000.0);
+    }
+    
+}
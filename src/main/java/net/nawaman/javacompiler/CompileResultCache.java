@@ -0,0 +1,201 @@
+package net.nawaman.javacompiler;
+
+import java.security.*;
+import java.util.*;
+
+/**
+ * A process-wide cache of compilation results.
+ *
+ * The result of a clean compilation (successful without any diagnostic) is kept by the key made from the hash of the
+ *   compiled codes, the effective javac options, the classpath fingerprint and the fingerprint of the compiled classes
+ *   visible to javac. When the same codes are compiled again (by any JavaCompiler), the class bytes are returned
+ *   directly without invoking javac.
+ *
+ * The cache is bounded by its memory budget (the total size of the class bytes and the codes) and the least recently
+ *   used results are evicted first.
+ *
+ * The cache is disabled until a budget is given (see JavaCompiler.ConfigureCompileCache(...)) as a hit skips javac -
+ *   the annotation processors are not run again so their side effects (e.g., the generated resources) are not
+ *   reproduced.
+ **/
+final class CompileResultCache {
+    
+    static public final long DEFAULT_MAX_BYTES = 0;
+    
+    /** The shared cache */
+    static final CompileResultCache Instance = new CompileResultCache(DEFAULT_MAX_BYTES);
+    
+    /** A compiled class in the cache */
+    static final class CachedClass {
+        CachedClass(
+                final String pBinaryName,
+                final String pFileName,
+                final String pPath,
+                final byte[] pBytes) {
+            this.binaryName = pBinaryName;
+            this.fileName   = pFileName;
+            this.path       = pPath;
+            this.bytes      = pBytes;
+        }
+        
+        final String binaryName;
+        final String fileName;
+        final String path;
+        final byte[] bytes;
+    }
+    
+    /** A compilation result in the cache */
+    static final class CachedResult {
+        CachedResult(
+                final CachedClass[]          pClasses,
+                final DependencyGraph.Unit[] pUnits,
+                final long                   pCodeSize) {
+            this.classes  = pClasses;
+            this.units    = pUnits;
+            this.codeSize = pCodeSize;
+            
+            long aSize = pCodeSize;
+            for (final CachedClass aClass : pClasses)
+                aSize += aClass.bytes.length;
+            this.size = aSize;
+        }
+        
+        final CachedClass[]          classes;
+        final DependencyGraph.Unit[] units;
+        final long                   codeSize;
+        final long                   size;
+    }
+    
+    CompileResultCache(final long pMaxBytes) {
+        this.maxBytes = pMaxBytes;
+    }
+    
+    // Access-ordered so that the least recently used result comes first.
+    final private LinkedHashMap<String, CachedResult> results
+                    = new LinkedHashMap<String, CachedResult>(16, 0.75f, true);
+    
+    private long maxBytes;
+    private long usedBytes     = 0;
+    private long hitCount      = 0;
+    private long missCount     = 0;
+    private long evictionCount = 0;
+    
+    /** Changes the memory budget - zero disables the cache */
+    synchronized void configure(final long pMaxBytes) {
+        if (pMaxBytes < 0)
+            throw new IllegalArgumentException("The memory budget must not be negative: " + pMaxBytes);
+        
+        this.maxBytes = pMaxBytes;
+        this.evict();
+    }
+    
+    /** Checks if the cache is enabled */
+    synchronized boolean isEnabled() {
+        return (this.maxBytes > 0);
+    }
+    
+    /** Returns the cached result of the key or null if there is none */
+    synchronized CachedResult get(final String pKey) {
+        final CachedResult aResult = this.results.get(pKey);
+        if (aResult == null)
+             this.missCount++;
+        else this.hitCount++;
+        return aResult;
+    }
+    
+    /** Keeps the result */
+    synchronized void put(
+            final String       pKey,
+            final CachedResult pResult) {
+        if (pResult.size > this.maxBytes)
+            return;
+        
+        final CachedResult aOldResult = this.results.put(pKey, pResult);
+        if (aOldResult != null)
+            this.usedBytes -= aOldResult.size;
+        
+        this.usedBytes += pResult.size;
+        this.evict();
+    }
+    
+    /** Removes all the cached results (the counters are kept) */
+    synchronized void clear() {
+        this.results.clear();
+        this.usedBytes = 0;
+    }
+    
+    /** Returns the number of the cached results */
+    synchronized int getEntryCount() {
+        return this.results.size();
+    }
+    /** Returns the memory used by the cached results */
+    synchronized long getUsedBytes() {
+        return this.usedBytes;
+    }
+    /** Returns the memory budget */
+    synchronized long getMaxBytes() {
+        return this.maxBytes;
+    }
+    /** Returns the number of the lookups that found a result */
+    synchronized long getHitCount() {
+        return this.hitCount;
+    }
+    /** Returns the number of the lookups that found no result */
+    synchronized long getMissCount() {
+        return this.missCount;
+    }
+    /** Returns the number of the results evicted to keep within the memory budget */
+    synchronized long getEvictionCount() {
+        return this.evictionCount;
+    }
+    
+    // Key -------------------------------------------------------------------------------------------------------------
+    
+    /**
+     * Creates a key for the compilation.
+     *
+     * @param pUnits                 the names, the paths and the codes of the compiled units.
+     * @param pOptions               the effective javac options.
+     * @param pClasspathFingerprint  the fingerprint of the classpath.
+     * @param pClassesFingerprint    the fingerprint of the compiled classes visible to javac.
+     **/
+    static String NewKey(
+            final Map<String, JavaCodeMemoryFileObject> pUnits,
+            final List<String>                          pOptions,
+            final String                                pClasspathFingerprint,
+            final String                                pClassesFingerprint) {
+        final MessageDigest aDigest = ContentHash.NewDigest();
+        
+        final TreeMap<String, JavaCodeMemoryFileObject> aSortedUnits;
+        aSortedUnits = new TreeMap<String, JavaCodeMemoryFileObject>(pUnits);
+        ContentHash.Update(aDigest, "units:" + aSortedUnits.size());
+        for (final Map.Entry<String, JavaCodeMemoryFileObject> aEntry : aSortedUnits.entrySet()) {
+            ContentHash.Update(aDigest, aEntry.getKey());
+            ContentHash.Update(aDigest, aEntry.getValue().getPath());
+            ContentHash.Update(aDigest, aEntry.getValue().getCode());
+        }
+        
+        ContentHash.Update(aDigest, "options:" + pOptions.size());
+        for (final String aOption : pOptions)
+            ContentHash.Update(aDigest, aOption);
+        
+        ContentHash.Update(aDigest, pClasspathFingerprint);
+        ContentHash.Update(aDigest, pClassesFingerprint);
+        
+        final String aKey = ContentHash.ToHex(aDigest.digest());
+        return aKey;
+    }
+    
+    // Privates --------------------------------------------------------------------------------------------------------
+    
+    private void evict() {
+        final Iterator<CachedResult> aIterator = this.results.values().iterator();
+        while ((this.usedBytes > this.maxBytes) && aIterator.hasNext()) {
+            final CachedResult aResult = aIterator.next();
+            aIterator.remove();
+            this.usedBytes -= aResult.size;
+            this.evictionCount++;
+        }
+    }
+
+}
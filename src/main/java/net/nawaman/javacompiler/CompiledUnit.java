@@ -0,0 +1,67 @@
+package net.nawaman.javacompiler;
+
+import java.util.*;
+
+/**
+ * A throwaway unit of codes compiled by a JavaCompiler (see JavaCompiler.compileUnit(...)).
+ *
+ * The codes of the unit are compiled against the classes of the JavaCompiler but neither the codes nor the classes
+ *   are added to it. The classes are defined by a class loader of the unit - once the unit, its classes and their
+ *   objects are no longer referenced, the classes are unloaded (and their memory is given back).
+ **/
+final public class CompiledUnit {
+    
+    CompiledUnit(
+            final String          pError,
+            final List<String>    pClassNames,
+            final UnitClassLoader pClassLoader) {
+        this.error       = pError;
+        this.classNames  = Collections.unmodifiableList(new ArrayList<String>(pClassNames));
+        this.classLoader = pClassLoader;
+    }
+    
+    final private String          error;
+    final private List<String>    classNames;
+    final private UnitClassLoader classLoader;
+    
+    /** Checks if the compilation succeeded */
+    public boolean isSuccess() {
+        return (this.error == null);
+    }
+    
+    /** Returns the error report or null if the compilation succeeded */
+    public String getError() {
+        return this.error;
+    }
+    
+    /** Returns the binary names of the classes of the unit */
+    public List<String> getClassNames() {
+        return this.classNames;
+    }
+    
+    /** Returns the class loader of the unit */
+    public ClassLoader getClassLoader() {
+        return this.classLoader;
+    }
+    
+    /** Get a class by name (of the unit or visible to the JavaCompiler) - throw an exception when not found */
+    public Class<?> forName(final String pName) throws ClassNotFoundException {
+        final Class<?> aClass = Class.forName(pName, true, this.classLoader);
+        return aClass;
+    }
+    
+    /** Get a class by name (of the unit or visible to the JavaCompiler) - return null when not found */
+    public Class<?> getClassByName(final String pName) {
+        try {
+            return this.forName(pName);
+        } catch (ClassNotFoundException E) {
+            return null;
+        }
+    }
+    
+    /** {@inheritDoc} */ @Override
+    public String toString() {
+        return String.format("CompiledUnit[success=%s, classes=%s]", this.isSuccess(), this.classNames);
+    }
+
+}
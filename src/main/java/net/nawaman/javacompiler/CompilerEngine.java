@@ -0,0 +1,109 @@
+package net.nawaman.javacompiler;
+
+import java.io.*;
+
+import javax.tools.*;
+
+/**
+ * A javac engine - the system Java compiler together with its standard file manager.
+ *
+ * Creating javac and its file manager is expensive (the JDK and the classpath archives are opened and indexed on the
+ *   first use). An engine keeps them together so that they can be reused for many compilations. Engines are managed by
+ *   CompilerEnginePool and an engine is used by only one compilation at a time.
+ *
+ * The options given to the file manager (e.g. '-sourcepath' or '-encoding') stay with it so the file manager is
+ *   replaced when the engine is returned after a compilation that gave them (see reset()). The classpath is given by
+ *   every compilation so it does not count.
+ **/
+final class CompilerEngine {
+    
+    static private final String WARMUP_CLASS_NAME = "JCEngineWarmUp";
+    static private final String WARMUP_CLASS_CODE = "class " + WARMUP_CLASS_NAME + " { Object o = new Object(); }";
+    
+    CompilerEngine() {
+        this.compiler    = CompilerEngine.GetSystemJavaCompiler();
+        this.fileManager = this.compiler.getStandardFileManager(null, null, null);
+        this.lastUsed    = System.currentTimeMillis();
+    }
+    
+    final private javax.tools.JavaCompiler compiler;
+    
+    private StandardJavaFileManager fileManager;
+    private long                    lastUsed;
+    private boolean                 isOptionsChanged = false;
+    
+    /** Returns the javac */
+    javax.tools.JavaCompiler getCompiler() {
+        return this.compiler;
+    }
+    /** Returns the standard file manager of this engine */
+    StandardJavaFileManager getFileManager() {
+        return this.fileManager;
+    }
+    
+    /** Returns the time this engine was last returned to the pool */
+    long getLastUsed() {
+        return this.lastUsed;
+    }
+    /** Marks this engine as just used */
+    void updateLastUsed() {
+        this.lastUsed = System.currentTimeMillis();
+    }
+    
+    /** Marks that the file manager was given options other than the classpath */
+    void markOptionsChanged() {
+        this.isOptionsChanged = true;
+    }
+    /** Replaces the file manager if it was given options other than the classpath */
+    void reset() {
+        if (!this.isOptionsChanged)
+            return;
+        
+        this.dispose();
+        this.fileManager      = this.compiler.getStandardFileManager(null, null, null);
+        this.isOptionsChanged = false;
+    }
+    
+    /** Warm up the engine by compiling a trivial class so that javac and the JDK archives are loaded */
+    void warmUp() {
+        final MemoryFileManager aMFManager = new MemoryFileManager();
+        aMFManager.addCode(WARMUP_CLASS_NAME + MemoryFileManager.SOURCE_FILE_SUFFIX, "", WARMUP_CLASS_CODE);
+        aMFManager.attach(this.fileManager);
+        try {
+            final Iterable<? extends JavaFileObject> aFiles = aMFManager.getJavaFileObjectsFromStrings(
+                                                                aMFManager.getCodeNames());
+            final Writer aNoOutput = new StringWriter();
+            this.compiler.getTask(aNoOutput, aMFManager, null, null, null, aFiles).call();
+        } finally {
+            aMFManager.detach();
+        }
+    }
+    
+    /** Release the resources held by this engine */
+    void dispose() {
+        try {
+            this.fileManager.close();
+        } catch (IOException E) {
+            if (JavaCompiler.DEBUG_MODE) {
+                System.out.println(E.toString());
+                E.printStackTrace();
+            }
+        }
+    }
+    
+    // Privates --------------------------------------------------------------------------------------------------------
+    
+    static private javax.tools.JavaCompiler GetSystemJavaCompiler() {
+        final javax.tools.JavaCompiler aCompiler = ToolProvider.getSystemJavaCompiler();
+        
+        if (aCompiler == null) {
+            // Unable to initialize the java compiler
+            throw new RuntimeException(
+                "Unable to initialize the java compiler. Ensure that the class 'com.sun.tools.javac.api.JavacTool' " +
+                "(found in <jdk-dir>/lib/tools.jar) is in the class path.");
+        }
+        
+        return aCompiler;
+    }
+
+}
@@ -0,0 +1,196 @@
+package net.nawaman.javacompiler;
+
+import java.util.*;
+
+/**
+ * A process-wide bounded pool of warm javac engines.
+ *
+ * JJCompiler borrows an engine for each compilation and returns it afterwards, so JCompilers (including those created
+ *   by ClassPaths when the classpath changes) share the already-warm javac and its opened archives.
+ *
+ * The pool creates engines lazily up to the maximum size and blocks the borrower when all of them are in use. Engines
+ *   that stay idle longer than the idle timeout are disposed, but the number of warm-up engines are always kept.
+ **/
+final class CompilerEnginePool {
+    
+    static public final int  DEFAULT_MAX_SIZE        = Math.max(1, Runtime.getRuntime().availableProcessors());
+    static public final int  DEFAULT_WARMUP_COUNT    = 0;
+    static public final long DEFAULT_IDLE_TIMEOUT_MS = 60 * 1000;
+    
+    /** The shared pool */
+    static final CompilerEnginePool Instance = new CompilerEnginePool();
+    
+    CompilerEnginePool() {
+        this.maxSize       = DEFAULT_MAX_SIZE;
+        this.warmupCount   = DEFAULT_WARMUP_COUNT;
+        this.idleTimeoutMS = DEFAULT_IDLE_TIMEOUT_MS;
+    }
+    
+    final private ArrayDeque<CompilerEngine> idleEngines = new ArrayDeque<CompilerEngine>();
+    
+    private int  maxSize;
+    private int  warmupCount;
+    private long idleTimeoutMS;
+    private int  leasedCount  = 0;
+    private int  createdCount = 0;
+    
+    /**
+     * Configures the pool.
+     *
+     * The engines for warming up are created (and warmed) right away. Idle engines beyond the new maximum size are
+     *   disposed.
+     **/
+    void configure(
+            final int  pMaxSize,
+            final int  pWarmupCount,
+            final long pIdleTimeoutMS) {
+        if (pMaxSize < 1)
+            throw new IllegalArgumentException("The pool size must be at least one: " + pMaxSize);
+        if (pWarmupCount < 0)
+            throw new IllegalArgumentException("The warm-up count must not be negative: " + pWarmupCount);
+        
+        final int aWarmupCount = Math.min(pWarmupCount, pMaxSize);
+        final int aToBeWarmedCount;
+        synchronized (this) {
+            this.maxSize       = pMaxSize;
+            this.warmupCount   = aWarmupCount;
+            this.idleTimeoutMS = pIdleTimeoutMS;
+            
+            while ((this.idleEngines.size() > 0) && (this.getTotalCount() > this.maxSize))
+                this.disposeEngine(this.idleEngines.pollLast());
+            
+            aToBeWarmedCount   = Math.max(0, aWarmupCount - this.getTotalCount());
+            this.createdCount += aToBeWarmedCount;
+            this.leasedCount  += aToBeWarmedCount;
+            this.notifyAll();
+        }
+        
+        // Warming up is slow so it is done outside the lock.
+        for (int i = 0; i < aToBeWarmedCount; i++) {
+            final CompilerEngine aEngine = this.newReservedEngine();
+            try     { aEngine.warmUp();        }
+            finally { this.release(aEngine); }
+        }
+    }
+    
+    /** Returns the maximum number of engines */
+    synchronized int getMaxSize() {
+        return this.maxSize;
+    }
+    /** Returns the number of engines to be kept warm */
+    synchronized int getWarmupCount() {
+        return this.warmupCount;
+    }
+    /** Returns the time (in milliseconds) an engine can stay idle before it is disposed */
+    synchronized long getIdleTimeoutMS() {
+        return this.idleTimeoutMS;
+    }
+    /** Returns the number of the idle engines */
+    synchronized int getIdleCount() {
+        return this.idleEngines.size();
+    }
+    /** Returns the number of the engines currently in use */
+    synchronized int getLeasedCount() {
+        return this.leasedCount;
+    }
+    
+    /** Borrows an engine - waits if all the engines are in use */
+    CompilerEngine borrow() {
+        synchronized (this) {
+            this.evictIdleEngines();
+            
+            while (true) {
+                final CompilerEngine aEngine = this.idleEngines.pollFirst();
+                if (aEngine != null) {
+                    this.leasedCount++;
+                    return aEngine;
+                }
+                if (this.getTotalCount() < this.maxSize) {
+                    this.createdCount++;
+                    this.leasedCount++;
+                    break;
+                }
+                
+                try {
+                    this.wait();
+                } catch (InterruptedException E) {
+                    Thread.currentThread().interrupt();
+                    throw new RuntimeException("Interrupted while waiting for a compiler engine.", E);
+                }
+            }
+        }
+        
+        // Creating an engine is slow so it is done outside the lock.
+        final CompilerEngine aEngine = this.newReservedEngine();
+        return aEngine;
+    }
+    
+    /** Returns the engine to the pool */
+    void release(final CompilerEngine pEngine) {
+        if (pEngine == null)
+            return;
+        
+        // The options of the compilation must not be seen by the next.
+        pEngine.reset();
+        pEngine.updateLastUsed();
+        synchronized (this) {
+            if (this.leasedCount > 0)
+                this.leasedCount--;
+            
+            if (this.getTotalCount() > this.maxSize)
+                 this.disposeEngine(pEngine);
+            else this.idleEngines.addFirst(pEngine);
+            
+            this.evictIdleEngines();
+            this.notifyAll();
+        }
+    }
+    
+    /** Disposes all the idle engines */
+    synchronized void clear() {
+        while (this.idleEngines.size() > 0)
+            this.disposeEngine(this.idleEngines.pollLast());
+    }
+    
+    // Privates --------------------------------------------------------------------------------------------------------
+    
+    private int getTotalCount() {
+        return this.createdCount;
+    }
+    
+    /** Creates an engine for the slot already reserved (counted as created and leased) */
+    private CompilerEngine newReservedEngine() {
+        try {
+            final CompilerEngine aEngine = new CompilerEngine();
+            return aEngine;
+        } catch (RuntimeException E) {
+            synchronized (this) {
+                this.createdCount--;
+                this.leasedCount--;
+                this.notifyAll();
+            }
+            throw E;
+        }
+    }
+    
+    private void disposeEngine(final CompilerEngine pEngine) {
+        if (pEngine == null)
+            return;
+        
+        this.createdCount--;
+        pEngine.dispose();
+    }
+    
+    /** Dispose the engines that has been idle for too long - the least recently used engines are at the end. */
+    private void evictIdleEngines() {
+        final long aNow = System.currentTimeMillis();
+        while (this.idleEngines.size() > this.warmupCount) {
+            final CompilerEngine aEngine = this.idleEngines.peekLast();
+            if ((aNow - aEngine.getLastUsed()) <= this.idleTimeoutMS)
+                break;
+            
+            this.disposeEngine(this.idleEngines.pollLast());
+        }
+    }
+
+}
@@ -0,0 +1,23 @@
+package net.nawaman.javacompiler;
+
+import java.io.*;
+
+/**
+ * A compression of the class data written by JavaCompilerObjectOutputStream.
+ *
+ * The name of the codec is written in the header of the stream and the reader finds the codec by the name (see
+ * CompressionCodecs.Register(...)) so the name must identify the format (including any dictionary) for good - a
+ * changed format must have a new name.
+ **/
+public interface CompressionCodec {
+    
+    /** Returns the name of the codec */
+    public String getName();
+    
+    /** Compresses the bytes */
+    public byte[] compress(byte[] pBytes) throws IOException;
+    
+    /** Decompresses the bytes compressed by this codec */
+    public byte[] decompress(byte[] pBytes) throws IOException;
+
+}
@@ -0,0 +1,151 @@
+package net.nawaman.javacompiler;
+
+import java.io.*;
+import java.nio.charset.*;
+import java.util.concurrent.*;
+import java.util.zip.*;
+
+/**
+ * The known compression codecs (see CompressionCodec) - the reader of a stream finds the codec by its name here.
+ *
+ * The built-in DEFLATE codec uses the JDK Deflater with a preset dictionary of the strings common in the constant pool
+ *   of the class files (and in the Java code) so even the class data of a single small class compresses well.
+ **/
+final public class CompressionCodecs {
+    
+    /** The Deflate compression with the dictionary of the common class file strings */
+    static public final CompressionCodec DEFLATE = new Deflate("deflate-1", Deflater.DEFAULT_COMPRESSION);
+    
+    static private final ConcurrentHashMap<String, CompressionCodec> Codecs
+                            = new ConcurrentHashMap<String, CompressionCodec>();
+    static {
+        Register(DEFLATE);
+    }
+    
+    private CompressionCodecs() {}
+    
+    /** Registers the codec so the streams compressed by it can be read - returns false if the name is taken */
+    static public boolean Register(final CompressionCodec pCodec) {
+        if ((pCodec == null) || (pCodec.getName() == null))
+            throw new NullPointerException();
+        
+        final CompressionCodec aCodec = Codecs.putIfAbsent(pCodec.getName(), pCodec);
+        return (aCodec == null) || (aCodec == pCodec);
+    }
+    /** Returns the codec of the name or null if there is no such codec */
+    static public CompressionCodec Get(final String pName) {
+        return (pName == null) ? null : Codecs.get(pName);
+    }
+    
+    // Deflate ---------------------------------------------------------------------------------------------------------
+    
+    /**
+     * The strings common in the class files and the Java code - the more common ones are at the end (closer to the
+     *   data). Changing the dictionary changes the format so it needs a new codec name.
+     **/
+    static final byte[] DICTIONARY = String.join("\u0001",
+            "RuntimeVisibleAnnotations", "LocalVariableTable", "Exceptions", "Signature", "ConstantValue",
+            "BootstrapMethods", "java/lang/invoke/LambdaMetafactory", "metafactory",
+            "java/lang/invoke/StringConcatFactory", "makeConcatWithConstants", "java/lang/invoke/MethodHandles$Lookup",
+            "java/lang/invoke/MethodHandles", "Lookup", "InnerClasses", "NestMembers", "NestHost",
+            "java/util/List", "java/util/Map", "java/util/ArrayList", "java/util/HashMap", "java/lang/Integer",
+            "valueOf", "intValue", "java/lang/StringBuilder", "append", "(Ljava/lang/String;)Ljava/lang/StringBuilder;",
+            "hashCode", "equals", "(Ljava/lang/Object;)Z", "()I", "()Z", "toString", "()Ljava/lang/String;",
+            "java/lang/System", "out", "Ljava/io/PrintStream;", "java/io/PrintStream", "println",
+            "(Ljava/lang/String;)V", "java/io/Serializable", "serialVersionUID", "J", "Ljava/lang/String;",
+            "java/lang/String", "this", "value", "import java.util.*;", "package ", "return ", "final ", "static ",
+            "private ", "public class ", "public static ", "StackMapTable", "SourceFile", "LineNumberTable", "Code",
+            "()V", "<init>", "java/lang/Object")
+        .getBytes(StandardCharsets.UTF_8);
+    
+    /**
+     * The Deflate compression with the dictionary.
+     *
+     * The compressed bytes are the length of the original bytes (an int) followed by the zlib data.
+     **/
+    static final class Deflate implements CompressionCodec {
+        
+        Deflate(
+                final String pName,
+                final int    pLevel) {
+            this.name  = pName;
+            this.level = pLevel;
+        }
+        
+        final private String name;
+        final private int    level;
+        
+        /** {@inheritDoc} */ @Override
+        public String getName() {
+            return this.name;
+        }
+        
+        /** {@inheritDoc} */ @Override
+        public byte[] compress(final byte[] pBytes) throws IOException {
+            final Deflater aDeflater = new Deflater(this.level);
+            try {
+                aDeflater.setDictionary(DICTIONARY);
+                aDeflater.setInput(pBytes);
+                aDeflater.finish();
+                
+                final ByteArrayOutputStream aBytes  = new ByteArrayOutputStream(pBytes.length/2 + 64);
+                final DataOutputStream      aOutput = new DataOutputStream(aBytes);
+                final byte[]                aBuffer = new byte[8*1024];
+                aOutput.writeInt(pBytes.length);
+                while (!aDeflater.finished()) {
+                    final int aCount = aDeflater.deflate(aBuffer);
+                    aOutput.write(aBuffer, 0, aCount);
+                }
+                return aBytes.toByteArray();
+            } finally {
+                aDeflater.end();
+            }
+        }
+        
+        /** {@inheritDoc} */ @Override
+        public byte[] decompress(final byte[] pBytes) throws IOException {
+            if (pBytes.length < 4)
+                throw new StreamCorruptedException("Invalid compressed data: too short");
+            
+            final int aLength = ((pBytes[0] & 0xFF) << 24) | ((pBytes[1] & 0xFF) << 16)
+                              | ((pBytes[2] & 0xFF) <<  8) |  (pBytes[3] & 0xFF);
+            if (aLength < 0)
+                throw new StreamCorruptedException("Invalid compressed data: invalid length " + aLength);
+            
+            // The buffer grows with the data - a corrupted length does not allocate anything big.
+            final Inflater aInflater = new Inflater();
+            try {
+                aInflater.setInput(pBytes, 4, pBytes.length - 4);
+                
+                final ByteArrayOutputStream aBytes  = new ByteArrayOutputStream(Math.min(aLength, 64*1024));
+                final byte[]                aBuffer = new byte[8*1024];
+                while (!aInflater.finished()) {
+                    final int aCount = aInflater.inflate(aBuffer);
+                    if (aCount == 0) {
+                        if (aInflater.needsDictionary())
+                            aInflater.setDictionary(DICTIONARY);
+                        else if (aInflater.needsInput())
+                            throw new EOFException("Invalid compressed data: truncated");
+                    }
+                    aBytes.write(aBuffer, 0, aCount);
+                    if (aBytes.size() > aLength)
+                        break;
+                }
+                if (aBytes.size() != aLength)
+                    throw new StreamCorruptedException("Invalid compressed data: length does not match");
+                
+                return aBytes.toByteArray();
+            } catch (DataFormatException E) {
+                throw new StreamCorruptedException("Invalid compressed data: " + E.getMessage());
+            } finally {
+                aInflater.end();
+            }
+        }
+        
+        /** {@inheritDoc} */ @Override
+        public String toString() {
+            return this.name;
+        }
+    }
+
+}
@@ -0,0 +1,63 @@
+package net.nawaman.javacompiler;
+
+import java.nio.charset.*;
+import java.security.*;
+
+/** Utilities to compute stable hashes of contents (codes, options and so on) */
+final class ContentHash {
+    
+    static private final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+    
+    private ContentHash() {}
+    
+    /** Returns the hex string of the SHA-256 digest of the given contents - null contents are allowed */
+    static String Of(final String ... pContents) {
+        final MessageDigest aDigest = ContentHash.NewDigest();
+        if (pContents != null) {
+            for (final String aContent : pContents)
+                ContentHash.Update(aDigest, aContent);
+        }
+        final String aHash = ContentHash.ToHex(aDigest.digest());
+        return aHash;
+    }
+    
+    /** Creates a new SHA-256 digest */
+    static MessageDigest NewDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException E) {
+            // SHA-256 is required to be supported by all Java platforms
+            throw new RuntimeException("Internal Error: SHA-256 is not supported.", E);
+        }
+    }
+    
+    /** Adds the content into the digest - the length is included so that the boundaries are preserved */
+    static void Update(
+            final MessageDigest pDigest,
+            final String        pContent) {
+        if (pContent == null) {
+            pDigest.update((byte)0);
+            return;
+        }
+        
+        final byte[] aBytes  = pContent.getBytes(StandardCharsets.UTF_8);
+        final int    aLength = aBytes.length;
+        pDigest.update((byte)1);
+        pDigest.update((byte)(aLength >>> 24));
+        pDigest.update((byte)(aLength >>> 16));
+        pDigest.update((byte)(aLength >>>  8));
+        pDigest.update((byte)(aLength       ));
+        pDigest.update(aBytes);
+    }
+    
+    /** Returns the hex string of the given bytes */
+    static String ToHex(final byte[] pBytes) {
+        final char[] aChars = new char[pBytes.length*2];
+        for (int i = 0; i < pBytes.length; i++) {
+            aChars[i*2    ] = HEX_DIGITS[(pBytes[i] >>> 4) & 0x0F];
+            aChars[i*2 + 1] = HEX_DIGITS[ pBytes[i]        & 0x0F];
+        }
+        return new String(aChars);
+    }
+
+}
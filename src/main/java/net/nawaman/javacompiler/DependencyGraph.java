@@ -0,0 +1,121 @@
+package net.nawaman.javacompiler;
+
+import java.util.*;
+
+/**
+ * The dependency graph of the compiled units (source files) used by the incremental compilation.
+ *
+ * For each unit, the graph keeps the hash of its code, the top-level types it produces and the top-level types it
+ *   references (as recorded from the javac task by DependencyRecorder). A unit depends on another unit if it
+ *   references a type produced by that unit. The names of the units referencing each type are also kept (updated as
+ *   the units are recorded) so the dependents are found without going through all the units.
+ **/
+final class DependencyGraph {
+    
+    /** Information of a compiled unit */
+    static final class Unit {
+        Unit(
+                final String      pName,
+                final String      pPath,
+                final String      pHash,
+                final Set<String> pProducedTypes,
+                final Set<String> pReferencedTypes) {
+            this.name            = pName;
+            this.path            = pPath;
+            this.hash            = pHash;
+            this.producedTypes   = Collections.unmodifiableSet(new HashSet<String>(pProducedTypes));
+            this.referencedTypes = Collections.unmodifiableSet(new HashSet<String>(pReferencedTypes));
+        }
+        
+        final String      name;
+        final String      path;
+        final String      hash;
+        final Set<String> producedTypes;
+        final Set<String> referencedTypes;
+    }
+    
+    final private HashMap<String, Unit>            units       = new HashMap<String, Unit>();
+    final private HashMap<String, HashSet<String>> referencing = new HashMap<String, HashSet<String>>();
+    
+    /** Returns the recorded unit or null if the unit has never been compiled */
+    synchronized Unit getUnit(final String pUnitName) {
+        final Unit aUnit = this.units.get(pUnitName);
+        return aUnit;
+    }
+    
+    /** Returns the hash of the code of the unit when it was last compiled or null if it has never been compiled */
+    synchronized String getHash(final String pUnitName) {
+        final Unit aUnit = this.units.get(pUnitName);
+        return (aUnit == null) ? null : aUnit.hash;
+    }
+    
+    /** Records (or replaces) the information of the compiled unit */
+    synchronized void record(final Unit pUnit) {
+        this.put(pUnit);
+    }
+    
+    /** Records the units of the other graph except the given ones (e.g., for a new JCompiler of the same codes) */
+    void recordAll(
+            final DependencyGraph pGraph,
+            final Set<String>     pExcludedUnitNames) {
+        final ArrayList<Unit> aUnits;
+        synchronized (pGraph) {
+            aUnits = new ArrayList<Unit>(pGraph.units.values());
+        }
+        synchronized (this) {
+            for (final Unit aUnit : aUnits) {
+                if (!pExcludedUnitNames.contains(aUnit.name))
+                    this.put(aUnit);
+            }
+        }
+    }
+    
+    /** Returns the number of the units known to this graph */
+    synchronized int getUnitCount() {
+        return this.units.size();
+    }
+    
+    /** Returns the names of all the units that directly or indirectly depend on the given units (exclude them) */
+    synchronized Set<String> getDependents(final Collection<String> pUnitNames) {
+        final HashSet<String>    aDependents = new HashSet<String>();
+        final ArrayDeque<String> aToVisit    = new ArrayDeque<String>(pUnitNames);
+        final HashSet<String>    aVisited    = new HashSet<String>(pUnitNames);
+        
+        while (!aToVisit.isEmpty()) {
+            final String aUnitName = aToVisit.poll();
+            final Unit   aUnit     = this.units.get(aUnitName);
+            if (aUnit == null)
+                continue;
+            
+            for (final String TName : aUnit.producedTypes) {
+                final HashSet<String> aReferencing = this.referencing.get(TName);
+                if (aReferencing == null)
+                    continue;
+                
+                for (final String UName : aReferencing) {
+                    if (!aVisited.add(UName))
+                        continue;
+                    
+                    aDependents.add(UName);
+                    aToVisit   .add(UName);
+                }
+            }
+        }
+        return aDependents;
+    }
+    
+    /** Puts the unit replacing the one of the same name (if any) - the lock must be held */
+    private void put(final Unit pUnit) {
+        final Unit aOld = this.units.put(pUnit.name, pUnit);
+        if (aOld != null) {
+            for (final String TName : aOld.referencedTypes) {
+                final HashSet<String> aReferencing = this.referencing.get(TName);
+                if ((aReferencing != null) && aReferencing.remove(aOld.name) && aReferencing.isEmpty())
+                    this.referencing.remove(TName);
+            }
+        }
+        for (final String TName : pUnit.referencedTypes)
+            this.referencing.computeIfAbsent(TName, T -> new HashSet<String>()).add(pUnit.name);
+    }
+
+}
@@ -0,0 +1,146 @@
+package net.nawaman.javacompiler;
+
+import java.util.*;
+
+import javax.lang.model.element.*;
+import javax.lang.model.util.*;
+import javax.tools.*;
+
+import com.sun.source.tree.*;
+import com.sun.source.util.*;
+
+/**
+ * Records the types produced and referenced by each compiled unit from a javac task.
+ *
+ * The referenced types are collected by resolving every identifier and member selection of the analyzed compilation
+ *   units. A type is recorded by the binary name of its top-level type since a unit produces top-level types together
+ *   with all their nested types.
+ * 
+ * javac wraps the given file objects so the units are recognized by the names of their file objects.
+ **/
+final class DependencyRecorder implements TaskListener {
+    
+    DependencyRecorder(
+            final JavacTask                             pTask,
+            final Map<String, JavaCodeMemoryFileObject> pUnits) {
+        this.trees     = Trees.instance(pTask);
+        this.elements  = pTask.getElements();
+        this.unitNames = new HashMap<String, String>();
+        for (final Map.Entry<String, JavaCodeMemoryFileObject> aEntry : pUnits.entrySet())
+            this.unitNames.put(aEntry.getValue().getName(), aEntry.getKey());
+    }
+    
+    final private Trees                   trees;
+    final private Elements                elements;
+    final private HashMap<String, String> unitNames;
+    
+    final private HashMap<String, Set<String>> producedTypes   = new HashMap<String, Set<String>>();
+    final private HashMap<String, Set<String>> referencedTypes = new HashMap<String, Set<String>>();
+    final private HashSet<CompilationUnitTree> analyzedUnits   = new HashSet<CompilationUnitTree>();
+    
+    /** Returns the names of the units this recorder knows about */
+    Set<String> getUnitNames() {
+        final HashSet<String> aUnitNames = new HashSet<String>(this.producedTypes.keySet());
+        aUnitNames.addAll(this.referencedTypes.keySet());
+        return aUnitNames;
+    }
+    /** Returns the top-level types produced by the unit */
+    Set<String> getProducedTypes(final String pUnitName) {
+        final Set<String> aTypes = this.producedTypes.get(pUnitName);
+        return (aTypes == null) ? Collections.<String>emptySet() : aTypes;
+    }
+    /** Returns the top-level types referenced by the unit */
+    Set<String> getReferencedTypes(final String pUnitName) {
+        final Set<String> aTypes = this.referencedTypes.get(pUnitName);
+        return (aTypes == null) ? Collections.<String>emptySet() : aTypes;
+    }
+    
+    // TaskListener ----------------------------------------------------------------------------------------------------
+    
+    /** {@inheritDoc} */ @Override
+    public void started(final TaskEvent pEvent) {}
+    
+    /** {@inheritDoc} */ @Override
+    public void finished(final TaskEvent pEvent) {
+        final String aUnitName = this.getUnitName(pEvent.getSourceFile());
+        if (aUnitName == null)
+            return;
+        
+        if (pEvent.getKind() == TaskEvent.Kind.ANALYZE) {
+            final CompilationUnitTree aUnitTree = pEvent.getCompilationUnit();
+            if ((aUnitTree != null) && this.analyzedUnits.add(aUnitTree))
+                this.recordReferencedTypes(aUnitName, aUnitTree);
+        
+        } else if (pEvent.getKind() == TaskEvent.Kind.GENERATE) {
+            final TypeElement aType = pEvent.getTypeElement();
+            if (aType != null)
+                GetTypes(this.producedTypes, aUnitName).add(this.getTopLevelName(aType));
+        }
+    }
+    
+    // Privates --------------------------------------------------------------------------------------------------------
+    
+    private void recordReferencedTypes(
+            final String              pUnitName,
+            final CompilationUnitTree pUnitTree) {
+        final Set<String> aTypes = GetTypes(this.referencedTypes, pUnitName);
+        final TreePathScanner<Void, Void> aScanner = new TreePathScanner<Void, Void>() {
+            @Override
+            public Void visitIdentifier(final IdentifierTree pTree, final Void pVoid) {
+                recordElement(aTypes, this.getCurrentPath());
+                return super.visitIdentifier(pTree, pVoid);
+            }
+            @Override
+            public Void visitMemberSelect(final MemberSelectTree pTree, final Void pVoid) {
+                recordElement(aTypes, this.getCurrentPath());
+                return super.visitMemberSelect(pTree, pVoid);
+            }
+        };
+        aScanner.scan(pUnitTree, null);
+    }
+    
+    /** Records the top-level type that encloses (or is) the element of the path */
+    private void recordElement(
+            final Set<String> pTypes,
+            final TreePath    pPath) {
+        final Element aElement = this.trees.getElement(pPath);
+        if (aElement == null)
+            return;
+        
+        Element aType = aElement;
+        while ((aType != null) && !(aType instanceof TypeElement))
+            aType = aType.getEnclosingElement();
+        
+        if (aType != null)
+            pTypes.add(this.getTopLevelName((TypeElement)aType));
+    }
+    
+    private String getTopLevelName(final TypeElement pType) {
+        TypeElement aTopLevel = pType;
+        while (aTopLevel.getEnclosingElement() instanceof TypeElement)
+            aTopLevel = (TypeElement)aTopLevel.getEnclosingElement();
+        
+        final String aName = this.elements.getBinaryName(aTopLevel).toString();
+        return aName;
+    }
+    
+    static private Set<String> GetTypes(
+            final HashMap<String, Set<String>> pTypeMap,
+            final String                       pUnitName) {
+        Set<String> aTypes = pTypeMap.get(pUnitName);
+        if (aTypes == null) {
+            aTypes = new HashSet<String>();
+            pTypeMap.put(pUnitName, aTypes);
+        }
+        return aTypes;
+    }
+    
+    private String getUnitName(final JavaFileObject pSourceFile) {
+        if (pSourceFile == null)
+            return null;
+        
+        final String aUnitName = this.unitNames.get(pSourceFile.getName());
+        return aUnitName;
+    }
+
+}
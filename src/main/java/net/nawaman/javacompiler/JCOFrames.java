@@ -0,0 +1,270 @@
+package net.nawaman.javacompiler;
+
+import java.io.*;
+import java.nio.*;
+
+/**
+ * The framing of the version 2 of the JCO protocol (see JavaCompilerObjectOutputStream).
+ *
+ * The version 1 buffers all the objects and all the class data in the memory and writes them at once when closed. The
+ *   version 2 streams them as frames instead - an object frame is a chunk of the serialized objects and a class frame
+ *   is the ClassData of a class (with its enclosed classes). The class frame of a class is written before the
+ *   objects of the class so the class is known before the objects are read. Writing buffers at most a chunk of the
+ *   objects (and the ClassData being written), reading buffers at most a frame (and the ClassData of the classes not
+ *   resolved yet - see ClassDataIndex).
+ *
+ * <pre>
+ * stream := header frame* END
+ * header := UTF(MAGIC_WORD) UTF(PROTOCOL_NAME) INT(PROTOCOL_VERSION_2_00)
+ *         | UTF(MAGIC_WORD) UTF(PROTOCOL_NAME) INT(PROTOCOL_VERSION_2_01) UTF(codec name)
+ * frame  := OBJECTS INT(length) byte[length]    - a chunk of the object stream
+ *         | CLASS   INT(length) byte[length]    - an encoded ClassData (see ClassData.encode())
+ * </pre>
+ * In the version 2.01, the class frames (the byte code and the code of the classes) are compressed by the codec
+ *   named in the header (see CompressionCodec) - the objects are not.
+ **/
+final class JCOFrames {
+    
+    static final int END     = 0;
+    static final int OBJECTS = 1;
+    static final int CLASS   = 2;
+    
+    /** The size of the chunks of the objects */
+    static final int CHUNK_SIZE = 64*1024;
+    
+    static private final String UNKNOWN_FRAME  = "Unknown JCO frame: %s";
+    static private final String INVALID_LENGTH = "Invalid JCO frame length: %s";
+    
+    private JCOFrames() {}
+    
+    /** Checks if the stream starts with the header of the version 2 (not the header of an ObjectOutputStream) */
+    static boolean IsFramed(final PushbackInputStream pIS) throws IOException {
+        final byte[] aHead  = new byte[2];
+        final int    aCount = pIS.readNBytes(aHead, 0, aHead.length);
+        pIS.unread(aHead, 0, aCount);
+        
+        final int aMagic = ((aHead[0] & 0xFF) << 8) | (aHead[1] & 0xFF);
+        return (aCount == 2) && (aMagic != (ObjectStreamConstants.STREAM_MAGIC & 0xFFFF));
+    }
+    /** Checks if the buffer starts (from its position) with the header of the version 2 */
+    static boolean IsFramed(final ByteBuffer pBuffer) {
+        if (pBuffer.remaining() < 2)
+            return false;
+        
+        final int aMagic = pBuffer.getShort(pBuffer.position()) & 0xFFFF;
+        return (aMagic != (ObjectStreamConstants.STREAM_MAGIC & 0xFFFF));
+    }
+    
+    /** The stream of the objects written as frames */
+    static final class Output extends OutputStream {
+        
+        /** Writes the header of the version 2 and creates the stream of the frames - the codec may be null */
+        Output(
+                final OutputStream     pOS,
+                final CompressionCodec pCodec)
+                throws IOException {
+            this.out   = new DataOutputStream(pOS);
+            this.codec = pCodec;
+            this.out.writeUTF(JavaCompilerObjectOutputStream.MAGIC_WORD);
+            this.out.writeUTF(JavaCompilerObjectOutputStream.PROTOCOL_NAME);
+            if (pCodec == null) {
+                this.out.writeInt(JavaCompilerObjectOutputStream.PROTOCOL_VERSION_2_00);
+            } else {
+                this.out.writeInt(JavaCompilerObjectOutputStream.PROTOCOL_VERSION_2_01);
+                this.out.writeUTF(pCodec.getName());
+            }
+        }
+        
+        final private DataOutputStream out;
+        final private CompressionCodec codec;
+        final private byte[]           chunk = new byte[CHUNK_SIZE];
+        
+        private int     count    = 0;
+        private boolean isClosed = false;
+        
+        /** {@inheritDoc} */ @Override
+        public void write(final int pByte) throws IOException {
+            if (this.count == this.chunk.length)
+                this.writeChunk();
+            
+            this.chunk[this.count++] = (byte)pByte;
+        }
+        /** {@inheritDoc} */ @Override
+        public void write(
+                final byte[] pBytes,
+                final int    pOffset,
+                final int    pLength)
+                throws IOException {
+            int aOffset = pOffset;
+            int aLength = pLength;
+            while (aLength > 0) {
+                if (this.count == this.chunk.length)
+                    this.writeChunk();
+                
+                final int aCount = Math.min(aLength, this.chunk.length - this.count);
+                System.arraycopy(pBytes, aOffset, this.chunk, this.count, aCount);
+                this.count += aCount;
+                aOffset    += aCount;
+                aLength    -= aCount;
+            }
+        }
+        
+        /** Writes the ClassData as a class frame - after the objects written so far */
+        void writeClassData(final ClassData pClassData) throws IOException {
+            this.writeChunk();
+            this.writeFrame(CLASS, EncodeClassData(pClassData, this.codec));
+        }
+        
+        /** {@inheritDoc} */ @Override
+        public void flush() throws IOException {
+            this.writeChunk();
+            this.out.flush();
+        }
+        /** Writes the objects left and the end of the stream and closes the underlying stream */ @Override
+        public void close() throws IOException {
+            if (this.isClosed)
+                return;
+            
+            this.isClosed = true;
+            this.writeChunk();
+            this.out.writeByte(END);
+            this.out.flush();
+            this.out.close();
+        }
+        
+        private void writeChunk() throws IOException {
+            if (this.count == 0)
+                return;
+            
+            this.writeFrame(OBJECTS, this.chunk, this.count);
+            this.count = 0;
+        }
+        private void writeFrame(
+                final int    pType,
+                final byte[] pBytes)
+                throws IOException {
+            this.writeFrame(pType, pBytes, pBytes.length);
+        }
+        private void writeFrame(
+                final int    pType,
+                final byte[] pBytes,
+                final int    pLength)
+                throws IOException {
+            this.out.writeByte(pType);
+            this.out.writeInt(pLength);
+            this.out.write(pBytes, 0, pLength);
+        }
+    }
+    
+    /** The stream of the objects read from the frames - the classes of the class frames are indexed as they come */
+    static final class Input extends InputStream {
+        
+        /** Creates the stream of the objects from the frames (the header is already read) - the codec may be null */
+        Input(
+                final InputStream      pIS,
+                final ClassDataIndex   pClassDatas,
+                final CompressionCodec pCodec) {
+            this.in         = new DataInputStream(pIS);
+            this.buffer     = (pIS instanceof ByteBufferInputStream) ? (ByteBufferInputStream)pIS : null;
+            this.classDatas = pClassDatas;
+            this.codec      = pCodec;
+        }
+        
+        final private DataInputStream       in;
+        final private ByteBufferInputStream buffer;    // The frames in a buffer (e.g. a mapped file) - or null
+        final private ClassDataIndex        classDatas;
+        final private CompressionCodec      codec;
+        
+        private int     remaining = 0;
+        private boolean isEnded   = false;
+        
+        /** {@inheritDoc} */ @Override
+        public int read() throws IOException {
+            if (!this.ensureObjects())
+                return -1;
+            
+            this.remaining--;
+            return this.in.read();
+        }
+        /** {@inheritDoc} */ @Override
+        public int read(
+                final byte[] pBytes,
+                final int    pOffset,
+                final int    pLength)
+                throws IOException {
+            if (pLength == 0)
+                return 0;
+            if (!this.ensureObjects())
+                return -1;
+            
+            final int aCount = this.in.read(pBytes, pOffset, Math.min(pLength, this.remaining));
+            if (aCount > 0)
+                this.remaining -= aCount;
+            return aCount;
+        }
+        /** {@inheritDoc} */ @Override
+        public int available() {
+            return this.remaining;
+        }
+        /** {@inheritDoc} */ @Override
+        public void close() throws IOException {
+            this.in.close();
+        }
+        
+        /** Moves to the next object frame (indexing the classes on the way) - returns false at the end */
+        private boolean ensureObjects() throws IOException {
+            while (this.remaining == 0) {
+                if (this.isEnded)
+                    return false;
+                
+                final int aType = this.in.readByte();
+                if (aType == END) {
+                    this.isEnded = true;
+                    return false;
+                }
+                
+                final int aLength = this.in.readInt();
+                if (aLength < 0)
+                    throw new StreamCorruptedException(String.format(INVALID_LENGTH, aLength));
+                
+                if (aType == OBJECTS) {
+                    this.remaining = aLength;
+                
+                } else if (aType == CLASS) {
+                    this.classDatas.index(this.readClassData(aLength));
+                
+                } else {
+                    throw new StreamCorruptedException(String.format(UNKNOWN_FRAME, aType));
+                }
+            }
+            return true;
+        }
+        private ClassData readClassData(final int pLength) throws IOException {
+            // The byte code in a buffer is not copied - the classes are defined straight from the buffer.
+            if ((this.buffer != null) && (this.codec == null))
+                return ClassData.Decode(this.buffer.slice(pLength));
+            
+            final byte[] aBytes = new byte[pLength];
+            this.in.readFully(aBytes);
+            return DecodeClassData(aBytes, this.codec);
+        }
+    }
+    
+    // Class data ------------------------------------------------------------------------------------------------------
+    
+    static byte[] EncodeClassData(
+            final ClassData        pClassData,
+            final CompressionCodec pCodec)
+            throws IOException {
+        final byte[] aBytes = pClassData.encode();
+        return (pCodec == null) ? aBytes : pCodec.compress(aBytes);
+    }
+    static ClassData DecodeClassData(
+            final byte[]           pBytes,
+            final CompressionCodec pCodec)
+            throws IOException {
+        final byte[] aBytes = (pCodec == null) ? pBytes : pCodec.decompress(pBytes);
+        return ClassData.Decode(aBytes);
+    }
+
+}
@@ -7,7 +7,17 @@ import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.net.URL;
 import java.net.URLClassLoader;
+import java.nio.ByteBuffer;
+import java.security.ProtectionDomain;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
 
 import javax.tools.DiagnosticCollector;
 import javax.tools.JavaFileObject;
@@ -18,10 +28,17 @@ import javax.tools.JavaFileObject;
  * Ghost-pattern is used to make adding/removing classpath transparent. This because adding and
  *   removing the classpath require a new class loader to be re-created.
  * 
+ * The class loader is parallel capable - classes of different names are loaded concurrently (each name has its own
+ *   lock) so the threads touching many compiled classes for the first time do not wait for one another.
+ * 
  * See JavaCompiler
  **/
 class JCompiler extends URLClassLoader {
     
+    static {
+        ClassLoader.registerAsParallelCapable();
+    }
+    
     /** Constructs a JavaCompiler using the ClassLoader of this class as base */
     JCompiler() {
         this(null);
@@ -30,15 +47,54 @@ class JCompiler extends URLClassLoader {
     /** Constructs a JavaCompiler using the given parent ClassLoader as base */
     JCompiler(final ClassLoader pParentClassLoader) {
         super(new URL[0], JCompiler.GetParentClassLoader(pParentClassLoader));
+        
+        // The routes are shared by the whole chain.
+        if (pParentClassLoader instanceof JCompiler) {
+            final JCompiler[] aParentChain = ((JCompiler)pParentClassLoader).chain;
+            this.chain  = Arrays.copyOf(aParentChain, aParentChain.length + 1);
+            this.routes = ((JCompiler)pParentClassLoader).routes;
+        } else {
+            this.chain  = new JCompiler[1];
+            this.routes = new ClassRoutes();
+        }
+        this.chain[this.chain.length - 1] = this;
+        
         this.jjcompiler = new JJCompiler(this);
         this.classpaths = new ClassPaths(this);
+        
+        // The child JCompiler compiles the same codes as its parent.
+        if (pParentClassLoader instanceof JCompiler) {
+            final JJCompiler aParentJJCompiler = ((JCompiler)pParentClassLoader).jjcompiler;
+            this.jjcompiler.setIncremental(aParentJJCompiler.isIncremental());
+            this.jjcompiler.getDependencyGraph().recordAll(
+                    aParentJJCompiler.getDependencyGraph(),
+                    Collections.<String>emptySet());
+        }
     }
     
     // Fields ----------------------------------------------------------------------------------------------------------
     
+    static private final int MAX_MISSING_CLASS_COUNT = 10000;
+    
     private ClassPaths classpaths;
     private JJCompiler jjcompiler;
     
+    // This JCompiler and its parent JCompilers (from the root) and the routes to their classes
+    final private JCompiler[] chain;
+    final private ClassRoutes routes;
+    
+    // The ClassData prepared for the classes of this JCompiler - guarded by itself (so the ClassData of the enclosing
+    //   and the enclosed classes are prepared by the same thread). The cache goes away with this JCompiler.
+    final private HashMap<String, ClassData[]> classDatas = new HashMap<String, ClassData[]>();
+    
+    // The classes already defined (by the JCompilers this JCompiler was compacted from) when this JCompiler was created
+    //   - they are used as they are (not defined again) so their static states and the classes linked to them stay.
+    final private ConcurrentHashMap<String, Class<?>> compactedClasses = new ConcurrentHashMap<String, Class<?>>();
+    
+    // The names of the classes known to be missing - only valid for the generation
+    final private Set<String> missingClassNames = ConcurrentHashMap.newKeySet();
+    private volatile long     missingGeneration = -1;
+    
     // Has Compiled ----------------------------------------------------------------------------------------------------
     
     /**
@@ -48,6 +104,155 @@ class JCompiler extends URLClassLoader {
     boolean hasCompiled() {
         return this.jjcompiler.hasCompiled();
     }
+    /** Checks if a compilation of this JCompiler is running */
+    boolean isCompiling() {
+        return this.jjcompiler.isCompiling();
+    }
+    
+    // Incremental -----------------------------------------------------------------------------------------------------
+    
+    /** Checks if the compilation is incremental. */
+    boolean isIncremental() {
+        return this.jjcompiler.isIncremental();
+    }
+    /** Changes the incremental mode. */
+    void setIncremental(final boolean pIsIncremental) {
+        this.jjcompiler.setIncremental(pIsIncremental);
+    }
+    
+    // Chain -----------------------------------------------------------------------------------------------------------
+    
+    /** Returns the routes to the classes of the chain of this JCompiler */
+    ClassRoutes getClassRoutes() {
+        return this.routes;
+    }
+    /** Returns the depth of this JCompiler in the chain - the root JCompiler is at 0 */
+    int getChainDepth() {
+        return this.chain.length - 1;
+    }
+    /** Checks if the given JCompiler is this JCompiler or one of its parents */
+    boolean isInChain(final JCompiler pJCompiler) {
+        final int aDepth = pJCompiler.getChainDepth();
+        return (aDepth < this.chain.length) && (this.chain[aDepth] == pJCompiler);
+    }
+    /** Returns the file managers of the parent JCompilers (from the root) */
+    MemoryFileManager[] getParentFileManagers() {
+        final MemoryFileManager[] aMFManagers = new MemoryFileManager[this.chain.length - 1];
+        for (int i = 0; i < aMFManagers.length; i++)
+            aMFManagers[i] = this.chain[i].jjcompiler.getMemoryFileManager();
+        return aMFManagers;
+    }
+    
+    // Compaction ------------------------------------------------------------------------------------------------------
+    
+    /**
+     * Creates a JCompiler (with no parent JCompiler) that has the compiled classes, the compiled codes, the pending
+     *   codes and the classpaths visible to this JCompiler.
+     * 
+     * The classes already defined by this chain are used by the new JCompiler as they are (not defined again) - the
+     *   new JCompiler only defines the classes not used yet when they are.
+     **/
+    JCompiler newCompacted() {
+        final JCompiler aCompacted = this.newCompacted(Collections.<String>emptySet(), Collections.<String>emptySet());
+        return aCompacted;
+    }
+    /**
+     * Creates a JCompiler (with no parent JCompiler) just like newCompacted() but without the given classes and
+     *   compiled codes (by their names) - used to evict them (see MemoryBudget).
+     **/
+    JCompiler newCompacted(
+            final Set<String> pExcludedClassNames,
+            final Set<String> pExcludedCodeNames) {
+        final ClassLoader aRootParent = this.chain[0].getParent();
+        final JCompiler   aCompacted  = new JCompiler(aRootParent);
+        aCompacted.setIncremental(this.isIncremental());
+        aCompacted.jjcompiler.getDependencyGraph().recordAll(this.jjcompiler.getDependencyGraph(), pExcludedCodeNames);
+        
+        // This JCompiler has all the current classpaths (they are copied when a new JCompiler is created).
+        for (final URL aURL : this.getURLs())
+            aCompacted.getClassPaths().addURL(aURL);
+        
+        final MemoryFileManager aMFManager = aCompacted.jjcompiler.getMemoryFileManager();
+        for (final Map.Entry<String, JavaClassMemoryFileObject> aEntry : this.getVisibleClassFileObjects().entrySet()) {
+            final String CName = aEntry.getKey();
+            if (pExcludedClassNames.contains(CName))
+                continue;
+            
+            final Class<?> aDefinedClass = this.findDefinedClass(CName);
+            if (aDefinedClass != null)
+                aCompacted.compactedClasses.put(CName, aDefinedClass);
+            aMFManager.putClassFileObjectByName(CName, aEntry.getValue());
+        }
+        for (final Map.Entry<String, CharSequence> aEntry : this.getVisibleCompiledCodes().entrySet()) {
+            if (!pExcludedCodeNames.contains(aEntry.getKey()))
+                aCompacted.jjcompiler.addCompiledCode(aEntry.getKey(), aEntry.getValue());
+        }
+        
+        // The codes not yet compiled
+        final MemoryFileManager aPendingMFManager = this.jjcompiler.getMemoryFileManager();
+        for (final String CName : aPendingMFManager.getCodeNames()) {
+            final JavaCodeMemoryFileObject aCode = aPendingMFManager.getCodeObject(CName);
+            if (aCode != null)
+                aCompacted.addCode(CName, aCode.getPath(), aCode.getCode());
+        }
+        return aCompacted;
+    }
+    
+    /** Returns the class already defined for the name by this chain (or the JCompilers it was compacted from) */
+    Class<?> findDefinedClass(final String pName) {
+        // From the root - the class of the oldest JCompiler is the one visible (as the parent is asked first).
+        for (final JCompiler aJCompiler : this.chain) {
+            final Class<?> aCompactedClass = aJCompiler.compactedClasses.get(pName);
+            if (aCompactedClass != null)
+                return aCompactedClass;
+            
+            final Class<?> aLoadedClass = aJCompiler.findLoadedClass(pName);
+            if (aLoadedClass != null)
+                return aLoadedClass;
+        }
+        return null;
+    }
+    
+    /** Returns the compiled classes visible to this JCompiler (its own and its parents') by their names */
+    Map<String, JavaClassMemoryFileObject> getVisibleClassFileObjects() {
+        // From the root - the class of the oldest JCompiler is the one visible (as the parent is asked first).
+        final HashMap<String, JavaClassMemoryFileObject> aClasses = new HashMap<String, JavaClassMemoryFileObject>();
+        for (final JCompiler aJCompiler : this.chain) {
+            final MemoryFileManager aMFManager = aJCompiler.jjcompiler.getMemoryFileManager();
+            for (final Map.Entry<String, JavaClassMemoryFileObject> aEntry
+                    : aMFManager.getClassFileObjects().entrySet())
+                aClasses.putIfAbsent(aEntry.getKey(), aEntry.getValue());
+        }
+        return aClasses;
+    }
+    /** Returns the compiled codes visible to this JCompiler (its own and its parents') by their names */
+    Map<String, CharSequence> getVisibleCompiledCodes() {
+        final HashMap<String, CharSequence> aCodes = new HashMap<String, CharSequence>();
+        for (final JCompiler aJCompiler : this.chain) {
+            for (final Map.Entry<String, CharSequence> aEntry : aJCompiler.jjcompiler.getCompiledCodes().entrySet())
+                aCodes.putIfAbsent(aEntry.getKey(), aEntry.getValue());
+        }
+        return aCodes;
+    }
+    
+    /** Returns the cache of the ClassData prepared for the classes of this JCompiler (see ClassData) */
+    HashMap<String, ClassData[]> getClassDataCache() {
+        return this.classDatas;
+    }
+    /** Forgets the ClassData prepared for the classes of this JCompiler and its parents */
+    void clearClassDatas() {
+        for (final JCompiler aJCompiler : this.chain)
+            ClassData.ClearCache(aJCompiler);
+    }
+    
+    /** Returns the number of the compiled classes of this JCompiler (not including the parents') */
+    int getCompiledClassCount() {
+        return this.jjcompiler.getMemoryFileManager().getClassFileObjects().size();
+    }
+    /** Returns the number of the compiled codes of this JCompiler (not including the parents') */
+    int getCompiledCodeCount() {
+        return this.jjcompiler.getCompiledCodes().size();
+    }
     
     // Class Paths -----------------------------------------------------------------------------------------------------
     
@@ -57,10 +262,19 @@ class JCompiler extends URLClassLoader {
     String getClasspaths() {
         return this.classpaths.getClasspaths();
     }
+    /** Returns the fingerprint of the classpaths */
+    String getClasspathFingerprint() {
+        return this.classpaths.getClasspathFingerprint();
+    }
+    /** Returns the fingerprint of the classpaths and the states of their files */
+    String getClasspathStateFingerprint() {
+        return this.classpaths.getClasspathStateFingerprint();
+    }
     
     /**{@inheritDoc}*/ @Override
     protected void addURL(final URL pURL) {
         super.addURL(pURL);
+        this.routes.newGeneration();
     }
     
     // Class persistent ------------------------------------------------------------------------------------------------
@@ -73,14 +287,14 @@ class JCompiler extends URLClassLoader {
         return this.isExactSameClassExist(
                 pClassData.getName(),
                 pClassData.getPath(),
-                pClassData.getBytes()
+                pClassData.getByteBuffer()
         );
     }
     /** Checks if the class data exist with the same data */
     private Boolean isExactSameClassExist(
-            final String pName,
-            final String pPath,
-            final byte[] pByteCode) {
+            final String     pName,
+            final String     pPath,
+            final ByteBuffer pByteCode) {
         
         final int    SimpleNameLength = pName.length() - MemoryFileManager.CLASS_FILE_SUFFIX_LENGTH;
         final String SimpleName       = pName.substring(0, SimpleNameLength);
@@ -94,8 +308,8 @@ class JCompiler extends URLClassLoader {
         if (!CheckEquals(aPath, pPath))
             return false;
         
-        final byte[] aBytes = CJCMFO.getBAOS().toByteArray();
-        return Arrays.equals(aBytes, pByteCode);
+        final ByteBuffer aBytes = CJCMFO.getByteBuffer();
+        return (aBytes != null) && aBytes.equals(pByteCode);
     }
     
     /** Add a class data to this JCompiler */
@@ -133,12 +347,18 @@ class JCompiler extends URLClassLoader {
         }
     }
     
-    /** Add a class byte code to this JCompiler */
+    /** Add a class data (encoded or serialized) to this JCompiler */
     boolean addClassDataAsBytes(final byte[] pSerializedClassDataAsByte) {
+        if (pSerializedClassDataAsByte == null)
+            return false;
+        
         ByteArrayInputStream BAIS;
         ObjectInputStream    OIS;
         ClassData            aClassData;
         try {
+            if (ClassDataCodec.IsEncoded(pSerializedClassDataAsByte))
+                return this.addClassData(ClassData.Decode(pSerializedClassDataAsByte));
+            
             BAIS       = new ByteArrayInputStream(pSerializedClassDataAsByte);
             OIS        = new ObjectInputStream(BAIS);
             aClassData = (ClassData)OIS.readObject();
@@ -153,6 +373,14 @@ class JCompiler extends URLClassLoader {
     
     /** Add a class byte code to this JCompiler */
     boolean addClassByteCode(final ClassData pClassData) {
+        // The byte code in a buffer (e.g. a mapped file) is used as is - the class is defined straight from it.
+        if (pClassData.isMapped()) {
+            return this.addClassByteCode(
+                    pClassData.getName(),
+                    pClassData.getPath(),
+                    pClassData.getByteBuffer()
+            );
+        }
         return this.addClassByteCode(
                 pClassData.getName(),
                 pClassData.getPath(),
@@ -168,21 +396,35 @@ class JCompiler extends URLClassLoader {
         if(pName     == null) return false;
         if(pByteCode == null) return false;
         
-        final Boolean IsExistProperly = this.isExactSameClassExist(pName, pPath, pByteCode);
+        final Boolean IsExistProperly = this.isExactSameClassExist(pName, pPath, ByteBuffer.wrap(pByteCode));
         if(IsExistProperly != null)
             return IsExistProperly.booleanValue();
         
-        JavaClassMemoryFileObject CJCMFO = null;
-        try { CJCMFO = new JavaClassMemoryFileObject(pName, pPath, pByteCode); }
-        catch(IOException E) { }
+        // The byte code is shared with the ClassData (both are not modified).
+        this.putClassFileObject(pName, new JavaClassMemoryFileObject(pName, pPath, pByteCode));
+        return true;
+    }
+    /** Add a class byte code in the buffer to this JCompiler - the buffer is not copied so it must not be modified */
+    boolean addClassByteCode(
+            final String     pName,
+            final String     pPath,
+            final ByteBuffer pByteCode) {
+        if(pName     == null) return false;
+        if(pByteCode == null) return false;
         
-        if (CJCMFO == null)
-            return false;
+        final Boolean IsExistProperly = this.isExactSameClassExist(pName, pPath, pByteCode);
+        if(IsExistProperly != null)
+            return IsExistProperly.booleanValue();
         
+        this.putClassFileObject(pName, new JavaClassMemoryFileObject(pName, pPath, pByteCode));
+        return true;
+    }
+    private void putClassFileObject(
+            final String                    pName,
+            final JavaClassMemoryFileObject CJCMFO) {
         final int    SimpleNameLength = pName.length() - MemoryFileManager.CLASS_FILE_SUFFIX_LENGTH;
         final String SimpleName       = pName.substring(0, SimpleNameLength);
         this.jjcompiler.getMemoryFileManager().putClassFileObjectByName(SimpleName, CJCMFO);
-        return true;
     }
     
     /** Returns the ClassData of the compiled class */
@@ -208,6 +450,7 @@ class JCompiler extends URLClassLoader {
             if(JCMFO == null)
                 return null;
             
+            JCMFO.touch();
             final Class<?>  aClass        = this.forName(pName);
             final ClassData aNewClassData = ClassData.NewClassData(
                                                 pName,
@@ -222,18 +465,13 @@ class JCompiler extends URLClassLoader {
                     "Internal Error: Class not found for the class that is sure to exist.", E);
         }
     }
-    /** Returns the byte code of the class */
+    /** Returns the ClassData of the class in its compact binary encoding */
     byte[] getCompiledClassDataAsBytes(final String pName) {
-        try {
-            final ClassData             aClassData = this.getCompiledClassData(pName);
-            final ByteArrayOutputStream BAOS       = new ByteArrayOutputStream();
-            final ObjectOutputStream    OOS        = new ObjectOutputStream(BAOS);
-            OOS.writeObject(aClassData);
-            OOS.close();
-            return BAOS.toByteArray();
-        } catch(Exception E) {
+        final ClassData aClassData = this.getCompiledClassData(pName);
+        if (aClassData == null)
             return null;
-        }
+        
+        return aClassData.encode();
     }
     
     // Code ------------------------------------------------------------------------------------------------------------
@@ -265,6 +503,12 @@ class JCompiler extends URLClassLoader {
      *    compiled class.
      **/
     boolean isLocalClass(final String pCName) {
+        final ClassRoutes.Route aRoute = this.routes.getClassRoute(pCName);
+        if (aRoute == null)
+            return false;
+        if (this.isInChain(aRoute.jcompiler))
+            return true;
+        
         final MemoryFileManager         aFMemory = this.jjcompiler.getMemoryFileManager();
         final JavaClassMemoryFileObject JCMFO    = aFMemory.getClassFileObjectByName(pCName);
         if(JCMFO != null)
@@ -281,6 +525,13 @@ class JCompiler extends URLClassLoader {
     /** Returns the code of the compile class (only available for locally compiled class) */
     String getCode(final String pName) {
         final String aFileName = this.ensureJavaSourceFileName(pName);
+        
+        final ClassRoutes.Route aRoute = this.routes.getCodeRoute(aFileName);
+        if (aRoute == null)
+            return null;
+        if (this.isInChain(aRoute.jcompiler))
+            return aRoute.jcompiler.jjcompiler.getCode(aFileName);
+        
         final String aFileCode = this.jjcompiler.getCode(aFileName);
         if (aFileCode != null)
             return aFileCode;
@@ -329,6 +580,90 @@ class JCompiler extends URLClassLoader {
         final String aReturn = this.prepareReturn(pDiagnosticListener, aError);
         return aReturn;
     }
+    /**
+     * Compile all code files asynchronously with the compile executor.
+     * 
+     * Cancelling the returned future aborts the compilation (the running javac task is aborted at its next event). The
+     *   given action is run once the compilation is over (even when it was cancelled or never started).
+     **/
+    CompletableFuture<CompileResult> compileAsync(
+            final String[] pJavaCOptions,
+            final Runnable pDone) {
+        final DiagnosticCollector<JavaFileObject> aDiagnostics = new DiagnosticCollector<JavaFileObject>();
+        final CompileRequest                      aRequest     = new CompileRequest(pJavaCOptions, aDiagnostics);
+        final CompletableFuture<CompileResult>    aFuture      = new CompletableFuture<CompileResult>();
+        aFuture.whenComplete((pResult, pProblem) -> {
+            if (aFuture.isCancelled())
+                aRequest.cancel();
+        });
+        
+        final long aSubmitTime = System.nanoTime();
+        try {
+            CompileExecutor.Get().execute(() -> {
+                try {
+                    if (aFuture.isDone())
+                        return;
+                    
+                    final long aStartTime = System.nanoTime();
+                    this.jjcompiler.compile(aRequest);
+                    final long aEndTime = System.nanoTime();
+                    aFuture.complete(new CompileResult(
+                            aRequest.getProducedClassNames(),
+                            aDiagnostics.getDiagnostics(),
+                            aStartTime - aSubmitTime,
+                            aEndTime   - aStartTime));
+                } catch (Throwable E) {
+                    aFuture.completeExceptionally(E);
+                } finally {
+                    pDone.run();
+                }
+            });
+        } catch (RejectedExecutionException E) {
+            aFuture.completeExceptionally(E);
+            pDone.run();
+        }
+        return aFuture;
+    }
+    
+    /**
+     * Compile all code files as a batch - the codes are partitioned into independent groups compiled concurrently.
+     * 
+     * @param pGroups  the groups of the code names (null to partition the codes automatically).
+     **/
+    BatchCompileResult compileBatch(
+            final Collection<? extends Collection<String>> pGroups,
+            final String[]                                 pJavaCOptions,
+            final DiagnosticCollector<JavaFileObject>      pDiagnosticListener) {
+        final BatchCompileResult aResult = this.jjcompiler.compileBatch(pGroups, pJavaCOptions, pDiagnosticListener);
+        final String             aError  = this.prepareReturn(pDiagnosticListener, aResult.getError());
+        return new BatchCompileResult(
+                aError,
+                aResult.getGroupCount(),
+                aResult.getWallTimeNanos(),
+                aResult.getGroupTimeNanos());
+    }
+    /**
+     * Compile the codes (by their names) as a throwaway unit.
+     * 
+     * The codes are compiled against the compiled classes of this JCompiler but they are not added to it. The classes
+     *   of the unit are defined by a class loader of the unit (see UnitClassLoader).
+     **/
+    CompiledUnit compileUnit(
+            final Map<String, String>                 pCodes,
+            final String[]                            pJavaCOptions,
+            final DiagnosticCollector<JavaFileObject> pDiagnosticListener) {
+        final MemoryFileManager aUnitFiles = new MemoryFileManager(this.jjcompiler.getMemoryFileManager());
+        for (final Map.Entry<String, String> aEntry : pCodes.entrySet())
+            aUnitFiles.addCode(aEntry.getKey(), "", aEntry.getValue());
+        
+        final CompileRequest  aRequest = new CompileRequest(pJavaCOptions, pDiagnosticListener, true);
+        final String          aError   = this.jjcompiler.compileUnit(aUnitFiles, aRequest);
+        final UnitClassLoader aLoader  = new UnitClassLoader(this, aUnitFiles.getWrittenClassFileObjects());
+        return new CompiledUnit(
+                this.prepareReturn(pDiagnosticListener, aError),
+                aRequest.getProducedClassNames(),
+                aLoader);
+    }
     private String prepareReturn(
             final DiagnosticCollector<JavaFileObject> pDiagnosticListener,
             final String                              pError) {
@@ -347,99 +682,177 @@ class JCompiler extends URLClassLoader {
     Class<?> forName(
             final String pName)
             throws ClassNotFoundException {
-        try {
-            final Class<?> aClass = Class.forName(pName, true, this);
-            return aClass;
-        }
-        catch(ClassNotFoundException CNFE) { }
-        
-        try {
-            final Class<?> aClass = this.findClass(pName);
-            return aClass;
-        } catch(ClassNotFoundException CNFE) { }
+        final Class<?> aClass = this.lookupClass(pName);
+        if (aClass == null)
+            throw new ClassNotFoundException(pName);
         
-        throw new ClassNotFoundException(pName);
+        return aClass;
     }
     
     /** Get a class by name - return null when not found */
     Class<?> getClassByName(final String pName) {
-        try {
-            final Class<?> aClass = Class.forName(pName, true, this);
-            return aClass;
-        } catch(ClassNotFoundException CNFE) { }
+        final Class<?> aClass = this.lookupClass(pName);
+        return aClass;
+    }
+    
+    // Class lookup ----------------------------------------------------------------------------------------------------
+    
+    /**
+     * Looks up a class by name - returns null if not found.
+     * 
+     * The classes compiled by this JCompiler (or its parents) are looked up first. Other classes are loaded through
+     *   loadClass(...) - not only those with a class file as the parent class loaders may define classes that have none
+     *   (e.g., generated ones). The names not found are remembered until the generation of this JCompiler changes (see
+     *   getGeneration()) so the ClassNotFoundException of a missing class is thrown (and caught) once per generation.
+     **/
+    Class<?> lookupClass(final String pName) {
+        if (pName == null)
+            return null;
+        
+        final Class<?> aLocalClass = this.findLocalClass(pName);
+        if (aLocalClass != null) {
+            this.touchClass(pName);
+            return JCompiler.InitializeClass(aLocalClass);
+        }
+        
+        final long aGeneration = this.getGeneration();
+        if (this.isKnownMissingClass(pName, aGeneration))
+            return null;
         
         try {
-            final Class<?> aClass = this.findClass(pName);
+            final Class<?> aClass = Class.forName(pName, true, this);
             return aClass;
-        } catch(ClassNotFoundException CNFE) { }
+        } catch(ClassNotFoundException CNFE) {
+            this.addMissingClass(pName, aGeneration);
+            return null;
+        }
+    }
+    
+    /** Records that the compiled class is used (see MemoryBudget) */
+    private void touchClass(final String pName) {
+        final ClassRoutes.Route aRoute = this.routes.getClassRoute(pName);
+        if (aRoute != null)
+            aRoute.jcmfo.touch();
+    }
+    
+    /** Finds the class compiled by this JCompiler or its parents - returns null if there is none */
+    Class<?> findLocalClass(final String pName) {
+        final Class<?> aLoadedClass = this.findLoadedClass(pName);
+        if (aLoadedClass != null)
+            return aLoadedClass;
         
-        final ClassLoader aParentClassLoader = this.getParent();
-        if (!(aParentClassLoader instanceof JCompiler))
+        final ClassRoutes.Route aRoute = this.routes.getClassRoute(pName);
+        if (aRoute == null)
             return null;
+        if (this.isInChain(aRoute.jcompiler))
+            return aRoute.jcompiler.defineClass(pName, aRoute.jcmfo);
         
-        final Class<?> aClass = ((JCompiler)aParentClassLoader).getClassByName(pName);
+        // The route is to another branch of the chain - look up the chain.
+        final Class<?> aClass = this.findLocalClassInChain(pName);
         return aClass;
     }
-    
-    // Satisfy class loader --------------------------------------------------------------------------------------------
-    
-    /** {@inheritDoc} */ @Override
-    protected Class<?> findClass(
-            final String pClassName)
-            throws ClassNotFoundException {
-        try {
-            final Class<?> aClass = super.findClass(pClassName);
-            if(aClass != null)
-                return aClass;
-        } catch(ClassNotFoundException E) {}
+    private Class<?> findLocalClassInChain(final String pName) {
+        final Class<?> aLoadedClass = this.findLoadedClass(pName);
+        if (aLoadedClass != null)
+            return aLoadedClass;
         
-        final Class<?> aClassInParent = this.findClassInParent(pClassName);
-        if (aClassInParent != null)
-            return aClassInParent;
+        // The class of the parent is used (just like loadClass(...) does).
+        final ClassLoader aParentClassLoader = this.getParent();
+        if (aParentClassLoader instanceof JCompiler) {
+            final Class<?> aClassInParent = ((JCompiler)aParentClassLoader).findLocalClassInChain(pName);
+            if (aClassInParent != null)
+                return aClassInParent;
+        }
         
         final MemoryFileManager         aFMemory = this.jjcompiler.getMemoryFileManager();
-        final JavaClassMemoryFileObject JCMFO    = aFMemory.getClassFileObjectByName(pClassName); 
-        if(JCMFO == null)
-            throw new ClassNotFoundException(pClassName);
-        
-        final Class<?> aClass = this.defineClass(pClassName, JCMFO);
+        final JavaClassMemoryFileObject JCMFO    = aFMemory.getClassFileObjectByName(pName);
+        final Class<?>                  aClass   = this.defineClass(pName, JCMFO);
         return aClass;
     }
     
-    private Class<?> findClassInParent(final String pClassName) {
-        final ClassLoader aParentClassLoader = this.getParent();
-        if (!(aParentClassLoader instanceof JCompiler))
-            return null;
+    /**
+     * Returns the generation of the classes visible to this JCompiler - it changes every time classes are added to this
+     *   JCompiler (compiled classes or classpath) or to the other JCompilers of its chain.
+     **/
+    long getGeneration() {
+        return this.routes.getGeneration();
+    }
+    
+    /** Checks if the class is known to be missing in the current generation */
+    boolean isKnownMissingClass(final String pName) {
+        return this.isKnownMissingClass(pName, this.getGeneration());
+    }
+    
+    private boolean isKnownMissingClass(
+            final String pName,
+            final long   pGeneration) {
+        if (this.missingGeneration != pGeneration)
+            return false;
         
-        try (final JCompiler aParent = (JCompiler)aParentClassLoader) {
-            if(aParent.isLocalClass(pClassName)) {
-                final Class<?> aClass = aParent.findClass(pClassName);
-                return aClass;
+        return this.missingClassNames.contains(pName);
+    }
+    
+    private void addMissingClass(
+            final String pName,
+            final long   pGeneration) {
+        synchronized (this.missingClassNames) {
+            // The names of the older generation are no longer valid.
+            if ((this.missingGeneration != pGeneration) || (this.missingClassNames.size() >= MAX_MISSING_CLASS_COUNT)) {
+                this.missingClassNames.clear();
+                this.missingGeneration = pGeneration;
             }
+            this.missingClassNames.add(pName);
         }
-        catch(ClassNotFoundException CNFE) {}
-        catch (IOException e) {
-            // TODO Auto-generated catch block
-            e.printStackTrace();
+    }
+    
+    // Satisfy class loader --------------------------------------------------------------------------------------------
+    
+    /** {@inheritDoc} */ @Override
+    protected Class<?> findClass(
+            final String pClassName)
+            throws ClassNotFoundException {
+        // The same lock as loadClass(...) - only the threads finding the same class name wait for one another.
+        synchronized (this.getClassLoadingLock(pClassName)) {
+            // The compiled classes are in the memory so they are found before scanning the classpath.
+            final Class<?> aLocalClass = this.findLocalClass(pClassName);
+            if (aLocalClass != null)
+                return aLocalClass;
+            
+            final Class<?> aClass = super.findClass(pClassName);
+            return aClass;
         }
-        
-        return null;
     }
     
+    /** Defines the class from the class file object - returns null if there is no byte code */
     private Class<?> defineClass(
             final String                    pClassName,
-            final JavaClassMemoryFileObject pJCMFO)
-            throws ClassNotFoundException {
+            final JavaClassMemoryFileObject pJCMFO) {
         if(pJCMFO == null)
-            throw new ClassNotFoundException(pClassName);
+            return null;
         
-        if(pJCMFO.getBAOS() == null)
-            throw new ClassNotFoundException(pClassName);
+        if(pJCMFO.getByteCount() == 0)
+            return null;
         
-        final ByteArrayOutputStream aBAOS  = pJCMFO.getBAOS();
-        final byte[]                aBytes = aBAOS.toByteArray();
-        final Class<?>              aClass = this.defineClass(pClassName, aBytes, 0, aBytes.length);
-        return aClass;
+        // The class defined before the compaction is used instead.
+        final Class<?> aCompactedClass = this.compactedClasses.get(pClassName);
+        if (aCompactedClass != null)
+            return aCompactedClass;
+        
+        // The class may be defined by another thread at the same time (e.g., a child JCompiler finding the class in its
+        //   parent) - the one defined first is used.
+        synchronized (this.getClassLoadingLock(pClassName)) {
+            final Class<?> aLoadedClass = this.findLoadedClass(pClassName);
+            if (aLoadedClass != null)
+                return aLoadedClass;
+            
+            // The byte code kept off the heap is defined straight from the direct buffer (not copied to the heap).
+            if (pJCMFO.isOffHeap())
+                return this.defineClass(pClassName, pJCMFO.getByteBuffer(), (ProtectionDomain)null);
+            
+            final byte[]   aBytes = pJCMFO.getByteCode();
+            final Class<?> aClass = this.defineClass(pClassName, aBytes, 0, aBytes.length);
+            return aClass;
+        }
     }
     
     // Privates --------------------------------------------------------------------------------------------------------
@@ -450,6 +863,17 @@ class JCompiler extends URLClassLoader {
         else return pParentClassLoader;
     }
     
+    /** Initializes the class (as Class.forName(...) does) */
+    static private Class<?> InitializeClass(final Class<?> pClass) {
+        try {
+            final Class<?> aClass = Class.forName(pClass.getName(), true, pClass.getClassLoader());
+            return aClass;
+        } catch(ClassNotFoundException CNFE) {
+            // Never happens as the class is already loaded by the loader.
+            return pClass;
+        }
+    }
+    
     static private boolean CheckEquals(
             final String pString1,
             final String pString2) {
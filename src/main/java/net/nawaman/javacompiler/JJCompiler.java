@@ -2,27 +2,60 @@ package net.nawaman.javacompiler;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
 
 import javax.tools.*;
 import javax.tools.JavaCompiler.*;
 
+import com.sun.source.util.*;
+
 final class JJCompiler {
     
     JJCompiler(final JCompiler pJCompiler) {
-        this.jcompiler = pJCompiler;
-        this.compiler  = this.getSystemJavaCompiler();
+        this.jcompiler         = pJCompiler;
+        this.memoryFileManager = new MemoryFileManager(pJCompiler.getClassRoutes(), pJCompiler);
+    }
+    
+    static private final String BATCH_THREAD_NAME_PREFIX = "JavaCompiler-batch-";
+    
+    /**
+     * The pool that compiles the groups of the batches - the engine pool limits how many are compiled at once.
+     * 
+     * The groups block while waiting for an engine (see CompilerEnginePool.borrow()) so they run on plain threads
+     *   (not on a ForkJoinPool that expects its tasks not to block).
+     **/
+    static private final ExecutorService BatchPool = NewBatchPool();
+    
+    /** A compilation session - the file manager with the codes it took and the sessions started before it */
+    static private final class Session {
+        Session(
+                final MemoryFileManager                     pFiles,
+                final Map<String, JavaCodeMemoryFileObject> pTakenCodes,
+                final List<CountDownLatch>                  pEarlierSessions) {
+            this.files           = pFiles;
+            this.takenCodes      = pTakenCodes;
+            this.earlierSessions = pEarlierSessions;
+        }
         
-        StandardJavaFileManager aSFManager = this.compiler.getStandardFileManager(null, null, null);
-        this.memoryFileManager = new MemoryFileManager(aSFManager);
+        final MemoryFileManager                     files;
+        final Map<String, JavaCodeMemoryFileObject> takenCodes;
+        final List<CountDownLatch>                  earlierSessions;
+        final CountDownLatch                        done = new CountDownLatch(1);
+        
+        // The codes to be compiled (the taken codes prepared for the incremental compilation)
+        Map<String, JavaCodeMemoryFileObject> compilingCodes = Collections.emptyMap();
     }
     
     private JCompiler                jcompiler;
-    private javax.tools.JavaCompiler compiler;
     private MemoryFileManager        memoryFileManager;
-    private boolean                  hasCompiled = false;
-    
-    final private HashMap<String, String> compiledCodes   = new HashMap<String, String>();
+    private volatile boolean         hasCompiled   = false;
+    private volatile boolean         isIncremental = false;
     
+    // The codes are kept off the heap if the store is enabled (see OffHeapClassStore).
+    final private ConcurrentHashMap<String, CharSequence> compiledCodes   = new ConcurrentHashMap<>();
+    final private DependencyGraph                         dependencyGraph = new DependencyGraph();
+    final private ArrayList<CountDownLatch>               runningSessions = new ArrayList<CountDownLatch>();
     
     MemoryFileManager getMemoryFileManager() {
         return this.memoryFileManager;
@@ -32,63 +65,504 @@ final class JJCompiler {
     boolean hasCompiled() {
         return this.hasCompiled;
     }
+    /** Checks if a compilation is running (a session is started but not yet ended). **/
+    boolean isCompiling() {
+        synchronized (this.runningSessions) {
+            return !this.runningSessions.isEmpty();
+        }
+    }
+    
+    /**
+     * Checks if the compilation is incremental.
+     * 
+     * In the incremental mode, only the codes that changed since they were last compiled (and the codes that depend on
+     *   them) are compiled. The classes of the unchanged codes are reused.
+     **/
+    boolean isIncremental() {
+        return this.isIncremental;
+    }
+    /** Changes the incremental mode */
+    void setIncremental(final boolean pIsIncremental) {
+        this.isIncremental = pIsIncremental;
+    }
+    
+    /** Returns the dependency graph of the compiled codes (only recorded in the incremental mode) */
+    DependencyGraph getDependencyGraph() {
+        return this.dependencyGraph;
+    }
     
     String getCode(final String pFileName) {
-        final String aCode = this.compiledCodes.get(pFileName);
-        return aCode;
+        final CharSequence aCode = this.compiledCodes.get(pFileName);
+        return (aCode == null) ? null : aCode.toString();
+    }
+    /** Returns the compiled codes by their file names */
+    Map<String, CharSequence> getCompiledCodes() {
+        return Collections.unmodifiableMap(this.compiledCodes);
+    }
+    /** Adds the code compiled elsewhere (e.g., by another JCompiler of the chain) - returns false if there is one. */
+    boolean addCompiledCode(
+            final String       pFileName,
+            final CharSequence pCode) {
+        if (this.compiledCodes.putIfAbsent(pFileName, OffHeapClassStore.Instance.storeCode(pCode)) != null)
+            return false;
+        
+        this.jcompiler.getClassRoutes().addCode(pFileName, this.jcompiler);
+        return true;
     }
     
     String compile(
             final String[]                            pJavaCOptions,
             final DiagnosticCollector<JavaFileObject> pDiagnosticListener) {
+        final String aErrorString = this.compile(new CompileRequest(pJavaCOptions, pDiagnosticListener));
+        return aErrorString;
+    }
+    /**
+     * Compiles the codes as requested.
+     * 
+     * The compilation takes the pending codes into its own session so other threads can add codes or compile at the
+     *   same time. The compiled classes are published when the compilation is done. As the codes added before may have
+     *   been taken by a session started earlier (by another thread), the compilation returns only after those earlier
+     *   sessions are done. If the compilation is cancelled (or fails with an exception), the codes it took are pending
+     *   again and nothing is published.
+     **/
+    String compile(final CompileRequest pRequest) {
+        pRequest.checkCancelled();
+        
+        final Session aSession = this.startSession();
+        boolean       aIsDone  = false;
+        try {
+            final String aErrorString = this.doCompile(aSession.files, pRequest);
+            aIsDone = true;
+            return aErrorString;
+        } finally {
+            this.endSession(aSession, aIsDone);
+        }
+    }
+    /** Starts a session with the pending codes (prepared for incremental compilation if needed) */
+    private Session startSession() {
+        final Session aSession;
+        synchronized (this.runningSessions) {
+            final List<CountDownLatch> aEarlierSessions = new ArrayList<CountDownLatch>(this.runningSessions);
+            final MemoryFileManager    aFiles           = this.memoryFileManager.newSession();
+            aSession = new Session(aFiles, this.getCodeObjects(aFiles), aEarlierSessions);
+            this.runningSessions.add(aSession.done);
+        }
         
-        this.saveCodes_asCompiledCodes();
+        if (this.isIncremental)
+            this.prepareCodes_forIncrementalCompilation(aSession.files);
         
-        final String aErrorString = this.doCompile(pJavaCOptions, pDiagnosticListener);
-        this.clearCompiledCode();
+        // The codes are taken out of the session as their classes are written.
+        aSession.compilingCodes = this.getCodeObjects(aSession.files);
+        return aSession;
+    }
+    /**
+     * Publishes the classes of the session and records its codes as compiled (or gives the codes back if the session
+     *   is not done) then waits for the sessions started earlier.
+     **/
+    private void endSession(
+            final Session pSession,
+            final boolean pIsDone) {
+        if (pIsDone) {
+            this.memoryFileManager.publish(pSession.files);
+            this.saveCodes_asCompiledCodes(pSession.compilingCodes);
+        } else
+            this.memoryFileManager.restoreCodes(pSession.takenCodes);
+        
+        synchronized (this.runningSessions) {
+            this.runningSessions.remove(pSession.done);
+        }
+        pSession.done.countDown();
+        
+        try {
+            for (final CountDownLatch aEarlierSession : pSession.earlierSessions)
+                aEarlierSession.await();
+        } catch (InterruptedException E) {
+            Thread.currentThread().interrupt();
+        }
+    }
+    /**
+     * Compiles the codes of a throwaway unit.
+     * 
+     * The unit file manager sees the compiled classes but its codes and classes are not published - they are not kept
+     *   nor recorded for the incremental compilation.
+     **/
+    String compileUnit(
+            final MemoryFileManager pUnitFiles,
+            final CompileRequest    pRequest) {
+        pRequest.checkCancelled();
         
+        final String aErrorString = this.doCompile(pUnitFiles, pRequest);
         return aErrorString;
     }
-    private void saveCodes_asCompiledCodes() {
-        final MemoryFileManager aMFManager = this.memoryFileManager;
+    /**
+     * Compiles the codes as a batch - the codes are partitioned into independent groups that are compiled concurrently.
+     *
+     * @param pGroups  the groups of the code names (null to partition automatically).
+     **/
+    BatchCompileResult compileBatch(
+            final Collection<? extends Collection<String>> pGroups,
+            final String[]                                 pJavaCOptions,
+            final DiagnosticCollector<JavaFileObject>      pDiagnosticListener) {
+        
+        final CompileRequest    aRequest   = new CompileRequest(pJavaCOptions, pDiagnosticListener);
+        final long              aStartTime = System.nanoTime();
+        final Session           aSession   = this.startSession();
+        final List<Set<String>> aGroups    = this.partitionCodes(aSession.files, pGroups);
+        
+        // No need for a group session.
+        if (aGroups.size() <= 1) {
+            try {
+                final String aErrorString = this.doCompile(aSession.files, aRequest);
+                final long   aTime        = System.nanoTime() - aStartTime;
+                return new BatchCompileResult(aErrorString, aGroups.size(), aTime, aTime);
+            } finally {
+                this.endSession(aSession, true);
+            }
+        }
+        
+        final Vector<MemoryFileManager> aGroupMFManagers = new Vector<MemoryFileManager>();
+        for (final Set<String> aGroup : aGroups)
+            aGroupMFManagers.add(aSession.files.newSession(aGroup));
+        
+        final Vector<Future<String>> aTasks     = new Vector<Future<String>>();
+        final AtomicLong             aGroupTime = new AtomicLong();
+        for (final MemoryFileManager aGroupMFManager : aGroupMFManagers) {
+            aTasks.add(BatchPool.submit(() -> {
+                final long aGroupStartTime = System.nanoTime();
+                try {
+                    return this.doCompile(aGroupMFManager, aRequest);
+                } finally {
+                    aGroupTime.addAndGet(System.nanoTime() - aGroupStartTime);
+                }
+            }));
+        }
+        
+        final StringBuilder aErrors = (pDiagnosticListener == null) ? new StringBuilder() : null;
+        try {
+            for (final Future<String> aTask : aTasks) {
+                final String aErrorString = Join(aTask);
+                if ((aErrors != null) && (aErrorString != null))
+                    aErrors.append(aErrorString);
+            }
+        } finally {
+            // Those compiled are published even if a group fails (just like when the codes are compiled together).
+            for (final MemoryFileManager aGroupMFManager : aGroupMFManagers)
+                aSession.files.publish(aGroupMFManager);
+            this.endSession(aSession, true);
+        }
+        
+        final String aErrorString = (aErrors == null) ? null : aErrors.toString();
+        final long   aWallTime    = System.nanoTime() - aStartTime;
+        return new BatchCompileResult(aErrorString, aGroups.size(), aWallTime, aGroupTime.get());
+    }
+    /** Waits for the group compiled by the batch pool - the problem of the group is thrown as is */
+    static private String Join(final Future<String> pTask) {
+        try {
+            return pTask.get();
+        } catch (ExecutionException E) {
+            final Throwable aCause = E.getCause();
+            if (aCause instanceof RuntimeException)
+                throw (RuntimeException)aCause;
+            if (aCause instanceof Error)
+                throw (Error)aCause;
+            throw new RuntimeException(aCause);
+        } catch (InterruptedException E) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while waiting for a batch group.", E);
+        }
+    }
+    static private ExecutorService NewBatchPool() {
+        final AtomicInteger aThreadCount = new AtomicInteger();
+        return Executors.newFixedThreadPool(CompilerEnginePool.DEFAULT_MAX_SIZE, pRunnable -> {
+            final Thread aThread = new Thread(pRunnable, BATCH_THREAD_NAME_PREFIX + aThreadCount.incrementAndGet());
+            aThread.setDaemon(true);
+            return aThread;
+        });
+    }
+    private List<Set<String>> partitionCodes(
+            final MemoryFileManager                        pSession,
+            final Collection<? extends Collection<String>> pGroups) {
+        final MemoryFileManager aMFManager = pSession;
         final Set<String>       aCodeNames = aMFManager.getCodeNames();
+        if (pGroups != null)
+            return BatchPartition.Of(pGroups, aCodeNames);
+        
+        final HashMap<String, String> aCodes = new HashMap<String, String>();
+        for (final String CName : aCodeNames)
+            aCodes.put(CName, aMFManager.getCode(CName));
         
+        final DependencyGraph aGraph = this.isIncremental ? this.dependencyGraph : null;
+        return BatchPartition.Of(aCodes, aGraph);
+    }
+    private void saveCodes_asCompiledCodes(final Map<String, JavaCodeMemoryFileObject> pCodes) {
+        for (final Map.Entry<String, JavaCodeMemoryFileObject> aEntry : pCodes.entrySet()) {
+            final String CName = aEntry.getKey();
+            final String aCode = aEntry.getValue().getCode();
+            this.compiledCodes.put(CName, OffHeapClassStore.Instance.storeCode(aCode));
+            this.jcompiler.getClassRoutes().addCode(CName, this.jcompiler);
+        }
+    }
+    /**
+     * Leave only the changed codes and their dependents to be compiled.
+     * 
+     * Unchanged codes are removed (their classes are reused) and the compiled codes that depend on the changed ones
+     *   are added back so that they are compiled against the changes.
+     **/
+    private void prepareCodes_forIncrementalCompilation(final MemoryFileManager pSession) {
+        final MemoryFileManager aMFManager    = pSession;
+        final Set<String>       aCodeNames    = new HashSet<String>(aMFManager.getCodeNames());
+        final Set<String>       aChangedNames = new HashSet<String>();
+        
+        for (final String CName : aCodeNames) {
+            final String aHash = ContentHash.Of(aMFManager.getCode(CName));
+            if (!aHash.equals(this.dependencyGraph.getHash(CName)))
+                aChangedNames.add(CName);
+        }
+        
+        final Set<String> aDependentNames = this.dependencyGraph.getDependents(aChangedNames);
         for (final String CName : aCodeNames) {
-            final String aCode = aMFManager.getCode(CName);
-            this.compiledCodes.put(CName, aCode);
+            if (aChangedNames.contains(CName) || aDependentNames.contains(CName))
+                continue;
+            
+            aMFManager.deleteCode(CName);
+        }
+        
+        for (final String DName : aDependentNames) {
+            if (aCodeNames.contains(DName))
+                continue;
+            
+            // The code may be compiled by a parent JCompiler (before a classpath change).
+            final DependencyGraph.Unit aUnit = this.dependencyGraph.getUnit(DName);
+            final String               aCode = this.jcompiler.getCode(DName);
+            if ((aUnit != null) && (aCode != null))
+                aMFManager.addCode(DName, aUnit.path, aCode);
         }
     }
+    /** Compiles the codes in the file manager - returns the error report (if no diagnostic listener) */
     private String doCompile(
-            final String[]                            pJavaCOptions,
-            final DiagnosticCollector<JavaFileObject> pDiagnosticListener) {
+            final MemoryFileManager pMFManager,
+            final CompileRequest    pRequest) {
+        pRequest.checkCancelled();
+        
+        final DiagnosticCollector<JavaFileObject>   aListener = pRequest.getDiagnosticListener();
+        final Map<String, JavaCodeMemoryFileObject> aUnits    = this.getCodeObjects(pMFManager);
+        
+        // Nothing to compile - the codes were taken by another session or none of them has changed.
+        if (aUnits.isEmpty())
+            return (aListener == null) ? "" : null;
+        
+        final Vector<String> aOptions  = this.getCompilationOptions(pRequest.getJavaCOptions());
+        final String         aCacheKey = this.getCacheKey(pRequest, pMFManager, aUnits, aOptions);
+        if ((aCacheKey != null) && this.useCachedResult(pMFManager, aCacheKey, pRequest)) {
+            this.hasCompiled = true;
+            return (aListener == null) ? "" : null;
+        }
         
         final ByteArrayOutputStream aError;
-        if(pDiagnosticListener == null)
+        if(aListener == null)
              aError = new ByteArrayOutputStream();
         else aError = null;
         
-        final CompilationTask aCompilationTask = this.prepareCompilationTask(
-                pJavaCOptions,
-                pDiagnosticListener,
-                aError);
+        final int aDiagnosticCount = (aListener == null) ? 0 : aListener.getDiagnostics().size();
         
-        aCompilationTask.call();
-        this.hasCompiled = true;
+        final CompilerEngine aEngine = CompilerEnginePool.Instance.borrow();
+        try {
+            pMFManager.attach(aEngine.getFileManager());
+            pMFManager.takeOutputs();
+            
+            final CompilationTask aCompilationTask = this.prepareCompilationTask(
+                    pMFManager,
+                    aEngine.getCompiler(),
+                    aOptions,
+                    aListener,
+                    aError);
+            
+            // The request listens to the task so that the task can be aborted when the request is cancelled.
+            if (aCompilationTask instanceof JavacTask)
+                ((JavacTask)aCompilationTask).addTaskListener(pRequest);
+            
+            final DependencyRecorder aRecorder  = this.newDependencyRecorder(pRequest, aCompilationTask, aUnits);
+            final Boolean            aIsSuccess = aCompilationTask.call();
+            this.hasCompiled = true;
+            
+            final Vector<JavaClassMemoryFileObject> aOutputs = pMFManager.takeOutputs();
+            for (final JavaClassMemoryFileObject aOutput : aOutputs)
+                pRequest.addProducedClassName(aOutput.getBinaryName());
+            
+            final boolean aIsSucceeded = Boolean.TRUE.equals(aIsSuccess);
+            final DependencyGraph.Unit[] aRecordedUnits = ((aRecorder != null) && aIsSucceeded)
+                    ? this.recordDependencies(aUnits, aRecorder)
+                    : null;
+            
+            // Only clean compilation is cached as the diagnostics are not.
+            final int     aNewDiagnosticCount = (aListener == null)
+                                              ? 0
+                                              : aListener.getDiagnostics().size() - aDiagnosticCount;
+            final boolean aIsClean            = aIsSucceeded
+                                             && (aNewDiagnosticCount == 0)
+                                             && ((aError == null) || (aError.size() == 0));
+            if ((aCacheKey != null) && aIsClean)
+                this.cacheResult(aCacheKey, aUnits, aRecordedUnits, aOutputs);
+            
+        } finally {
+            if (pMFManager.isOptionHandled())
+                aEngine.markOptionsChanged();
+            pMFManager.detach();
+            CompilerEnginePool.Instance.release(aEngine);
+        }
         
         final String aErrorString = (aError == null) ? null : aError.toString();
         return aErrorString;
     }
-    private void clearCompiledCode() {
-        this.memoryFileManager.clearCode();
+    
+    // Result cache ----------------------------------------------------------------------------------------------------
+    
+    /** Returns the key of the compilation in the result cache or null if the compilation should not be cached. */
+    private String getCacheKey(
+            final CompileRequest                        pRequest,
+            final MemoryFileManager                     pMFManager,
+            final Map<String, JavaCodeMemoryFileObject> pUnits,
+            final Vector<String>                        pOptions) {
+        if (pUnits.isEmpty())
+            return null;
+        if (!CompileResultCache.Instance.isEnabled() && !PersistentClassCache.Instance.isEnabled())
+            return null;
+        
+        // The results of the incremental compilations also have the dependencies.
+        final Vector<String> aKeyOptions = new Vector<String>(pOptions);
+        if (this.isIncremental(pRequest))
+            aKeyOptions.add("<incremental>");
+        
+        final String aClasspathFingerprint = this.jcompiler.getClasspathFingerprint();
+        final String aClassesFingerprint   = pMFManager.getClassesFingerprint();
+        final String aKey = CompileResultCache.NewKey(pUnits, aKeyOptions, aClasspathFingerprint, aClassesFingerprint);
+        return aKey;
+    }
+    /** Use the cached compilation result (if any) as if the codes were compiled and returns true if there is one. */
+    private boolean useCachedResult(
+            final MemoryFileManager pMFManager,
+            final String            pCacheKey,
+            final CompileRequest    pRequest) {
+        CompileResultCache.CachedResult aResult = CompileResultCache.Instance.get(pCacheKey);
+        if (aResult == null) {
+            // Look in the persistent cache and keep the found result in the memory for later.
+            if (!PersistentClassCache.Instance.isEnabled())
+                return false;
+            
+            aResult = PersistentClassCache.Instance.get(this.getPersistentCacheKey(pCacheKey));
+            if (aResult == null)
+                return false;
+            
+            CompileResultCache.Instance.put(pCacheKey, aResult);
+        }
+        
+        // The byte code is shared with the cache (both are not modified).
+        for (final CompileResultCache.CachedClass aClass : aResult.classes) {
+            final JavaClassMemoryFileObject aJCMFO = new JavaClassMemoryFileObject(
+                                                        aClass.fileName,
+                                                        aClass.path,
+                                                        aClass.bytes);
+            pMFManager.putClassFileObjectByName(aClass.binaryName, aJCMFO);
+            pRequest.addProducedClassName(aClass.binaryName);
+        }
+        
+        if (this.isIncremental(pRequest) && (aResult.units != null)) {
+            for (final DependencyGraph.Unit aUnit : aResult.units)
+                this.dependencyGraph.record(aUnit);
+        }
+        return true;
+    }
+    /** Keeps the classes just compiled in the result cache */
+    private void cacheResult(
+            final String                                pCacheKey,
+            final Map<String, JavaCodeMemoryFileObject> pUnits,
+            final DependencyGraph.Unit[]                pRecordedUnits,
+            final Vector<JavaClassMemoryFileObject>     pOutputs) {
+        final CompileResultCache.CachedClass[] aClasses = new CompileResultCache.CachedClass[pOutputs.size()];
+        for (int i = 0; i < aClasses.length; i++) {
+            final JavaClassMemoryFileObject aJCMFO = pOutputs.get(i);
+            aClasses[i] = new CompileResultCache.CachedClass(
+                            aJCMFO.getBinaryName(),
+                            aJCMFO.getFileName(),
+                            aJCMFO.getPath(),
+                            aJCMFO.getByteCode());
+        }
+        
+        long aCodeSize = 0;
+        for (final JavaCodeMemoryFileObject aCode : pUnits.values())
+            aCodeSize += 2L*aCode.getCode().length();
+        
+        final CompileResultCache.CachedResult aResult = new CompileResultCache.CachedResult(
+                                                            aClasses,
+                                                            pRecordedUnits,
+                                                            aCodeSize);
+        CompileResultCache.Instance.put(pCacheKey, aResult);
+        if (PersistentClassCache.Instance.isEnabled())
+            PersistentClassCache.Instance.put(this.getPersistentCacheKey(pCacheKey), aResult);
+    }
+    /**
+     * Returns the key of the compilation in the persistent cache - it also covers the states of the classpath files as
+     *   they may be changed between the runs.
+     **/
+    private String getPersistentCacheKey(final String pCacheKey) {
+        final String aKey = ContentHash.Of(pCacheKey, this.jcompiler.getClasspathStateFingerprint());
+        return aKey;
     }
     
+    // Incremental -----------------------------------------------------------------------------------------------------
+    
+    /** Checks if the compilation of the request is incremental - the throwaway units are never recorded */
+    private boolean isIncremental(final CompileRequest pRequest) {
+        return this.isIncremental && !pRequest.isUnit();
+    }
+    private Map<String, JavaCodeMemoryFileObject> getCodeObjects(final MemoryFileManager pMFManager) {
+        final HashMap<String, JavaCodeMemoryFileObject> aCodes = new HashMap<String, JavaCodeMemoryFileObject>();
+        for (final String CName : pMFManager.getCodeNames())
+            aCodes.put(CName, pMFManager.getCodeObject(CName));
+        return aCodes;
+    }
+    private DependencyRecorder newDependencyRecorder(
+            final CompileRequest                        pRequest,
+            final CompilationTask                       pCompilationTask,
+            final Map<String, JavaCodeMemoryFileObject> pUnits) {
+        if (!this.isIncremental(pRequest) || !(pCompilationTask instanceof JavacTask))
+            return null;
+        
+        final JavacTask          aJavacTask = (JavacTask)pCompilationTask;
+        final DependencyRecorder aRecorder  = new DependencyRecorder(aJavacTask, pUnits);
+        aJavacTask.addTaskListener(aRecorder);
+        return aRecorder;
+    }
+    private DependencyGraph.Unit[] recordDependencies(
+            final Map<String, JavaCodeMemoryFileObject> pUnits,
+            final DependencyRecorder                    pRecorder) {
+        final Vector<DependencyGraph.Unit> aUnits = new Vector<DependencyGraph.Unit>();
+        for (final Map.Entry<String, JavaCodeMemoryFileObject> aEntry : pUnits.entrySet()) {
+            final String                   aName  = aEntry.getKey();
+            final JavaCodeMemoryFileObject aCode  = aEntry.getValue();
+            final String                   aHash  = ContentHash.Of(aCode.getCode());
+            final DependencyGraph.Unit     aUnit  = new DependencyGraph.Unit(
+                                                        aName,
+                                                        aCode.getPath(),
+                                                        aHash,
+                                                        pRecorder.getProducedTypes(aName),
+                                                        pRecorder.getReferencedTypes(aName));
+            this.dependencyGraph.record(aUnit);
+            aUnits.add(aUnit);
+        }
+        return aUnits.toArray(new DependencyGraph.Unit[aUnits.size()]);
+    }
+    
+    // Utilities -------------------------------------------------------------------------------------------------------
+    
     private CompilationTask prepareCompilationTask(
-            final String[]                            pOptions,
+            final MemoryFileManager                   pMFManager,
+            final javax.tools.JavaCompiler            pCompiler,
+            final Vector<String>                      pCompilationOptions,
             final DiagnosticCollector<JavaFileObject> pDiagnosticListener,
             final ByteArrayOutputStream               pBAOS) {
         
-        final Iterable<JavaFileObject> aFiles_tobeCompiled = this.getAllFiles_tobeCompiled();
-        final Vector<String>           aCompilationOptions = this.getCompilationOptions(pOptions);
+        final Iterable<JavaFileObject> aFiles_tobeCompiled = this.getAllFiles_tobeCompiled(pMFManager);
         final OutputStreamWriter       aOSWriter_forErrors;
         
         if (pBAOS != null)
@@ -96,20 +570,19 @@ final class JJCompiler {
         else aOSWriter_forErrors = null;
         
         /** Actually compile the code */
-        CompilationTask aCompilationTask = this.compiler.getTask(
+        CompilationTask aCompilationTask = pCompiler.getTask(
                 /* Output writer */              aOSWriter_forErrors,
-                /* FileManager */                this.memoryFileManager,
+                /* FileManager */                pMFManager,
                 /* DiagnosticListener */         pDiagnosticListener,
-                /* Option:String[] */            aCompilationOptions,
+                /* Option:String[] */            pCompilationOptions,
                 /* File names (annotation) */    null,
                 /* FileObjects to be compiled */ aFiles_tobeCompiled);
         return aCompilationTask;
     }
     @SuppressWarnings("unchecked")
-    private Iterable<JavaFileObject> getAllFiles_tobeCompiled() {
-        final MemoryFileManager                  aMFManager = this.memoryFileManager;
-        final Set<String>                        aFileNames = aMFManager.getCodeNames();
-        final Iterable<? extends JavaFileObject> aFOs       = aMFManager.getJavaFileObjectsFromStrings(aFileNames);
+    private Iterable<JavaFileObject> getAllFiles_tobeCompiled(final MemoryFileManager pMFManager) {
+        final Set<String>                        aFileNames = pMFManager.getCodeNames();
+        final Iterable<? extends JavaFileObject> aFOs       = pMFManager.getJavaFileObjectsFromStrings(aFileNames);
         final Iterable<JavaFileObject>           aFiles     = (Iterable<JavaFileObject>)aFOs;
         return aFiles;
     }
@@ -146,32 +619,8 @@ final class JJCompiler {
         return aOptions;
     }
     private String getClassPathForCompilation() { 
-        String aClasspath = this.jcompiler.getClasspaths();
-        
-        final ClassLoader aParentClassLoader = this.jcompiler.getParent();
-        if (aParentClassLoader instanceof JCompiler) {
-            try (final JCompiler pParent = (JCompiler)aParentClassLoader) {
-                aClasspath += ":" + pParent.getClasspaths();
-            } catch (IOException e) {
-                // TODO Auto-generated catch block
-                e.printStackTrace();
-            }
-        }
-        
-        return aClasspath;
-    }
-    
-    private javax.tools.JavaCompiler getSystemJavaCompiler() {
-        final javax.tools.JavaCompiler aCompiler = ToolProvider.getSystemJavaCompiler();
-        
-        if (aCompiler == null) {
-            // Unable to initialize the java compiler
-            throw new RuntimeException(
-                "Unable to initialize the java compiler. Ensure that the class 'com.sun.tools.javac.api.JavacTool' " +
-                "(found in <jdk-dir>/lib/tools.jar) is in the class path.");
-        }
-        
-        return aCompiler;
+        // The entries already have the ones of the parent JCompiler (and the URLs copied from it).
+        return this.jcompiler.getClasspaths();
     }
     
 }
@@ -1,6 +1,9 @@
 package net.nawaman.javacompiler;
 
 import java.io.*;
+import java.nio.*;
+import java.security.*;
+import java.util.*;
 
 import javax.lang.model.element.*;
 
@@ -25,20 +28,35 @@ final class JavaClassMemoryFileObject extends MemoryFileObject {
             final String pName,
             final String pPath) {
         super(pName, pPath);
-        this.BAOS = new ByteArrayOutputStream();
+        this.touch();
     }
+    /** Creates a class file object with the byte code - the byte code is kept as is so it must not be modified. */
     JavaClassMemoryFileObject(
             final String pName,
             final String pPath,
-            final byte[] pByteCode)
-            throws IOException {
+            final byte[] pByteCode) {
         this(pName, pPath);
-        
-        this.BAOS.write(pByteCode);
-        this.BAOS.close();
+        this.setByteCode(pByteCode);
+    }
+    /** Creates a class file object with the byte code in the buffer (e.g. a region of a mapped file) - not copied */
+    JavaClassMemoryFileObject(
+            final String     pName,
+            final String     pPath,
+            final ByteBuffer pByteCode) {
+        this(pName, pPath);
+        this.byteCode = pByteCode.asReadOnlyBuffer();
     }
     
-    private ByteArrayOutputStream BAOS;
+    // The byte code - sealed (never modified) once the output stream is closed, so it is shared without copying. It
+    //   wraps the byte array or it is a direct buffer if the byte code is kept off the heap (see OffHeapClassStore) or
+    //   in a mapped file.
+    private volatile ByteBuffer byteCode    = null;
+    private          String     contentHash = null;
+    
+    // The name of the code the class is compiled from (null if not known) and the last time the class was used.
+    private volatile String      sourceName          = null;
+    private volatile long        lastUsedTime        = 0;
+    private volatile Set<String> referencedUnitNames = null;
 
     /** Gets the kind of this file object. */
     public Kind getKind() {
@@ -65,29 +83,140 @@ final class JavaClassMemoryFileObject extends MemoryFileObject {
         if (!IsTypeMatch)
             return false;
         
-        final String  aName       = this.getName();
-        final boolean aIsNameMatch = aName.equals(pSimpleName);
+        final String  aBinaryName  = this.getBinaryName();
+        final String  aSimpleName  = aBinaryName.substring(aBinaryName.lastIndexOf('.') + 1);
+        final boolean aIsNameMatch = aSimpleName.equals(pSimpleName);
         return aIsNameMatch;
     }
     
-    ByteArrayOutputStream getBAOS() {
-        return this.BAOS;
+    /** Returns the binary name of the class this file object holds (e.g. 'pkg.Outer$Inner'). */
+    String getBinaryName() {
+        final String aFileName = this.getFileName();
+        if (!aFileName.endsWith(MemoryFileManager.CLASS_FILE_SUFFIX))
+            return aFileName;
+        
+        final int    aNameLength = aFileName.length() - MemoryFileManager.CLASS_FILE_SUFFIX_LENGTH;
+        final String aBinaryName = aFileName.substring(0, aNameLength);
+        return aBinaryName;
+    }
+    
+    /**
+     * Returns the byte code or null if the class file is not yet written - the byte array is shared (must not be
+     *   modified) or it is a copy if the byte code is kept off the heap.
+     **/
+    byte[] getByteCode() {
+        final ByteBuffer aByteCode = this.byteCode;
+        if (aByteCode == null)
+            return null;
+        if (aByteCode.hasArray())
+            return aByteCode.array();
+        
+        final byte[] aBytes = new byte[aByteCode.remaining()];
+        aByteCode.duplicate().get(aBytes);
+        return aBytes;
+    }
+    /** Returns a read-only view of the byte code or null if the class file is not yet written. */
+    ByteBuffer getByteBuffer() {
+        final ByteBuffer aByteCode = this.byteCode;
+        return (aByteCode == null) ? null : aByteCode.asReadOnlyBuffer();
+    }
+    /** Returns the length of the byte code */
+    int getByteCount() {
+        final ByteBuffer aByteCode = this.byteCode;
+        return (aByteCode == null) ? 0 : aByteCode.remaining();
+    }
+    /** Checks if the byte code is kept off the heap */
+    boolean isOffHeap() {
+        final ByteBuffer aByteCode = this.byteCode;
+        return (aByteCode != null) && aByteCode.isDirect();
+    }
+    
+    /** Returns the name of the code the class is compiled from or null if not known */
+    String getSourceName() {
+        return this.sourceName;
+    }
+    /** Records the name of the code the class is compiled from */
+    void setSourceName(final String pSourceName) {
+        this.sourceName = pSourceName;
+    }
+    
+    /** Records that the class is used (defined, looked up or read by javac) */
+    void touch() {
+        this.lastUsedTime = System.nanoTime();
+    }
+    /** Returns the last time the class was used (in the time of System.nanoTime()) */
+    long getLastUsedTime() {
+        return this.lastUsedTime;
+    }
+    
+    /** Returns the names of the top-level classes the byte code may refer to (computed once) - see ClassReferences */
+    Set<String> getReferencedUnitNames() {
+        Set<String> aNames = this.referencedUnitNames;
+        if (aNames == null) {
+            final ByteBuffer aByteCode = this.byteCode;
+            aNames = (aByteCode == null) ? Collections.<String>emptySet() : ClassReferences.Of(aByteCode.duplicate());
+            this.referencedUnitNames = aNames;
+        }
+        return aNames;
+    }
+    
+    /** Seals the byte code into this file object - off the heap if the store has room for it */
+    private void setByteCode(final byte[] pBytes) {
+        final ByteBuffer aOffHeap = OffHeapClassStore.Instance.store(pBytes);
+        this.contentHash         = null;
+        this.referencedUnitNames = null;
+        this.byteCode            = (aOffHeap != null) ? aOffHeap : (pBytes == null) ? null : ByteBuffer.wrap(pBytes);
     }
 
+    /** Returns the hash of the byte code (computed once until the byte code is written again). */
+    String getContentHash() {
+        String aHash = this.contentHash;
+        if (aHash == null) {
+            final MessageDigest aDigest = ContentHash.NewDigest();
+            final ByteBuffer aByteCode = this.byteCode;
+            if (aByteCode != null)
+                aDigest.update(aByteCode.duplicate());
+            aHash = ContentHash.ToHex(aDigest.digest());
+            this.contentHash = aHash;
+        }
+        return aHash;
+    }
+    
+    /** The output stream of the byte code - the byte code is sealed into this file object when the stream is closed */
+    private final class SealingOutputStream extends ByteArrayOutputStream {
+        private boolean isClosed = false;
+        
+        /** {@inheritDoc} */ @Override
+        public synchronized void close() {
+            if (this.isClosed)
+                return;
+            
+            this.isClosed = true;
+            // The buffer is given away (trimmed if needed) - nothing else holds it.
+            final byte[] aBytes = (this.count == this.buf.length) ? this.buf : Arrays.copyOf(this.buf, this.count);
+            JavaClassMemoryFileObject.this.setByteCode(aBytes);
+        }
+    }
+    
     // FileObject ----------------------------------------------------------------------------------
 
     /** Gets an InputStream for this file object. */
     public InputStream openInputStream() {
-        final byte[]      BAOS_Bytes   = this.BAOS.toByteArray();
-        final InputStream aInputStream = new ByteArrayInputStream(BAOS_Bytes);
+        this.touch();
+        
+        final ByteBuffer aByteCode = this.byteCode;
+        if (aByteCode == null)
+            return new ByteArrayInputStream(ClassData.EMPTY_ARRAY_BYTE);
+        if (aByteCode.hasArray())
+            return new ByteArrayInputStream(aByteCode.array());
+        
+        final InputStream aInputStream = new ByteBufferInputStream(aByteCode.duplicate());
         return aInputStream;
     }
-
-    /** Gets an OutputStream for this file object. */
+    /** Gets an OutputStream for this file object - the written byte code is used once the stream is closed. */
     public OutputStream openOutputStream() {
         this.updateLastModified();
-        this.BAOS = new ByteArrayOutputStream();
-        return this.BAOS;
+        return new SealingOutputStream();
     }
 
     /** Gets a reader for this object. */
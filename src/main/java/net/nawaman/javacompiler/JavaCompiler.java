@@ -1,7 +1,12 @@
 package net.nawaman.javacompiler;
 
+import java.io.*;
 import java.net.*;
 import java.security.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.locks.*;
+import java.util.function.*;
 
 import javax.tools.*;
 
@@ -95,7 +100,19 @@ final public class JavaCompiler {
         });
     }
     
-    private JCompiler jcompiler;
+    /** The default depth of the class loader chain that triggers the automatic compaction (0 - never, it is opt-in) */
+    static public final int DEFAULT_COMPACTION_THRESHOLD = 0;
+    
+    private volatile JCompiler        jcompiler;
+    private volatile int              compactionThreshold  = DEFAULT_COMPACTION_THRESHOLD;
+    private volatile CompactionReport lastCompactionReport = null;
+    
+    final private MemoryBudget memoryBudget = new MemoryBudget();
+    
+    // The JCompiler is only replaced (under the write lock) while no code is being added or compiled (under the read
+    //   lock) so nothing is added to or compiled by the old one after the new one took its states. A stamped lock is
+    //   used because the read lock of an asynchronous compilation is released by the thread that compiled.
+    final private StampedLock replaceLock = new StampedLock();
     
     /** Debug flag */
     static public boolean DEBUG_MODE = false;
@@ -110,32 +127,327 @@ final public class JavaCompiler {
         return this.jcompiler;
     }
     
+    // Compiler engines ------------------------------------------------------------------------------------------------
+    
+    /**
+     * Configures the process-wide pool of javac engines shared by all JavaCompilers.
+     * 
+     * @param pMaxSize           the maximum number of engines (the number of compilations that can run at once).
+     * @param pWarmupCount       the number of engines to be created and warmed up right away and kept even when idle.
+     * @param pIdleTimeoutMillis the time an engine can stay idle before it is disposed.
+     **/
+    static public void ConfigureEnginePool(
+            final int  pMaxSize,
+            final int  pWarmupCount,
+            final long pIdleTimeoutMillis) {
+        CompilerEnginePool.Instance.configure(pMaxSize, pWarmupCount, pIdleTimeoutMillis);
+    }
+    
+    /** Returns the maximum number of javac engines in the pool */
+    static public int GetEnginePoolMaxSize() {
+        return CompilerEnginePool.Instance.getMaxSize();
+    }
+    
+    /** Returns the number of javac engines that are currently idle in the pool */
+    static public int GetEnginePoolIdleCount() {
+        return CompilerEnginePool.Instance.getIdleCount();
+    }
+    
+    // Compile result cache --------------------------------------------------------------------------------------------
+    
+    /**
+     * Changes the memory budget of the process-wide compile result cache.
+     *
+     * The result of a clean compilation is cached by the hash of its codes, options, classpath and the visible compiled
+     *   classes so compiling the same codes again (by any JavaCompiler) does not invoke javac. The least recently used
+     *   results are evicted when the budget is exceeded. Zero disables the cache (the default).
+     *
+     * As javac is not invoked for a cached result, the annotation processors are not run again so the cache should not
+     *   be enabled when the codes are compiled for the side effects of the processors.
+     **/
+    static public void ConfigureCompileCache(final long pMaxBytes) {
+        CompileResultCache.Instance.configure(pMaxBytes);
+    }
+    
+    /** Returns the number of compilations served from the compile result cache */
+    static public long GetCompileCacheHitCount() {
+        return CompileResultCache.Instance.getHitCount();
+    }
+    /** Returns the number of compilations not found in the compile result cache */
+    static public long GetCompileCacheMissCount() {
+        return CompileResultCache.Instance.getMissCount();
+    }
+    /** Returns the number of results evicted from the compile result cache */
+    static public long GetCompileCacheEvictionCount() {
+        return CompileResultCache.Instance.getEvictionCount();
+    }
+    /** Returns the memory currently used by the compile result cache */
+    static public long GetCompileCacheUsedBytes() {
+        return CompileResultCache.Instance.getUsedBytes();
+    }
+    
+    /** Removes all the results in the compile result cache */
+    static public void ClearCompileCache() {
+        CompileResultCache.Instance.clear();
+    }
+    
+    /**
+     * Uses the directory as the persistent compile result cache so the results survive JVM restarts.
+     *
+     * The results are looked up in the memory first, then in the directory, before invoking javac. Null disables the
+     *   persistent cache.
+     *
+     * @param pDirectoryPath  the path of the cache directory (created if not exist).
+     * @param pMaxBytes       the maximum size of the cache data file.
+     **/
+    static public void SetPersistentCompileCache(
+            final String pDirectoryPath,
+            final long   pMaxBytes)
+            throws IOException {
+        final File aDirectory = (pDirectoryPath == null) ? null : new File(pDirectoryPath);
+        PersistentClassCache.Instance.configure(aDirectory, pMaxBytes);
+    }
+    
+    /** Returns the number of compilations served from the persistent compile result cache */
+    static public long GetPersistentCompileCacheHitCount() {
+        return PersistentClassCache.Instance.getHitCount();
+    }
+    /** Returns the number of compilations not found in the persistent compile result cache */
+    static public long GetPersistentCompileCacheMissCount() {
+        return PersistentClassCache.Instance.getMissCount();
+    }
+    /** Returns the size of the persistent compile result cache data file */
+    static public long GetPersistentCompileCacheSize() {
+        return PersistentClassCache.Instance.getDataSize();
+    }
+    
+    // Off-heap class store --------------------------------------------------------------------------------------------
+    
+    /**
+     * Changes the memory budget of the process-wide off-heap store of the compiled classes.
+     *
+     * When enabled, the byte code of the compiled classes and the compiled codes kept by all JavaCompilers are held in
+     *   direct buffers (outside of the Java heap) and the classes are defined straight from them. Once the budget is
+     *   used up, the new ones stay on the heap. The memory is given back when the classes (or the JavaCompilers) are no
+     *   longer used. Zero disables the store (the default).
+     * 
+     * The direct memory of the JVM is limited by '-XX:MaxDirectMemorySize' (the maximum heap size by default).
+     **/
+    static public void ConfigureOffHeapClassStore(final long pMaxBytes) {
+        OffHeapClassStore.Instance.configure(pMaxBytes);
+    }
+    
+    /** Returns the memory budget of the off-heap class store (zero if disabled) */
+    static public long GetOffHeapClassStoreMaxBytes() {
+        return OffHeapClassStore.Instance.getMaxBytes();
+    }
+    /** Returns the memory currently used by the off-heap class store */
+    static public long GetOffHeapClassStoreUsedBytes() {
+        return OffHeapClassStore.Instance.getUsedBytes();
+    }
+    /** Returns the number of the byte code and codes currently in the off-heap class store */
+    static public long GetOffHeapClassStoreEntryCount() {
+        return OffHeapClassStore.Instance.getEntryCount();
+    }
+    /** Returns the number of the byte code and codes left on the heap because the off-heap budget was used up */
+    static public long GetOffHeapClassStoreRejectedCount() {
+        return OffHeapClassStore.Instance.getRejectedCount();
+    }
+    
     // Classpath ------------------------------------------------------------------------------------------------------- 
     
     /** Add a jar file as class path into the ClassLoader */
-    public void addClasspathURL(final String pUrlPath) {
-        this.jcompiler = this.jcompiler.getClassPaths().addClasspathURL(pUrlPath);
+    public synchronized void addClasspathURL(final String pUrlPath) {
+        this.replaceJCompiler(J -> J.getClassPaths().addClasspathURL(pUrlPath));
+        this.compactIfNeeded();
     }
     /** Add a jar file as class path into the ClassLoader */
-    public void removeClasspathURL(final String pUrlPath) {
-        this.jcompiler = this.jcompiler.getClassPaths().removeClasspathURL(pUrlPath);
+    public synchronized void removeClasspathURL(final String pUrlPath) {
+        this.replaceJCompiler(J -> J.getClassPaths().removeClasspathURL(pUrlPath));
+        this.compactIfNeeded();
     }
     
     /** Add a jar file as class path into the ClassLoader */
-    public void addJarFile(final String pPath) {
-        this.jcompiler = this.jcompiler.getClassPaths().addJarFile(pPath);
+    public synchronized void addJarFile(final String pPath) {
+        this.replaceJCompiler(J -> J.getClassPaths().addJarFile(pPath));
+        this.compactIfNeeded();
     }
     /** Add a jar file as class path into the ClassLoader */
-    public void removeJarFile(final String pPath) {
-        this.jcompiler = this.jcompiler.getClassPaths().removeJarFile(pPath);
+    public synchronized void removeJarFile(final String pPath) {
+        this.replaceJCompiler(J -> J.getClassPaths().removeJarFile(pPath));
+        this.compactIfNeeded();
+    }
+    
+    /**
+     * Begins a batch of classpath changes - the changes are applied at once when the batch is committed (creating at
+     *   most one new class loader).
+     **/
+    public ClasspathTransaction beginClasspathChange() {
+        return new ClasspathTransaction(this);
+    }
+    /** Applies the classpath changes of a batch - returns true if the classpaths are changed */
+    synchronized boolean commitClasspathChanges(final Collection<ClassPaths.Change> pChanges) {
+        final JCompiler aOld      = this.jcompiler;
+        final int       aURLCount = aOld.getURLs().length;
+        final JCompiler aNew      = this.replaceJCompiler(J -> J.getClassPaths().changeURLs(pChanges));
+        
+        final boolean aIsChanged = (aNew != aOld) || (aOld.getURLs().length != aURLCount);
+        this.compactIfNeeded();
+        return aIsChanged;
     }
     
     /** Returns an array of classpath known to this JavaCompiler */
     public URL[] getClasspaths() {
-        final URL[] aURLS = this.jcompiler.getURLs();;
+        final URL[] aURLS = this.jcompiler.getURLs();
         return aURLS;
     }
     
+    // Loader chain ----------------------------------------------------------------------------------------------------
+    
+    /**
+     * Returns the depth of the class loader chain - the number of the classpath changes (after a compilation) since the
+     *   chain was created or compacted.
+     **/
+    public int getLoaderChainDepth() {
+        return this.jcompiler.getChainDepth();
+    }
+    
+    /** Returns the depth of the class loader chain that triggers the automatic compaction (0 for never) */
+    public int getCompactionThreshold() {
+        return this.compactionThreshold;
+    }
+    /** Changes the depth of the class loader chain that triggers the automatic compaction (0 for never) */
+    public void setCompactionThreshold(final int pMaxDepth) {
+        if (pMaxDepth < 0)
+            throw new IllegalArgumentException("The compaction threshold must not be negative: " + pMaxDepth);
+        
+        this.compactionThreshold = pMaxDepth;
+    }
+    
+    /**
+     * Collapses the class loader chain into a single class loader with the compiled classes, the codes and the
+     *   classpaths currently visible.
+     * 
+     * The classes already loaded stay with the old class loaders and the new class loader uses them as they are (so
+     *   their static states and the classes linked to them stay the same). It defines the other classes when they are
+     *   used. The compaction waits for the running compilations (and the codes being added) to finish.
+     **/
+    public synchronized CompactionReport compact() {
+        final CompactionReport aReport = this.compact(false);
+        return aReport;
+    }
+    
+    /** Returns the report of the last compaction or null if the loader chain has never been compacted */
+    public CompactionReport getLastCompactionReport() {
+        return this.lastCompactionReport;
+    }
+    
+    private CompactionReport compact(final boolean pIsAutomatic) {
+        final long      aStartTime = System.nanoTime();
+        final JCompiler aOld       = this.jcompiler;
+        final JCompiler aNew       = this.replaceJCompiler(J -> J.newCompacted());
+        
+        final CompactionReport aReport = new CompactionReport(
+                aOld.getChainDepth(),
+                aNew.getChainDepth(),
+                aNew.getCompiledClassCount(),
+                aNew.getCompiledCodeCount(),
+                aNew.getURLs().length,
+                System.nanoTime() - aStartTime,
+                pIsAutomatic);
+        this.lastCompactionReport = aReport;
+        return aReport;
+    }
+    private void compactIfNeeded() {
+        final int aThreshold = this.compactionThreshold;
+        if ((aThreshold > 0) && (this.jcompiler.getChainDepth() > aThreshold))
+            this.compact(true);
+    }
+    
+    // Memory budget ---------------------------------------------------------------------------------------------------
+    
+    /**
+     * Returns the memory budget of the byte code and the codes retained by this JavaCompiler (0 for no budget).
+     * 
+     * When the retained bytes are more than the budget (checked after each compilation), the least recently used units
+     *   (a top-level class with its nested classes and its code) that no other class refers to are evicted. The units
+     *   with a class already loaded and the units used by the compilation are kept. The evicted classes are no longer
+     *   found by this JavaCompiler (the remaining classes are found through a new class loader - see compact()).
+     **/
+    public long getMemoryBudget() {
+        return this.memoryBudget.getMaxBytes();
+    }
+    /** Changes the memory budget (0 for no budget) - the units are evicted right away if needed */
+    public void setMemoryBudget(final long pMaxBytes) {
+        this.memoryBudget.configure(pMaxBytes);
+        this.evictIfNeeded(System.nanoTime());
+    }
+    
+    /** Returns the bytes of the byte code and the codes retained by this JavaCompiler */
+    public long getRetainedBytes() {
+        return MemoryBudget.RetainedBytesOf(this.jcompiler);
+    }
+    /** Returns the number of the units evicted to keep within the memory budget */
+    public long getEvictionCount() {
+        return this.memoryBudget.getEvictionCount();
+    }
+    /** Returns the bytes of the units evicted to keep within the memory budget */
+    public long getEvictedBytes() {
+        return this.memoryBudget.getEvictedBytes();
+    }
+    
+    /** Evicts the units if needed - the units used since the given time (of System.nanoTime()) are kept */
+    private void evictIfNeeded(final long pUsedSince) {
+        if (this.memoryBudget.getMaxBytes() == 0)
+            return;
+        
+        synchronized (this) {
+            // The classes of a compilation still running would be published to the old class loader so the eviction is
+            //   left to the end of that compilation.
+            final long aStamp = this.replaceLock.tryWriteLock();
+            if (aStamp == 0)
+                return;
+            
+            try {
+                final JCompiler             aOld      = this.jcompiler;
+                final MemoryBudget.Eviction aEviction = this.memoryBudget.select(aOld, pUsedSince);
+                if (aEviction == null)
+                    return;
+                
+                this.jcompiler = aOld.newCompacted(aEviction.classNames, aEviction.codeNames);
+                aOld.clearClassDatas();
+                this.memoryBudget.record(aEviction);
+            } finally {
+                this.replaceLock.unlockWrite(aStamp);
+            }
+        }
+    }
+    
+    // JCompiler -------------------------------------------------------------------------------------------------------
+    
+    /** Replaces the JCompiler once no code is being added or compiled - returns the new one */
+    private JCompiler replaceJCompiler(final UnaryOperator<JCompiler> pReplacer) {
+        final long aStamp = this.replaceLock.writeLock();
+        try {
+            final JCompiler aNew = pReplacer.apply(this.jcompiler);
+            this.jcompiler = aNew;
+            return aNew;
+        } finally {
+            this.replaceLock.unlockWrite(aStamp);
+        }
+    }
+    
+    /** Runs the action with the JCompiler - it is not replaced until the action is done */
+    private <T> T withJCompiler(final Function<JCompiler, T> pAction) {
+        final long aStamp = this.replaceLock.readLock();
+        try {
+            final T aResult = pAction.apply(this.jcompiler);
+            return aResult;
+        } finally {
+            this.replaceLock.unlockRead(aStamp);
+        }
+    }
+    
     // Class persistence -----------------------------------------------------------------------------------------------
     
     /**
@@ -143,16 +455,17 @@ final public class JavaCompiler {
      * initialized
      **/
     public boolean addClassData(final ClassData pClassData) {
-        final boolean isSuccess = this.jcompiler.addClassData(pClassData);
+        final boolean isSuccess = this.withJCompiler(J -> J.addClassData(pClassData));
         return isSuccess;
     }
     
     /**
      * Loads a Serialized ClassData object in a form of an array of bytes to this JavaCompiler and return true if the
-     * byte code is successfully loaded and initialized.
+     * byte code is successfully loaded and initialized. The bytes may be the compact binary encoding of the ClassData
+     * (see ClassData.encode()) or its Java serialization.
      **/
     public boolean addClassDataAsBytes(final byte[] pSerializedClassDataAsByte) {
-        final boolean isSuccess = this.jcompiler.addClassDataAsBytes(pSerializedClassDataAsByte);
+        final boolean isSuccess = this.withJCompiler(J -> J.addClassDataAsBytes(pSerializedClassDataAsByte));
         return isSuccess;
     }
     
@@ -164,7 +477,9 @@ final public class JavaCompiler {
             final String pName,
             final String pPath,
             final byte[] pByteCode) {
-        final boolean isSuccess = this.jcompiler.addClassByteCode(pName, pPath, pByteCode);
+        // The byte code is kept as is so the caller's array is copied.
+        final byte[]  aByteCode = (pByteCode == null) ? null : pByteCode.clone();
+        final boolean isSuccess = this.withJCompiler(J -> J.addClassByteCode(pName, pPath, aByteCode));
         return isSuccess;
     }
     
@@ -182,7 +497,7 @@ final public class JavaCompiler {
         ClassData aClassData = this.jcompiler.getCompiledClassData(pName, pIsToSaveCode);
         return aClassData;
     }
-    /** Returns the byte code of the class */
+    /** Returns the ClassData of the class in its compact binary encoding (see ClassData.encode()) */
     public byte[] getCompiledClassDataAsBytes(final String pName) {
         final byte[] aClassByteCode = this.jcompiler.getCompiledClassDataAsBytes(pName);
         return aClassByteCode;
@@ -220,7 +535,7 @@ final public class JavaCompiler {
             final String pName,
             final String pPath,
             final String pCode) {
-        final boolean isSuccess = this.jcompiler.addCode(pName, pPath, pCode);
+        final boolean isSuccess = this.withJCompiler(J -> J.addCode(pName, pPath, pCode));
         return isSuccess;
     }
     
@@ -230,15 +545,36 @@ final public class JavaCompiler {
      * If the file has been successfully compiled, this method will return false.
      **/
     public boolean deleteCode(final String pName) {
-        final boolean isSuccess = this.jcompiler.deleteCode(pName);
+        final boolean isSuccess = this.withJCompiler(J -> J.deleteCode(pName));
         return isSuccess;
     }
     
     // Compilation -----------------------------------------------------------------------------------------------------
     
+    /**
+     * Checks if the compilation is incremental.
+     * 
+     * In the incremental mode, the hash of each compiled code and the types it depends on are recorded. When compiled,
+     *   only the codes that changed since they were last compiled and the compiled codes that depend on them (directly
+     *   or indirectly) are given to javac. The classes of the unchanged codes are reused and made visible to javac.
+     **/
+    public boolean isIncremental() {
+        return this.jcompiler.isIncremental();
+    }
+    
+    /** Changes the incremental mode (see isIncremental()). */
+    public void setIncremental(final boolean pIsIncremental) {
+        this.withJCompiler(J -> {
+            J.setIncremental(pIsIncremental);
+            return null;
+        });
+    }
+    
     /** Compile all code files and return the error report if any */
     public String compile() {
-        final String aError = this.jcompiler.compile();
+        final long   aStart = System.nanoTime();
+        final String aError = this.withJCompiler(J -> J.compile());
+        this.evictIfNeeded(aStart);
         return aError;
     }
     
@@ -248,7 +584,9 @@ final public class JavaCompiler {
      * Return the error report if any (If pDiagnostics was given, the error will be in there).
      **/
     public String compile(final DiagnosticCollector<JavaFileObject> pDiagnostics) {
-        final String aError = this.jcompiler.compile(pDiagnostics);
+        final long   aStart = System.nanoTime();
+        final String aError = this.withJCompiler(J -> J.compile(pDiagnostics));
+        this.evictIfNeeded(aStart);
         return aError;
     }
     
@@ -260,10 +598,113 @@ final public class JavaCompiler {
     public String compile(
             final String[]                            pJavaCOptions,
             final DiagnosticCollector<JavaFileObject> pDiagnostics) {
-        final String aError = this.jcompiler.compile(pJavaCOptions, pDiagnostics);
+        final long   aStart = System.nanoTime();
+        final String aError = this.withJCompiler(J -> J.compile(pJavaCOptions, pDiagnostics));
+        this.evictIfNeeded(aStart);
         return aError;
     }
     
+    /**
+     * Compile all code files as a batch.
+     * 
+     * The codes are partitioned into independent groups (by the recorded dependencies or by scanning the codes for the
+     *   type names of the others) and the groups are compiled concurrently with separate javac engines. The resulted
+     *   classes are merged into this JavaCompiler just like compile(...).
+     **/
+    public BatchCompileResult compileBatch(
+            final String[]                            pJavaCOptions,
+            final DiagnosticCollector<JavaFileObject> pDiagnostics) {
+        final long               aStart  = System.nanoTime();
+        final BatchCompileResult aResult = this.withJCompiler(J -> J.compileBatch(null, pJavaCOptions, pDiagnostics));
+        this.evictIfNeeded(aStart);
+        return aResult;
+    }
+    
+    /**
+     * Compile all code files as a batch of the given groups of the code names.
+     * 
+     * The groups are compiled concurrently so a code must be in the same group with the codes it refers to. The codes
+     *   that are not in any of the groups are compiled together as another group.
+     **/
+    public BatchCompileResult compileBatch(
+            final Collection<? extends Collection<String>> pGroups,
+            final String[]                                 pJavaCOptions,
+            final DiagnosticCollector<JavaFileObject>      pDiagnostics) {
+        final long               aStart  = System.nanoTime();
+        final BatchCompileResult aResult = this.withJCompiler(
+                                                J -> J.compileBatch(pGroups, pJavaCOptions, pDiagnostics));
+        this.evictIfNeeded(aStart);
+        return aResult;
+    }
+    
+    /**
+     * Compile the codes (by their names) as a throwaway unit.
+     * 
+     * The codes are compiled against the classes of this JavaCompiler but neither the codes nor the classes are
+     *   added to it. The classes are defined by a class loader of the unit so they are unloaded once the unit, the
+     *   classes and their objects are no longer referenced. This is for the one-off codes (e.g., snippets) that would
+     *   otherwise keep their classes (and the metaspace) for as long as this JavaCompiler lives.
+     **/
+    public CompiledUnit compileUnit(
+            final Map<String, String>                 pCodes,
+            final String[]                            pJavaCOptions,
+            final DiagnosticCollector<JavaFileObject> pDiagnostics) {
+        final CompiledUnit aUnit = this.jcompiler.compileUnit(pCodes, pJavaCOptions, pDiagnostics);
+        return aUnit;
+    }
+    
+    /** Compile the code as a throwaway unit (see compileUnit(Map, String[], DiagnosticCollector)) */
+    public CompiledUnit compileUnit(
+            final String pName,
+            final String pCode) {
+        final CompiledUnit aUnit = this.jcompiler.compileUnit(Collections.singletonMap(pName, pCode), null, null);
+        return aUnit;
+    }
+    
+    /**
+     * Compile all code files asynchronously.
+     * 
+     * The compilation runs on the compile executor (see SetCompileExecutor(...)) and the returned future completes with
+     *   the result that has the produced classes, the diagnostics and the timings. Cancelling the future aborts the
+     *   compilation.
+     **/
+    public CompletableFuture<CompileResult> compileAsync() {
+        final CompletableFuture<CompileResult> aFuture = this.compileAsync(null);
+        return aFuture;
+    }
+    
+    /** Compile all code files asynchronously with the javac options (see compileAsync()). */
+    public CompletableFuture<CompileResult> compileAsync(final String[] pJavaCOptions) {
+        final long aStart = System.nanoTime();
+        final long aStamp = this.replaceLock.readLock();
+        try {
+            // The read lock is held until the compilation is over.
+            final CompletableFuture<CompileResult> aFuture = this.jcompiler.compileAsync(pJavaCOptions, () -> {
+                this.replaceLock.unlockRead(aStamp);
+                this.evictIfNeeded(aStart);
+            });
+            return aFuture;
+        } catch (RuntimeException | Error E) {
+            this.replaceLock.unlockRead(aStamp);
+            throw E;
+        }
+    }
+    
+    /**
+     * Changes the executor of the asynchronous compilations - null to use the default executor.
+     * 
+     * The default executor runs each compilation on a virtual thread when the JDK supports it (JDK 21+), otherwise on a
+     *   fixed pool of daemon threads.
+     **/
+    static public void SetCompileExecutor(final Executor pExecutor) {
+        CompileExecutor.Set(pExecutor);
+    }
+    
+    /** Returns the executor of the asynchronous compilations */
+    static public Executor GetCompileExecutor() {
+        return CompileExecutor.Get();
+    }
+    
     // Resulted classes ------------------------------------------------------------------------------------------------
     
     /** Get a class by name - throw an exception when not found*/
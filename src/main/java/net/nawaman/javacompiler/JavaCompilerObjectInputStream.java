@@ -1,13 +1,18 @@
 package net.nawaman.javacompiler;
 
 import java.io.*;
+import java.nio.*;
 import java.util.*;
 
 /**
  * Loader objects from a stream and takes care of all the class data.
  * 
  * Using this class if you save the objects using JCObjectOutputStream. They maintain the same
- *   protocol.
+ *   protocol. Both the version 1 (buffered) and the version 2 (streamed as frames) are read - the
+ *   version 2 is read as it comes so only a frame is buffered at a time (see JCOFrames).
+ * 
+ * The class data read are only indexed - a class is added to the JavaCompiler when it is resolved
+ *   (see ClassDataIndex) so the classes never used by the objects read are never added.
  **/
 public class JavaCompilerObjectInputStream extends ObjectInputStream {
     
@@ -15,12 +20,15 @@ public class JavaCompilerObjectInputStream extends ObjectInputStream {
     static private final String MAGIC_WORD_UNMATCH       = "Magic word is not match: %s";
     static private final String UNKNOWN_PROTOCOL         = "Unknown protocal: %s";
     static private final String UNKNOWN_PROTOCOL_VERSION = "Unknown protocal version: %s";
+    static private final String UNKNOWN_COMPRESSION      = "Unknown compression codec: %s";
     
     static final protected class ConstructorData {
         ConstructorData() {}
         ByteArrayInputStream dataByteBuffer  = null;
         ByteArrayInputStream classByteBuffer = null;
         int                  classCount      =   -1;
+        InputStream          frameStream     = null;    // The objects of the version 2 (the classes come with them)
+        ClassDataIndex       classDatas      = null;    // The classes of the version 2 (indexed as they come)
     }
     
     // Extract two ByteArrayInputStream out of one.
@@ -42,18 +50,45 @@ public class JavaCompilerObjectInputStream extends ObjectInputStream {
             final InputStream  pIS,
             final JavaCompiler pJavaCompiler)
             throws IOException, ClassNotFoundException {
+        final JavaCompiler aJCompiler = (pJavaCompiler == null) ? JavaCompiler.Instance : pJavaCompiler;
         final JavaCompilerObjectInputStream aIStream =
-                new JavaCompilerObjectInputStream(getConstructorData(pIS), pJavaCompiler);
+                new JavaCompilerObjectInputStream(getConstructorData(pIS, aJCompiler), aJCompiler);
+        return aIStream;
+    }
+    
+    /**
+     * Creates a new JavaCompilerObjectInputStream reading from the buffer (e.g. a mapped file) - the byte code of the
+     *   version 2 (not compressed) is not copied but the classes are defined straight from the buffer so the buffer
+     *   must not be modified.
+     **/
+    static public JavaCompilerObjectInputStream NewJavaCompilerObjectInputStream(
+            final ByteBuffer   pBuffer,
+            final JavaCompiler pJavaCompiler)
+            throws IOException, ClassNotFoundException {
+        final JavaCompiler aJCompiler = (pJavaCompiler == null) ? JavaCompiler.Instance : pJavaCompiler;
+        final JavaCompilerObjectInputStream aIStream =
+                new JavaCompilerObjectInputStream(getConstructorData(pBuffer, aJCompiler), aJCompiler);
         return aIStream;
     }
     
     // Extract two ByteArrayInputStream out of one.
     static protected ConstructorData getConstructorData(final InputStream pIS) throws IOException {
+        return getConstructorData(pIS, JavaCompiler.Instance);
+    }
+    // Extract two ByteArrayInputStream out of one - or the stream of the frames of the version 2.
+    static protected ConstructorData getConstructorData(
+            final InputStream  pIS,
+            final JavaCompiler pJavaCompiler)
+            throws IOException {
         try {
-            final ObjectInputStream OIS = new ObjectInputStream(pIS);
+            final PushbackInputStream aPIS = new PushbackInputStream(pIS, 2);
+            if (JCOFrames.IsFramed(aPIS))
+                return NewFramedConstructorData(aPIS, pJavaCompiler);
+            
+            final ObjectInputStream OIS = new ObjectInputStream(aPIS);
             EnsureMagicWord(OIS);
             EnsureProtocol (OIS);
-            EnsureVersion  (OIS);
+            EnsureVersion  (OIS, JavaCompilerObjectOutputStream.PROTOCOL_VERSION_1_00);
             
             final ConstructorData JCOISCD = JavaCompilerObjectInputStream.ReadConstructorData(OIS);
             return JCOISCD;
@@ -66,24 +101,77 @@ public class JavaCompilerObjectInputStream extends ObjectInputStream {
         }
     }
     
-    static private void EnsureMagicWord(final ObjectInputStream OIS) throws IOException {
+    // The stream of the frames of the version 2 - from the buffer (the byte code is not copied).
+    static private ConstructorData getConstructorData(
+            final ByteBuffer   pBuffer,
+            final JavaCompiler pJavaCompiler)
+            throws IOException {
+        final ByteBufferInputStream aBuffer = new ByteBufferInputStream(pBuffer.duplicate());
+        if (!JCOFrames.IsFramed(pBuffer))
+            return getConstructorData(aBuffer, pJavaCompiler);
+        
+        try {
+            return NewFramedConstructorData(aBuffer, pJavaCompiler);
+            
+        } catch(IOException IOE) {
+            throw IOE;
+            
+        } catch (Exception E) {
+            throw new IOException(INVALID_DATA_FORMAT, E);
+        }
+    }
+    static private ConstructorData NewFramedConstructorData(
+            final InputStream  pIS,
+            final JavaCompiler pJavaCompiler)
+            throws IOException {
+        final DataInputStream DIS = new DataInputStream(pIS);
+        EnsureMagicWord(DIS);
+        EnsureProtocol (DIS);
+        final int aVersion = EnsureVersion(
+                                DIS,
+                                JavaCompilerObjectOutputStream.PROTOCOL_VERSION_2_00,
+                                JavaCompilerObjectOutputStream.PROTOCOL_VERSION_2_01);
+        
+        final CompressionCodec aCodec = (aVersion == JavaCompilerObjectOutputStream.PROTOCOL_VERSION_2_01)
+                                      ? ReadCompressionCodec(DIS)
+                                      : null;
+        
+        final ConstructorData JCOISCD = new ConstructorData();
+        JCOISCD.classDatas  = new ClassDataIndex(pJavaCompiler);
+        JCOISCD.frameStream = new JCOFrames.Input(pIS, JCOISCD.classDatas, aCodec);
+        return JCOISCD;
+    }
+    
+    static private void EnsureMagicWord(final DataInput OIS) throws IOException {
         final String  aText             = OIS.readUTF();
         final boolean aIsMagicWordEqual = JavaCompilerObjectOutputStream.MAGIC_WORD.equals(aText);
         if(!aIsMagicWordEqual)
             throw new IllegalArgumentException(String.format(MAGIC_WORD_UNMATCH, aText));
     }
-    static private void EnsureProtocol(ObjectInputStream OIS) throws IOException {
+    static private void EnsureProtocol(DataInput OIS) throws IOException {
         final String  aText            = OIS.readUTF();
         final boolean aIsProtocolKnown = JavaCompilerObjectOutputStream.PROTOCOL_NAME.equals(aText);
         if(!aIsProtocolKnown)
             throw new IllegalArgumentException(String.format(UNKNOWN_PROTOCOL, aText));
     }
-    static private void EnsureVersion(ObjectInputStream OIS) throws IOException {
+    static private int EnsureVersion(
+            final DataInput OIS,
+            final int ...   pVersions)
+            throws IOException {
         final int aVersion = OIS.readInt();
-        if(aVersion != 100) {
-            final String VersionStr = (aVersion / 100) + "." + (aVersion % 100);
-            throw new IllegalArgumentException(String.format(UNKNOWN_PROTOCOL_VERSION, VersionStr));
+        for (final int aKnownVersion : pVersions) {
+            if(aVersion == aKnownVersion)
+                return aVersion;
         }
+        final String VersionStr = (aVersion / 100) + "." + (aVersion % 100);
+        throw new IllegalArgumentException(String.format(UNKNOWN_PROTOCOL_VERSION, VersionStr));
+    }
+    static private CompressionCodec ReadCompressionCodec(final DataInput OIS) throws IOException {
+        final String           aName  = OIS.readUTF();
+        final CompressionCodec aCodec = CompressionCodecs.Get(aName);
+        if(aCodec == null)
+            throw new IllegalArgumentException(String.format(UNKNOWN_COMPRESSION, aName));
+        return aCodec;
     }
     static private ConstructorData ReadConstructorData(
             final ObjectInputStream OIS)
@@ -104,14 +192,28 @@ public class JavaCompilerObjectInputStream extends ObjectInputStream {
             throws
                 IOException,
                 ClassNotFoundException {
-        super(pConstructorData.dataByteBuffer);
+        super(ObjectStreamOf(pConstructorData));
         
-        this.jcompiler = (pJCompiler == null) ? JavaCompiler.Instance : pJCompiler;
-        this.prepareClasses(pConstructorData);
+        this.jcompiler  = (pJCompiler == null) ? JavaCompiler.Instance : pJCompiler;
+        this.classDatas = (pConstructorData.classDatas != null)
+                        ? pConstructorData.classDatas
+                        : new ClassDataIndex(this.jcompiler);
+        
+        // The classes of the version 2 are indexed as their frames are read.
+        if (pConstructorData.frameStream == null)
+            this.prepareClasses(pConstructorData);
+    }
+    static private InputStream ObjectStreamOf(final ConstructorData pConstructorData) {
+        return (pConstructorData.frameStream != null)
+                ? pConstructorData.frameStream
+                : pConstructorData.dataByteBuffer;
     }
     
     JavaCompiler jcompiler;
     
+    // The classes read - only added to the JavaCompiler when they are resolved.
+    final private ClassDataIndex classDatas;
+    
     static private Map<String, String> replaceClasses;
     
     static {
@@ -146,6 +248,11 @@ public class JavaCompilerObjectInputStream extends ObjectInputStream {
         return this.jcompiler;
     }
     
+    /** Adds the classes read so far but not resolved (yet) to the JavaCompiler - the classes are added when needed */
+    public void addPendingClasses() {
+        this.classDatas.ensureAll();
+    }
+    
     private void prepareClasses(
             final ConstructorData pConstructorData)
             throws
@@ -153,17 +260,13 @@ public class JavaCompilerObjectInputStream extends ObjectInputStream {
                 ClassNotFoundException {
         final ByteArrayInputStream aClassByteBuffer = pConstructorData.classByteBuffer;
         final ObjectInputStream    aClassDatas      = new ObjectInputStream(aClassByteBuffer);
-        final HashSet<ClassData>   aAddedClassDatas = new HashSet<ClassData>();
         
         int       aClassCount = pConstructorData.classCount;
         ClassData aClassData  = null;
         
-        while((aClassCount-- > 0) && (aClassData = (ClassData)aClassDatas.readObject()) != null) {
-            if(aAddedClassDatas.contains(aClassData))
-                continue;
-            this.jcompiler.addClassData(aClassData);
-            aAddedClassDatas.add(aClassData);
-        }
+        // Only indexed - the classes are added when they are resolved.
+        while((aClassCount-- > 0) && (aClassData = (ClassData)aClassDatas.readObject()) != null)
+            this.classDatas.index(aClassData);
     }
     
     /** Resolve a class */ @Override
@@ -178,6 +281,7 @@ public class JavaCompilerObjectInputStream extends ObjectInputStream {
             return Class.forName(replacedName);
         }
         
+        this.classDatas.ensure(originalName);
         try {
             final Class<?> C = super.resolveClass(pClassDesc);
             if(C == null)
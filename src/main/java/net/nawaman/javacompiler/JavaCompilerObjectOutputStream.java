@@ -1,6 +1,10 @@
 package net.nawaman.javacompiler;
 
 import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.file.*;
+import java.util.*;
 
 /**
  * Write an object to a stream and takes care of all the class data.
@@ -10,8 +14,11 @@ import java.io.*;
  * worry about the writing of object.
  * 
  * IMPORTANT NOTE: The close(...) method of this class MUST BE CALLED to endure all the data is
- * saved. This is a weak point of the technique as it wait until all objects are written to be sure
- * that all class-data are saved and that is when close(...) is called.
+ * saved. In the version 1 of the protocol, all objects and class-data are buffered in the memory
+ * and only written when close(...) is called. The version 2 streams them as frames (see JCOFrames)
+ * so only a chunk of them is buffered - close(...) writes the end of the stream. The version 1 is
+ * the default (the only one the readers before the version 2 can read) - the version 2 is written
+ * when asked for or when a default compression codec is set (see SetDefaultCompressionCodec(...)).
  * 
  * If do not have any specific use need, Use JCObjectOutputStream.SerializeObjects(...) and
  * JCObjectOutputStream.DeSerializeObjects(...) methods for even more continent.
@@ -36,6 +43,31 @@ public class JavaCompilerObjectOutputStream extends ObjectOutputStream {
     static public final String MAGIC_WORD            = "JCO-NEEDED";
     static public final String PROTOCOL_NAME         = "JCO";
     static public final int    PROTOCOL_VERSION_1_00 = 100;    // Version 1.00
+    static public final int    PROTOCOL_VERSION_2_00 = 200;    // Version 2.00 - streamed as frames
+    static public final int    PROTOCOL_VERSION_2_01 = 201;    // Version 2.01 - with the class data compressed
+    
+    static private final String UNKNOWN_PROTOCOL_VERSION = "Unknown protocal version: %s";
+    static private final String CODEC_NAME_TAKEN         = "Another compression codec is named '%s'.";
+    
+    /** The codec to compress the class data of the new streams by default - null for none */
+    static private volatile CompressionCodec DefaultCompressionCodec = null;
+    
+    /**
+     * Changes the codec to compress the class data of the new streams by default - null for none.
+     * 
+     * With a default codec, the new streams (and the files) are of the version 2.01 (compressed) by default instead of
+     *   the version 1 - only the readers of the version 2 can read them.
+     * 
+     * @throws IllegalArgumentException  if another codec is registered with the name of the codec.
+     **/
+    static public void SetDefaultCompressionCodec(final CompressionCodec pCodec) {
+        EnsureRegistered(pCodec);
+        DefaultCompressionCodec = pCodec;
+    }
+    /** Returns the codec to compress the class data of the new streams by default - null for none */
+    static public CompressionCodec GetDefaultCompressionCodec() {
+        return DefaultCompressionCodec;
+    }
     
     private ByteArrayOutputStream objectBytesBuffer;
     private ByteArrayOutputStream classBytesBuffer;
@@ -44,15 +76,68 @@ public class JavaCompilerObjectOutputStream extends ObjectOutputStream {
     final private ObjectOutputStream classBuffer;
     final private OutputStream       OS;
     
-    /** Creates a new JavaOutputStream */
+    // The frames of the version 2 (null for the version 1) and the classes already written to them.
+    final private JCOFrames.Output frames;
+    final private HashSet<String>  writtenClassNames = new HashSet<String>();
+    private boolean                isFramesClosed    = false;
+    
+    /**
+     * Creates a new JavaOutputStream of the version 1 of the protocol - of the version 2.01 compressed by the default
+     *   codec if there is one (see SetDefaultCompressionCodec(...)).
+     **/
     static public JavaCompilerObjectOutputStream NewJavaCompilerObjectOutputStream(
             final  OutputStream pOS)
             throws IOException {
+        final CompressionCodec aCodec = DefaultCompressionCodec;
+        if (aCodec != null)
+            return NewJavaCompilerObjectOutputStream(pOS, aCodec);
+        
+        return NewJavaCompilerObjectOutputStream(pOS, PROTOCOL_VERSION_1_00);
+    }
+    /**
+     * Creates a new JavaOutputStream (of the version 2 of the protocol) with the class data compressed by the codec.
+     * 
+     * @throws IllegalArgumentException  if another codec is registered with the name of the codec.
+     **/
+    static public JavaCompilerObjectOutputStream NewJavaCompilerObjectOutputStream(
+            final OutputStream     pOS,
+            final CompressionCodec pCodec)
+            throws IOException {
+        if (pOS == null)
+            throw new NullPointerException();
+        
+        EnsureRegistered(pCodec);
+        return new JavaCompilerObjectOutputStream(new JCOFrames.Output(pOS, pCodec));
+    }
+    /** Creates a new JavaOutputStream of the given version of the protocol */
+    static public JavaCompilerObjectOutputStream NewJavaCompilerObjectOutputStream(
+            final OutputStream pOS,
+            final int          pVersion)
+            throws IOException {
+        if (pOS == null)
+            throw new NullPointerException();
+        
+        if (pVersion == PROTOCOL_VERSION_2_00)
+            return new JavaCompilerObjectOutputStream(new JCOFrames.Output(pOS, null));
+        if (pVersion == PROTOCOL_VERSION_2_01)
+            return NewJavaCompilerObjectOutputStream(pOS, CompressionCodecs.DEFLATE);
+        
+        if (pVersion != PROTOCOL_VERSION_1_00) {
+            final String VersionStr = (pVersion / 100) + "." + (pVersion % 100);
+            throw new IllegalArgumentException(String.format(UNKNOWN_PROTOCOL_VERSION, VersionStr));
+        }
+        
         final ByteArrayOutputStream          aOBuffer = new ByteArrayOutputStream();
         final JavaCompilerObjectOutputStream aOStream = new JavaCompilerObjectOutputStream(aOBuffer, pOS);
         return aOStream;
     }
     
+    /** Registers the codec (so the readers in this process know it) - a name taken by another codec is an error */
+    static private void EnsureRegistered(final CompressionCodec pCodec) {
+        if ((pCodec != null) && !CompressionCodecs.Register(pCodec))
+            throw new IllegalArgumentException(String.format(CODEC_NAME_TAKEN, pCodec.getName()));
+    }
+    
     /** Constructs an ObjectWriter */
     protected JavaCompilerObjectOutputStream(
             final ByteArrayOutputStream pBAOS,
@@ -67,6 +152,17 @@ public class JavaCompilerObjectOutputStream extends ObjectOutputStream {
         this.OS               = pOS;
         this.classBytesBuffer = new ByteArrayOutputStream();
         this.classBuffer      = new ObjectOutputStream(this.classBytesBuffer);
+        this.frames           = null;
+    }
+    
+    /** Constructs an ObjectWriter that streams the objects and the class data as frames (the version 2) */
+    private JavaCompilerObjectOutputStream(
+            final JCOFrames.Output pFrames)
+            throws IOException {
+        super(pFrames);
+        this.OS          = null;
+        this.classBuffer = null;
+        this.frames      = pFrames;
     }
     
     /** Just in case, close the stream */ @Override
@@ -93,10 +189,33 @@ public class JavaCompilerObjectOutputStream extends ObjectOutputStream {
         while(aClassData.getEnclosingClassClassData() != null)
             aClassData = aClassData.getEnclosingClassClassData();
         
+        if (this.frames != null) {
+            // The objects written so far go first - the class (and the classes needed to define it) must be ready
+            //   before its descriptor is read.
+            if (this.writtenClassNames.add(aClassData.getName())) {
+                this.writeSuperClassData(pClass);
+                this.flush();
+                this.frames.writeClassData(aClassData);
+            }
+            return;
+        }
+        
         this.classBuffer.writeObject(aClassData);                             
         this.classCount++;
     }
     
+    /** Write the class' data of the super classes and the interfaces (needed to define the class) of the given class */
+    private void writeSuperClassData(
+            final Class<?> pClass)
+            throws IOException {
+        final Class<?> aSuperClass = pClass.getSuperclass();
+        if (aSuperClass != null)
+            this.writeClassData(aSuperClass);
+        
+        for (final Class<?> aInterface : pClass.getInterfaces())
+            this.writeClassData(aInterface);
+    }
+    
     /** Write the class' data of the given class into the class data container */
     protected void writeClassData(
             final Class<?> pClass)
@@ -112,15 +231,24 @@ public class JavaCompilerObjectOutputStream extends ObjectOutputStream {
     protected void writeClassDescriptor(
             final ObjectStreamClass pClassDescriptor)
             throws IOException {
-        super.writeClassDescriptor(pClassDescriptor);
         final Class<?>    aClass       = pClassDescriptor.forClass();
         final ClassLoader aClassLoader = aClass.getClassLoader();
-        if(aClassLoader instanceof JCompiler)
+        
+        // In the version 2, the class data is written before the descriptor is.
+        if ((this.frames != null) && (aClassLoader instanceof JCompiler))
+            this.writeClassDataNoCheck(aClass);
+        
+        super.writeClassDescriptor(pClassDescriptor);
+        if ((this.frames == null) && (aClassLoader instanceof JCompiler))
             this.writeClassDataNoCheck(aClass);
     }
     
     /**{@inheritDoc}*/ @Override
     public void close() throws IOException {
+        if (this.frames != null) {
+            this.closeFrames();
+            return;
+        }
         if (this.classBytesBuffer == null)
             return;
         
@@ -131,6 +259,14 @@ public class JavaCompilerObjectOutputStream extends ObjectOutputStream {
         this.writeClassInformation(OOS);
         this.finishWriting        (OOS);
     }
+    private void closeFrames() throws IOException {
+        if (this.isFramesClosed)
+            return;
+        
+        // Flushes the objects and closes the frames (that writes the end of the stream).
+        this.isFramesClosed = true;
+        super.close();
+    }
     private void ensureAllBufferClosed() throws IOException {
         this.objectBytesBuffer.flush();
         this.objectBytesBuffer.close();
@@ -168,18 +304,66 @@ public class JavaCompilerObjectOutputStream extends ObjectOutputStream {
     
     // Utilities -------------------------------------------------------------------------------------------------------
     
-    /** Save objects to a byte array */
+    /**
+     * Save objects to a file - the file of the version 1 (the serialized bytes of the objects) or of the version 2.01
+     *   if there is a default compression codec (see NewJavaCompilerObjectOutputStream(OutputStream)).
+     **/
     static public void SerializeObjects(
             final File             pFile,
             final Serializable ... pObjs)
             throws IOException {
-        final FileOutputStream   FOS = new FileOutputStream(pFile);
-        final ObjectOutputStream OOS = new ObjectOutputStream(FOS);
-        OOS.writeObject(SerializeObjects(pObjs));
-        OOS.flush();
-        OOS.close();
+        final int aVersion = (DefaultCompressionCodec != null) ? PROTOCOL_VERSION_2_01 : PROTOCOL_VERSION_1_00;
+        SerializeObjects(pFile, aVersion, pObjs);
     }
-    /** Save objects to a byte array */
+    /**
+     * Save objects to a file of the given version of the protocol.
+     * 
+     * The objects of the version 2 are streamed to the file (not buffered in the memory) through its channel and the
+     *   file can be mapped when loaded (see DeSerializeObjects(File, ...)).
+     * 
+     * The objects are written to a new file that replaces the file at the end - the file is never written in place as
+     *   the classes loaded from it may still be defined from its mapping.
+     **/
+    static public void SerializeObjects(
+            final File           pFile,
+            final int            pVersion,
+            final Serializable[] pObjs)
+            throws IOException {
+        final Path aPath = pFile.toPath().toAbsolutePath();
+        final Path aTemp = Files.createTempFile(aPath.getParent(), aPath.getFileName().toString(), ".tmp");
+        try {
+            WriteObjects(aTemp, pVersion, pObjs);
+            MoveOver(aTemp, aPath);
+        } finally {
+            Files.deleteIfExists(aTemp);
+        }
+    }
+    /** Writes the objects to the (new) file */
+    static private void WriteObjects(
+            final Path           pPath,
+            final int            pVersion,
+            final Serializable[] pObjs)
+            throws IOException {
+        final FileChannel aChannel = FileChannel.open(pPath, StandardOpenOption.WRITE);
+        try {
+            final OutputStream COS = Channels.newOutputStream(aChannel);
+            final OutputStream BOS = new BufferedOutputStream(COS, JCOFrames.CHUNK_SIZE);
+            if (pVersion == PROTOCOL_VERSION_1_00) {
+                // The older versions wrote the file as the serialized bytes of the version 1.
+                final ObjectOutputStream OOS = new ObjectOutputStream(BOS);
+                OOS.writeObject(ToBytes(pVersion, pObjs));
+                OOS.close();
+                return;
+            }
+            
+            final JavaCompilerObjectOutputStream JCOS = NewJavaCompilerObjectOutputStream(BOS, pVersion);
+            JCOS.writeObject(pObjs);
+            JCOS.close();
+        } finally {
+            aChannel.close();
+        }
+    }
+    /** Save objects to a byte array (see NewJavaCompilerObjectOutputStream(OutputStream) for the version) */
     static public byte[] SerializeObjects(final Serializable ... pObjs) {
         ByteArrayOutputStream           BAOS = null;
         JavaCompilerObjectOutputStream  JCOS = null;
@@ -211,6 +395,30 @@ public class JavaCompilerObjectOutputStream extends ObjectOutputStream {
         }
     }
     
+    /** Replaces the file with the new one - atomically if the file system can */
+    static private void MoveOver(
+            final Path pNew,
+            final Path pPath)
+            throws IOException {
+        try {
+            Files.move(pNew, pPath, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException E) {
+            Files.move(pNew, pPath, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+    
+    /** Save objects to a byte array of the given version of the protocol */
+    static private byte[] ToBytes(
+            final int            pVersion,
+            final Serializable[] pObjs)
+            throws IOException {
+        final ByteArrayOutputStream          BAOS = new ByteArrayOutputStream();
+        final JavaCompilerObjectOutputStream JCOS = NewJavaCompilerObjectOutputStream(BAOS, pVersion);
+        JCOS.writeObject(pObjs);
+        JCOS.close();
+        return BAOS.toByteArray();
+    }
+    
     /** Save objects to a byte array */
     static public Serializable[] DeSerializeObjects(
             final File pFile)
@@ -227,19 +435,73 @@ public class JavaCompilerObjectOutputStream extends ObjectOutputStream {
         final Serializable[] aSerializables = DeSerializeObjects(pFile, aJavaCompiler);
         return aSerializables;
     }
-    /** Save objects to a byte array */
+    /**
+     * Load objects from a file - the file is mapped into the memory (not read into the heap).
+     * 
+     * The objects are read straight from the mapped file and the classes (of the version 2 not compressed) are defined
+     *   straight from it too, so loading is mostly the work of the page cache. The files too big to be mapped at once
+     *   are streamed. The files saved by the older versions (the serialized byte array of the version 1) are also
+     *   loaded.
+     **/
     static public Serializable[] DeSerializeObjects(
             final File         pFile,
             final JavaCompiler pJavaCompiler)
             throws IOException, ClassNotFoundException {
-        final FileInputStream   aFIS           = new FileInputStream(pFile);
-        final ObjectInputStream aOIS           = new ObjectInputStream(aFIS);
-        final byte[]            aBytes         = (byte[])aOIS.readObject();
-        final Serializable[]    aSerializables = DeSerializeObjects(aBytes, pJavaCompiler);
-        aOIS.close();
+        final ByteBuffer aBuffer = MapFile(pFile);
+        if (aBuffer == null)
+            return DeSerializeStreamedObjects(pFile, pJavaCompiler);
+        
+        if (!JCOFrames.IsFramed(aBuffer)) {
+            final ObjectInputStream aOIS           = new ObjectInputStream(new ByteBufferInputStream(aBuffer));
+            final byte[]            aBytes         = (byte[])aOIS.readObject();
+            final Serializable[]    aSerializables = DeSerializeObjects(aBytes, pJavaCompiler);
+            return aSerializables;
+        }
+        
+        final JavaCompilerObjectInputStream aJCOIS
+                = JavaCompilerObjectInputStream.NewJavaCompilerObjectInputStream(aBuffer, pJavaCompiler);
+        final Serializable[] aSerializables = (Serializable[])aJCOIS.readObject();
         return aSerializables;
     }
     
+    /** Maps the file (read-only) - returns null if the file is too big to be mapped at once */
+    static private ByteBuffer MapFile(final File pFile) throws IOException {
+        final FileChannel aChannel = FileChannel.open(pFile.toPath(), StandardOpenOption.READ);
+        try {
+            // The mapping stays valid after the channel is closed (until the buffer is no longer reachable).
+            final long aSize = aChannel.size();
+            if (aSize > Integer.MAX_VALUE)
+                return null;
+            
+            return aChannel.map(FileChannel.MapMode.READ_ONLY, 0, aSize);
+        } finally {
+            aChannel.close();
+        }
+    }
+    /** Load objects from a file - the objects are streamed from the file (not buffered in the memory) */
+    static private Serializable[] DeSerializeStreamedObjects(
+            final File         pFile,
+            final JavaCompiler pJavaCompiler)
+            throws IOException, ClassNotFoundException {
+        final FileInputStream     aFIS = new FileInputStream(pFile);
+        final PushbackInputStream aPIS = new PushbackInputStream(new BufferedInputStream(aFIS), 2);
+        try {
+            if (!JCOFrames.IsFramed(aPIS)) {
+                final ObjectInputStream aOIS           = new ObjectInputStream(aPIS);
+                final byte[]            aBytes         = (byte[])aOIS.readObject();
+                final Serializable[]    aSerializables = DeSerializeObjects(aBytes, pJavaCompiler);
+                return aSerializables;
+            }
+            
+            final JavaCompilerObjectInputStream aJCOIS
+                    = JavaCompilerObjectInputStream.NewJavaCompilerObjectInputStream(aPIS, pJavaCompiler);
+            final Serializable[] aSerializables = (Serializable[])aJCOIS.readObject();
+            return aSerializables;
+        } finally {
+            aFIS.close();
+        }
+    }
+    
     /** Extract two ByteArrayInputStream out of one. **/
     static public Serializable[] DeSerializeObjects(final byte[] pBytes) {
         final Serializable[] aSerializables = DeSerializeObjects(pBytes, (JavaCompiler)null);
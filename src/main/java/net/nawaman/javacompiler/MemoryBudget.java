@@ -0,0 +1,225 @@
+package net.nawaman.javacompiler;
+
+import java.util.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * The memory budget of the compiled classes and codes of a JavaCompiler.
+ *
+ * The classes are grouped into units - a top-level class with its nested classes and the code they are compiled from.
+ *   When the byte code and the codes retained are more than the budget, the least recently used units that no other
+ *   unit refers to (see ClassReferences) are evicted until the retained bytes are within the budget. A unit that is
+ *   referred to becomes evictable once the units referring to it are evicted.
+ *
+ * A unit with a class already defined is never evicted - the class cannot be unloaded without its class loader. Nor
+ *   are the units used since the compilation that triggers the eviction started (e.g. the units it compiled).
+ *
+ * The evicted units are left out of a new generation of the class loader (see JCompiler.newCompacted(...)) that uses
+ *   the classes already defined as they are.
+ **/
+final class MemoryBudget {
+    
+    /** The units to be evicted */
+    static final class Eviction {
+        Eviction(
+                final Set<String> pClassNames,
+                final Set<String> pCodeNames,
+                final int         pUnitCount,
+                final long        pBytes) {
+            this.classNames = pClassNames;
+            this.codeNames  = pCodeNames;
+            this.unitCount  = pUnitCount;
+            this.bytes      = pBytes;
+        }
+        
+        final Set<String> classNames;
+        final Set<String> codeNames;
+        final int         unitCount;
+        final long        bytes;
+    }
+    
+    /** A top-level class with its nested classes and its code */
+    static private final class Unit {
+        Unit(final String pName) {
+            this.name = pName;
+        }
+        
+        final String            name;
+        final ArrayList<String> classNames    = new ArrayList<String>();
+        final ArrayList<String> codeNames     = new ArrayList<String>();
+        final HashSet<String>   referredUnits = new HashSet<String>();
+        
+        long bytes        = 0;
+        long    lastUsedTime = Long.MIN_VALUE;
+        int     referrers    = 0;
+        boolean isKept       = false;
+    }
+    
+    private volatile long maxBytes = 0;
+    
+    final private AtomicLong evictionCount = new AtomicLong();
+    final private AtomicLong evictedBytes  = new AtomicLong();
+    
+    /** Changes the budget - zero for no budget */
+    void configure(final long pMaxBytes) {
+        if (pMaxBytes < 0)
+            throw new IllegalArgumentException("The memory budget must not be negative: " + pMaxBytes);
+        
+        this.maxBytes = pMaxBytes;
+    }
+    
+    /** Returns the budget (0 for no budget) */
+    long getMaxBytes() {
+        return this.maxBytes;
+    }
+    /** Returns the number of the units evicted */
+    long getEvictionCount() {
+        return this.evictionCount.get();
+    }
+    /** Returns the bytes of the units evicted */
+    long getEvictedBytes() {
+        return this.evictedBytes.get();
+    }
+    
+    /** Records the eviction done */
+    void record(final Eviction pEviction) {
+        this.evictionCount.addAndGet(pEviction.unitCount);
+        this.evictedBytes .addAndGet(pEviction.bytes);
+    }
+    
+    /** Returns the bytes of the byte code and the codes retained by the JCompiler (and its parents) */
+    static long RetainedBytesOf(final JCompiler pJCompiler) {
+        long aBytes = 0;
+        for (final JavaClassMemoryFileObject aClass : pJCompiler.getVisibleClassFileObjects().values())
+            aBytes += aClass.getByteCount();
+        for (final CharSequence aCode : pJCompiler.getVisibleCompiledCodes().values())
+            aBytes += SizeOf(aCode);
+        return aBytes;
+    }
+    
+    /**
+     * Selects the units of the JCompiler to be evicted - the units used since the given time (of System.nanoTime()) are
+     *   kept. Returns null if nothing is to (or can) be evicted.
+     **/
+    Eviction select(
+            final JCompiler pJCompiler,
+            final long      pUsedSince) {
+        final long aMaxBytes = this.maxBytes;
+        if (aMaxBytes == 0)
+            return null;
+        
+        final Map<String, JavaClassMemoryFileObject> aClasses       = pJCompiler.getVisibleClassFileObjects();
+        final Map<String, CharSequence>              aCodes         = pJCompiler.getVisibleCompiledCodes();
+        final HashMap<String, Unit>                  aUnits         = new HashMap<String, Unit>();
+        final HashMap<String, Unit>                  aUnitsBySource = new HashMap<String, Unit>();
+        
+        long aRetained = 0;
+        for (final Map.Entry<String, JavaClassMemoryFileObject> aEntry : aClasses.entrySet()) {
+            final JavaClassMemoryFileObject aClass = aEntry.getValue();
+            final String                    aName  = UnitNameOf(aEntry.getKey(), aClasses);
+            final Unit                      aUnit  = aUnits.computeIfAbsent(aName, Unit::new);
+            aUnit.classNames.add(aEntry.getKey());
+            aUnit.bytes        += aClass.getByteCount();
+            aUnit.lastUsedTime  = Math.max(aUnit.lastUsedTime, aClass.getLastUsedTime());
+            aRetained          += aClass.getByteCount();
+            if (aClass.getSourceName() != null)
+                aUnitsBySource.putIfAbsent(aClass.getSourceName(), aUnit);
+        }
+        for (final Map.Entry<String, CharSequence> aEntry : aCodes.entrySet()) {
+            final long aSize = SizeOf(aEntry.getValue());
+            final Unit aUnit = UnitOfCode(aEntry.getKey(), aUnitsBySource, aUnits);
+            if (aUnit != null) {
+                aUnit.codeNames.add(aEntry.getKey());
+                aUnit.bytes += aSize;
+            }
+            aRetained += aSize;
+        }
+        if (aRetained <= aMaxBytes)
+            return null;
+        
+        // The units referred to by the others.
+        for (final Unit aUnit : aUnits.values()) {
+            for (final String CName : aUnit.classNames) {
+                for (final String UName : aClasses.get(CName).getReferencedUnitNames()) {
+                    if (!UName.equals(aUnit.name) && aUnits.containsKey(UName) && aUnit.referredUnits.add(UName))
+                        aUnits.get(UName).referrers++;
+                }
+            }
+        }
+        
+        // The units already defined or used since then are kept.
+        for (final Unit aUnit : aUnits.values()) {
+            aUnit.isKept = (aUnit.lastUsedTime - pUsedSince) >= 0;
+            for (int i = 0; !aUnit.isKept && (i < aUnit.classNames.size()); i++)
+                aUnit.isKept = (pJCompiler.findDefinedClass(aUnit.classNames.get(i)) != null);
+        }
+        
+        // The least recently used first.
+        final PriorityQueue<Unit> aCandidates = new PriorityQueue<Unit>(
+                Comparator.comparingLong((Unit pUnit) -> pUnit.lastUsedTime).thenComparing(pUnit -> pUnit.name));
+        for (final Unit aUnit : aUnits.values()) {
+            if ((aUnit.referrers == 0) && !aUnit.isKept)
+                aCandidates.add(aUnit);
+        }
+        
+        final HashSet<String> aClassNames = new HashSet<String>();
+        final HashSet<String> aCodeNames  = new HashSet<String>();
+        int  aUnitCount = 0;
+        long aBytes     = 0;
+        while ((aRetained > aMaxBytes) && !aCandidates.isEmpty()) {
+            final Unit aUnit = aCandidates.poll();
+            aClassNames.addAll(aUnit.classNames);
+            aCodeNames .addAll(aUnit.codeNames);
+            aUnitCount++;
+            aBytes    += aUnit.bytes;
+            aRetained -= aUnit.bytes;
+            
+            for (final String UName : aUnit.referredUnits) {
+                final Unit aReferred = aUnits.get(UName);
+                if ((--aReferred.referrers == 0) && !aReferred.isKept)
+                    aCandidates.add(aReferred);
+            }
+        }
+        return (aUnitCount == 0) ? null : new Eviction(aClassNames, aCodeNames, aUnitCount, aBytes);
+    }
+    
+    // Privates --------------------------------------------------------------------------------------------------------
+    
+    /** Returns the unit of the code - by the classes compiled from it or by its name - or null if there is none */
+    static private Unit UnitOfCode(
+            final String            pCodeName,
+            final Map<String, Unit> pUnitsBySource,
+            final Map<String, Unit> pUnits) {
+        final Unit aUnit = pUnitsBySource.get(pCodeName);
+        if (aUnit != null)
+            return aUnit;
+        
+        final String aName = pCodeName.endsWith(MemoryFileManager.SOURCE_FILE_SUFFIX)
+                           ? pCodeName.substring(0, pCodeName.length() - MemoryFileManager.SOURCE_FILE_SUFFIX_LENGTH)
+                           : pCodeName;
+        return pUnits.get(aName.replace('/', '.'));
+    }
+    
+    /** Returns the name of the unit of the class - the top-level class */
+    static private String UnitNameOf(
+            final String                                 pClassName,
+            final Map<String, JavaClassMemoryFileObject> pClasses) {
+        // '$' may be in a top-level name too - 'A$B' is nested in 'A' only if there is a class 'A' from the same code.
+        final String aSourceName = pClasses.get(pClassName).getSourceName();
+        for (int i = pClassName.indexOf('$', 1); i > 0; i = pClassName.indexOf('$', i + 1)) {
+            final JavaClassMemoryFileObject aClass = pClasses.get(pClassName.substring(0, i));
+            if ((aClass != null) && Objects.equals(aClass.getSourceName(), aSourceName))
+                return pClassName.substring(0, i);
+        }
+        return pClassName;
+    }
+    
+    /** Returns the bytes the code takes */
+    static private long SizeOf(final CharSequence pCode) {
+        if (pCode instanceof OffHeapClassStore.Code)
+            return ((OffHeapClassStore.Code)pCode).getByteCount();
+        
+        return 2L*pCode.length();
+    }
+
+}
@@ -1,7 +1,10 @@
 package net.nawaman.javacompiler;
 
 import java.io.*;
+import java.math.*;
+import java.security.*;
 import java.util.*;
+import java.util.concurrent.*;
 
 import javax.tools.*;
 import javax.tools.JavaFileObject.*;
@@ -10,6 +13,19 @@ import javax.tools.JavaFileObject.*;
  * File manager that get/set file in the memory.
  * 
  * This class simulate file system in memory allowing the compilation to be done all in memory.
+ * 
+ * The standard file manager it delegates to belongs to a pooled javac engine (see CompilerEnginePool) and is only
+ *   attached for the duration of a compilation.
+ * 
+ * The compiled classes (of this file manager and of the file managers of the parent JCompilers) are visible to javac
+ *   as class files in the classpath so new codes are compiled against their byte code (their codes are not needed).
+ *   The jar files added as classpaths are listed from their indexes (see PackageIndex) instead of by javac.
+ * 
+ * The codes and the classes are kept in concurrent maps so codes can be added and classes can be loaded by many
+ *   threads. Each compilation runs in a session (see newSession()) that takes the pending codes and sees the classes
+ *   of its base file manager through a read-only view (nothing is copied). The classes compiled by a session are new
+ *   file objects (copy-on-write) kept by the session that are only visible to the others once the session is
+ *   published.
  **/
 final class MemoryFileManager implements StandardJavaFileManager {
     
@@ -18,15 +34,63 @@ final class MemoryFileManager implements StandardJavaFileManager {
     static public final int    SOURCE_FILE_SUFFIX_LENGTH = MemoryFileManager.SOURCE_FILE_SUFFIX.length();
     static public final int    CLASS_FILE_SUFFIX_LENGTH  = MemoryFileManager.CLASS_FILE_SUFFIX .length();
     
-    MemoryFileManager(final StandardJavaFileManager pSJFileManager) {
-        this.fileManager = pSJFileManager;
-        this.codes   = new HashMap<String, JavaCodeMemoryFileObject>();
-        this.classes = new HashMap<String, JavaClassMemoryFileObject>();
+    MemoryFileManager() {
+        this(null, null);
     }
     
-    private StandardJavaFileManager                    fileManager;
-    private HashMap<String, JavaCodeMemoryFileObject>  codes;
-    private HashMap<String, JavaClassMemoryFileObject> classes;
+    /** Creates a file manager of the JCompiler - the classes are added to the routes of the JCompiler chain */
+    MemoryFileManager(
+            final ClassRoutes pRoutes,
+            final JCompiler   pJCompiler) {
+        this.fileManager = null;
+        this.isSession   = false;
+        this.base        = null;
+        this.routes      = pRoutes;
+        this.jcompiler   = pJCompiler;
+        this.codes       = new ConcurrentHashMap<String, JavaCodeMemoryFileObject>();
+        this.classes     = new ConcurrentHashMap<String, JavaClassMemoryFileObject>();
+    }
+    
+    /**
+     * Creates a session file manager - the compiled classes of the base file manager are visible but the classes
+     *   compiled by the session are kept by the session and not visible to the base until published.
+     **/
+    MemoryFileManager(final MemoryFileManager pBase) {
+        this.fileManager = null;
+        this.isSession   = true;
+        this.base        = pBase;
+        this.routes      = null;
+        this.jcompiler   = pBase.jcompiler;
+        this.codes       = new ConcurrentHashMap<String, JavaCodeMemoryFileObject>();
+        this.classes     = new ConcurrentHashMap<String, JavaClassMemoryFileObject>();
+    }
+    
+    final private boolean           isSession;
+    final private MemoryFileManager base;         // The file manager whose classes a session sees
+    final private ClassRoutes       routes;
+    final private JCompiler   jcompiler;    // The JCompiler whose parents' classes are visible
+    
+    // The names of the compiled classes (of this file manager only) by their package names
+    final private ConcurrentHashMap<String, Set<String>> packages = new ConcurrentHashMap<String, Set<String>>();
+    
+    private StandardJavaFileManager                              fileManager;
+    private volatile boolean                                     isOptionHandled = false;
+    private ConcurrentHashMap<String, JavaCodeMemoryFileObject>  codes;
+    private ConcurrentHashMap<String, JavaClassMemoryFileObject> classes;
+    
+    // The names of the classes written by this session - to be published.
+    final private Set<String> writtenClassNames = ConcurrentHashMap.newKeySet();
+    
+    final private Vector<JavaClassMemoryFileObject> outputs = new Vector<JavaClassMemoryFileObject>();
+    
+    // The sum of the hashes of the compiled classes of this file manager (see getClassesFingerprint()) kept as the
+    //   classes are added - null once a class to be written by javac is added (its byte code is not there yet) so the
+    //   sum is then computed.
+    static private final BigInteger HASH_MODULUS = BigInteger.ONE.shiftLeft(256);
+    private BigInteger classesHash = BigInteger.ZERO;    // Guarded by this file manager
+    
+    // The indexed jar files of the classpath - javac is not given them (see handleOption(...)).
+    private volatile List<PackageIndex.JarIndex> jarIndexes = Collections.emptyList();
     
     @Override
     public Iterable<Set<Location>> listLocationsForModules(Location location) throws IOException {
@@ -38,6 +102,20 @@ final class MemoryFileManager implements StandardJavaFileManager {
         return fileManager.inferModuleName(location);
     }
     
+    /** Attaches the standard file manager (of a borrowed engine) to be used for the compilation */
+    void attach(final StandardJavaFileManager pSJFileManager) {
+        this.fileManager     = pSJFileManager;
+        this.isOptionHandled = false;
+    }
+    /** Checks if the attached file manager was given options other than the classpath */
+    boolean isOptionHandled() {
+        return this.isOptionHandled;
+    }
+    /** Detaches the standard file manager so that the engine can be returned to the pool */
+    void detach() {
+        this.fileManager = null;
+    }
+    
     /** Clear the object to avoid memory leak */
     final public void dispose() {
         this.fileManager  = null;
@@ -66,7 +144,7 @@ final class MemoryFileManager implements StandardJavaFileManager {
         if(pFileName.endsWith(MemoryFileManager.CLASS_FILE_SUFFIX)) {
             int              aCFName_NewLength = pFileName.length() - MemoryFileManager.CLASS_FILE_SUFFIX_LENGTH;
             String           aClassFileName    = pFileName.substring(0, aCFName_NewLength);
-            MemoryFileObject aClassFileObject  = this.classes.get(aClassFileName);
+            MemoryFileObject aClassFileObject  = this.getClassFileObjectByName(aClassFileName);
             return aClassFileObject;
         }
         return null;
@@ -83,8 +161,7 @@ final class MemoryFileManager implements StandardJavaFileManager {
         final JavaCodeMemoryFileObject aJavaCodeFile;
         aJavaCodeFile = new JavaCodeMemoryFileObject(pName, pPath, pCode);
         
-        this.codes.put(pName, aJavaCodeFile);
-        return true;
+        return (this.codes.putIfAbsent(pName, aJavaCodeFile) == null);
     }
     public Set<String> getCodeNames() {
         if (this.codes == null)
@@ -111,12 +188,153 @@ final class MemoryFileManager implements StandardJavaFileManager {
     void putClassFileObjectByName(
             final String                    pName,
             final JavaClassMemoryFileObject pFileObject) {
-        this.classes.put(pName, pFileObject);
+        synchronized (this) {
+            final JavaClassMemoryFileObject aOld = this.classes.put(pName, pFileObject);
+            this.updateClassesHash(pName, aOld, pFileObject);
+        }
+        this.addToPackage(pName);
+        this.routeClass(pName, pFileObject);
+        if (this.isSession)
+            this.writtenClassNames.add(pName);
     }
+    /** Returns the class file object of the class - of the session or else of its base */
     JavaClassMemoryFileObject getClassFileObjectByName(final String pName) {
         final JavaClassMemoryFileObject aClassFileObject = this.classes.get(pName);
+        if ((aClassFileObject == null) && (this.base != null))
+            return this.base.getClassFileObjectByName(pName);
+        
         return aClassFileObject;
     }
+    /** Returns the class file objects of this file manager (not of the base of the session) by their names */
+    Map<String, JavaClassMemoryFileObject> getClassFileObjects() {
+        return Collections.unmodifiableMap(this.classes);
+    }
+    private void routeClass(
+            final String                    pName,
+            final JavaClassMemoryFileObject pFileObject) {
+        if (this.routes != null)
+            this.routes.addClass(pName, this.jcompiler, pFileObject);
+    }
+    private void addToPackage(final String pName) {
+        final int    aDot         = pName.lastIndexOf('.');
+        final String aPackageName = (aDot == -1) ? "" : pName.substring(0, aDot);
+        this.packages.computeIfAbsent(aPackageName, PName -> ConcurrentHashMap.newKeySet()).add(pName);
+    }
+    
+    // Sessions --------------------------------------------------------------------------------------------------------
+    
+    /** Creates a session that takes all the pending codes of this file manager */
+    MemoryFileManager newSession() {
+        final MemoryFileManager aSession = new MemoryFileManager(this);
+        for (final Map.Entry<String, JavaCodeMemoryFileObject> aEntry : this.codes.entrySet()) {
+            // A code is either taken by this session or by another one.
+            if (this.codes.remove(aEntry.getKey(), aEntry.getValue()))
+                aSession.codes.put(aEntry.getKey(), aEntry.getValue());
+        }
+        return aSession;
+    }
+    /** Creates a session with a copy of the given codes of this session (for compiling a group of a batch) */
+    MemoryFileManager newSession(final Collection<String> pCodeNames) {
+        final MemoryFileManager aSession = new MemoryFileManager(this);
+        for (final String CName : pCodeNames) {
+            final JavaCodeMemoryFileObject aCode = this.codes.get(CName);
+            if (aCode != null)
+                aSession.codes.put(CName, aCode);
+        }
+        return aSession;
+    }
+    
+    /** Gives the codes back to be compiled (e.g., taken by a cancelled session) - the codes added since are kept */
+    void restoreCodes(final Map<String, JavaCodeMemoryFileObject> pCodes) {
+        for (final Map.Entry<String, JavaCodeMemoryFileObject> aEntry : pCodes.entrySet())
+            this.codes.putIfAbsent(aEntry.getKey(), aEntry.getValue());
+    }
+    
+    /** Returns the class file objects written by the session */
+    Map<String, JavaClassMemoryFileObject> getWrittenClassFileObjects() {
+        final HashMap<String, JavaClassMemoryFileObject> aClasses = new HashMap<String, JavaClassMemoryFileObject>();
+        for (final String CName : this.writtenClassNames) {
+            final JavaClassMemoryFileObject aClass = this.classes.get(CName);
+            if (aClass != null)
+                aClasses.put(CName, aClass);
+        }
+        return aClasses;
+    }
+    
+    /** Makes the classes written by the session visible in this file manager */
+    void publish(final MemoryFileManager pSession) {
+        for (final String CName : pSession.writtenClassNames) {
+            final JavaClassMemoryFileObject aClass = pSession.classes.get(CName);
+            if (aClass == null)
+                continue;
+            
+            synchronized (this) {
+                final JavaClassMemoryFileObject aOld = this.classes.put(CName, aClass);
+                this.updateClassesHash(CName, aOld, aClass);
+            }
+            this.addToPackage(CName);
+            this.routeClass(CName, aClass);
+            if (this.isSession)
+                this.writtenClassNames.add(CName);
+        }
+    }
+    
+    /**
+     * Returns the fingerprint of the compiled classes visible to javac (the names and the byte code of the classes of
+     *   this file manager, of the base of the session and of the file managers of the parent JCompilers).
+     **/
+    String getClassesFingerprint() {
+        final MessageDigest aDigest = ContentHash.NewDigest();
+        if (this.jcompiler != null) {
+            for (final MemoryFileManager aMFManager : this.jcompiler.getParentFileManagers())
+                ContentHash.Update(aDigest, aMFManager.getClassesHash().toString(16));
+        }
+        for (MemoryFileManager aMFManager = this; aMFManager != null; aMFManager = aMFManager.base)
+            ContentHash.Update(aDigest, aMFManager.getClassesHash().toString(16));
+        final String aFingerprint = ContentHash.ToHex(aDigest.digest());
+        return aFingerprint;
+    }
+    
+    /** Returns the sum of the hashes of the compiled classes - the order of the classes does not matter */
+    private synchronized BigInteger getClassesHash() {
+        if (this.classesHash != null)
+            return this.classesHash;
+        
+        BigInteger aHash = BigInteger.ZERO;
+        for (final Map.Entry<String, JavaClassMemoryFileObject> aEntry : this.classes.entrySet())
+            aHash = aHash.add(HashOf(aEntry.getKey(), aEntry.getValue()));
+        return aHash.mod(HASH_MODULUS);
+    }
+    /** Updates the sum of the hashes for the class replacing the old one (if any) - the lock must be held */
+    private void updateClassesHash(
+            final String                    pName,
+            final JavaClassMemoryFileObject pOld,
+            final JavaClassMemoryFileObject pNew) {
+        if ((this.classesHash == null) || (pNew.getByteCount() == 0)) {
+            this.classesHash = null;
+            return;
+        }
+        
+        BigInteger aHash = this.classesHash.add(HashOf(pName, pNew));
+        if (pOld != null)
+            aHash = aHash.subtract(HashOf(pName, pOld));
+        this.classesHash = aHash.mod(HASH_MODULUS);
+    }
+    static private BigInteger HashOf(
+            final String                    pName,
+            final JavaClassMemoryFileObject pClass) {
+        final MessageDigest aDigest = ContentHash.NewDigest();
+        ContentHash.Update(aDigest, pName);
+        ContentHash.Update(aDigest, pClass.getContentHash());
+        return new BigInteger(1, aDigest.digest());
+    }
+    
+    /** Returns the class file objects written by the compilation since the last call and forget them */
+    Vector<JavaClassMemoryFileObject> takeOutputs() {
+        final Vector<JavaClassMemoryFileObject> aOutputs = new Vector<JavaClassMemoryFileObject>(this.outputs);
+        this.outputs.clear();
+        return aOutputs;
+    }
     
     void clearCode() {
         if (this.codes == null)
@@ -272,13 +490,94 @@ final class MemoryFileManager implements StandardJavaFileManager {
             throws IOException {
         final Iterable<JavaFileObject> aFileObjects;
         aFileObjects = this.fileManager.list(pLocation, pPackageName, pKinds, pRecurse);
-        return aFileObjects;
+        
+        final boolean aIsClassPath = (pLocation == StandardLocation.CLASS_PATH) && pKinds.contains(Kind.CLASS);
+        if (!aIsClassPath)
+            return aFileObjects;
+        
+        // Compiled classes are visible as class files so that new codes can be compiled against them.
+        final Vector<JavaFileObject> aLocalClasses = this.getLocalClassFileObjects(pPackageName, pRecurse);
+        if (aLocalClasses.isEmpty() && this.jarIndexes.isEmpty())
+            return aFileObjects;
+        
+        for (final JavaFileObject aFileObject : aFileObjects)
+            aLocalClasses.add(aFileObject);
+        
+        // The indexed jar files come after the other classpaths as they are added after them.
+        for (final PackageIndex.JarIndex aJarIndex : this.jarIndexes)
+            aJarIndex.list(pPackageName, pRecurse, aLocalClasses);
+        
+        return aLocalClasses;
+    }
+    /**
+     * Returns the compiled class file objects of the package (and its sub-packages if recurse) - including the ones
+     *   compiled by the parent JCompilers.
+     **/
+    private Vector<JavaFileObject> getLocalClassFileObjects(
+            final String  pPackageName,
+            final boolean pRecurse) {
+        final Vector<JavaFileObject> aLocalClasses = new Vector<JavaFileObject>();
+        final HashSet<String>        aClassNames   = new HashSet<String>();
+        // The classes of the parents first as the parent class loader is asked first.
+        if (this.jcompiler != null) {
+            for (final MemoryFileManager aMFManager : this.jcompiler.getParentFileManagers())
+                aMFManager.addClassFileObjects(pPackageName, pRecurse, aClassNames, aLocalClasses);
+        }
+        this.addClassFileObjects(pPackageName, pRecurse, aClassNames, aLocalClasses);
+        return aLocalClasses;
+    }
+    private void addClassFileObjects(
+            final String                 pPackageName,
+            final boolean                pRecurse,
+            final Set<String>            pClassNames,
+            final Vector<JavaFileObject> pClasses) {
+        this.addClassFileObjects(pPackageName, pClassNames, pClasses);
+        if (pRecurse) {
+            final String aPrefix = (pPackageName.length() == 0) ? "" : pPackageName + ".";
+            for (final String PName : this.packages.keySet()) {
+                if ((PName.length() > aPrefix.length()) && PName.startsWith(aPrefix))
+                    this.addClassFileObjects(PName, pClassNames, pClasses);
+            }
+        }
+        // The classes of the session replace the ones of its base.
+        if (this.base != null)
+            this.base.addClassFileObjects(pPackageName, pRecurse, pClassNames, pClasses);
+    }
+    private void addClassFileObjects(
+            final String                 pPackageName,
+            final Set<String>            pClassNames,
+            final Vector<JavaFileObject> pClasses) {
+        final Set<String> aNames = this.packages.get(pPackageName);
+        if (aNames == null)
+            return;
+        
+        for (final String CName : aNames) {
+            final JavaClassMemoryFileObject aClass = this.classes.get(CName);
+            if ((aClass != null) && pClassNames.add(CName))
+                pClasses.add(aClass);
+        }
+    }
+    /** Returns the compiled class file object of the class - the one compiled by the parent JCompilers first. */
+    private JavaClassMemoryFileObject getLocalClassFileObject(final String pClassName) {
+        if (this.jcompiler != null) {
+            for (final MemoryFileManager aMFManager : this.jcompiler.getParentFileManagers()) {
+                final JavaClassMemoryFileObject aClass = aMFManager.classes.get(pClassName);
+                if (aClass != null)
+                    return aClass;
+            }
+        }
+        return this.getClassFileObjectByName(pClassName);
     }
     
     /** Infers a binary name of a file object based on a location. */
     public String inferBinaryName(
             final Location       pLocation,
             final JavaFileObject pFile) {
+        if (pFile instanceof JavaClassMemoryFileObject)
+            return ((JavaClassMemoryFileObject)pFile).getBinaryName();
+        if (pFile instanceof PackageIndex.ClassFile)
+            return ((PackageIndex.ClassFile)pFile).getBinaryName();
+        
         final String inferBinaryName = this.fileManager.inferBinaryName(pLocation, pFile);
         return inferBinaryName;
     }
@@ -287,7 +586,30 @@ final class MemoryFileManager implements StandardJavaFileManager {
     public boolean handleOption(
             final String           pCurrent,
             final Iterator<String> pRemaining) {
-        final boolean handleOption = this.fileManager.handleOption(pCurrent, pRemaining);
+        final boolean aIsClasspath = "-cp".equals(pCurrent) || "-classpath".equals(pCurrent)
+                                  || "--class-path".equals(pCurrent);
+        if (!aIsClasspath || !pRemaining.hasNext()) {
+            final boolean handleOption = this.fileManager.handleOption(pCurrent, pRemaining);
+            // The multi-release option is given by javac itself with each compilation (like the classpath).
+            if (handleOption && !"--multi-release".equals(pCurrent))
+                this.isOptionHandled = true;
+            return handleOption;
+        }
+        
+        // The indexed jar files are listed by this file manager so javac only gets the rest of the classpaths.
+        final Vector<PackageIndex.JarIndex> aJarIndexes = new Vector<PackageIndex.JarIndex>();
+        final Vector<String>                aPaths      = new Vector<String>();
+        for (final String aPath : pRemaining.next().split(File.pathSeparator)) {
+            final PackageIndex.JarIndex aJarIndex = PackageIndex.Instance.get(aPath);
+            if (aJarIndex != null)
+                 aJarIndexes.add(aJarIndex);
+            else aPaths.add(aPath);
+        }
+        this.jarIndexes = aJarIndexes;
+        
+        final Iterator<String> aClasspath = Collections.singletonList(String.join(File.pathSeparator, aPaths))
+                                                .iterator();
+        final boolean handleOption = this.fileManager.handleOption(pCurrent, aClasspath);
         return handleOption;
     }
     
@@ -312,10 +634,20 @@ final class MemoryFileManager implements StandardJavaFileManager {
             final Kind     pKind)
             throws IOException {
         
-        final JavaFileObject aFileObject;
-        if(this.codes.containsKey(pClassName))
-             aFileObject = this.codes.get(pClassName);
-        else aFileObject = this.fileManager.getJavaFileForInput(pLocation, pClassName, pKind);
+        final boolean  aIsClassPath = (pLocation == StandardLocation.CLASS_PATH) && (pKind == Kind.CLASS);
+        JavaFileObject aFileObject = this.codes.get(pClassName);
+        if ((aFileObject == null) && aIsClassPath)
+            aFileObject = this.getLocalClassFileObject(pClassName);
+        if (aFileObject == null)
+            aFileObject = this.fileManager.getJavaFileForInput(pLocation, pClassName, pKind);
+        
+        if ((aFileObject == null) && aIsClassPath) {
+            for (final PackageIndex.JarIndex aJarIndex : this.jarIndexes) {
+                aFileObject = aJarIndex.getClassFile(pClassName);
+                if (aFileObject != null)
+                    break;
+            }
+        }
         
         // Log
         if(JavaCompiler.DEBUG_MODE) {
@@ -338,21 +670,36 @@ final class MemoryFileManager implements StandardJavaFileManager {
             final FileObject pSibling)
             throws IOException {
         
-        final JavaFileObject aFileObject;
-        if (this.classes.containsKey(pClassName)) {
-            aFileObject = this.classes.get(pClassName);
+        final JavaFileObject            aFileObject;
+        final JavaClassMemoryFileObject aOwn      = this.classes.get(pClassName);
+        final JavaClassMemoryFileObject aExisting = (aOwn != null) ? aOwn : this.getClassFileObjectByName(pClassName);
+        if (aOwn != null) {
+            aFileObject = aOwn;
+            
+        } else if (aExisting != null) {
+            // The class of the base file manager may be in use so it is copied before written.
+            final JavaClassMemoryFileObject aCopy
+                    = new JavaClassMemoryFileObject(aExisting.getFileName(), aExisting.getPath());
+            aCopy.setSourceName(aExisting.getSourceName());
+            aFileObject = aCopy;
+            this.putClassFileObjectByName(pClassName, aCopy);
             
         } else if (this.codes.containsKey(pSibling.getName())) {
-            final String aClassName   = pClassName + MemoryFileManager.CLASS_FILE_SUFFIX;
-            final String aSiblingPath = ((JavaCodeMemoryFileObject)pSibling).getPath();
-            aFileObject = new JavaClassMemoryFileObject(aClassName, aSiblingPath);
-            this.classes.put(pClassName, (JavaClassMemoryFileObject)aFileObject);
+            final String                    aClassName   = pClassName + MemoryFileManager.CLASS_FILE_SUFFIX;
+            final String                    aSiblingPath = ((JavaCodeMemoryFileObject)pSibling).getPath();
+            final JavaClassMemoryFileObject aClass       = new JavaClassMemoryFileObject(aClassName, aSiblingPath);
+            aClass.setSourceName(pSibling.getName());
+            aFileObject = aClass;
+            this.putClassFileObjectByName(pClassName, aClass);
             
         } else {
             aFileObject
                 = this.fileManager.getJavaFileForOutput(pLocation, pClassName, pKind, pSibling);
         }
         
+        if (aFileObject instanceof JavaClassMemoryFileObject)
+            this.outputs.add((JavaClassMemoryFileObject)aFileObject);
+        
         // Log
         if(JavaCompiler.DEBUG_MODE) {
             String aParameterStr = this.getToString(pLocation, pClassName, pKind, pSibling);
@@ -402,7 +749,9 @@ final class MemoryFileManager implements StandardJavaFileManager {
     
     /** {@inheritDoc} */ @Override
     public void close() throws IOException  {
-        this.fileManager.close();
+        // The standard file manager belongs to the engine pool so it must be left opened.
+        if (this.fileManager != null)
+            this.fileManager.flush();
     }
     
     // OptionChecker -------------------------------------------------------------------------------
@@ -42,6 +42,11 @@ abstract class MemoryFileObject implements JavaFileObject {
         }
     }
     
+    /** Gets the name of this file object without the path (the name it is registered with). */
+    String getFileName() {
+        return this.name;
+    }
+    
     /** Gets a user-friendly name for this file object. */
     public String getName() {
         final String aName = this.getPath() + this.name;
@@ -0,0 +1,166 @@
+package net.nawaman.javacompiler;
+
+import java.lang.ref.*;
+import java.nio.*;
+import java.nio.charset.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * A process-wide store of the byte code of the compiled classes (and of the compiled codes) outside of the Java heap.
+ *
+ * When enabled, the byte code sealed into a class file object (see JavaClassMemoryFileObject) and the codes kept after
+ *   being compiled are copied into direct buffers so that many classes do not bloat the heap (and the GC pauses). The
+ *   classes are defined straight from the direct buffers.
+ *
+ * The store is bounded by its memory budget. Once the budget is used up, the new byte code and codes simply stay on the
+ *   heap. The memory of a direct buffer is given back (and taken off the used bytes) when the buffer is no longer
+ *   reachable - that is when the class file object (or the code) holding it is gone.
+ **/
+final class OffHeapClassStore {
+    
+    static private final Charset UTF8 = StandardCharsets.UTF_8;
+    
+    /** The shared store - disabled until a budget is given */
+    static final OffHeapClassStore Instance = new OffHeapClassStore();
+    
+    /**
+     * A code kept off the heap - decoded when it is needed.
+     * 
+     * The decoded code is held weakly so reading it char by char decodes it once while the code stays off the heap when
+     *   no one is using it.
+     **/
+    static final class Code implements CharSequence {
+        Code(final ByteBuffer pBytes) {
+            this.bytes = pBytes;
+        }
+        
+        final private ByteBuffer bytes;
+        
+        private volatile WeakReference<String> decoded = null;
+        
+        /** Returns the bytes the code takes (off the heap) */
+        int getByteCount() {
+            return this.bytes.remaining();
+        }
+        
+        /** {@inheritDoc} */ @Override
+        public int length() {
+            return this.toString().length();
+        }
+        /** {@inheritDoc} */ @Override
+        public char charAt(final int pIndex) {
+            return this.toString().charAt(pIndex);
+        }
+        /** {@inheritDoc} */ @Override
+        public CharSequence subSequence(
+                final int pStart,
+                final int pEnd) {
+            return this.toString().subSequence(pStart, pEnd);
+        }
+        /** {@inheritDoc} */ @Override
+        public String toString() {
+            final WeakReference<String> aDecoded = this.decoded;
+            final String                aCode    = (aDecoded == null) ? null : aDecoded.get();
+            if (aCode != null)
+                return aCode;
+            
+            final String aNewCode = UTF8.decode(this.bytes.duplicate()).toString();
+            this.decoded = new WeakReference<String>(aNewCode);
+            return aNewCode;
+        }
+    }
+    
+    OffHeapClassStore() {}
+    
+    final private Cleaner cleaner = Cleaner.create();
+    
+    private volatile long maxBytes = 0;
+    
+    final private AtomicLong usedBytes     = new AtomicLong();
+    final private AtomicLong entryCount    = new AtomicLong();
+    final private AtomicLong rejectedCount = new AtomicLong();
+    
+    /** Changes the memory budget - zero disables the store (the entries already stored stay until they are gone) */
+    void configure(final long pMaxBytes) {
+        if (pMaxBytes < 0)
+            throw new IllegalArgumentException("The memory budget must not be negative: " + pMaxBytes);
+        
+        this.maxBytes = pMaxBytes;
+    }
+    
+    /** Checks if the store is enabled */
+    boolean isEnabled() {
+        return (this.maxBytes > 0);
+    }
+    
+    /** Returns the memory budget */
+    long getMaxBytes() {
+        return this.maxBytes;
+    }
+    /** Returns the memory used by the stored byte code and codes */
+    long getUsedBytes() {
+        return this.usedBytes.get();
+    }
+    /** Returns the number of the stored byte code and codes */
+    long getEntryCount() {
+        return this.entryCount.get();
+    }
+    /** Returns the number of the byte code and codes left on the heap because the budget was used up */
+    long getRejectedCount() {
+        return this.rejectedCount.get();
+    }
+    
+    /** Copies the bytes off the heap - returns a read-only direct buffer or null if the store is disabled or full */
+    ByteBuffer store(final byte[] pBytes) {
+        if (!this.isEnabled() || (pBytes == null))
+            return null;
+        
+        final int aLength = pBytes.length;
+        if (!this.reserve(aLength)) {
+            this.rejectedCount.incrementAndGet();
+            return null;
+        }
+        
+        final ByteBuffer aBuffer;
+        try {
+            aBuffer = ByteBuffer.allocateDirect(aLength);
+        } catch (OutOfMemoryError E) {
+            // The direct memory of the JVM (-XX:MaxDirectMemorySize) is used up.
+            this.usedBytes.addAndGet(-aLength);
+            this.rejectedCount.incrementAndGet();
+            return null;
+        }
+        aBuffer.put(pBytes);
+        aBuffer.flip();
+        
+        // The views (read-only or duplicated) keep the buffer reachable - so it is cleaned after all of them are gone.
+        this.entryCount.incrementAndGet();
+        this.cleaner.register(aBuffer, () -> {
+            this.usedBytes.addAndGet(-aLength);
+            this.entryCount.decrementAndGet();
+        });
+        return aBuffer.asReadOnlyBuffer();
+    }
+    
+    /** Copies the code off the heap - returns the code itself if the store is disabled or full */
+    CharSequence storeCode(final CharSequence pCode) {
+        if (!this.isEnabled() || (pCode == null) || (pCode instanceof Code))
+            return pCode;
+        
+        final ByteBuffer aBytes = this.store(pCode.toString().getBytes(UTF8));
+        return (aBytes == null) ? pCode : new Code(aBytes);
+    }
+    
+    // Privates --------------------------------------------------------------------------------------------------------
+    
+    private boolean reserve(final int pLength) {
+        while (true) {
+            final long aUsed = this.usedBytes.get();
+            if ((aUsed + pLength) > this.maxBytes)
+                return false;
+            if (this.usedBytes.compareAndSet(aUsed, aUsed + pLength))
+                return true;
+        }
+    }
+
+}
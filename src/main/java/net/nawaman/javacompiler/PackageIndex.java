@@ -0,0 +1,441 @@
+package net.nawaman.javacompiler;
+
+import java.io.*;
+import java.net.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.zip.*;
+
+import javax.lang.model.element.*;
+import javax.tools.*;
+
+/**
+ * A process-wide index of the packages and the class files of the jar files added as classpaths (see ClassPaths).
+ *
+ * javac lists the classes of a package by scanning the classpath archives which it does again with each new standard
+ *   file manager. The jar files added through ClassPaths are indexed once instead (in parallel when many are added)
+ *   and MemoryFileManager serves the classes from the index so javac never opens those jar files by itself.
+ *
+ * An index is kept by the size and the last modified time of the jar file - it is rebuilt when either changes. When
+ *   the persistent compile cache is enabled, the index is also saved in its directory (in 'packages', named by the hash
+ *   of the jar path with '.jcidx' added) so that it is not rebuilt by the next process. Failing to save it only means
+ *   it is rebuilt next time. Nothing is written next to the jar files.
+ *
+ * The jar file is only opened while a class file is read from it so it is never held open (or locked) by the index.
+ *
+ * Directories are not indexed as their content (any sub-directory) can change without their own time being changed.
+ **/
+final class PackageIndex {
+    
+    static public final String INDEX_DIRECTORY_NAME = "packages";
+    static public final String INDEX_FILE_SUFFIX    = ".jcidx";
+    
+    static private final int MAGIC   = 0x4A435049;    // "JCPI"
+    static private final int VERSION = 1;
+    
+    /** The shared index */
+    static final PackageIndex Instance = new PackageIndex();
+    
+    /** The index of a jar file */
+    static final class JarIndex {
+        JarIndex(
+                final File                  pJarFile,
+                final long                  pSize,
+                final long                  pLastModified,
+                final Map<String, String[]> pPackages) {
+            this.jarFile      = pJarFile;
+            this.size         = pSize;
+            this.lastModified = pLastModified;
+            this.packages     = pPackages;
+        }
+        
+        final File                  jarFile;
+        final long                  size;
+        final long                  lastModified;
+        final Map<String, String[]> packages;    // The names of the class files by their package names
+        
+        /** Checks if the jar file is still the one indexed */
+        boolean isCurrent() {
+            return (this.jarFile.length() == this.size) && (this.jarFile.lastModified() == this.lastModified);
+        }
+        
+        /** Returns the names of the packages */
+        Set<String> getPackageNames() {
+            return Collections.unmodifiableSet(this.packages.keySet());
+        }
+        
+        /** Adds the class files of the package (and of its sub-packages if recurse) */
+        void list(
+                final String                 pPackageName,
+                final boolean                pRecurse,
+                final Vector<JavaFileObject> pFileObjects) {
+            this.addClassFiles(pPackageName, pFileObjects);
+            if (!pRecurse)
+                return;
+            
+            final String aPrefix = (pPackageName.length() == 0) ? "" : pPackageName + ".";
+            for (final String PName : this.packages.keySet()) {
+                if ((PName.length() > aPrefix.length()) && PName.startsWith(aPrefix))
+                    this.addClassFiles(PName, pFileObjects);
+            }
+        }
+        /** Returns the class file of the class or null if the jar file does not have it */
+        ClassFile getClassFile(final String pBinaryName) {
+            final int      aDot         = pBinaryName.lastIndexOf('.');
+            final String   aPackageName = (aDot == -1) ? "" : pBinaryName.substring(0, aDot);
+            final String   aFileName    = pBinaryName.substring(aDot + 1) + MemoryFileManager.CLASS_FILE_SUFFIX;
+            final String[] aFileNames   = this.packages.get(aPackageName);
+            if ((aFileNames == null) || (Arrays.binarySearch(aFileNames, aFileName) < 0))
+                return null;
+            
+            return new ClassFile(this, aPackageName, aFileName);
+        }
+        
+        private void addClassFiles(
+                final String                 pPackageName,
+                final Vector<JavaFileObject> pFileObjects) {
+            final String[] aFileNames = this.packages.get(pPackageName);
+            if (aFileNames == null)
+                return;
+            
+            for (final String aFileName : aFileNames)
+                pFileObjects.add(new ClassFile(this, pPackageName, aFileName));
+        }
+        
+        /** Reads the entry of the jar file - the jar file is closed before returning */
+        private byte[] read(final String pEntryName) throws IOException {
+            try (final ZipFile aZipFile = new ZipFile(this.jarFile)) {
+                final ZipEntry aEntry = aZipFile.getEntry(pEntryName);
+                if (aEntry == null)
+                    return null;
+                
+                try (final InputStream aInput = aZipFile.getInputStream(aEntry)) {
+                    return aInput.readAllBytes();
+                }
+            }
+        }
+    }
+    
+    /** A class file in an indexed jar file */
+    static final class ClassFile implements JavaFileObject {
+        ClassFile(
+                final JarIndex pJarIndex,
+                final String   pPackageName,
+                final String   pFileName) {
+            this.jarIndex    = pJarIndex;
+            this.packageName = pPackageName;
+            this.fileName    = pFileName;
+        }
+        
+        final private JarIndex jarIndex;
+        final private String   packageName;
+        final private String   fileName;
+        
+        /** Returns the binary name of the class (e.g. 'pkg.Outer$Inner') */
+        String getBinaryName() {
+            final String aSimpleName = this.fileName.substring(0,
+                                            this.fileName.length() - MemoryFileManager.CLASS_FILE_SUFFIX_LENGTH);
+            return (this.packageName.length() == 0) ? aSimpleName : this.packageName + "." + aSimpleName;
+        }
+        
+        /** {@inheritDoc} */ @Override
+        public Kind getKind() {
+            return Kind.CLASS;
+        }
+        /** {@inheritDoc} */ @Override
+        public boolean isNameCompatible(
+                final String pSimpleName,
+                final Kind   pKind) {
+            return (pKind == Kind.CLASS) && this.fileName.equals(pSimpleName + MemoryFileManager.CLASS_FILE_SUFFIX);
+        }
+        /** {@inheritDoc} */ @Override
+        public NestingKind getNestingKind() {
+            return null;
+        }
+        /** {@inheritDoc} */ @Override
+        public Modifier getAccessLevel() {
+            return null;
+        }
+        
+        /** {@inheritDoc} */ @Override
+        public URI toUri() {
+            return URI.create("jar:" + this.jarIndex.jarFile.toURI() + "!/" + this.getEntryName());
+        }
+        /** {@inheritDoc} */ @Override
+        public String getName() {
+            return this.jarIndex.jarFile.getPath() + "(" + this.getEntryName() + ")";
+        }
+        /** {@inheritDoc} */ @Override
+        public InputStream openInputStream() throws IOException {
+            final byte[] aBytes = this.jarIndex.read(this.getEntryName());
+            if (aBytes == null)
+                throw new FileNotFoundException(this.getName());
+            
+            return new ByteArrayInputStream(aBytes);
+        }
+        /** {@inheritDoc} */ @Override
+        public OutputStream openOutputStream() {
+            throw new UnsupportedOperationException("The class file in a jar file is read-only: " + this.getName());
+        }
+        /** {@inheritDoc} */ @Override
+        public Reader openReader(final boolean pIgnoreEncodingErrors) {
+            throw new UnsupportedOperationException("The class file has no character content: " + this.getName());
+        }
+        /** {@inheritDoc} */ @Override
+        public CharSequence getCharContent(final boolean pIgnoreEncodingErrors) {
+            throw new UnsupportedOperationException("The class file has no character content: " + this.getName());
+        }
+        /** {@inheritDoc} */ @Override
+        public Writer openWriter() {
+            throw new UnsupportedOperationException("The class file in a jar file is read-only: " + this.getName());
+        }
+        /** {@inheritDoc} */ @Override
+        public long getLastModified() {
+            return this.jarIndex.lastModified;
+        }
+        /** {@inheritDoc} */ @Override
+        public boolean delete() {
+            return false;
+        }
+        
+        /** {@inheritDoc} */ @Override
+        public boolean equals(final Object pOther) {
+            if (!(pOther instanceof ClassFile))
+                return false;
+            
+            final ClassFile aOther = (ClassFile)pOther;
+            return (this.jarIndex == aOther.jarIndex)
+                && this.packageName.equals(aOther.packageName)
+                && this.fileName   .equals(aOther.fileName);
+        }
+        /** {@inheritDoc} */ @Override
+        public int hashCode() {
+            return this.getName().hashCode();
+        }
+        /** {@inheritDoc} */ @Override
+        public String toString() {
+            return this.getName();
+        }
+        
+        private String getEntryName() {
+            return (this.packageName.length() == 0)
+                    ? this.fileName
+                    : this.packageName.replace('.', '/') + "/" + this.fileName;
+        }
+    }
+    
+    PackageIndex() {}
+    
+    // The indexes by the normalized paths of the jar files
+    final private ConcurrentHashMap<String, JarIndex> indexes = new ConcurrentHashMap<String, JarIndex>();
+    
+    private volatile boolean isPersistent = true;
+    
+    final private AtomicLong buildCount = new AtomicLong();
+    final private AtomicLong loadCount  = new AtomicLong();
+    
+    /** Sets if the indexes are saved in the directory of the persistent compile cache (when it is enabled) */
+    void setPersistent(final boolean pIsPersistent) {
+        this.isPersistent = pIsPersistent;
+    }
+    /** Checks if the indexes are saved in the directory of the persistent compile cache (when it is enabled) */
+    boolean isPersistent() {
+        return this.isPersistent;
+    }
+    
+    /** Indexes the jar files of the paths (in parallel) - the other paths (e.g. directories) are ignored */
+    void addAll(final Collection<String> pPaths) {
+        final Vector<String> aPaths = new Vector<String>();
+        for (final String aPath : pPaths) {
+            if ((aPath == null) || !new File(aPath).isFile())
+                continue;
+            
+            final JarIndex aIndex = this.indexes.get(aPath);
+            if ((aIndex == null) || !aIndex.isCurrent())
+                aPaths.add(aPath);
+        }
+        
+        if (aPaths.size() == 1)
+             this.index(aPaths.get(0));
+        else aPaths.parallelStream().forEach(this::index);
+    }
+    
+    /** Returns the current index of the jar file or null if the path is not an indexed jar file */
+    JarIndex get(final String pPath) {
+        final JarIndex aIndex = this.indexes.get(pPath);
+        if ((aIndex == null) || aIndex.isCurrent())
+            return aIndex;
+        
+        return this.index(pPath);
+    }
+    
+    /** Returns the number of the indexes built by scanning the jar files */
+    long getBuildCount() {
+        return this.buildCount.get();
+    }
+    /** Returns the number of the indexes loaded from the saved index files */
+    long getLoadCount() {
+        return this.loadCount.get();
+    }
+    
+    // Privates --------------------------------------------------------------------------------------------------------
+    
+    /** Loads or builds the index of the jar file - returns null if the jar file is not readable */
+    private JarIndex index(final String pPath) {
+        final File aJarFile      = new File(pPath);
+        final long aSize         = aJarFile.length();
+        final long aLastModified = aJarFile.lastModified();
+        final File aIndexFile    = this.isPersistent ? IndexFileOf(pPath) : null;
+        
+        JarIndex aIndex = (aIndexFile == null) ? null : Load(aIndexFile, aJarFile, aSize, aLastModified);
+        if (aIndex != null)
+            this.loadCount.incrementAndGet();
+        else {
+            try {
+                aIndex = Build(aJarFile, aSize, aLastModified);
+            } catch (IOException E) {
+                this.indexes.remove(pPath);
+                return null;
+            }
+            this.buildCount.incrementAndGet();
+            
+            if (aIndexFile != null) {
+                try {
+                    Save(aIndexFile, aIndex);
+                } catch (IOException E) {
+                    // It will be built again next time.
+                }
+            }
+        }
+        this.indexes.put(pPath, aIndex);
+        return aIndex;
+    }
+    
+    /** Returns the file to save the index of the jar file in or null if the persistent compile cache is disabled */
+    static File IndexFileOf(final String pPath) {
+        final File aDirectory = PersistentClassCache.Instance.getDirectory();
+        if (aDirectory == null)
+            return null;
+        
+        return new File(new File(aDirectory, INDEX_DIRECTORY_NAME), ContentHash.Of(pPath) + INDEX_FILE_SUFFIX);
+    }
+    
+    /** Scans the entries of the jar file */
+    static private JarIndex Build(
+            final File pJarFile,
+            final long pSize,
+            final long pLastModified)
+            throws IOException {
+        final HashMap<String, Vector<String>> aPackages = new HashMap<String, Vector<String>>();
+        try (final ZipFile aZipFile = new ZipFile(pJarFile)) {
+            final Enumeration<? extends ZipEntry> aEntries = aZipFile.entries();
+            while (aEntries.hasMoreElements()) {
+                final String aName = aEntries.nextElement().getName();
+                if (!aName.endsWith(MemoryFileManager.CLASS_FILE_SUFFIX) || aName.startsWith("META-INF/"))
+                    continue;
+                
+                final int    aSlash       = aName.lastIndexOf('/');
+                final String aPackageName = (aSlash == -1) ? "" : aName.substring(0, aSlash).replace('/', '.');
+                final String aFileName    = aName.substring(aSlash + 1);
+                if (aFileName.equals("module-info.class"))
+                    continue;
+                
+                aPackages.computeIfAbsent(aPackageName, PName -> new Vector<String>()).add(aFileName);
+            }
+        }
+        
+        final HashMap<String, String[]> aIndex = new HashMap<String, String[]>();
+        for (final Map.Entry<String, Vector<String>> aEntry : aPackages.entrySet()) {
+            final String[] aFileNames = aEntry.getValue().toArray(new String[aEntry.getValue().size()]);
+            Arrays.sort(aFileNames);
+            aIndex.put(aEntry.getKey(), aFileNames);
+        }
+        return new JarIndex(pJarFile, pSize, pLastModified, aIndex);
+    }
+    
+    /** Loads the saved index - returns null if there is none or it is not of the jar file as it is now */
+    static private JarIndex Load(
+            final File pIndexFile,
+            final File pJarFile,
+            final long pSize,
+            final long pLastModified) {
+        if (!pIndexFile.isFile())
+            return null;
+        
+        try {
+            // The checksum (at the end) is of everything before it.
+            final byte[] aBytes = Files.readAllBytes(pIndexFile.toPath());
+            if (aBytes.length < 8)
+                return null;
+            
+            final CRC32 aCRC = new CRC32();
+            aCRC.update(aBytes, 0, aBytes.length - 8);
+            final DataInputStream aDIS = new DataInputStream(new ByteArrayInputStream(aBytes));
+            aDIS.skipBytes(aBytes.length - 8);
+            if (aDIS.readLong() != aCRC.getValue())
+                return null;
+            
+            final DataInputStream aData = new DataInputStream(new ByteArrayInputStream(aBytes, 0, aBytes.length - 8));
+            if ((aData.readInt() != MAGIC) || (aData.readInt() != VERSION))
+                return null;
+            if ((aData.readLong() != pSize) || (aData.readLong() != pLastModified))
+                return null;
+            
+            final int                       aPackageCount = aData.readInt();
+            final HashMap<String, String[]> aPackages     = new HashMap<String, String[]>();
+            for (int p = 0; p < aPackageCount; p++) {
+                final String   aPackageName = aData.readUTF();
+                final String[] aFileNames   = new String[aData.readInt()];
+                for (int f = 0; f < aFileNames.length; f++)
+                    aFileNames[f] = aData.readUTF();
+                aPackages.put(aPackageName, aFileNames);
+            }
+            return new JarIndex(pJarFile, pSize, pLastModified, aPackages);
+        } catch (IOException | RuntimeException E) {
+            return null;
+        }
+    }
+    
+    /** Saves the index (atomically) */
+    static private void Save(
+            final File     pIndexFile,
+            final JarIndex pIndex)
+            throws IOException {
+        final ByteArrayOutputStream aBAOS = new ByteArrayOutputStream();
+        final DataOutputStream      aDOS  = new DataOutputStream(aBAOS);
+        aDOS.writeInt(MAGIC);
+        aDOS.writeInt(VERSION);
+        aDOS.writeLong(pIndex.size);
+        aDOS.writeLong(pIndex.lastModified);
+        aDOS.writeInt(pIndex.packages.size());
+        for (final Map.Entry<String, String[]> aEntry : pIndex.packages.entrySet()) {
+            aDOS.writeUTF(aEntry.getKey());
+            aDOS.writeInt(aEntry.getValue().length);
+            for (final String aFileName : aEntry.getValue())
+                aDOS.writeUTF(aFileName);
+        }
+        aDOS.flush();
+        
+        final CRC32 aCRC = new CRC32();
+        aCRC.update(aBAOS.toByteArray());
+        aDOS.writeLong(aCRC.getValue());
+        aDOS.flush();
+        
+        final File aDirectory = pIndexFile.getParentFile();
+        if (!aDirectory.isDirectory() && !aDirectory.mkdirs())
+            throw new IOException("Unable to create the index directory: " + aDirectory);
+        
+        final File aTempFile = File.createTempFile(pIndexFile.getName(), ".tmp", aDirectory);
+        try {
+            try (final FileOutputStream aFOS = new FileOutputStream(aTempFile)) {
+                aFOS.write(aBAOS.toByteArray());
+            }
+            PersistentClassCache.MoveAtomically(aTempFile, pIndexFile);
+        } finally {
+            aTempFile.delete();
+        }
+    }
+
+}
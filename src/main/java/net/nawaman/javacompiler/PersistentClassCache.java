@@ -0,0 +1,805 @@
+package net.nawaman.javacompiler;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.charset.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.locks.*;
+import java.util.zip.*;
+
+/**
+ * A process-wide on-disk cache of compilation results that survives JVM restarts.
+ *
+ * The results are kept by the same key as CompileResultCache in a directory with three files:
+ *   - the data file   ('classes.dat')  - a header followed by the appended records, each with its key and a checksum.
+ *   - the index file  ('classes.idx')  - the location of each record, rewritten atomically every INDEX_WRITE_INTERVAL
+ *                                        records (and when the cache is closed or compacted).
+ *   - the lock file   ('classes.lock') - locked while the files are used so the directory can be shared by processes.
+ *
+ * The records are appended under an exclusive lock (after catching up with the records appended or the compaction
+ *   done by the other processes) and read under a shared lock. The data file is only forced to the disk right before
+ *   the index is written so that the index never covers a record that is not on the disk.
+ *
+ * The data file is memory-mapped for reading so a hit is decoded straight from the mapped bytes (the byte code is
+ *   copied out as it is kept in the memory and given to javac after the lock is released, while the data file may be
+ *   truncated by another process). A record is only used when its checksum matches. A key that is not found makes the
+ *   cache catch up with the records appended by the other processes before it is counted as a miss. If the index is
+ *   missing, corrupted or out-of-date (e.g. the process crashed after records were appended), the records are
+ *   recovered by scanning the data file up to the first invalid record.
+ *
+ * The cache is bounded by its maximum size. When the data file grows beyond it, the most recently used records are
+ *   copied into a new data file (up to half of the maximum size) that replaces the old one.
+ **/
+final class PersistentClassCache {
+    
+    static public final long DEFAULT_MAX_BYTES = 256L*1024*1024;
+    
+    static public final String DATA_FILE_NAME  = "classes.dat";
+    static public final String INDEX_FILE_NAME = "classes.idx";
+    static public final String LOCK_FILE_NAME  = "classes.lock";
+    
+    /** The number of the appended records before the index is rewritten */
+    static public final int INDEX_WRITE_INTERVAL = 64;
+    
+    static private final int DATA_MAGIC   = 0x4A434344;    // "JCCD"
+    static private final int INDEX_MAGIC  = 0x4A434349;    // "JCCI"
+    static private final int RECORD_MAGIC = 0x4A434352;    // "JCCR"
+    static private final int VERSION      = 1;
+    
+    static private final int DATA_HEADER_SIZE   = 4 + 4 + 8;
+    static private final int RECORD_HEADER_SIZE = 4 + 4 + 4 + 4;
+    
+    static private final Charset UTF8 = StandardCharsets.UTF_8;
+    
+    /** The shared cache - disabled until a directory is given */
+    static final PersistentClassCache Instance = new PersistentClassCache();
+    
+    // A file lock is held for the whole process so the caches of the same directory in this process take turns.
+    static private final ConcurrentHashMap<String, ReentrantLock> DirectoryLocks = new ConcurrentHashMap<>();
+    
+    /** The location of a record in the data file */
+    static private final class Entry {
+        Entry(
+                final long pOffset,
+                final int  pLength) {
+            this.offset = pOffset;
+            this.length = pLength;
+        }
+        
+        final long offset;
+        final int  length;
+    }
+    
+    // Access-ordered so that the least recently used record comes first.
+    final private LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+    
+    private File             directory   = null;
+    private long             maxBytes    = DEFAULT_MAX_BYTES;
+    private FileChannel      dataChannel = null;
+    private MappedByteBuffer dataMap     = null;
+    private long             dataSize    = 0;
+    private long             generation  = 0;
+    private FileChannel      lockChannel = null;
+    private ReentrantLock    processLock = null;
+    private int              unindexed   = 0;
+    
+    private long hitCount        = 0;
+    private long missCount       = 0;
+    private long corruptedCount  = 0;
+    private long compactionCount = 0;
+    
+    /**
+     * Uses the directory for the cache - null disables the cache.
+     *
+     * @param pDirectory  the cache directory (created if not exist).
+     * @param pMaxBytes   the maximum size of the data file.
+     **/
+    synchronized void configure(
+            final File pDirectory,
+            final long pMaxBytes)
+            throws IOException {
+        if ((pMaxBytes <= DATA_HEADER_SIZE) || (pMaxBytes > Integer.MAX_VALUE))
+            throw new IllegalArgumentException("The maximum size is out of range: " + pMaxBytes);
+        
+        this.close();
+        this.maxBytes = pMaxBytes;
+        if (pDirectory == null)
+            return;
+        
+        if (!pDirectory.isDirectory() && !pDirectory.mkdirs())
+            throw new IOException("Unable to create the cache directory: " + pDirectory);
+        
+        this.directory = pDirectory;
+        try {
+            this.processLock = DirectoryLocks.computeIfAbsent(pDirectory.getCanonicalPath(), P -> new ReentrantLock());
+            this.lockChannel = FileChannel.open(
+                                    new File(pDirectory, LOCK_FILE_NAME).toPath(),
+                                    StandardOpenOption.CREATE,
+                                    StandardOpenOption.READ,
+                                    StandardOpenOption.WRITE);
+            final FileLock aLock = this.lockDirectory(false);
+            try {
+                this.open();
+                if (this.dataSize > this.maxBytes)
+                    this.compact();
+            } finally {
+                this.unlockDirectory(aLock);
+            }
+        } catch (IOException E) {
+            this.close();
+            throw E;
+        }
+    }
+    
+    /** Checks if the cache is enabled */
+    synchronized boolean isEnabled() {
+        return (this.directory != null);
+    }
+    
+    /** Returns the cache directory or null if the cache is disabled */
+    synchronized File getDirectory() {
+        return this.directory;
+    }
+    
+    /** Returns the cached result of the key or null if there is none (or it is corrupted) */
+    synchronized CompileResultCache.CachedResult get(final String pKey) {
+        if (this.directory == null)
+            return null;
+        
+        Entry aEntry = this.entries.get(pKey);
+        if (aEntry == null) {
+            // Another process may have kept the result since.
+            aEntry = this.refreshFor(pKey);
+            if (aEntry == null) {
+                this.missCount++;
+                return null;
+            }
+        }
+        
+        try {
+            final FileLock aLock = this.lockDirectory(true);
+            try {
+                final ByteBuffer aRecord = this.getMappedRecord(aEntry);
+                final ByteBuffer aData   = (aRecord == null) ? null : ReadRecord(aRecord, pKey);
+                if (aData != null) {
+                    final CompileResultCache.CachedResult aResult = Decode(aData);
+                    this.hitCount++;
+                    return aResult;
+                }
+            } finally {
+                this.unlockDirectory(aLock);
+            }
+        } catch (IOException | RuntimeException E) {
+            // Treated as a corrupted record below.
+        }
+        
+        this.entries.remove(pKey);
+        this.corruptedCount++;
+        this.missCount++;
+        return null;
+    }
+    
+    /** Keeps the result - failing to write the result only leaves it out of the cache. */
+    synchronized void put(
+            final String                          pKey,
+            final CompileResultCache.CachedResult pResult) {
+        if ((this.directory == null) || this.entries.containsKey(pKey))
+            return;
+        
+        try {
+            final FileLock aLock = this.lockDirectory(false);
+            try {
+                this.append(pKey, pResult);
+            } finally {
+                this.unlockDirectory(aLock);
+            }
+        } catch (IOException E) {
+            // The records that are not in the index will be recovered or overwritten later.
+        }
+        if ((this.directory != null) && (this.dataChannel == null))
+            this.close();
+    }
+    
+    /** Closes the cache files and disables the cache */
+    synchronized void close() {
+        if ((this.dataChannel != null) && (this.unindexed > 0)) {
+            try {
+                final FileLock aLock = this.lockDirectory(false);
+                try {
+                    this.refresh();
+                    this.writeIndex();
+                } finally {
+                    this.unlockDirectory(aLock);
+                }
+            } catch (IOException E) {
+                // The records that are not in the index will be recovered later.
+            }
+        }
+        if (this.dataChannel != null) {
+            try {
+                this.dataChannel.close();
+            } catch (IOException E) {
+                // Nothing else to be done.
+            }
+        }
+        if (this.lockChannel != null) {
+            // Closing the channel may release the locks of the other channels of the file in this process.
+            this.processLock.lock();
+            try {
+                this.lockChannel.close();
+            } catch (IOException E) {
+                // Nothing else to be done.
+            } finally {
+                this.processLock.unlock();
+            }
+        }
+        this.entries.clear();
+        this.directory   = null;
+        this.dataChannel = null;
+        this.dataMap     = null;
+        this.dataSize    = 0;
+        this.lockChannel = null;
+        this.processLock = null;
+        this.unindexed   = 0;
+    }
+    
+    /** Returns the number of the cached results */
+    synchronized int getEntryCount() {
+        return this.entries.size();
+    }
+    /** Returns the size of the data file */
+    synchronized long getDataSize() {
+        return this.dataSize;
+    }
+    /** Returns the maximum size of the data file */
+    synchronized long getMaxBytes() {
+        return this.maxBytes;
+    }
+    /** Returns the number of the lookups that found a result */
+    synchronized long getHitCount() {
+        return this.hitCount;
+    }
+    /** Returns the number of the lookups that found no (valid) result */
+    synchronized long getMissCount() {
+        return this.missCount;
+    }
+    /** Returns the number of the records dropped because they are corrupted */
+    synchronized long getCorruptedCount() {
+        return this.corruptedCount;
+    }
+    /** Returns the number of times the data file was compacted to stay within the maximum size */
+    synchronized long getCompactionCount() {
+        return this.compactionCount;
+    }
+    
+    // Files -----------------------------------------------------------------------------------------------------------
+    
+    /** Locks the cache directory - across the processes and the caches of the same directory in this process */
+    private FileLock lockDirectory(final boolean pIsShared) throws IOException {
+        this.processLock.lock();
+        try {
+            return this.lockChannel.lock(0, Long.MAX_VALUE, pIsShared);
+        } catch (IOException | RuntimeException E) {
+            this.processLock.unlock();
+            throw E;
+        }
+    }
+    /** Unlocks the cache directory locked by lockDirectory(...) */
+    private void unlockDirectory(final FileLock pLock) throws IOException {
+        try {
+            pLock.release();
+        } finally {
+            this.processLock.unlock();
+        }
+    }
+    
+    private File getDataFile() {
+        return new File(this.directory, DATA_FILE_NAME);
+    }
+    private File getIndexFile() {
+        return new File(this.directory, INDEX_FILE_NAME);
+    }
+    
+    private void open() throws IOException {
+        this.dataChannel = FileChannel.open(
+                                this.getDataFile().toPath(),
+                                StandardOpenOption.CREATE,
+                                StandardOpenOption.READ,
+                                StandardOpenOption.WRITE);
+        
+        if (!this.readDataHeader()) {
+            this.dataChannel.truncate(0);
+            this.writeDataHeader(NewGeneration());
+        }
+        
+        final long aActualSize = this.dataChannel.size();
+        final long aIndexedSize = this.readIndex(aActualSize);
+        if (aIndexedSize < 0) {
+            this.entries.clear();
+            this.dataSize = this.recover(DATA_HEADER_SIZE, aActualSize);
+        } else {
+            this.dataSize = this.recover(aIndexedSize, aActualSize);
+        }
+        
+        if (this.dataSize != aActualSize) {
+            this.dataChannel.truncate(this.dataSize);
+            this.dataMap = null;
+        }
+        this.writeIndex();
+    }
+    
+    /** Catches up with the records appended and the compaction done by the other processes - under the lock */
+    private void refresh() throws IOException {
+        final long aGeneration = this.generation;
+        if (!this.readDataHeader() || (this.generation != aGeneration)) {
+            // The data file was replaced by another process - the records are now in the new one.
+            this.dataChannel.close();
+            this.dataChannel = null;
+            this.dataMap     = null;
+            this.unindexed   = 0;
+            this.open();
+            return;
+        }
+        
+        final long aActualSize = this.dataChannel.size();
+        if (aActualSize > this.dataSize)
+            this.dataSize = this.recover(this.dataSize, aActualSize);
+    }
+    
+    /** Appends the record of the result - under the exclusive lock */
+    private void append(
+            final String                          pKey,
+            final CompileResultCache.CachedResult pResult)
+            throws IOException {
+        // Another process may have kept the result since.
+        this.refresh();
+        if (this.entries.containsKey(pKey))
+            return;
+        
+        final byte[] aRecord = NewRecord(pKey, Encode(pResult));
+        if ((DATA_HEADER_SIZE + aRecord.length) > this.maxBytes)
+            return;
+        
+        final long aOffset = this.dataSize;
+        WriteFully(this.dataChannel, ByteBuffer.wrap(aRecord), aOffset);
+        
+        this.dataSize += aRecord.length;
+        this.entries.put(pKey, new Entry(aOffset, aRecord.length));
+        
+        if (this.dataSize > this.maxBytes)
+             this.compact();
+        else if (++this.unindexed >= INDEX_WRITE_INTERVAL)
+             this.writeIndex();
+    }
+    
+    /** Catches up with the other processes and returns the entry of the key or null if there is still none */
+    private Entry refreshFor(final String pKey) {
+        try {
+            final FileLock aLock = this.lockDirectory(false);
+            try {
+                this.refresh();
+            } finally {
+                this.unlockDirectory(aLock);
+            }
+        } catch (IOException E) {
+            // The cache may be left closed below.
+        }
+        if (this.dataChannel == null) {
+            this.close();
+            return null;
+        }
+        return this.entries.get(pKey);
+    }
+    
+    private boolean readDataHeader() throws IOException {
+        if (this.dataChannel.size() < DATA_HEADER_SIZE)
+            return false;
+        
+        final ByteBuffer aHeader = ByteBuffer.allocate(DATA_HEADER_SIZE);
+        ReadFully(this.dataChannel, aHeader, 0);
+        aHeader.flip();
+        if ((aHeader.getInt() != DATA_MAGIC) || (aHeader.getInt() != VERSION))
+            return false;
+        
+        this.generation = aHeader.getLong();
+        return true;
+    }
+    
+    private void writeDataHeader(final long pGeneration) throws IOException {
+        final ByteBuffer aHeader = ByteBuffer.allocate(DATA_HEADER_SIZE);
+        aHeader.putInt(DATA_MAGIC).putInt(VERSION).putLong(pGeneration).flip();
+        WriteFully(this.dataChannel, aHeader, 0);
+        this.dataChannel.force(true);
+        this.generation = pGeneration;
+        this.dataSize   = DATA_HEADER_SIZE;
+    }
+    
+    /** Scans the records from the offset and returns the offset after the last valid record */
+    private long recover(
+            final long pOffset,
+            final long pSize)
+            throws IOException {
+        long aOffset = pOffset;
+        while ((aOffset + RECORD_HEADER_SIZE) <= pSize) {
+            final ByteBuffer aHeader = ByteBuffer.allocate(RECORD_HEADER_SIZE);
+            ReadFully(this.dataChannel, aHeader, aOffset);
+            aHeader.flip();
+            
+            final int  aMagic      = aHeader.getInt();
+            final int  aKeyLength  = aHeader.getInt();
+            final int  aDataLength = aHeader.getInt();
+            final long aLength     = (long)RECORD_HEADER_SIZE + aKeyLength + aDataLength;
+            if ((aMagic != RECORD_MAGIC) || (aKeyLength < 0) || (aDataLength < 0) || ((aOffset + aLength) > pSize))
+                break;
+            
+            final ByteBuffer aRecord = ByteBuffer.allocate((int)aLength);
+            ReadFully(this.dataChannel, aRecord, aOffset);
+            aRecord.flip();
+            
+            final String aKey = ReadRecordKey(aRecord);
+            if ((aKey == null) || (ReadRecord(aRecord, aKey) == null))
+                break;
+            
+            this.entries.put(aKey, new Entry(aOffset, (int)aLength));
+            aOffset += aLength;
+        }
+        return aOffset;
+    }
+    
+    /** Reads the index and returns the size of the data file it covers or -1 if the index cannot be used. */
+    private long readIndex(final long pActualSize) {
+        this.entries.clear();
+        
+        final File aIndexFile = this.getIndexFile();
+        if (!aIndexFile.isFile())
+            return -1;
+        
+        try {
+            final byte[] aBytes = Files.readAllBytes(aIndexFile.toPath());
+            if (aBytes.length < 8)
+                return -1;
+            
+            final CRC32 aCRC = new CRC32();
+            aCRC.update(aBytes, 0, aBytes.length - 8);
+            final ByteBuffer aBuffer = ByteBuffer.wrap(aBytes);
+            if (aBuffer.getLong(aBytes.length - 8) != aCRC.getValue())
+                return -1;
+            
+            if ((aBuffer.getInt() != INDEX_MAGIC) || (aBuffer.getInt() != VERSION))
+                return -1;
+            if (aBuffer.getLong() != this.generation)
+                return -1;
+            
+            final long aDataSize = aBuffer.getLong();
+            if (aDataSize > pActualSize)
+                return -1;
+            
+            final int aCount = aBuffer.getInt();
+            for (int i = 0; i < aCount; i++) {
+                final String aKey    = GetString(aBuffer);
+                final long   aOffset = aBuffer.getLong();
+                final int    aLength = aBuffer.getInt();
+                if ((aKey == null) || (aOffset < DATA_HEADER_SIZE) || ((aOffset + aLength) > aDataSize)) {
+                    this.entries.clear();
+                    return -1;
+                }
+                this.entries.put(aKey, new Entry(aOffset, aLength));
+            }
+            return aDataSize;
+        
+        } catch (IOException | RuntimeException E) {
+            this.entries.clear();
+            return -1;
+        }
+    }
+    
+    /** Forces the data file to the disk, writes the index to a temporary file and replaces the index with it */
+    private void writeIndex() throws IOException {
+        this.dataChannel.force(false);
+        
+        final ByteArrayOutputStream aBAOS = new ByteArrayOutputStream();
+        final DataOutputStream      aDOS  = new DataOutputStream(aBAOS);
+        aDOS.writeInt(INDEX_MAGIC);
+        aDOS.writeInt(VERSION);
+        aDOS.writeLong(this.generation);
+        aDOS.writeLong(this.dataSize);
+        aDOS.writeInt(this.entries.size());
+        for (final Map.Entry<String, Entry> aEntry : this.entries.entrySet()) {
+            PutString(aDOS, aEntry.getKey());
+            aDOS.writeLong(aEntry.getValue().offset);
+            aDOS.writeInt (aEntry.getValue().length);
+        }
+        aDOS.flush();
+        
+        final CRC32 aCRC = new CRC32();
+        aCRC.update(aBAOS.toByteArray());
+        aDOS.writeLong(aCRC.getValue());
+        aDOS.flush();
+        
+        final File aIndexFile = this.getIndexFile();
+        final File aTempFile  = new File(this.directory, INDEX_FILE_NAME + ".tmp");
+        try (final FileOutputStream aFOS = new FileOutputStream(aTempFile)) {
+            aFOS.write(aBAOS.toByteArray());
+            aFOS.getFD().sync();
+        }
+        MoveAtomically(aTempFile, aIndexFile);
+        this.unindexed = 0;
+    }
+    
+    /** Copies the most recently used records into a new data file that replaces the current one */
+    private void compact() throws IOException {
+        final long aTargetSize = this.maxBytes / 2;
+        
+        // Select from the most recently used.
+        final ArrayList<Map.Entry<String, Entry>> aEntries = new ArrayList<>(this.entries.entrySet());
+        final ArrayList<Map.Entry<String, Entry>> aKept    = new ArrayList<>();
+        long aSize = DATA_HEADER_SIZE;
+        for (int i = aEntries.size(); --i >= 0; ) {
+            final Map.Entry<String, Entry> aEntry = aEntries.get(i);
+            if ((aSize + aEntry.getValue().length) > aTargetSize)
+                break;
+            
+            aSize += aEntry.getValue().length;
+            aKept.add(0, aEntry);
+        }
+        
+        final long aGeneration = NewGeneration();
+        final File aTempFile   = new File(this.directory, DATA_FILE_NAME + ".tmp");
+        final LinkedHashMap<String, Entry> aNewEntries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+        try (final FileChannel aChannel = FileChannel.open(
+                                            aTempFile.toPath(),
+                                            StandardOpenOption.CREATE,
+                                            StandardOpenOption.TRUNCATE_EXISTING,
+                                            StandardOpenOption.WRITE)) {
+            final ByteBuffer aHeader = ByteBuffer.allocate(DATA_HEADER_SIZE);
+            aHeader.putInt(DATA_MAGIC).putInt(VERSION).putLong(aGeneration).flip();
+            WriteFully(aChannel, aHeader, 0);
+            
+            long aOffset = DATA_HEADER_SIZE;
+            for (final Map.Entry<String, Entry> aEntry : aKept) {
+                final ByteBuffer aRecord = ByteBuffer.allocate(aEntry.getValue().length);
+                ReadFully(this.dataChannel, aRecord, aEntry.getValue().offset);
+                aRecord.flip();
+                WriteFully(aChannel, aRecord, aOffset);
+                aNewEntries.put(aEntry.getKey(), new Entry(aOffset, aEntry.getValue().length));
+                aOffset += aEntry.getValue().length;
+            }
+            aChannel.force(true);
+        }
+        
+        // The index of the old generation will not be used with the new data file (and vice versa). The header of the
+        //   old data file is cleared so the other processes that still have it open know to reopen.
+        WriteFully(this.dataChannel, ByteBuffer.allocate(4), 0);
+        this.dataChannel.close();
+        this.dataChannel = null;
+        this.dataMap     = null;
+        MoveAtomically(aTempFile, this.getDataFile());
+        
+        this.dataChannel = FileChannel.open(
+                                this.getDataFile().toPath(),
+                                StandardOpenOption.READ,
+                                StandardOpenOption.WRITE);
+        this.entries.clear();
+        this.entries.putAll(aNewEntries);
+        this.generation = aGeneration;
+        this.dataSize   = aSize;
+        this.compactionCount++;
+        this.writeIndex();
+    }
+    
+    /** Returns the record as a slice of the mapped data file */
+    private ByteBuffer getMappedRecord(final Entry pEntry) throws IOException {
+        if ((pEntry.offset + pEntry.length) > Math.min(this.dataSize, this.dataChannel.size()))
+            return null;
+        
+        if ((this.dataMap == null) || (this.dataMap.capacity() < (pEntry.offset + pEntry.length)))
+            this.dataMap = this.dataChannel.map(FileChannel.MapMode.READ_ONLY, 0, this.dataSize);
+        
+        final ByteBuffer aRecord = this.dataMap.duplicate();
+        aRecord.position((int)pEntry.offset);
+        aRecord.limit   ((int)(pEntry.offset + pEntry.length));
+        return aRecord.slice();
+    }
+    
+    // Records ---------------------------------------------------------------------------------------------------------
+    
+    /** Creates a record: magic, key length, data length, checksum, key and data */
+    static private byte[] NewRecord(
+            final String pKey,
+            final byte[] pData) {
+        final byte[] aKey = pKey.getBytes(UTF8);
+        final CRC32  aCRC = new CRC32();
+        aCRC.update(aKey);
+        aCRC.update(pData);
+        
+        final ByteBuffer aRecord = ByteBuffer.allocate(RECORD_HEADER_SIZE + aKey.length + pData.length);
+        aRecord.putInt(RECORD_MAGIC);
+        aRecord.putInt(aKey.length);
+        aRecord.putInt(pData.length);
+        aRecord.putInt((int)aCRC.getValue());
+        aRecord.put(aKey);
+        aRecord.put(pData);
+        return aRecord.array();
+    }
+    
+    /** Returns the key of the record or null if the record is malformed */
+    static private String ReadRecordKey(final ByteBuffer pRecord) {
+        if ((pRecord.remaining() < RECORD_HEADER_SIZE) || (pRecord.getInt(0) != RECORD_MAGIC))
+            return null;
+        
+        final int aKeyLength = pRecord.getInt(4);
+        if ((aKeyLength < 0) || ((RECORD_HEADER_SIZE + aKeyLength) > pRecord.remaining()))
+            return null;
+        
+        final byte[] aKey = new byte[aKeyLength];
+        pRecord.duplicate().position(RECORD_HEADER_SIZE).get(aKey);
+        return new String(aKey, UTF8);
+    }
+    
+    /** Returns the data of the record or null if the record is not of the key or its checksum does not match */
+    static private ByteBuffer ReadRecord(
+            final ByteBuffer pRecord,
+            final String     pKey) {
+        if (!pKey.equals(ReadRecordKey(pRecord)))
+            return null;
+        
+        final int aKeyLength  = pRecord.getInt(4);
+        final int aDataLength = pRecord.getInt(8);
+        final int aChecksum   = pRecord.getInt(12);
+        if ((RECORD_HEADER_SIZE + aKeyLength + aDataLength) != pRecord.remaining())
+            return null;
+        
+        final ByteBuffer aContent = pRecord.duplicate();
+        aContent.position(RECORD_HEADER_SIZE);
+        
+        final CRC32 aCRC = new CRC32();
+        aCRC.update(aContent.duplicate());
+        if ((int)aCRC.getValue() != aChecksum)
+            return null;
+        
+        aContent.position(RECORD_HEADER_SIZE + aKeyLength);
+        return aContent.slice();
+    }
+    
+    // Codec -----------------------------------------------------------------------------------------------------------
+    
+    static private byte[] Encode(final CompileResultCache.CachedResult pResult) throws IOException {
+        final ByteArrayOutputStream aBAOS = new ByteArrayOutputStream();
+        final DataOutputStream      aDOS  = new DataOutputStream(aBAOS);
+        
+        aDOS.writeLong(pResult.codeSize);
+        aDOS.writeInt(pResult.classes.length);
+        for (final CompileResultCache.CachedClass aClass : pResult.classes) {
+            PutString(aDOS, aClass.binaryName);
+            PutString(aDOS, aClass.fileName);
+            PutString(aDOS, aClass.path);
+            aDOS.writeInt(aClass.bytes.length);
+            aDOS.write(aClass.bytes);
+        }
+        
+        aDOS.writeInt((pResult.units == null) ? -1 : pResult.units.length);
+        if (pResult.units != null) {
+            for (final DependencyGraph.Unit aUnit : pResult.units) {
+                PutString (aDOS, aUnit.name);
+                PutString (aDOS, aUnit.path);
+                PutString (aDOS, aUnit.hash);
+                PutStrings(aDOS, aUnit.producedTypes);
+                PutStrings(aDOS, aUnit.referencedTypes);
+            }
+        }
+        aDOS.flush();
+        return aBAOS.toByteArray();
+    }
+    
+    static private CompileResultCache.CachedResult Decode(final ByteBuffer pData) {
+        final long aCodeSize = pData.getLong();
+        
+        final CompileResultCache.CachedClass[] aClasses = new CompileResultCache.CachedClass[pData.getInt()];
+        for (int i = 0; i < aClasses.length; i++) {
+            final String aBinaryName = GetString(pData);
+            final String aFileName   = GetString(pData);
+            final String aPath       = GetString(pData);
+            final byte[] aBytes      = new byte[pData.getInt()];
+            pData.get(aBytes);
+            aClasses[i] = new CompileResultCache.CachedClass(aBinaryName, aFileName, aPath, aBytes);
+        }
+        
+        final int                    aUnitCount = pData.getInt();
+        final DependencyGraph.Unit[] aUnits     = (aUnitCount < 0) ? null : new DependencyGraph.Unit[aUnitCount];
+        for (int i = 0; i < aUnitCount; i++) {
+            final String      aName       = GetString (pData);
+            final String      aPath       = GetString (pData);
+            final String      aHash       = GetString (pData);
+            final Set<String> aProduced   = GetStrings(pData);
+            final Set<String> aReferenced = GetStrings(pData);
+            aUnits[i] = new DependencyGraph.Unit(aName, aPath, aHash, aProduced, aReferenced);
+        }
+        
+        return new CompileResultCache.CachedResult(aClasses, aUnits, aCodeSize);
+    }
+    
+    static private void PutString(
+            final DataOutputStream pDOS,
+            final String           pString)
+            throws IOException {
+        if (pString == null) {
+            pDOS.writeInt(-1);
+            return;
+        }
+        final byte[] aBytes = pString.getBytes(UTF8);
+        pDOS.writeInt(aBytes.length);
+        pDOS.write(aBytes);
+    }
+    static private String GetString(final ByteBuffer pBuffer) {
+        final int aLength = pBuffer.getInt();
+        if (aLength < 0)
+            return null;
+        
+        final byte[] aBytes = new byte[aLength];
+        pBuffer.get(aBytes);
+        return new String(aBytes, UTF8);
+    }
+    
+    static private void PutStrings(
+            final DataOutputStream pDOS,
+            final Set<String>      pStrings)
+            throws IOException {
+        pDOS.writeInt(pStrings.size());
+        for (final String aString : pStrings)
+            PutString(pDOS, aString);
+    }
+    static private Set<String> GetStrings(final ByteBuffer pBuffer) {
+        final int             aCount   = pBuffer.getInt();
+        final HashSet<String> aStrings = new HashSet<String>();
+        for (int i = 0; i < aCount; i++)
+            aStrings.add(GetString(pBuffer));
+        return aStrings;
+    }
+    
+    // Utilities -------------------------------------------------------------------------------------------------------
+    
+    static private long NewGeneration() {
+        return System.nanoTime() ^ Double.doubleToLongBits(Math.random());
+    }
+    
+    static private void ReadFully(
+            final FileChannel pChannel,
+            final ByteBuffer  pBuffer,
+            final long        pOffset)
+            throws IOException {
+        long aOffset = pOffset;
+        while (pBuffer.hasRemaining()) {
+            final int aRead = pChannel.read(pBuffer, aOffset);
+            if (aRead < 0)
+                throw new EOFException();
+            aOffset += aRead;
+        }
+    }
+    
+    static private void WriteFully(
+            final FileChannel pChannel,
+            final ByteBuffer  pBuffer,
+            final long        pOffset)
+            throws IOException {
+        long aOffset = pOffset;
+        while (pBuffer.hasRemaining())
+            aOffset += pChannel.write(pBuffer, aOffset);
+    }
+    
+    static void MoveAtomically(
+            final File pSource,
+            final File pTarget)
+            throws IOException {
+        try {
+            Files.move(pSource.toPath(), pTarget.toPath(),
+                    StandardCopyOption.ATOMIC_MOVE,
+                    StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException E) {
+            Files.move(pSource.toPath(), pTarget.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+}
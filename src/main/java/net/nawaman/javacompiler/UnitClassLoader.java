@@ -0,0 +1,77 @@
+package net.nawaman.javacompiler;
+
+import java.security.*;
+import java.util.*;
+
+/**
+ * The class loader of a throwaway unit (see CompiledUnit).
+ *
+ * The loader defines the classes compiled by the unit and delegates the others to the JCompiler the unit was compiled
+ *   with. Nothing but the unit (and the classes it defined) refers to the loader - so the loader and its classes are
+ *   unloaded once they are no longer referenced. The classes of the unit are looked up before the ones of the
+ *   JCompiler so units can reuse the same class names.
+ **/
+final class UnitClassLoader extends ClassLoader {
+    
+    static {
+        ClassLoader.registerAsParallelCapable();
+    }
+    
+    UnitClassLoader(
+            final JCompiler                              pJCompiler,
+            final Map<String, JavaClassMemoryFileObject> pClasses) {
+        super(pJCompiler);
+        this.classes = Collections.unmodifiableMap(new HashMap<String, JavaClassMemoryFileObject>(pClasses));
+    }
+    
+    final private Map<String, JavaClassMemoryFileObject> classes;
+    
+    /** Returns the binary names of the classes of the unit */
+    Set<String> getClassNames() {
+        return this.classes.keySet();
+    }
+    
+    /** {@inheritDoc} */ @Override
+    protected Class<?> loadClass(
+            final String  pClassName,
+            final boolean pIsToResolve)
+            throws ClassNotFoundException {
+        final JavaClassMemoryFileObject aJCMFO = this.classes.get(pClassName);
+        if (aJCMFO == null)
+            return super.loadClass(pClassName, pIsToResolve);
+        
+        synchronized (this.getClassLoadingLock(pClassName)) {
+            Class<?> aClass = this.findLoadedClass(pClassName);
+            if (aClass == null)
+                aClass = this.defineClass(pClassName, aJCMFO);
+            if (pIsToResolve)
+                this.resolveClass(aClass);
+            return aClass;
+        }
+    }
+    
+    /** {@inheritDoc} */ @Override
+    protected Class<?> findClass(
+            final String pClassName)
+            throws ClassNotFoundException {
+        if (!this.classes.containsKey(pClassName))
+            throw new ClassNotFoundException(pClassName);
+        
+        return this.loadClass(pClassName, false);
+    }
+    
+    // Privates --------------------------------------------------------------------------------------------------------
+    
+    private Class<?> defineClass(
+            final String                    pClassName,
+            final JavaClassMemoryFileObject pJCMFO) {
+        // The byte code kept off the heap is defined straight from the direct buffer (not copied to the heap).
+        if (pJCMFO.isOffHeap())
+            return this.defineClass(pClassName, pJCMFO.getByteBuffer(), (ProtectionDomain)null);
+        
+        final byte[]   aBytes = pJCMFO.getByteCode();
+        final Class<?> aClass = this.defineClass(pClassName, aBytes, 0, aBytes.length);
+        return aClass;
+    }
+
+}
@@ -0,0 +1,168 @@
+package net.nawaman.javacompiler;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import javax.tools.Diagnostic;
+
+import org.junit.jupiter.api.Test;
+
+import com.sun.source.util.JavacTask;
+import com.sun.source.util.TaskEvent;
+import com.sun.source.util.TaskListener;
+
+import net.nawaman.javacompiler.helpers.TestThread;
+
+class AsyncCompileTest {
+    
+    @SuppressWarnings("unchecked")
+    @Test
+    void testCompileAsync() throws Exception {
+        var compiler = new JavaCompiler();
+        compiler.addCode("AsyncA.java", "", "public class AsyncA extends Thread {\n"
+                                          + "    class Inner {}\n"
+                                          + "    @Override public void run() { System.out.println(\"Async!\"); }\n"
+                                          + "}\n");
+        
+        var result = compiler.compileAsync().get(1, TimeUnit.MINUTES);
+        assertTrue(result.isSuccess(), result.toString());
+        assertNull(result.getError());
+        assertEquals(List.of("AsyncA", "AsyncA$Inner"), result.getClassNames().stream().sorted().collect(Collectors.toList()));
+        assertTrue(result.getCompileTimeNanos() > 0);
+        
+        var threadClass = (Class<Thread>)compiler.forName("AsyncA").asSubclass(Thread.class);
+        new TestThread(threadClass).validateOut("Async!");
+    }
+    
+    @Test
+    void testCompileAsyncError() throws Exception {
+        var compiler = new JavaCompiler();
+        compiler.addCode("AsyncE.java", "", "public class AsyncE { int value = \"not an int\"; }");
+        
+        var result = compiler.compileAsync().get(1, TimeUnit.MINUTES);
+        assertEquals(false, result.isSuccess());
+        assertEquals(Diagnostic.Kind.ERROR, result.getDiagnostics().get(0).getKind());
+        assertTrue(result.getError().contains("AsyncE"), result.getError());
+    }
+    
+    @Test
+    void testCancelBeforeStarted() throws Exception {
+        var executor = Executors.newSingleThreadExecutor();
+        var blocker  = new CountDownLatch(1);
+        executor.execute(() -> {
+            try { blocker.await(); } catch (InterruptedException E) {}
+        });
+        
+        JavaCompiler.SetCompileExecutor(executor);
+        try {
+            var compiler = new JavaCompiler();
+            compiler.addCode("AsyncC.java", "", "public class AsyncC {}");
+            
+            var future = compiler.compileAsync();
+            future.cancel(true);
+            blocker.countDown();
+            
+            assertThrows(CancellationException.class, () -> future.get());
+            executor.submit(() -> null).get();
+            assertNull(compiler.getClassByName("AsyncC"));
+        } finally {
+            JavaCompiler.SetCompileExecutor(null);
+            executor.shutdown();
+        }
+    }
+    
+    @Test
+    void testCancelledRequestIsNotCompiled() {
+        var jjcompiler = new JJCompiler(new JCompiler());
+        jjcompiler.getMemoryFileManager().addCode("AsyncR.java", "", "public class AsyncR {}");
+        
+        var request = new CompileRequest(null, null);
+        request.cancel();
+        
+        assertThrows(CancellationException.class, () -> jjcompiler.compile(request));
+        assertNull(jjcompiler.getMemoryFileManager().getClassFileObjectByName("AsyncR"));
+    }
+    
+    @Test
+    void testCancelledCodesAreCompiledLater() throws Exception {
+        // Many classes so the compilation is cancelled in the middle (the time makes the code not cached).
+        var code = new StringBuilder("public class AsyncBig { // " + System.nanoTime() + "\n");
+        for (int i = 0; i < 500; i++)
+            code.append("    static class Inner" + i + " { int value() { return " + i + "; } }\n");
+        code.append("}\n");
+        
+        var jjcompiler = new JJCompiler(new JCompiler());
+        jjcompiler.getMemoryFileManager().addCode("AsyncBig.java", "", code.toString());
+        
+        // Cancel the request once its session has taken the code.
+        var request = new CompileRequest(null, null);
+        var compile = CompletableFuture.runAsync(() -> jjcompiler.compile(request));
+        while (!jjcompiler.isCompiling() && !compile.isDone())
+            Thread.onSpinWait();
+        request.cancel();
+        
+        var problem = assertThrows(ExecutionException.class, () -> compile.get(1, TimeUnit.MINUTES));
+        var cause   = (Throwable)problem;
+        while ((cause != null) && !(cause instanceof CancellationException))
+            cause = cause.getCause();
+        assertTrue(cause instanceof CancellationException, problem.toString());
+        assertNull(jjcompiler.getMemoryFileManager().getClassFileObjectByName("AsyncBig"));
+        assertNull(jjcompiler.getCode("AsyncBig.java"));
+        
+        // The code is pending again so the next compilation compiles it.
+        assertEquals("", jjcompiler.compile(new CompileRequest(null, null)));
+        assertNotNull(jjcompiler.getMemoryFileManager().getClassFileObjectByName("AsyncBig"));
+        assertNotNull(jjcompiler.getCode("AsyncBig.java"));
+    }
+    
+    @Test
+    void testCancelAbortsJavacTask() throws Exception {
+        var engine  = CompilerEnginePool.Instance.borrow();
+        var manager = new MemoryFileManager();
+        manager.addCode("AsyncJ.java", "", "public class AsyncJ { class Inner {} }");
+        manager.attach(engine.getFileManager());
+        try {
+            var files   = manager.getJavaFileObjectsFromStrings(manager.getCodeNames());
+            var task    = (JavacTask)engine.getCompiler().getTask(new StringWriter(), manager, null, null, null, files);
+            var request = new CompileRequest(null, null);
+            var kinds   = new ArrayList<TaskEvent.Kind>();
+            
+            // Cancel the request once the code is parsed - in the middle of the compilation.
+            task.addTaskListener(new TaskListener() {
+                @Override public void finished(TaskEvent event) {
+                    kinds.add(event.getKind());
+                    if (event.getKind() == TaskEvent.Kind.PARSE)
+                        request.cancel();
+                }
+            });
+            task.addTaskListener(request);
+            
+            var problem = assertThrows(RuntimeException.class, () -> task.call());
+            var cause   = (Throwable)problem;
+            while ((cause != null) && !(cause instanceof CancellationException))
+                cause = cause.getCause();
+            
+            assertTrue(cause instanceof CancellationException, problem.toString());
+            assertTrue(!kinds.contains(TaskEvent.Kind.GENERATE), kinds.toString());
+            assertNull(manager.getClassFileObjectByName("AsyncJ"));
+        } finally {
+            manager.detach();
+            CompilerEnginePool.Instance.release(engine);
+        }
+    }
+
+}
@@ -0,0 +1,94 @@
+package net.nawaman.javacompiler;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+
+import net.nawaman.javacompiler.helpers.TestThread;
+
+class BatchCompileTest {
+    
+    static private final String codeA = "public class BatA { public static String name() { return \"A+\" + BatB.name(); } }";
+    static private final String codeB = "public class BatB { public static String name() { return \"B\"; } }";
+    static private final String codeC = "public class BatC { public static String name() { return \"C\"; } }";
+    
+    @Test
+    void testPartition() {
+        var groups = BatchPartition.Of(Map.of("BatA.java", codeA, "BatB.java", codeB, "BatC.java", codeC), null);
+        assertEquals(2, groups.size());
+        assertTrue(groups.contains(Set.of("BatA.java", "BatB.java")));
+        assertTrue(groups.contains(Set.of("BatC.java")));
+    }
+    
+    @Test
+    void testGivenGroups() {
+        var groups = BatchPartition.Of(List.of(List.of("BatA.java", "BatB.java", "Unknown.java")),
+                                       Set.of("BatA.java", "BatB.java", "BatC.java"));
+        assertEquals(List.of(Set.of("BatA.java", "BatB.java"), Set.of("BatC.java")), groups);
+    }
+    
+    @SuppressWarnings("unchecked")
+    @Test
+    void testCompileBatch() throws Exception {
+        var compiler = new JavaCompiler();
+        compiler.addCode("BatA.java", "", codeA);
+        compiler.addCode("BatB.java", "", codeB);
+        compiler.addCode("BatC.java", "", codeC);
+        
+        var count = 8;
+        for (int i = 0; i < count; i++) {
+            var code = "public class BatT" + i + " extends Thread {\n"
+                     + "    @Override public void run() { System.out.println(\"T" + i + ": \" + BatC.class.getName()); }\n"
+                     + "}\n";
+            compiler.addCode("BatT" + i + ".java", "", code);
+        }
+        
+        var result = compiler.compileBatch(null, null);
+        assertNull(result.getError(), result.getError());
+        assertEquals(2, result.getGroupCount());
+        assertTrue(result.getSpeedup() > 0);
+        System.out.println(result);
+        
+        assertEquals("A+B", compiler.forName("BatA").getMethod("name").invoke(null));
+        for (int i = 0; i < count; i++) {
+            var threadClass = (Class<Thread>)compiler.forName("BatT" + i).asSubclass(Thread.class);
+            new TestThread(threadClass).validateOut("T" + i + ": BatC");
+        }
+    }
+    
+    @Test
+    void testCompileBatchIndependentGroups() throws Exception {
+        var compiler = new JavaCompiler();
+        var count    = 6;
+        for (int i = 0; i < count; i++)
+            compiler.addCode("BatI" + i + ".java", "", "public class BatI" + i + " { int value = " + i + "; }");
+        
+        var result = compiler.compileBatch(null, null);
+        assertNull(result.getError(), result.getError());
+        assertEquals(count, result.getGroupCount());
+        System.out.println(result);
+        
+        for (int i = 0; i < count; i++)
+            assertNotNull(compiler.forName("BatI" + i));
+    }
+    
+    @Test
+    void testCompileBatchError() {
+        var compiler = new JavaCompiler();
+        compiler.addCode("BatE1.java", "", "public class BatE1 { }");
+        compiler.addCode("BatE2.java", "", "public class BatE2 { int value = \"not an int\"; }");
+        
+        var result = compiler.compileBatch(null, null);
+        assertEquals(false, result.isSuccess());
+        assertTrue(result.getError().contains("BatE2"), result.getError());
+        assertNotNull(compiler.getClassByName("BatE1"));
+    }
+
+}
@@ -0,0 +1,96 @@
+package net.nawaman.javacompiler;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.lang.management.ManagementFactory;
+import java.nio.ReadOnlyBufferException;
+
+import org.junit.jupiter.api.Test;
+
+class ClassBytesAllocationTest {
+    
+    static private final int ROUNDS = 2000;
+    
+    static private long allocatedBytes() {
+        var threadBean = (com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+        return threadBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+    
+    static private JavaClassMemoryFileObject newClassFile(final int pSize) throws Exception {
+        var classFile = new JavaClassMemoryFileObject("Big.class", "");
+        try (var output = classFile.openOutputStream()) {
+            output.write(new byte[pSize]);
+        }
+        return classFile;
+    }
+    
+    @Test
+    void testSealedOnClose() throws Exception {
+        var classFile = new JavaClassMemoryFileObject("Sealed.class", "");
+        assertNull(classFile.getByteCode());
+        
+        var output = classFile.openOutputStream();
+        output.write(new byte[] { 1, 2, 3 });
+        assertNull(classFile.getByteCode());
+        output.close();
+        assertArrayEquals(new byte[] { 1, 2, 3 }, classFile.getByteCode());
+        assertSame(classFile.getByteCode(), classFile.getByteCode());
+        
+        var buffer = classFile.getByteBuffer();
+        assertTrue(buffer.isReadOnly());
+        assertThrows(ReadOnlyBufferException.class, () -> buffer.put(0, (byte)9));
+        assertEquals(1, classFile.getByteCode()[0]);
+    }
+    
+    @Test
+    void testNoCopyOnRead() throws Exception {
+        var size      = 64*1024;
+        var classFile = newClassFile(size);
+        
+        // Warm up
+        for (int i = 0; i < ROUNDS; i++) {
+            classFile.openInputStream().close();
+            classFile.getByteBuffer();
+        }
+        
+        var before = allocatedBytes();
+        for (int i = 0; i < ROUNDS; i++) {
+            classFile.openInputStream().close();
+            classFile.getByteBuffer();
+        }
+        var allocated = allocatedBytes() - before;
+        var copied    = (long)ROUNDS*2*size;
+        System.out.printf("Class bytes reads: %d bytes allocated for %d reads of %d bytes (%d if copied)%n",
+                allocated, ROUNDS*2, size, copied);
+        assertTrue(allocated < copied/100, "Allocated: " + allocated);
+    }
+    
+    @Test
+    void testSharedWithDefinedClassAndClassData() throws Exception {
+        var compiler = new JavaCompiler();
+        compiler.addCode("Shared.java", "", "public class Shared { public int value() { return 42; } }");
+        assertNull(compiler.compile());
+        
+        var sharedClass = compiler.forName("Shared");
+        assertEquals(42, sharedClass.getMethod("value").invoke(sharedClass.getConstructor().newInstance()));
+        
+        var classData = ((JCompiler)compiler.getCurrentClassLoader()).getCompiledClassData("Shared");
+        assertTrue(classData.getByteBuffer().isReadOnly());
+        assertEquals(classData.getByteCount(), classData.getByteBuffer().remaining());
+        
+        // Adding the same class data again compares the shared bytes (no copy).
+        var before = allocatedBytes();
+        for (int i = 0; i < ROUNDS; i++)
+            assertTrue(compiler.addClassData(classData));
+        var allocated = allocatedBytes() - before;
+        System.out.printf("Class data re-adds: %d bytes allocated for %d re-adds of %d bytes%n",
+                allocated, ROUNDS, classData.getByteCount());
+        assertTrue(allocated < (long)ROUNDS*classData.getByteCount(), "Allocated: " + allocated);
+    }
+
+}
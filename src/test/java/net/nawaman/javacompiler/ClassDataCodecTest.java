@@ -0,0 +1,188 @@
+package net.nawaman.javacompiler;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.StreamCorruptedException;
+
+import org.junit.jupiter.api.Test;
+
+class ClassDataCodecTest {
+    
+    static private final String outerCode
+            = "public class CodecOuter {\n"
+            + "    public static class InnerA { public static int value() { return 1; } }\n"
+            + "    public static class InnerB {\n"
+            + "        public static class Deep { public static int value() { return 2; } }\n"
+            + "    }\n"
+            + "    public static int value() { return InnerA.value() + InnerB.Deep.value(); }\n"
+            + "}";
+    
+    static private JavaCompiler newCompiler() {
+        var compiler = new JavaCompiler();
+        compiler.addCode("CodecOuter.java", "", outerCode);
+        assertNull(compiler.compile());
+        return compiler;
+    }
+    
+    static private byte[] serialize(final ClassData pClassData) throws IOException {
+        var bytes = new ByteArrayOutputStream();
+        try (var output = new ObjectOutputStream(bytes)) {
+            output.writeObject(pClassData);
+        }
+        return bytes.toByteArray();
+    }
+    static private ClassData decodeStream(final byte[] pBytes) throws IOException {
+        return ClassData.Decode(new DataInputStream(new ByteArrayInputStream(pBytes)));
+    }
+    static private ClassData deserialize(final byte[] pBytes) throws Exception {
+        try (var input = new ObjectInputStream(new ByteArrayInputStream(pBytes))) {
+            return (ClassData)input.readObject();
+        }
+    }
+    
+    @Test
+    void testRoundTrip() throws Exception {
+        var compiler  = newCompiler();
+        var classData = compiler.getCompiledClassData("CodecOuter$InnerB$Deep", true);
+        var decoded   = ClassData.Decode(classData.encode());
+        
+        assertEquals(classData.getName(), decoded.getName());
+        assertEquals(classData.getPath(), decoded.getPath());
+        assertEquals(classData.getCode(), decoded.getCode());
+        assertArrayEquals(classData.getBytes(), decoded.getBytes());
+        
+        // The enclosures are kept - the outer class is reached from the deep one.
+        var innerB = decoded.getEnclosingClassClassData();
+        var outer  = innerB.getEnclosingClassClassData();
+        assertEquals("CodecOuter$InnerB.class", innerB.getName());
+        assertEquals("CodecOuter.class",        outer .getName());
+        assertNull(outer.getEnclosingClassClassData());
+        assertEquals(2, outer.getEnclosedClassDataCount());
+        assertEquals(decoded.getName(), innerB.getEnclosedClassData(0).getName());
+        assertSame(innerB, outer.getEnclosedClassData(0).getName().contains("InnerB")
+                               ? outer.getEnclosedClassData(0)
+                               : outer.getEnclosedClassData(1));
+        
+        var withCode = ClassData.Decode(compiler.getCompiledClassData("CodecOuter", true).encode());
+        assertEquals(outerCode, withCode.getCode());
+        assertNotNull(withCode.getEnclosedClassData(1));
+        
+        var loader = new JavaCompiler();
+        assertTrue(loader.addClassData(decoded));
+        assertEquals(3, loader.forName("CodecOuter").getMethod("value").invoke(null));
+    }
+    
+    @Test
+    void testBytesOfBothFormatsAreAccepted() throws Exception {
+        var compiler = newCompiler();
+        var encoded  = compiler.getCompiledClassDataAsBytes("CodecOuter");
+        assertTrue(ClassDataCodec.IsEncoded(encoded));
+        
+        var fromEncoded = new JavaCompiler();
+        assertTrue(fromEncoded.addClassDataAsBytes(encoded));
+        assertEquals(3, fromEncoded.forName("CodecOuter").getMethod("value").invoke(null));
+        
+        var fromSerialized = new JavaCompiler();
+        assertTrue(fromSerialized.addClassDataAsBytes(serialize(compiler.getCompiledClassData("CodecOuter"))));
+        assertEquals(3, fromSerialized.forName("CodecOuter").getMethod("value").invoke(null));
+    }
+    
+    @Test
+    void testCorruptedData() throws Exception {
+        var encoded = newCompiler().getCompiledClassData("CodecOuter").encode();
+        
+        var noMagic = encoded.clone();
+        noMagic[0] = 0;
+        assertThrows(StreamCorruptedException.class, () -> ClassData.Decode(noMagic));
+        
+        var newerVersion = encoded.clone();
+        newerVersion[2] = ClassDataCodec.VERSION + 1;
+        assertThrows(StreamCorruptedException.class, () -> ClassData.Decode(newerVersion));
+        
+        var tooLong = encoded.clone();
+        tooLong[3] = 0x7F;
+        assertThrows(StreamCorruptedException.class, () -> ClassData.Decode(tooLong));
+        
+        var truncated = java.util.Arrays.copyOf(encoded, encoded.length / 2);
+        assertThrows(IOException.class, () -> ClassData.Decode(truncated));
+        
+        assertTrue(new JavaCompiler().addClassDataAsBytes(encoded));
+        assertEquals(false, new JavaCompiler().addClassDataAsBytes(truncated));
+    }
+    
+    @Test
+    void testCorruptedCounts() throws Exception {
+        // A huge count fails on the data it lacks instead of allocating for it.
+        var tooMany = corrupted(Integer.MAX_VALUE, 0);
+        assertThrows(StreamCorruptedException.class, () -> ClassData.Decode(tooMany));
+        assertThrows(IOException.class, () -> decodeStream(tooMany));
+        
+        var tooManyEnclosed = corrupted(1, Integer.MAX_VALUE);
+        assertThrows(StreamCorruptedException.class, () -> ClassData.Decode(tooManyEnclosed));
+        assertThrows(IOException.class, () -> decodeStream(tooManyEnclosed));
+        
+        var negativeEnclosed = corrupted(1, -1);
+        assertThrows(StreamCorruptedException.class, () -> ClassData.Decode(negativeEnclosed));
+        assertThrows(StreamCorruptedException.class, () -> decodeStream(negativeEnclosed));
+    }
+    static private byte[] corrupted(final int pCount, final int pEnclosedCount) throws IOException {
+        var bytes  = new ByteArrayOutputStream();
+        var output = new DataOutputStream(bytes);
+        output.writeShort(ClassDataCodec.MAGIC);
+        output.writeByte(ClassDataCodec.VERSION);
+        output.writeInt(pCount);
+        output.writeInt(1);
+        output.writeByte('A');
+        output.writeInt(-1);
+        output.writeInt(0);
+        output.writeInt(-1);
+        output.writeInt(-1);
+        output.writeInt(pEnclosedCount);
+        output.flush();
+        return bytes.toByteArray();
+    }
+    
+    /** Size and throughput of the encoding against the Java serialization. */
+    @Test
+    void testSizeAndThroughput() throws Exception {
+        var classData  = newCompiler().getCompiledClassData("CodecOuter", true);
+        var encoded    = classData.encode();
+        var serialized = serialize(classData);
+        assertTrue(encoded.length < serialized.length);
+        
+        var rounds = 2000;
+        for (int warmup = 0; warmup < 2; warmup++) {
+            var encodeStart = System.nanoTime();
+            for (int i = 0; i < rounds; i++)
+                ClassData.Decode(classData.encode());
+            var encodeTime = System.nanoTime() - encodeStart;
+            
+            var serializeStart = System.nanoTime();
+            for (int i = 0; i < rounds; i++)
+                deserialize(serialize(classData));
+            var serializeTime = System.nanoTime() - serializeStart;
+            
+            if (warmup == 0)
+                continue;
+            
+            System.out.printf("ClassData encoding:      %5d bytes - %d round trips in %.2fms (%.0f/s)%n",
+                    encoded.length, rounds, encodeTime / 1000000.0, rounds * 1000000000.0 / encodeTime);
+            System.out.printf("ClassData serialization: %5d bytes - %d round trips in %.2fms (%.0f/s)%n",
+                    serialized.length, rounds, serializeTime / 1000000.0, rounds * 1000000000.0 / serializeTime);
+        }
+    }
+
+}
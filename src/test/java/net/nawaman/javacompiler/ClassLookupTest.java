@@ -0,0 +1,94 @@
+package net.nawaman.javacompiler;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+
+import org.junit.jupiter.api.Test;
+
+class ClassLookupTest {
+    
+    @Test
+    void testMissingClassIsRemembered() {
+        var compiler = new JCompiler();
+        assertNull(compiler.getClassByName("LookMissing"));
+        assertTrue(compiler.isKnownMissingClass("LookMissing"));
+        assertThrows(ClassNotFoundException.class, () -> compiler.forName("LookMissing"));
+    }
+    
+    @Test
+    void testMissingClassIsFoundOnceCompiled() throws Exception {
+        var compiler = new JCompiler();
+        assertNull(compiler.getClassByName("LookLater"));
+        
+        var generation = compiler.getGeneration();
+        compiler.addCode("LookLater.java", "", "public class LookLater {}");
+        assertNull(compiler.compile());
+        assertNotEquals(generation, compiler.getGeneration());
+        assertFalse(compiler.isKnownMissingClass("LookLater"));
+        
+        var lookedUp = compiler.getClassByName("LookLater");
+        assertSame(compiler, lookedUp.getClassLoader());
+        assertSame(lookedUp, compiler.forName("LookLater"));
+        assertSame(lookedUp, Class.forName("LookLater", true, compiler));
+    }
+    
+    @Test
+    void testOtherClassesAreFound() {
+        var compiler = new JCompiler();
+        assertSame(ArrayList.class,            compiler.getClassByName("java.util.ArrayList"));
+        assertSame(String[].class,             compiler.getClassByName("[Ljava.lang.String;"));
+        assertSame(ClassLookupTest.class,      compiler.getClassByName(ClassLookupTest.class.getName()));
+        assertSame(SimpleCompileTest.TestClass01.class,
+                   compiler.getClassByName(SimpleCompileTest.TestClass01.class.getName()));
+    }
+    
+    @Test
+    void testParentClasses() throws Exception {
+        var parent = new JCompiler();
+        parent.addCode("LookParent.java", "", "public class LookParent {}");
+        assertNull(parent.compile());
+        
+        var child = new JCompiler(parent);
+        assertSame(parent.forName("LookParent"), child.forName("LookParent"));
+        
+        // The class added to the parent later invalidates what the child remembered.
+        assertNull(child.getClassByName("LookParentLater"));
+        assertTrue(child.isKnownMissingClass("LookParentLater"));
+        
+        parent.addCode("LookParentLater.java", "", "public class LookParentLater extends LookParent {}");
+        assertNull(parent.compile());
+        assertFalse(child.isKnownMissingClass("LookParentLater"));
+        assertSame(parent.forName("LookParentLater"), child.forName("LookParentLater"));
+    }
+    
+    @Test
+    void testClassesOfParentLoaderWithNoClassFile() throws Exception {
+        // A class loader that defines a class from the bytes it has (no class file as a resource).
+        var source = new JavaCompiler();
+        source.addCode("LookGen.java", "", "public class LookGen {}");
+        assertNull(source.compile());
+        var bytes  = source.getCompiledClassData("LookGen").getBytes();
+        var parent = new ClassLoader(ClassLookupTest.class.getClassLoader()) {
+            @Override protected Class<?> findClass(String pName) throws ClassNotFoundException {
+                if (!pName.equals("LookGen"))
+                    throw new ClassNotFoundException(pName);
+                return this.defineClass(pName, bytes, 0, bytes.length);
+            }
+        };
+        
+        var compiler = new JavaCompiler(parent);
+        var lookedUp = compiler.forName("LookGen");
+        assertSame(parent.loadClass("LookGen"), lookedUp);
+        assertSame(lookedUp, compiler.getClassByName("LookGen"));
+        assertSame(parent, lookedUp.getClassLoader());
+        assertFalse(((JCompiler)compiler.getCurrentClassLoader()).isKnownMissingClass("LookGen"));
+    }
+
+}
@@ -0,0 +1,88 @@
+package net.nawaman.javacompiler;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+class ClassRoutesTest {
+    
+    static private final String ownerCode = "public class %1$s { public static final String OWNER = \"%2$s\"; }";
+    
+    static private Object ownerOf(final Class<?> pClass) throws Exception {
+        return pClass.getField("OWNER").get(null);
+    }
+    
+    static private JCompiler newChain(
+            final JCompiler pRoot,
+            final int       pDepth) {
+        var compiler = pRoot;
+        for (int i = 0; i < pDepth; i++)
+            compiler = new JCompiler(compiler);
+        return compiler;
+    }
+    
+    @Test
+    void testDeepChain() throws Exception {
+        var root = new JCompiler();
+        var rootCode = "public class RouteRoot {}";
+        root.addCode("RouteRoot.java", "", rootCode);
+        assertNull(root.compile());
+        
+        var leaf = newChain(root, 50);
+        assertEquals(50, leaf.getChainDepth());
+        assertSame(root.getClassRoutes(), leaf.getClassRoutes());
+        assertTrue(leaf.isInChain(root));
+        assertFalse(root.isInChain(leaf));
+        
+        assertTrue (leaf.isLocalClass("RouteRoot"));
+        assertFalse(leaf.isLocalClass("RouteMissing"));
+        assertEquals(rootCode, leaf.getCode("RouteRoot"));
+        assertSame(root.forName("RouteRoot"), leaf.forName("RouteRoot"));
+        
+        // The class compiled by the leaf (against the class of the root) is not visible to the root.
+        leaf.addCode("RouteLeaf.java", "", "public class RouteLeaf extends RouteRoot {}");
+        assertNull(leaf.compile());
+        assertSame(root.forName("RouteRoot"), leaf.forName("RouteLeaf").getSuperclass());
+        assertFalse(root.isLocalClass("RouteLeaf"));
+        assertNull(root.getClassByName("RouteLeaf"));
+        assertNull(root.getCode("RouteLeaf"));
+    }
+    
+    @Test
+    void testOldestClassIsUsed() throws Exception {
+        var root  = new JCompiler();
+        var child = new JCompiler(root);
+        child.addCode("RouteBoth.java", "", String.format(ownerCode, "RouteBoth", "child"));
+        assertNull(child.compile());
+        
+        // The parent is asked first when loading a class so the class of the root is used by the child too.
+        root.addCode("RouteBoth.java", "", String.format(ownerCode, "RouteBoth", "root"));
+        assertNull(root.compile());
+        assertSame(root, root.getClassRoutes().getClassRoute("RouteBoth").jcompiler);
+        assertEquals("root", ownerOf(child.forName("RouteBoth")));
+        assertSame(Class.forName("RouteBoth", true, child), child.forName("RouteBoth"));
+    }
+    
+    @Test
+    void testBranches() throws Exception {
+        var root    = new JCompiler();
+        var branch1 = new JCompiler(root);
+        var branch2 = new JCompiler(root);
+        branch1.addCode("RouteBranch.java", "", String.format(ownerCode, "RouteBranch", "branch1"));
+        branch2.addCode("RouteBranch.java", "", String.format(ownerCode, "RouteBranch", "branch2"));
+        assertNull(branch1.compile());
+        assertNull(branch2.compile());
+        
+        // Only one of the branches is routed - the other one looks its class up the chain.
+        assertEquals("branch1", ownerOf(branch1.forName("RouteBranch")));
+        assertEquals("branch2", ownerOf(branch2.forName("RouteBranch")));
+        assertTrue(branch1.isLocalClass("RouteBranch"));
+        assertTrue(branch2.isLocalClass("RouteBranch"));
+        assertFalse(root.isLocalClass("RouteBranch"));
+    }
+
+}
@@ -0,0 +1,121 @@
+package net.nawaman.javacompiler;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class ClasspathEntriesTest {
+    
+    static private final String jarPath = new File("mysql-connector-java.jar").getAbsolutePath();
+    
+    @Test
+    void testNormalizedAndDeduplicated(@TempDir Path tempDir) {
+        var dir     = tempDir.resolve("dir").toString();
+        var entries = ClasspathEntries.Default.add(List.of(dir, dir + "/../dir", dir + "/./", jarPath, dir));
+        assertEquals(ClasspathEntries.Default.size() + 2, entries.size());
+        assertTrue (entries.contains(tempDir.resolve("other/../dir").toString()));
+        assertFalse(entries.contains(tempDir.resolve("other").toString()));
+        
+        // Nothing new - the same entries.
+        assertSame(entries, entries.add(List.of(jarPath)));
+    }
+    
+    @Test
+    void testFingerprint(@TempDir Path tempDir) {
+        var dir1 = tempDir.resolve("dir1").toString();
+        var dir2 = tempDir.resolve("dir2").toString();
+        
+        // The same entries in the same order have the same fingerprint however they are added.
+        var entries12 = ClasspathEntries.Default.add(List.of(dir1, dir2));
+        var entries1  = ClasspathEntries.Default.add(List.of(dir1));
+        assertEquals   (entries12.getFingerprint(), entries1.add(List.of(dir2)).getFingerprint());
+        assertNotEquals(entries12.getFingerprint(), entries1.getFingerprint());
+        assertNotEquals(entries12.getFingerprint(), ClasspathEntries.Default.add(List.of(dir2, dir1)).getFingerprint());
+        
+        // The classpath string is only made once.
+        assertSame(entries12.getClasspath(), entries12.getClasspath());
+        assertTrue(entries12.getClasspath().endsWith(File.pathSeparator + dir1 + File.pathSeparator + dir2));
+    }
+    
+    @Test
+    void testStateFingerprint(@TempDir Path tempDir) throws Exception {
+        var jar     = tempDir.resolve("lib.jar");
+        var entries = ClasspathEntries.Default.add(List.of(jar.toString()));
+        Files.write(jar, new byte[] { 1, 2, 3 });
+        var fingerprint      = entries.getFingerprint();
+        var stateFingerprint = entries.getStateFingerprint();
+        assertEquals(stateFingerprint, entries.getStateFingerprint());
+        
+        // The jar file is replaced in place.
+        Files.write(jar, new byte[] { 1, 2, 3, 4 });
+        assertEquals   (fingerprint,      entries.getFingerprint());
+        assertNotEquals(stateFingerprint, entries.getStateFingerprint());
+    }
+    
+    @Test
+    void testStateFingerprintOfDirectory(@TempDir Path tempDir) throws Exception {
+        var classFile = tempDir.resolve("pkg/Dir.class");
+        Files.createDirectories(classFile.getParent());
+        Files.write(classFile, new byte[] { 1, 2, 3 });
+        var entries          = ClasspathEntries.Default.add(List.of(tempDir.toString()));
+        var stateFingerprint = entries.getStateFingerprint();
+        
+        // Other files are not read by javac.
+        Files.write(tempDir.resolve("pkg/notes.txt"), new byte[] { 1 });
+        assertEquals(stateFingerprint, entries.getStateFingerprint());
+        
+        // A class file in the directory is replaced - the directory itself is not changed.
+        var dirModified = tempDir.toFile().lastModified();
+        Files.write(classFile, new byte[] { 1, 2, 3, 4 });
+        assertEquals   (dirModified,      tempDir.toFile().lastModified());
+        assertNotEquals(stateFingerprint, entries.getStateFingerprint());
+    }
+    
+    @Test
+    void testStateFingerprintIsComputedOncePerEntries(@TempDir Path tempDir) throws Exception {
+        var jar = tempDir.resolve("lib.jar");
+        Files.write(jar, new byte[] { 1, 2, 3 });
+        var jcompiler        = new JCompiler();
+        jcompiler.getClassPaths().addURL(jar.toUri().toURL());
+        var stateFingerprint = jcompiler.getClasspathStateFingerprint();
+        
+        Files.write(jar, new byte[] { 1, 2, 3, 4 });
+        assertEquals(stateFingerprint, jcompiler.getClasspathStateFingerprint());
+        
+        // Changing the entries computes it again.
+        jcompiler.getClassPaths().addURL(tempDir.toUri().toURL());
+        assertNotEquals(stateFingerprint, jcompiler.getClasspathStateFingerprint());
+    }
+    
+    @Test
+    void testRemovedClasspathIsNotPassedToJavac(@TempDir Path tempDir) throws Exception {
+        var compiler = new JavaCompiler();
+        compiler.addJarFile(jarPath);
+        compiler.addCode("EntriesA.java", "", "public class EntriesA {}");
+        assertNull(compiler.compile());
+        var fingerprint = ((JCompiler)compiler.getCurrentClassLoader()).getClasspathFingerprint();
+        
+        compiler.removeJarFile(jarPath);
+        compiler.addClasspathURL(tempDir.toString());
+        compiler.addClasspathURL(tempDir.resolve("sub/..").toString());
+        var jcompiler = (JCompiler)compiler.getCurrentClassLoader();
+        assertFalse(jcompiler.getClasspaths().contains(jarPath));
+        assertEquals(ClasspathEntries.Default.size() + 1, jcompiler.getClassPaths().getEntries().size());
+        assertNotEquals(fingerprint, jcompiler.getClasspathFingerprint());
+        
+        compiler.addCode("EntriesB.java", "", "public class EntriesB { com.mysql.cj.jdbc.Driver driver; }");
+        assertTrue(compiler.compile().contains("com.mysql"));
+    }
+
+}
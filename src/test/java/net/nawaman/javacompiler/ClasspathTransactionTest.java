@@ -0,0 +1,108 @@
+package net.nawaman.javacompiler;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class ClasspathTransactionTest {
+    
+    static private final String jarPath         = new File("mysql-connector-java.jar").getAbsolutePath();
+    static private final String driverClassName = "com.mysql.cj.jdbc.Driver";
+    
+    static private JavaCompiler newCompiledCompiler() {
+        var compiler = new JavaCompiler();
+        compiler.addCode("TxnA.java", "", "public class TxnA {}");
+        assertNull(compiler.compile());
+        return compiler;
+    }
+    
+    static private int countOf(
+            final String pString,
+            final String pPart) {
+        int count = 0;
+        for (int index = pString.indexOf(pPart); index != -1; index = pString.indexOf(pPart, index + 1))
+            count++;
+        return count;
+    }
+    
+    @Test
+    void testOneLoaderForTheBatch(@TempDir Path tempDir) throws Exception {
+        var compiler    = newCompiledCompiler();
+        var transaction = compiler.beginClasspathChange();
+        for (int i = 0; i < 10; i++)
+            transaction.addClasspathURL(tempDir.resolve("dir" + i).toString());
+        transaction.addJarFile(jarPath);
+        assertEquals(11, transaction.getChangeCount());
+        assertEquals(0, compiler.getLoaderChainDepth());
+        
+        assertTrue(transaction.commit());
+        assertEquals(1,  compiler.getLoaderChainDepth());
+        assertEquals(11, compiler.getClasspaths().length);
+        assertNotNull(compiler.getClassByName(driverClassName));
+        assertNotNull(compiler.getClassByName("TxnA"));
+        
+        var classpaths = ((JCompiler)compiler.getCurrentClassLoader()).getClasspaths();
+        for (int i = 0; i < 10; i++)
+            assertEquals(1, countOf(classpaths, tempDir.resolve("dir" + i).toString()));
+        assertEquals(1, countOf(classpaths, jarPath));
+    }
+    
+    @Test
+    void testChangesAreAppliedInOrder(@TempDir Path tempDir) throws Exception {
+        var compiler = newCompiledCompiler();
+        compiler.setCompactionThreshold(0);
+        compiler.beginClasspathChange()
+            .addClasspathURL(tempDir.resolve("dir1").toString())
+            .addClasspathURL(tempDir.resolve("dir2").toString())
+            .commit();
+        assertEquals(2, compiler.getClasspaths().length);
+        
+        // Removed and added back - no change at all.
+        var unchanged = compiler.beginClasspathChange()
+            .removeClasspathURL(tempDir.resolve("dir1").toString())
+            .addClasspathURL   (tempDir.resolve("dir1").toString())
+            .addClasspathURL   (tempDir.resolve("dir2").toString())
+            .commit();
+        assertFalse(unchanged);
+        assertEquals(1, compiler.getLoaderChainDepth());
+        
+        var changed = compiler.beginClasspathChange()
+            .addClasspathURL   (tempDir.resolve("dir3").toString())
+            .removeClasspathURL(tempDir.resolve("dir1").toString())
+            .commit();
+        assertTrue(changed);
+        assertEquals(2, compiler.getLoaderChainDepth());
+        assertEquals(2, compiler.getClasspaths().length);
+    }
+    
+    @Test
+    void testNoNewLoaderBeforeCompilation(@TempDir Path tempDir) throws Exception {
+        var compiler = new JavaCompiler();
+        compiler.beginClasspathChange()
+            .addClasspathURL(tempDir.resolve("dir1").toString())
+            .addJarFile     (jarPath)
+            .commit();
+        assertEquals(0, compiler.getLoaderChainDepth());
+        assertEquals(2, compiler.getClasspaths().length);
+    }
+    
+    @Test
+    void testCommitOnce(@TempDir Path tempDir) throws Exception {
+        var compiler    = newCompiledCompiler();
+        var transaction = compiler.beginClasspathChange().addClasspathURL(tempDir.toString());
+        transaction.rollback();
+        assertEquals(0, compiler.getClasspaths().length);
+        assertThrows(IllegalStateException.class, () -> transaction.commit());
+        assertThrows(IllegalStateException.class, () -> transaction.addJarFile(jarPath));
+    }
+
+}
@@ -0,0 +1,163 @@
+package net.nawaman.javacompiler;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class CompactionTest {
+    
+    static private final String jarPath         = new File("mysql-connector-java.jar").getAbsolutePath();
+    static private final String driverClassName = "com.mysql.cj.jdbc.Driver";
+    
+    @Test
+    void testCompact(@TempDir Path tempDir) throws Exception {
+        var compiler = new JavaCompiler();
+        compiler.setCompactionThreshold(0);
+        
+        // Each classpath change after a compilation adds a class loader to the chain - each class extends the one
+        //   compiled by the class loader before.
+        var code = "public class Compact%1$d extends %2$s {}";
+        for (int i = 0; i < 5; i++) {
+            var superName = (i == 0) ? "Object" : "Compact" + (i - 1);
+            compiler.addCode("Compact" + i + ".java", "", String.format(code, i, superName));
+            assertNull(compiler.compile());
+            compiler.addClasspathURL(tempDir.resolve("dir" + i).toString());
+        }
+        compiler.addJarFile(jarPath);
+        compiler.addCode("CompactPending.java", "", "public class CompactPending extends Compact4 {}");
+        assertEquals(5, compiler.getLoaderChainDepth());
+        
+        var report = compiler.compact();
+        assertEquals(5, report.getDepthBefore());
+        assertEquals(0, report.getDepthAfter());
+        assertEquals(5, report.getClassCount());
+        assertEquals(5, report.getCodeCount());
+        assertEquals(6, report.getURLCount());
+        assertFalse(report.isAutomatic());
+        assertEquals(0, compiler.getLoaderChainDepth());
+        assertEquals(report, compiler.getLastCompactionReport());
+        
+        var jcompiler = (JCompiler)compiler.getCurrentClassLoader();
+        for (int i = 0; i < 5; i++) {
+            var superName = (i == 0) ? "Object" : "Compact" + (i - 1);
+            var compacted = compiler.forName("Compact" + i);
+            assertSame(jcompiler, compacted.getClassLoader());
+            assertEquals(String.format(code, i, superName), jcompiler.getCode("Compact" + i));
+            if (i > 0)
+                assertSame(compiler.forName(superName), compacted.getSuperclass());
+        }
+        assertNotNull(compiler.getClassByName(driverClassName));
+        
+        // The pending code is carried over too.
+        assertNull(compiler.compile());
+        assertSame(compiler.forName("Compact4"), compiler.forName("CompactPending").getSuperclass());
+    }
+    
+    @Test
+    void testLoadedClassesAreKept(@TempDir Path tempDir) throws Exception {
+        var compiler = new JavaCompiler();
+        assertEquals(0, compiler.getCompactionThreshold());
+        compiler.addCode("CompactState.java", "", "public class CompactState { public static int n = 0; }");
+        assertNull(compiler.compile());
+        var state = compiler.forName("CompactState");
+        state.getField("n").setInt(null, 42);
+        
+        // The compaction is opt-in - the chain grows as it did.
+        for (int i = 0; i < 9; i++) {
+            compiler.addClasspathURL(tempDir.resolve("dir" + i).toString());
+            compiler.addCode("CompactStep" + i + ".java", "", "public class CompactStep" + i + " {}");
+            assertNull(compiler.compile());
+        }
+        assertEquals(9, compiler.getLoaderChainDepth());
+        assertNull(compiler.getLastCompactionReport());
+        
+        // The class already loaded is used as is by the compacted class loader (and by the classes it defines).
+        compiler.compact();
+        assertSame(state, compiler.forName("CompactState"));
+        assertEquals(42, state.getField("n").getInt(null));
+        compiler.addCode("CompactReader.java", "",
+                "public class CompactReader { public static int value() { return CompactState.n; } }");
+        assertNull(compiler.compile());
+        assertEquals(42, compiler.forName("CompactReader").getMethod("value").invoke(null));
+        
+        // The classes not loaded yet are defined by the compacted class loader.
+        var step = compiler.forName("CompactStep0");
+        assertSame(compiler.getCurrentClassLoader(), step.getClassLoader());
+        
+        compiler.compact();
+        assertSame(state, compiler.forName("CompactState"));
+        assertSame(step,  compiler.forName("CompactStep0"));
+    }
+    
+    @Test
+    void testRemovedClasspathIsGone() throws Exception {
+        var compiler = new JavaCompiler();
+        compiler.addJarFile(jarPath);
+        compiler.addCode("CompactRemove.java", "", "public class CompactRemove { java.sql.Driver driver; }");
+        assertNull(compiler.compile());
+        
+        compiler.removeJarFile(jarPath);
+        compiler.compact();
+        assertNull(compiler.getClassByName(driverClassName));
+        assertNotNull(compiler.forName("CompactRemove").getDeclaredField("driver"));
+    }
+    
+    @Test
+    void testAutomaticCompaction(@TempDir Path tempDir) throws Exception {
+        var compiler = new JavaCompiler();
+        compiler.setCompactionThreshold(3);
+        var code = "public class CompactAuto%1$d extends %2$s {}";
+        for (int i = 0; i < 4; i++) {
+            var superName = (i == 0) ? "Object" : "CompactAuto" + (i - 1);
+            compiler.addCode("CompactAuto" + i + ".java", "", String.format(code, i, superName));
+            assertNull(compiler.compile());
+            compiler.addClasspathURL(tempDir.resolve("dir" + i).toString());
+            assertTrue(compiler.getLoaderChainDepth() <= 3);
+        }
+        
+        var report = compiler.getLastCompactionReport();
+        assertTrue(report.isAutomatic());
+        assertEquals(4, report.getDepthBefore());
+        assertEquals(0, report.getDepthAfter());
+        for (int i = 1; i < 4; i++)
+            assertSame(compiler.forName("CompactAuto" + (i - 1)), compiler.forName("CompactAuto" + i).getSuperclass());
+    }
+    
+    @Test
+    void testCodeAddedDuringCompactionIsKept() throws Exception {
+        var compiler = new JavaCompiler();
+        compiler.addCode("CompactBase.java", "", "public class CompactBase {}");
+        assertNull(compiler.compile());
+        
+        var start = new CountDownLatch(1);
+        var adder = new Thread(() -> {
+            try {
+                start.await();
+            } catch (InterruptedException E) {
+                return;
+            }
+            for (int i = 0; i < 200; i++)
+                compiler.addCode("CompactAdded" + i + ".java", "", "public class CompactAdded" + i + " {}");
+        });
+        adder.start();
+        start.countDown();
+        while (adder.isAlive())
+            compiler.compact();
+        adder.join();
+        
+        assertNull(compiler.compile());
+        for (int i = 0; i < 200; i++)
+            assertNotNull(compiler.getClassByName("CompactAdded" + i), "CompactAdded" + i + " is lost.");
+    }
+
+}
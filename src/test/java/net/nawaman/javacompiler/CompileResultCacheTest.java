@@ -0,0 +1,123 @@
+package net.nawaman.javacompiler;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.*;
+import java.util.*;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import net.nawaman.javacompiler.helpers.TestCompiler;
+
+class CompileResultCacheTest {
+    
+    static private final long MAX_BYTES = 32L*1024*1024;
+    
+    @BeforeEach
+    void enableCache() {
+        JavaCompiler.ConfigureCompileCache(MAX_BYTES);
+    }
+    @AfterEach
+    void restoreCache() {
+        JavaCompiler.ConfigureCompileCache(CompileResultCache.DEFAULT_MAX_BYTES);
+    }
+    
+    @Test
+    void testDisabledByDefault() {
+        assertFalse(new CompileResultCache(CompileResultCache.DEFAULT_MAX_BYTES).isEnabled());
+    }
+    
+    @Test
+    void testSameCodeIsServedFromCache() throws Exception {
+        var className = "TestClassCached";
+        var classCode = new StringBuilder();
+        classCode.append("public class " + className + " extends Thread {\n");
+        classCode.append("    @Override public void run() {\n");
+        classCode.append("        System.out.println(\"Cached!\");\n");
+        classCode.append("    }\n");
+        classCode.append("}\n");
+        
+        new TestCompiler(new JavaCompiler())
+        .compileCode(className, classCode)
+        .validateOut("Cached!");
+        
+        var hitCount = JavaCompiler.GetCompileCacheHitCount();
+        
+        new TestCompiler(new JavaCompiler())
+        .compileCode(className, classCode)
+        .validateOut("Cached!");
+        
+        assertTrue(JavaCompiler.GetCompileCacheHitCount() > hitCount, "The second compilation should be a hit.");
+    }
+    
+    @Test
+    void testLeastRecentlyUsedIsEvicted() {
+        var cache = new CompileResultCache(100);
+        cache.put("A", newResult(40));
+        cache.put("B", newResult(40));
+        assertNotNull(cache.get("A"));
+        
+        // B is the least recently used.
+        cache.put("C", newResult(40));
+        assertNull(cache.get("B"));
+        assertNotNull(cache.get("A"));
+        assertNotNull(cache.get("C"));
+        
+        assertEquals(2,  cache.getEntryCount());
+        assertEquals(80, cache.getUsedBytes());
+        assertEquals(1,  cache.getEvictionCount());
+        assertEquals(3,  cache.getHitCount());
+        assertEquals(1,  cache.getMissCount());
+    }
+    
+    @Test
+    void testKeyChangesWithCode() throws Exception {
+        var units1 = new HashMap<String, JavaCodeMemoryFileObject>();
+        units1.put("A", new JavaCodeMemoryFileObject("A.java", "", "class A {}"));
+        var units2 = new HashMap<String, JavaCodeMemoryFileObject>();
+        units2.put("A", new JavaCodeMemoryFileObject("A.java", "", "class A { }"));
+        
+        var options = List.of("-Xlint:unchecked");
+        assertEquals(
+                CompileResultCache.NewKey(units1, options, "cp", "classes"),
+                CompileResultCache.NewKey(units1, options, "cp", "classes"));
+        assertTrue(!CompileResultCache.NewKey(units1, options, "cp", "classes")
+                .equals(CompileResultCache.NewKey(units2, options, "cp", "classes")));
+        assertTrue(!CompileResultCache.NewKey(units1, options, "cp", "classes")
+                .equals(CompileResultCache.NewKey(units1, options, "cp2", "classes")));
+    }
+    
+    @Test
+    void testKeyCoversClassesOfParents(@TempDir Path tempDir) throws Exception {
+        // The classes the codes are compiled against are in the parent JCompilers after the classpath changes.
+        var compiler1 = compileUser(tempDir, 1);
+        var compiler2 = compileUser(tempDir, 2);
+        assertEquals(1, compiler1.forName("ParentUser").getField("V").getInt(null));
+        assertEquals(2, compiler2.forName("ParentUser").getField("V").getInt(null));
+    }
+    
+    static private JavaCompiler compileUser(final Path pDir, final int pValue) {
+        var compiler = new JavaCompiler();
+        var fooCode  = "public class ParentFoo { public static final int V = " + pValue + "; }";
+        compiler.addCode("ParentFoo.java", "", fooCode);
+        assertNull(compiler.compile());
+        compiler.addClasspathURL(pDir.toString());
+        // The constant of ParentFoo is inlined into the byte code of ParentUser.
+        compiler.addCode("ParentUser.java", "", "public class ParentUser { public static final int V = ParentFoo.V; }");
+        assertNull(compiler.compile());
+        return compiler;
+    }
+    
+    static private CompileResultCache.CachedResult newResult(final int pSize) {
+        var aClass = new CompileResultCache.CachedClass("A", "A.class", "", new byte[pSize]);
+        return new CompileResultCache.CachedResult(new CompileResultCache.CachedClass[] { aClass }, null, 0);
+    }
+
+}
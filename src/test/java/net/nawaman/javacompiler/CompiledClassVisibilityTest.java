@@ -0,0 +1,56 @@
+package net.nawaman.javacompiler;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class CompiledClassVisibilityTest {
+    
+    static private final String code = "package %1$s; public class %2$s { public static int value() { return %3$d; } }";
+    
+    static private int valueOf(
+            final JavaCompiler pCompiler,
+            final String       pClassName) throws Exception {
+        return (Integer)pCompiler.forName(pClassName).getMethod("value").invoke(null);
+    }
+    
+    @Test
+    void testCompiledClassesInPackages() throws Exception {
+        var compiler = new JavaCompiler();
+        compiler.addCode("Shape.java",  "", String.format(code, "geo",       "Shape",  4));
+        compiler.addCode("Circle.java", "", String.format(code, "geo.round", "Circle", 1));
+        assertNull(compiler.compile());
+        
+        // Only the byte code of the compiled classes is there to be compiled against.
+        compiler.addCode("ShapeUser.java", "",
+                "import geo.*;\n"
+              + "public class ShapeUser {\n"
+              + "    public static int value() { return Shape.value() + geo.round.Circle.value(); }\n"
+              + "}");
+        assertNull(compiler.compile());
+        assertEquals(5, valueOf(compiler, "ShapeUser"));
+    }
+    
+    @Test
+    void testClassesOfParentJCompilers(@TempDir Path tempDir) throws Exception {
+        var compiler = new JavaCompiler();
+        compiler.setCompactionThreshold(0);
+        compiler.addCode("Base.java", "", String.format(code, "parent", "Base", 7));
+        compiler.addCode("Top.java",  "", "public class Top { public static int value() { return 3; } }");
+        assertNull(compiler.compile());
+        
+        // A new JCompiler (a child of the one that compiled the classes)
+        compiler.addClasspathURL(tempDir.toString());
+        assertEquals(1, compiler.getLoaderChainDepth());
+        
+        compiler.addCode("Child.java", "",
+                "public class Child { public static int value() { return parent.Base.value() + Top.value(); } }");
+        assertNull(compiler.compile());
+        assertEquals(10, valueOf(compiler, "Child"));
+    }
+
+}
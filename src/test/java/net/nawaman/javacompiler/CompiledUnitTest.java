@@ -0,0 +1,90 @@
+package net.nawaman.javacompiler;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.function.Supplier;
+
+import org.junit.jupiter.api.Test;
+
+class CompiledUnitTest {
+    
+    static private final String snippet = "public class Snippet implements java.util.function.Supplier<Object> {"
+                                        + "    public Object get() { return Base.value() + %d; }"
+                                        + "}";
+    
+    static private JavaCompiler newCompilerWithBase() {
+        var compiler = new JavaCompiler();
+        compiler.addCode("Base.java", "", "public class Base { public static int value() { return 100; } }");
+        assertNull(compiler.compile());
+        return compiler;
+    }
+    
+    @SuppressWarnings("unchecked")
+    static private Object runSnippet(
+            final JavaCompiler pCompiler,
+            final int          pIndex)
+            throws Exception {
+        var unit = pCompiler.compileUnit("Snippet.java", String.format(snippet, pIndex));
+        assertNull(unit.getError());
+        var cls = unit.forName("Snippet");
+        return ((Supplier<Object>)cls.getConstructor().newInstance()).get();
+    }
+    
+    @Test
+    void testUnitIsNotAddedToTheCompiler() throws Exception {
+        var compiler = newCompilerWithBase();
+        var unit     = compiler.compileUnit("Snippet.java", String.format(snippet, 1));
+        assertTrue(unit.isSuccess());
+        assertEquals("[Snippet]", unit.getClassNames().toString());
+        
+        var cls = unit.forName("Snippet");
+        assertEquals(unit.getClassLoader(), cls.getClassLoader());
+        assertEquals(compiler.forName("Base"), unit.forName("Base"));
+        assertNull(compiler.getClassByName("Snippet"));
+        
+        // The same name can be used again by another unit.
+        assertEquals(102, runSnippet(compiler, 2));
+        assertEquals(103, runSnippet(compiler, 3));
+        
+        // The units do not change the compiler.
+        compiler.addCode("Other.java", "", "public class Other { public static int value() { return Base.value(); } }");
+        assertNull(compiler.compile());
+        assertNotNull(compiler.getClassByName("Other"));
+    }
+    
+    @Test
+    void testUnitError() throws Exception {
+        var compiler = newCompilerWithBase();
+        var unit     = compiler.compileUnit("Broken.java", "public class Broken { int x = NoSuchType.value(); }");
+        assertFalse(unit.isSuccess());
+        assertTrue(unit.getError().contains("NoSuchType"));
+        assertNull(unit.getClassByName("Broken"));
+    }
+    
+    @Test
+    void testUnitClassesAreUnloaded() throws Exception {
+        // The JVM is not run with a fixed metaspace here so the classes are checked to be collectable instead.
+        var compiler = newCompilerWithBase();
+        var classes  = new ArrayList<WeakReference<Class<?>>>();
+        for (int i = 0; i < 50; i++) {
+            var unit = compiler.compileUnit("Snippet.java", String.format(snippet, i));
+            var cls  = unit.forName("Snippet");
+            assertEquals(100 + i, ((Supplier<?>)cls.getConstructor().newInstance()).get());
+            classes.add(new WeakReference<Class<?>>(cls));
+        }
+        
+        for (int i = 0; (i < 100) && classes.stream().anyMatch(ref -> ref.get() != null); i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        assertTrue(classes.stream().allMatch(ref -> ref.get() == null));
+        assertNotNull(compiler.getClassByName("Base"));
+    }
+
+}
@@ -0,0 +1,97 @@
+package net.nawaman.javacompiler;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import net.nawaman.javacompiler.helpers.TestCompiler;
+
+class CompilerEnginePoolTest {
+    
+    @Test
+    void testEngineIsReused() {
+        var pool = new CompilerEnginePool();
+        pool.configure(1, 0, 60 * 1000);
+        
+        var engine1 = pool.borrow();
+        pool.release(engine1);
+        
+        var engine2 = pool.borrow();
+        pool.release(engine2);
+        
+        assertSame(engine1, engine2, "The returned engine should be reused.");
+        assertEquals(1, pool.getIdleCount());
+        assertEquals(0, pool.getLeasedCount());
+        pool.clear();
+    }
+    
+    @Test
+    void testWarmUp() {
+        var pool = new CompilerEnginePool();
+        pool.configure(2, 2, 60 * 1000);
+        
+        assertEquals(2, pool.getIdleCount());
+        assertEquals(0, pool.getLeasedCount());
+        pool.clear();
+    }
+    
+    @Test
+    void testIdleEviction() throws Exception {
+        var pool = new CompilerEnginePool();
+        pool.configure(2, 0, 0);
+        
+        var engine = pool.borrow();
+        pool.release(engine);
+        Thread.sleep(5);
+        
+        var newEngine = pool.borrow();
+        pool.release(newEngine);
+        
+        assertEquals(false, engine == newEngine, "The idle engine should have been evicted.");
+        pool.clear();
+    }
+    
+    @Test
+    void testOptionsDoNotLeakToLaterCompilations(@TempDir Path tempDir) throws Exception {
+        Files.writeString(tempDir.resolve("SourceOnly.java"), "public class SourceOnly { public static int V = 42; }");
+        
+        var compiler1 = new JavaCompiler();
+        compiler1.addCode("SourcePathUser1.java", "", "public class SourcePathUser1 { int v = SourceOnly.V; }");
+        assertNull(compiler1.compile(new String[] { "-sourcepath", tempDir.toString() }, null));
+        
+        // Another compiler borrows the same engine but does not have the source path.
+        var compiler2 = new JavaCompiler();
+        compiler2.addCode("SourcePathUser2.java", "", "public class SourcePathUser2 { int v = SourceOnly.V; }");
+        var error = compiler2.compile();
+        assertNotNull(error);
+        assertTrue(error.contains("SourceOnly"));
+    }
+    
+    @Test
+    void testCompilersShareEngines() throws Exception {
+        var className = "TestClassPool";
+        var classCode = new StringBuilder();
+        classCode.append("public class " + className + " extends Thread {\n");
+        classCode.append("    @Override public void run() {\n");
+        classCode.append("        System.out.println(\"Pooled!\");\n");
+        classCode.append("    }\n");
+        classCode.append("}\n");
+        
+        for (int i = 0; i < 3; i++) {
+            new TestCompiler(new JavaCompiler())
+            .compileCode(className, classCode)
+            .validateOut("Pooled!");
+        }
+        
+        assertEquals(0, CompilerEnginePool.Instance.getLeasedCount());
+    }
+
+}
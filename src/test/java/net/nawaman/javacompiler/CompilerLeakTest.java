@@ -0,0 +1,47 @@
+package net.nawaman.javacompiler;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+
+import org.junit.jupiter.api.Test;
+
+class CompilerLeakTest {
+    
+    static private final int COMPILER_COUNT = 2000;
+    
+    static private int countAlive(final ArrayList<WeakReference<ClassLoader>> pLoaders) throws Exception {
+        int aliveCount = pLoaders.size();
+        for (int i = 0; (i < 100) && (aliveCount != 0); i++) {
+            System.gc();
+            Thread.sleep(10);
+            aliveCount = (int)pLoaders.stream().filter(ref -> ref.get() != null).count();
+        }
+        return aliveCount;
+    }
+    
+    @Test
+    void testCompilersWithClassDataAreReclaimed() throws Exception {
+        var source = new JavaCompiler();
+        source.addCode("Leaky.java", "", "public class Leaky { static byte[] data = new byte[1024]; }");
+        assertNull(source.compile());
+        var classData = source.getCompiledClassData("Leaky");
+        
+        var loaders = new ArrayList<WeakReference<ClassLoader>>();
+        for (int i = 0; i < COMPILER_COUNT; i++) {
+            var compiler = new JavaCompiler();
+            compiler.addClassData(classData);
+            
+            // The ClassData is cached by the compiler (and the class is loaded by it).
+            var data = compiler.getCompiledClassData("Leaky");
+            assertNotNull(data);
+            assertEquals(data, JavaCompiler.GetClassDataOf(compiler.forName("Leaky")));
+            loaders.add(new WeakReference<ClassLoader>(compiler.getCurrentClassLoader()));
+        }
+        assertEquals(0, countAlive(loaders));
+    }
+
+}
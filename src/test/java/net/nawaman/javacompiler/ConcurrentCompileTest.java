@@ -0,0 +1,136 @@
+package net.nawaman.javacompiler;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Supplier;
+
+import org.junit.jupiter.api.Test;
+
+class ConcurrentCompileTest {
+    
+    static private final int THREAD_COUNT = 8;
+    static private final int ROUND_COUNT  = 5;
+    
+    static private final String code = "public class %1$s implements java.util.function.Supplier<Integer> {\n"
+                                     + "    public Integer get() { return %2$d; }\n"
+                                     + "}\n";
+    
+    @Test
+    void testConcurrentCompile() throws Exception {
+        // The compile cache is disabled so that every round really compiles.
+        JavaCompiler.ConfigureCompileCache(0);
+        try {
+            var compiler = new JavaCompiler();
+            var start    = new CountDownLatch(1);
+            var executor = Executors.newFixedThreadPool(THREAD_COUNT);
+            try {
+                var futures = new ArrayList<Future<Void>>();
+                for (int t = 0; t < THREAD_COUNT; t++) {
+                    final int thread = t;
+                    futures.add(executor.submit(() -> {
+                        start.await();
+                        for (int r = 0; r < ROUND_COUNT; r++) {
+                            var className = "ConcS" + thread + "_" + r;
+                            var value     = thread*1000 + r;
+                            compiler.addCode(className + ".java", "", String.format(code, className, value));
+                            assertNull(compiler.compile());
+                            
+                            // The class is ready as soon as compile returns (even if another thread compiled it).
+                            assertEquals(value, newSupplier(compiler, className).get());
+                        }
+                        return null;
+                    }));
+                }
+                start.countDown();
+                for (var future : futures)
+                    future.get();
+            } finally {
+                executor.shutdownNow();
+            }
+            
+            // Nothing is lost nor overwritten.
+            for (int t = 0; t < THREAD_COUNT; t++) {
+                for (int r = 0; r < ROUND_COUNT; r++)
+                    assertEquals(t*1000 + r, newSupplier(compiler, "ConcS" + t + "_" + r).get());
+            }
+        } finally {
+            JavaCompiler.ConfigureCompileCache(CompileResultCache.DEFAULT_MAX_BYTES);
+        }
+    }
+    
+    @Test
+    void testLookupsWhileCompiling() throws Exception {
+        var compiler = new JavaCompiler();
+        compiler.addCode("ConcBase.java", "", String.format(code, "ConcBase", 42));
+        assertNull(compiler.compile());
+        
+        var executor = Executors.newFixedThreadPool(THREAD_COUNT);
+        try {
+            var tasks = new ArrayList<Callable<Boolean>>();
+            // Half of the threads look the compiled class up while the other half compile new codes.
+            for (int t = 0; t < THREAD_COUNT; t++) {
+                final int thread = t;
+                tasks.add(() -> {
+                    for (int r = 0; r < ROUND_COUNT; r++) {
+                        if ((thread % 2) == 0) {
+                            assertEquals(42, newSupplier(compiler, "ConcBase").get());
+                            assertTrue(compiler.getCompiledClassDataAsBytes("ConcBase").length > 0);
+                        } else {
+                            var className = "ConcL" + thread + "_" + r;
+                            compiler.addCode(className + ".java", "", String.format(code, className, r));
+                            assertNull(compiler.compile());
+                        }
+                    }
+                    return true;
+                });
+            }
+            List<Future<Boolean>> futures = executor.invokeAll(tasks);
+            for (var future : futures)
+                assertTrue(future.get());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+    
+    @Test
+    void testSessionSeesTheBaseClassesWithoutCopying() throws Exception {
+        var base    = new MemoryFileManager();
+        var classA  = new JavaClassMemoryFileObject("ConcA.class", "");
+        base.putClassFileObjectByName("ConcA", classA);
+        
+        var session = base.newSession();
+        assertSame(classA, session.getClassFileObjectByName("ConcA"));
+        assertTrue(session.getClassFileObjects().isEmpty());
+        
+        // The classes of the session are not visible to the base until published.
+        var classB = new JavaClassMemoryFileObject("ConcB.class", "");
+        session.putClassFileObjectByName("ConcB", classB);
+        assertNull(base.getClassFileObjectByName("ConcB"));
+        
+        // The classes published to the base since are visible to the session.
+        var classC = new JavaClassMemoryFileObject("ConcC.class", "");
+        base.putClassFileObjectByName("ConcC", classC);
+        assertSame(classC, session.getClassFileObjectByName("ConcC"));
+        
+        base.publish(session);
+        assertSame(classB, base.getClassFileObjectByName("ConcB"));
+    }
+    
+    @SuppressWarnings("unchecked")
+    static private Supplier<Integer> newSupplier(
+            final JavaCompiler pCompiler,
+            final String       pClassName) throws Exception {
+        var supplierClass = pCompiler.forName(pClassName);
+        return (Supplier<Integer>)supplierClass.getDeclaredConstructor().newInstance();
+    }
+
+}
@@ -0,0 +1,134 @@
+package net.nawaman.javacompiler;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Set;
+
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaFileObject;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import net.nawaman.javacompiler.helpers.TestThread;
+
+class IncrementalCompileTest {
+    
+    static private final String codeA = "public class IncA { public static final int V = %d; }";
+    static private final String codeB = "public class IncB extends Thread {\n"
+                                      + "    @Override public void run() { System.out.println(\"V: \" + IncA.V); }\n"
+                                      + "}\n";
+    static private final String codeC = "public class IncC {\n"
+                                      + "    java.util.List list = new java.util.ArrayList();\n"
+                                      + "    void add() { list.add(1); }\n"
+                                      + "}\n";
+    static private final String codeD = "public class IncD {\n"
+                                      + "    java.util.List list = new java.util.ArrayList();\n"
+                                      + "    void add() { list.add(IncA.V); }\n"
+                                      + "}\n";
+    
+    @SuppressWarnings("unchecked")
+    @Test
+    void testOnlyChangedAndDependentsAreCompiled() throws Exception {
+        var compiler = new JavaCompiler();
+        compiler.setIncremental(true);
+        
+        compiler.addCode("IncA.java", "", String.format(codeA, 1));
+        compiler.addCode("IncB.java", "", codeB);
+        compiler.addCode("IncC.java", "", codeC);
+        
+        // IncC has an unchecked warning so we can see when it is compiled.
+        var diagnostics1 = new DiagnosticCollector<JavaFileObject>();
+        compiler.compile(diagnostics1);
+        assertEquals(1, diagnostics1.getDiagnostics().size(), "IncC should be compiled the first time.");
+        
+        // IncA changes so IncB (that inlines the constant) must be compiled again, IncC has not changed.
+        compiler.addCode("IncA.java", "", String.format(codeA, 2));
+        compiler.addCode("IncC.java", "", codeC);
+        
+        var diagnostics2 = new DiagnosticCollector<JavaFileObject>();
+        compiler.compile(diagnostics2);
+        assertTrue(diagnostics2.getDiagnostics().isEmpty(), "IncC should not be compiled again.");
+        
+        var threadClass = (Class<Thread>)compiler.forName("IncB").asSubclass(Thread.class);
+        new TestThread(threadClass).validateOut("V: 2");
+    }
+    
+    @SuppressWarnings("unchecked")
+    @Test
+    void testCompileAgainstCompiledClasses() throws Exception {
+        var compiler = new JavaCompiler();
+        compiler.setIncremental(true);
+        
+        compiler.addCode("IncA.java", "", String.format(codeA, 5));
+        assertEquals(null, compiler.compile());
+        
+        // IncA is not given again, IncB is compiled against the compiled class of IncA.
+        compiler.addCode("IncB.java", "", codeB);
+        assertEquals(null, compiler.compile());
+        
+        var threadClass = (Class<Thread>)compiler.forName("IncB").asSubclass(Thread.class);
+        new TestThread(threadClass).validateOut("V: 5");
+    }
+    
+    @Test
+    void testDependentsAfterClasspathChange(@TempDir Path tempDir) {
+        var compiler = newCompilerOfAD();
+        
+        // The classpath change creates a new JCompiler that must know the dependencies.
+        compiler.addClasspathURL(tempDir.toString());
+        validateDependentIsCompiled(compiler);
+    }
+    
+    @Test
+    void testDependentsAfterCompaction() {
+        var compiler = newCompilerOfAD();
+        compiler.compact();
+        validateDependentIsCompiled(compiler);
+    }
+    
+    @Test
+    void testDependentsOfReplacedUnit() {
+        var graph = new DependencyGraph();
+        graph.record(newUnit("A", Set.of("A"), Set.of()));
+        graph.record(newUnit("B", Set.of("B"), Set.of("A")));
+        graph.record(newUnit("C", Set.of("C"), Set.of("B", "java.lang.String")));
+        graph.record(newUnit("D", Set.of("D"), Set.of("java.lang.String")));
+        assertEquals(Set.of("B", "C"), graph.getDependents(List.of("A")));
+        
+        // B no longer references A so neither B nor C (through B) depends on A.
+        graph.record(newUnit("B", Set.of("B"), Set.of()));
+        assertEquals(Set.of(), graph.getDependents(List.of("A")));
+        assertEquals(Set.of("C"), graph.getDependents(List.of("B")));
+    }
+    
+    static private DependencyGraph.Unit newUnit(
+            final String      name,
+            final Set<String> producedTypes,
+            final Set<String> referencedTypes) {
+        return new DependencyGraph.Unit(name, "", name, producedTypes, referencedTypes);
+    }
+    
+    static private JavaCompiler newCompilerOfAD() {
+        var compiler = new JavaCompiler();
+        compiler.setIncremental(true);
+        compiler.addCode("IncA.java", "", String.format(codeA, 1));
+        compiler.addCode("IncD.java", "", codeD);
+        var diagnostics = new DiagnosticCollector<JavaFileObject>();
+        compiler.compile(diagnostics);
+        assertEquals(1, diagnostics.getDiagnostics().size(), "IncD should be compiled the first time.");
+        return compiler;
+    }
+    
+    static private void validateDependentIsCompiled(final JavaCompiler compiler) {
+        // IncD (that has an unchecked warning) depends on IncA so it must be compiled again.
+        compiler.addCode("IncA.java", "", String.format(codeA, 2));
+        var diagnostics = new DiagnosticCollector<JavaFileObject>();
+        compiler.compile(diagnostics);
+        assertEquals(1, diagnostics.getDiagnostics().size(), "IncD should be compiled again.");
+    }
+
+}
@@ -0,0 +1,444 @@
+package net.nawaman.javacompiler;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.zip.Deflater;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class JavaCompilerObjectStreamTest {
+    
+    static private final String pointCode
+            = "public class Point implements java.io.Serializable {\n"
+            + "    public static class Inner implements java.io.Serializable { public String name = \"in\"; }\n"
+            + "    public int    x;\n"
+            + "    public Inner  inner = new Inner();\n"
+            + "    public byte[] data  = new byte[0];\n"
+            + "    public Point(int x, int size) { this.x = x; this.data = new byte[size]; }\n"
+            + "    public String toString() { return \"Point(\" + x + \",\" + inner.name + \")\"; }\n"
+            + "}";
+    
+    static private Serializable[] newPoints(
+            final int pCount,
+            final int pSize)
+            throws Exception {
+        var compiler = new JavaCompiler();
+        compiler.addCode("Point.java", "", pointCode);
+        assertNull(compiler.compile());
+        
+        var constructor = compiler.forName("Point").getConstructor(int.class, int.class);
+        var points      = new Serializable[pCount];
+        for (int i = 0; i < pCount; i++)
+            points[i] = (Serializable)constructor.newInstance(i, pSize);
+        return points;
+    }
+    
+    static private void assertPoints(
+            final JavaCompiler   pCompiler,
+            final Serializable[] pPoints,
+            final int            pCount) {
+        assertNotNull(pPoints);
+        assertEquals(pCount, pPoints.length);
+        for (int i = 0; i < pCount; i++) {
+            assertEquals("Point(" + i + ",in)", pPoints[i].toString());
+            assertEquals(pCompiler.getClassByName("Point"), pPoints[i].getClass());
+        }
+    }
+    
+    /** Counts the bytes written */
+    static private final class CountingOutputStream extends OutputStream {
+        long count = 0;
+        @Override public void write(int b) { count++; }
+        @Override public void write(byte[] b, int off, int len) { count += len; }
+    }
+    /** Counts the bytes read */
+    static private final class CountingInputStream extends FilterInputStream {
+        CountingInputStream(InputStream in) { super(in); }
+        long count = 0;
+        @Override public int read() throws java.io.IOException {
+            int b = super.read();
+            if (b != -1) count++;
+            return b;
+        }
+        @Override public int read(byte[] b, int off, int len) throws java.io.IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) count += n;
+            return n;
+        }
+    }
+    
+    @Test
+    void testVersion2RoundTrip() throws Exception {
+        var points = newPoints(10, 10);
+        var buffer = new ByteArrayOutputStream();
+        var output = JavaCompilerObjectOutputStream.NewJavaCompilerObjectOutputStream(
+                        buffer,
+                        JavaCompilerObjectOutputStream.PROTOCOL_VERSION_2_00);
+        output.writeObject(points);
+        output.close();
+        var bytes = buffer.toByteArray();
+        assertTrue(JCOFrames.IsFramed(ByteBuffer.wrap(bytes)));
+        
+        var compiler = new JavaCompiler();
+        var loaded   = JavaCompilerObjectOutputStream.DeSerializeObjects(bytes, compiler);
+        assertPoints(compiler, loaded, 10);
+        assertNotNull(compiler.getClassByName("Point$Inner"));
+    }
+    
+    @Test
+    void testVersion1IsTheDefault(@TempDir Path tempDir) throws Exception {
+        // The readers before the version 2 read the version 1 only.
+        var points = newPoints(2, 10);
+        var bytes  = JavaCompilerObjectOutputStream.SerializeObjects(points);
+        assertFalse(JCOFrames.IsFramed(ByteBuffer.wrap(bytes)));
+        
+        var buffer = new ByteArrayOutputStream();
+        var output = JavaCompilerObjectOutputStream.NewJavaCompilerObjectOutputStream(buffer);
+        output.writeObject(points);
+        output.close();
+        assertArrayEquals(bytes, buffer.toByteArray());
+        
+        // The file is the serialized bytes of the version 1 (as the older versions wrote it).
+        var file = tempDir.resolve("points.jco").toFile();
+        JavaCompilerObjectOutputStream.SerializeObjects(file, points);
+        try (var input = new ObjectInputStream(new FileInputStream(file))) {
+            var compiler = new JavaCompiler();
+            var loaded   = JavaCompilerObjectOutputStream.DeSerializeObjects((byte[])input.readObject(), compiler);
+            assertPoints(compiler, loaded, 2);
+        }
+    }
+    
+    @Test
+    void testVersion1IsStillReadable() throws Exception {
+        var points = newPoints(5, 10);
+        var buffer = new ByteArrayOutputStream();
+        var output = JavaCompilerObjectOutputStream.NewJavaCompilerObjectOutputStream(
+                        buffer,
+                        JavaCompilerObjectOutputStream.PROTOCOL_VERSION_1_00);
+        output.writeObject(points);
+        output.close();
+        
+        var compiler = new JavaCompiler();
+        var loaded   = JavaCompilerObjectOutputStream.DeSerializeObjects(buffer.toByteArray(), compiler);
+        assertPoints(compiler, loaded, 5);
+    }
+    
+    @Test
+    void testObjectsAreStreamed() throws Exception {
+        var count  = 100;
+        var size   = 100*1024;
+        var points = newPoints(count, size);
+        
+        // The objects are written as they come - only a chunk is buffered.
+        var version = JavaCompilerObjectOutputStream.PROTOCOL_VERSION_2_00;
+        var counter = new CountingOutputStream();
+        var output  = JavaCompilerObjectOutputStream.NewJavaCompilerObjectOutputStream(counter, version);
+        for (var point : points)
+            output.writeObject(point);
+        assertTrue(counter.count > (long)count*size - JCOFrames.CHUNK_SIZE);
+        output.close();
+        
+        var buffer = new ByteArrayOutputStream();
+        output = JavaCompilerObjectOutputStream.NewJavaCompilerObjectOutputStream(buffer, version);
+        for (var point : points)
+            output.writeObject(point);
+        output.close();
+        
+        // The objects are read as they come - the class comes before the first object.
+        var compiler = new JavaCompiler();
+        var bytes    = buffer.toByteArray();
+        var reader   = new CountingInputStream(new ByteArrayInputStream(bytes));
+        var input    = JavaCompilerObjectInputStream.NewJavaCompilerObjectInputStream(reader, compiler);
+        assertEquals("Point(0,in)", input.readObject().toString());
+        assertTrue(reader.count < bytes.length/10);
+        for (int i = 1; i < count; i++)
+            assertEquals("Point(" + i + ",in)", input.readObject().toString());
+        input.close();
+    }
+    
+    @Test
+    void testFiles(@TempDir Path tempDir) throws Exception {
+        var points = newPoints(3, 10);
+        var file   = tempDir.resolve("points.jco").toFile();
+        JavaCompilerObjectOutputStream.SerializeObjects(file, points);
+        
+        var compiler = new JavaCompiler();
+        assertPoints(compiler, JavaCompilerObjectOutputStream.DeSerializeObjects(file, compiler), 3);
+        
+        var framedFile = tempDir.resolve("framed.jco").toFile();
+        JavaCompilerObjectOutputStream.SerializeObjects(
+                framedFile,
+                JavaCompilerObjectOutputStream.PROTOCOL_VERSION_2_00,
+                points);
+        var framedCompiler = new JavaCompiler();
+        assertPoints(framedCompiler, JavaCompilerObjectOutputStream.DeSerializeObjects(framedFile, framedCompiler), 3);
+        
+        // The files of the older versions - the serialized bytes of the version 1.
+        var buffer = new ByteArrayOutputStream();
+        var output = JavaCompilerObjectOutputStream.NewJavaCompilerObjectOutputStream(
+                        buffer,
+                        JavaCompilerObjectOutputStream.PROTOCOL_VERSION_1_00);
+        output.writeObject(points);
+        output.close();
+        
+        var oldFile = new File(tempDir.toFile(), "old.jco");
+        try (var stream = new ObjectOutputStream(new FileOutputStream(oldFile))) {
+            stream.writeObject(buffer.toByteArray());
+        }
+        var oldCompiler = new JavaCompiler();
+        assertPoints(oldCompiler, JavaCompilerObjectOutputStream.DeSerializeObjects(oldFile, oldCompiler), 3);
+    }
+
+    @Test
+    void testCompressedClassData() throws Exception {
+        var points = newPoints(3, 10);
+        var plain  = JavaCompilerObjectOutputStream.SerializeObjects(points);
+        
+        var buffer = new ByteArrayOutputStream();
+        var output = JavaCompilerObjectOutputStream.NewJavaCompilerObjectOutputStream(
+                        buffer,
+                        CompressionCodecs.DEFLATE);
+        output.writeObject(points);
+        output.close();
+        var compressed = buffer.toByteArray();
+        assertTrue(compressed.length < plain.length);
+        
+        var compiler = new JavaCompiler();
+        assertPoints(compiler, JavaCompilerObjectOutputStream.DeSerializeObjects(compressed, compiler), 3);
+        
+        // The default codec is used by the utilities.
+        JavaCompilerObjectOutputStream.SetDefaultCompressionCodec(CompressionCodecs.DEFLATE);
+        try {
+            assertEquals(compressed.length, JavaCompilerObjectOutputStream.SerializeObjects(points).length);
+        } finally {
+            JavaCompilerObjectOutputStream.SetDefaultCompressionCodec(null);
+        }
+        assertEquals(plain.length, JavaCompilerObjectOutputStream.SerializeObjects(points).length);
+    }
+    
+    @Test
+    void testTheDictionaryHelpsSmallClasses() throws Exception {
+        var compiler = new JavaCompiler();
+        compiler.addCode("Small.java", "", "public class Small { public String toString() { return \"Small\"; } }");
+        assertNull(compiler.compile());
+        
+        var bytes    = compiler.getCompiledClassData("Small", true).encode();
+        var withDict = CompressionCodecs.DEFLATE.compress(bytes);
+        var deflater = new Deflater();
+        var noDict   = new byte[bytes.length * 2];
+        deflater.setInput(bytes);
+        deflater.finish();
+        var noDictLength = deflater.deflate(noDict);
+        deflater.end();
+        
+        assertTrue(withDict.length < noDictLength);
+        assertArrayEquals(bytes, CompressionCodecs.DEFLATE.decompress(withDict));
+        
+        var truncated = java.util.Arrays.copyOf(withDict, withDict.length - 4);
+        assertThrows(IOException.class, () -> CompressionCodecs.DEFLATE.decompress(truncated));
+    }
+    
+    @Test
+    void testPluggableCodec() throws Exception {
+        // A codec that only flips the bits - only to see that the codec is found by its name.
+        var flip = new CompressionCodec() {
+            @Override public String getName() { return "test-flip"; }
+            @Override public byte[] compress(byte[] pBytes) {
+                var bytes = pBytes.clone();
+                for (int i = 0; i < bytes.length; i++)
+                    bytes[i] ^= 0xFF;
+                return bytes;
+            }
+            @Override public byte[] decompress(byte[] pBytes) { return this.compress(pBytes); }
+        };
+        
+        var points = newPoints(2, 10);
+        var buffer = new ByteArrayOutputStream();
+        var output = JavaCompilerObjectOutputStream.NewJavaCompilerObjectOutputStream(buffer, flip);
+        output.writeObject(points);
+        output.close();
+        assertSame(flip, CompressionCodecs.Get("test-flip"));
+        
+        var compiler = new JavaCompiler();
+        assertPoints(compiler, JavaCompilerObjectOutputStream.DeSerializeObjects(buffer.toByteArray(), compiler), 2);
+        
+        // An unknown codec
+        var unknown = new String(buffer.toByteArray(), "ISO-8859-1").replace("test-flip", "test-flop");
+        assertThrows(IOException.class,
+                () -> JavaCompilerObjectInputStream.NewJavaCompilerObjectInputStream(
+                        new ByteArrayInputStream(unknown.getBytes("ISO-8859-1")),
+                        new JavaCompiler()));
+    }
+    
+    @Test
+    void testCodecNameConflict() throws Exception {
+        // Another codec with the name of a registered one would not be the one the readers use.
+        var other = new CompressionCodec() {
+            @Override public String getName() { return CompressionCodecs.DEFLATE.getName(); }
+            @Override public byte[] compress(byte[] pBytes) { return pBytes; }
+            @Override public byte[] decompress(byte[] pBytes) { return pBytes; }
+        };
+        var buffer = new ByteArrayOutputStream();
+        assertThrows(IllegalArgumentException.class,
+                () -> JavaCompilerObjectOutputStream.NewJavaCompilerObjectOutputStream(buffer, other));
+        assertThrows(IllegalArgumentException.class,
+                () -> JavaCompilerObjectOutputStream.SetDefaultCompressionCodec(other));
+        assertNull(JavaCompilerObjectOutputStream.GetDefaultCompressionCodec());
+        assertSame(CompressionCodecs.DEFLATE, CompressionCodecs.Get(CompressionCodecs.DEFLATE.getName()));
+        
+        // The registered codec itself is fine.
+        JavaCompilerObjectOutputStream.NewJavaCompilerObjectOutputStream(buffer, CompressionCodecs.DEFLATE).close();
+    }
+    
+    @Test
+    void testClassesAreAddedWhenResolved() throws Exception {
+        var compiler = new JavaCompiler();
+        compiler.addCode("LazyBase.java",  "", "public abstract class LazyBase implements java.io.Serializable {}");
+        compiler.addCode("LazySub.java",   "", "public class LazySub extends LazyBase {}");
+        compiler.addCode("LazyOther.java", "", "public class LazyOther implements java.io.Serializable {}");
+        assertNull(compiler.compile());
+        
+        var sub   = compiler.forName("LazySub")  .getConstructor().newInstance();
+        var other = compiler.forName("LazyOther").getConstructor().newInstance();
+        for (var version : new int[] {
+                JavaCompilerObjectOutputStream.PROTOCOL_VERSION_1_00,
+                JavaCompilerObjectOutputStream.PROTOCOL_VERSION_2_00 }) {
+            var buffer = new ByteArrayOutputStream();
+            var output = JavaCompilerObjectOutputStream.NewJavaCompilerObjectOutputStream(buffer, version);
+            output.writeObject(sub);
+            output.writeObject(other);
+            output.close();
+            
+            // Only the class of the object read (and the class it needs) is added.
+            var loader = new JavaCompiler();
+            var input  = JavaCompilerObjectInputStream.NewJavaCompilerObjectInputStream(
+                            new ByteArrayInputStream(buffer.toByteArray()),
+                            loader);
+            var first = input.readObject();
+            assertEquals(loader.getClassByName("LazySub"), first.getClass());
+            assertNotNull(loader.getClassByName("LazyBase"));
+            assertNull(loader.getClassByName("LazyOther"));
+            
+            // The class data of the version 1 are all read before the objects - of the version 2, as they come.
+            input.addPendingClasses();
+            if (version == JavaCompilerObjectOutputStream.PROTOCOL_VERSION_1_00)
+                assertNotNull(loader.getClassByName("LazyOther"));
+            
+            var second = input.readObject();
+            assertEquals(loader.getClassByName("LazyOther"), second.getClass());
+            input.close();
+        }
+    }
+    
+    @Test
+    void testNestedClassOfTopLevelClassWithDollar() throws Exception {
+        var compiler = new JavaCompiler();
+        compiler.addCode("LazyDollar.java",     "", "public class LazyDollar implements java.io.Serializable {}");
+        compiler.addCode("LazyDollar$Top.java", "",
+                "public class LazyDollar$Top {\n"
+              + "    public static class Inner implements java.io.Serializable {}\n"
+              + "}");
+        assertNull(compiler.compile());
+        
+        var inner  = compiler.forName("LazyDollar$Top$Inner").getConstructor().newInstance();
+        var buffer = new ByteArrayOutputStream();
+        var output = JavaCompilerObjectOutputStream.NewJavaCompilerObjectOutputStream(
+                        buffer,
+                        JavaCompilerObjectOutputStream.PROTOCOL_VERSION_2_00);
+        output.writeObject(inner);
+        output.writeObject(compiler.forName("LazyDollar").getConstructor().newInstance());
+        output.close();
+        
+        // The nested class is of LazyDollar$Top (not of LazyDollar).
+        var loader = new JavaCompiler();
+        var input  = JavaCompilerObjectInputStream.NewJavaCompilerObjectInputStream(
+                        new ByteArrayInputStream(buffer.toByteArray()),
+                        loader);
+        var first  = input.readObject();
+        assertEquals(loader.getClassByName("LazyDollar$Top$Inner"), first.getClass());
+        assertNotNull(loader.getClassByName("LazyDollar$Top"));
+        assertNull(loader.getClassByName("LazyDollar"));
+        input.close();
+    }
+    
+    @Test
+    void testMappedFile(@TempDir Path tempDir) throws Exception {
+        var points = newPoints(3, 10);
+        var file   = tempDir.resolve("mapped.jco").toFile();
+        JavaCompilerObjectOutputStream.SerializeObjects(
+                file,
+                JavaCompilerObjectOutputStream.PROTOCOL_VERSION_2_00,
+                points);
+        
+        // The classes are defined straight from the mapped file.
+        var compiler = new JavaCompiler();
+        assertPoints(compiler, JavaCompilerObjectOutputStream.DeSerializeObjects(file, compiler), 3);
+        var classFiles = ((JCompiler)compiler.getCurrentClassLoader()).getVisibleClassFileObjects();
+        assertTrue(classFiles.get("Point")      .isOffHeap());
+        assertTrue(classFiles.get("Point$Inner").isOffHeap());
+    }
+    
+    @Test
+    void testSaveOverMappedFile(@TempDir Path tempDir) throws Exception {
+        var version = JavaCompilerObjectOutputStream.PROTOCOL_VERSION_2_00;
+        var file    = tempDir.resolve("mapped.jco").toFile();
+        JavaCompilerObjectOutputStream.SerializeObjects(file, version, newPoints(3, 10));
+        
+        // The classes loaded from the file are defined from its mapping - the file is replaced, not overwritten.
+        var compiler = new JavaCompiler();
+        var loaded   = JavaCompilerObjectOutputStream.DeSerializeObjects(file, compiler);
+        JavaCompilerObjectOutputStream.SerializeObjects(file, version, loaded);
+        assertNotNull(compiler.forName("Point$Inner").getConstructor().newInstance());
+        assertPoints(compiler, loaded, 3);
+        
+        var reloader = new JavaCompiler();
+        assertPoints(reloader, JavaCompilerObjectOutputStream.DeSerializeObjects(file, reloader), 3);
+        assertEquals(1, tempDir.toFile().list().length);
+    }
+    
+    @Test
+    void testMappedClassData() throws Exception {
+        var classData = JavaCompiler.GetClassDataOf(newPoints(1, 10)[0].getClass());
+        var encoded   = classData.encode();
+        var buffer    = ByteBuffer.allocateDirect(encoded.length).put(encoded).flip();
+        var mapped    = ClassData.Decode(buffer);
+        assertTrue(mapped.isMapped());
+        assertTrue(mapped.getByteBuffer().isDirect());
+        assertArrayEquals(classData.getBytes(), mapped.getBytes());
+        
+        // The Java serialization writes the byte code in the buffer as the bytes.
+        var bytes = new ByteArrayOutputStream();
+        try (var output = new ObjectOutputStream(bytes)) {
+            output.writeObject(mapped);
+        }
+        try (var input = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            var read = (ClassData)input.readObject();
+            assertFalse(read.isMapped());
+            assertArrayEquals(mapped.getBytes(), read.getBytes());
+            assertEquals(mapped.getEnclosedClassDataCount(), read.getEnclosedClassDataCount());
+        }
+    }
+    
+}
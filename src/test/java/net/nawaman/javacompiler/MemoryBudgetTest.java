@@ -0,0 +1,159 @@
+package net.nawaman.javacompiler;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import org.junit.jupiter.api.Test;
+
+class MemoryBudgetTest {
+    
+    static private JavaCompiler newCompiler() {
+        var compiler = new JavaCompiler();
+        // Old1 has a nested class that is of the same unit.
+        compiler.addCode("Old1.java", "", "public class Old1 { class Inner {} }");
+        assertNull(compiler.compile());
+        compiler.addCode("Old2.java", "", "public class Old2 { public static int two() { return 2; } }");
+        assertNull(compiler.compile());
+        compiler.addCode("User.java", "", "public class User { int v = Old2.two(); }");
+        assertNull(compiler.compile());
+        compiler.addCode("New1.java", "", "public class New1 {}");
+        assertNull(compiler.compile());
+        return compiler;
+    }
+    
+    @Test
+    void testLeastRecentlyUsedUnitIsEvicted() throws Exception {
+        var compiler = newCompiler();
+        var retained = compiler.getRetainedBytes();
+        assertTrue(retained > 0);
+        
+        // Old1 is the least recently used and it is loaded. Old2 is the next but User refers to it.
+        var old1 = compiler.forName("Old1");
+        compiler.setMemoryBudget(retained - 1);
+        assertEquals(1, compiler.getEvictionCount());
+        assertTrue(compiler.getEvictedBytes() > 0);
+        assertTrue(compiler.getRetainedBytes() <= retained - 1);
+        assertNull(compiler.getClassByName("User"));
+        assertNull(compiler.getCompiledClassData("User"));
+        assertSame(old1, compiler.forName("Old1"));
+        
+        // Once User is gone, Old2 can be evicted too - Old1 is loaded so it stays.
+        compiler.setMemoryBudget(1);
+        assertEquals(3, compiler.getEvictionCount());
+        assertTrue(compiler.getRetainedBytes() > 0);
+        assertNull(compiler.getClassByName("Old2"));
+        assertNull(compiler.getClassByName("New1"));
+        assertSame(old1, compiler.forName("Old1"));
+        
+        // The evicted code can be compiled again.
+        compiler.setMemoryBudget(0);
+        compiler.addCode("User.java", "", "public class User { public static final int VERSION = 2; }");
+        assertNull(compiler.compile());
+        assertEquals(2, compiler.forName("User").getField("VERSION").getInt(null));
+    }
+    
+    @Test
+    void testEvictionAfterCompilation() throws Exception {
+        var compiler = newCompiler();
+        compiler.setMemoryBudget(compiler.getRetainedBytes());
+        assertEquals(0, compiler.getEvictionCount());
+        
+        compiler.addCode("New2.java", "", "public class New2 extends New1 {}");
+        assertNull(compiler.compile());
+        assertTrue(compiler.getEvictionCount() > 0);
+        assertTrue(compiler.getRetainedBytes() <= compiler.getMemoryBudget());
+        assertSame(compiler.forName("New1"), compiler.forName("New2").getSuperclass());
+    }
+    
+    @Test
+    void testLoadedClassesAreKept() throws Exception {
+        var compiler = newCompiler();
+        compiler.addCode("State.java", "", "public class State { public static int n = 0; }");
+        assertNull(compiler.compile());
+        var state = compiler.forName("State");
+        state.getField("n").setInt(null, 42);
+        
+        compiler.setMemoryBudget(1);
+        assertEquals(4, compiler.getEvictionCount());
+        assertNull(compiler.getClassByName("Old1"));
+        assertNull(compiler.getClassByName("Old1$Inner"));
+        assertSame(state, compiler.forName("State"));
+        
+        compiler.addCode("Reader.java", "", "public class Reader { public static int read() { return State.n; } }");
+        assertNull(compiler.compile());
+        assertEquals(42, compiler.forName("Reader").getMethod("read").invoke(null));
+    }
+    
+    @Test
+    void testCompiledClassesAreKept() throws Exception {
+        var compiler = newCompiler();
+        compiler.setMemoryBudget(1);
+        assertEquals(4, compiler.getEvictionCount());
+        
+        // The classes of the compilation that triggers the eviction are not evicted.
+        compiler.addCode("Bar.java", "", "public class Bar { class Inner {} }");
+        assertNull(compiler.compile());
+        assertNotNull(compiler.getCompiledClassData("Bar"));
+        assertNotNull(compiler.getCompiledClassData("Bar$Inner"));
+    }
+    
+    @Test
+    void testTopLevelNameWithDollar() throws Exception {
+        var compiler = new JavaCompiler();
+        compiler.addCode("Foo.java",     "", "public class Foo {}");
+        compiler.addCode("Foo$Bar.java", "", "public class Foo$Bar {}");
+        assertNull(compiler.compile());
+        assertNotNull(compiler.forName("Foo"));
+        
+        // Foo$Bar is not nested in Foo so it is a unit of its own.
+        compiler.setMemoryBudget(1);
+        assertEquals(1, compiler.getEvictionCount());
+        assertNotNull(compiler.getClassByName("Foo"));
+        assertNull   (compiler.getClassByName("Foo$Bar"));
+    }
+    
+    @Test
+    void testCodeAddedDuringEvictionIsKept() throws Exception {
+        var compiler = new JavaCompiler();
+        for (int i = 0; i < 300; i++)
+            compiler.addCode("Filler" + i + ".java", "", "public class Filler" + i + " { int v = " + i + "; }");
+        assertNull(compiler.compile());
+        
+        // The codes are added for as long as the fillers are evicted.
+        var count = new AtomicInteger();
+        var start = new CountDownLatch(1);
+        var adder = new Thread(() -> {
+            try {
+                start.await();
+            } catch (InterruptedException E) {
+                return;
+            }
+            while ((compiler.getEvictionCount() < 300) && (count.get() < 1000)) {
+                var name = "EvictAdded" + count.get();
+                compiler.addCode(name + ".java", "", "public class " + name + " {}");
+                count.incrementAndGet();
+                LockSupport.parkNanos(100000);
+            }
+        });
+        adder.start();
+        start.countDown();
+        
+        // Each change of the budget evicts one more filler.
+        while (compiler.getEvictionCount() < 300)
+            compiler.setMemoryBudget(compiler.getRetainedBytes() - 1);
+        adder.join();
+        
+        compiler.setMemoryBudget(0);
+        assertNull(compiler.compile());
+        for (int i = 0; i < count.get(); i++)
+            assertNotNull(compiler.getClassByName("EvictAdded" + i), "EvictAdded" + i + " is lost.");
+    }
+
+}
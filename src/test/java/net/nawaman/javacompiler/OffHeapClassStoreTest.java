@@ -0,0 +1,107 @@
+package net.nawaman.javacompiler;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+class OffHeapClassStoreTest {
+    
+    @AfterEach
+    void disableStore() {
+        JavaCompiler.ConfigureOffHeapClassStore(0);
+    }
+    
+    static private JavaClassMemoryFileObject classFileOf(
+            final JavaCompiler pCompiler,
+            final String       pClassName) {
+        var jcompiler = (JCompiler)pCompiler.getCurrentClassLoader();
+        return jcompiler.getClassRoutes().getClassRoute(pClassName).jcmfo;
+    }
+    
+    @Test
+    void testClassesDefinedFromOffHeap() throws Exception {
+        JavaCompiler.ConfigureOffHeapClassStore(1024*1024);
+        var usedBefore = JavaCompiler.GetOffHeapClassStoreUsedBytes();
+        
+        // The code has chars that are more than a byte when encoded.
+        var code1    = "public class OffHeap1 { public static String text() { return \"caf\u00e9 \u65e5\u672c\"; } }";
+        var compiler = new JavaCompiler();
+        compiler.addCode("OffHeap1.java", "", code1);
+        compiler.addCode("OffHeap2.java", "", "public class OffHeap2 extends OffHeap1 {}");
+        assertNull(compiler.compile());
+        
+        var classFile = classFileOf(compiler, "OffHeap1");
+        assertTrue(classFile.isOffHeap());
+        assertTrue(JavaCompiler.GetOffHeapClassStoreUsedBytes() >= usedBefore + classFile.getByteCount());
+        assertEquals("caf\u00e9 \u65e5\u672c", compiler.forName("OffHeap1").getMethod("text").invoke(null));
+        assertSame(compiler.forName("OffHeap1"), compiler.forName("OffHeap2").getSuperclass());
+        
+        // The retained codes are off the heap too.
+        var jcompiler = (JCompiler)compiler.getCurrentClassLoader();
+        assertEquals(code1, jcompiler.getCode("OffHeap1.java"));
+        
+        // New codes are compiled against the byte code off the heap.
+        compiler.addCode("OffHeapUser.java", "",
+                "public class OffHeapUser { public static String text() { return OffHeap1.text() + \"!\"; } }");
+        assertNull(compiler.compile());
+        assertEquals("caf\u00e9 \u65e5\u672c!", compiler.forName("OffHeapUser").getMethod("text").invoke(null));
+        assertNotNull(compiler.getCompiledClassData("OffHeap2"));
+    }
+    
+    @Test
+    void testBudget() throws Exception {
+        JavaCompiler.ConfigureOffHeapClassStore(1);
+        var rejectedBefore = JavaCompiler.GetOffHeapClassStoreRejectedCount();
+        
+        var compiler = new JavaCompiler();
+        compiler.addCode("OnHeap.java", "", "public class OnHeap {}");
+        assertNull(compiler.compile());
+        
+        assertFalse(classFileOf(compiler, "OnHeap").isOffHeap());
+        assertTrue(JavaCompiler.GetOffHeapClassStoreRejectedCount() > rejectedBefore);
+        assertNotNull(compiler.forName("OnHeap"));
+    }
+    
+    @Test
+    void testMemoryIsGivenBack() throws Exception {
+        var store = new OffHeapClassStore();
+        store.configure(1024);
+        assertNotNull(store.store(new byte[100]));
+        assertNull   (store.store(new byte[2000]));
+        assertEquals(1, store.getRejectedCount());
+        
+        // The stored buffer is no longer referenced.
+        for (int i = 0; (i < 100) && (store.getUsedBytes() != 0); i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        assertEquals(0, store.getUsedBytes());
+        assertEquals(0, store.getEntryCount());
+    }
+    
+    @Test
+    void testCodeIsDecodedOnce() throws Exception {
+        var store = new OffHeapClassStore();
+        store.configure(1024);
+        
+        // A char beyond the basic plane is a pair of chars.
+        var text   = "class Decoded { String s = \"\u00e9 \ud83d\ude00\"; }";
+        var stored = store.storeCode(text);
+        assertTrue(stored instanceof OffHeapClassStore.Code);
+        
+        // Reading the code char by char does not decode it for each char.
+        var decoded = stored.toString();
+        assertEquals(text, decoded);
+        assertEquals(text.length(), stored.length());
+        for (int i = 0; i < stored.length(); i++)
+            assertEquals(text.charAt(i), stored.charAt(i));
+        assertSame(decoded, stored.toString());
+    }
+
+}
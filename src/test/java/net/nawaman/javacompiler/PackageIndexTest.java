@@ -0,0 +1,138 @@
+package net.nawaman.javacompiler;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Vector;
+
+import javax.tools.JavaFileObject;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class PackageIndexTest {
+    
+    static private final String jarPath = new File("mysql-connector-java.jar").getAbsolutePath();
+    
+    static private String copyJar(final Path pDir) throws Exception {
+        var jar = pDir.resolve("connector.jar");
+        Files.copy(Path.of(jarPath), jar);
+        return jar.toString();
+    }
+    
+    @Test
+    void testIndexIsSavedAndLoaded(@TempDir Path tempDir) throws Exception {
+        var jar      = copyJar(tempDir);
+        var cacheDir = tempDir.resolve("cache");
+        JavaCompiler.SetPersistentCompileCache(cacheDir.toString(), PersistentClassCache.DEFAULT_MAX_BYTES);
+        try {
+            var index = new PackageIndex();
+            index.addAll(List.of(jar, tempDir.toString()));
+            assertEquals(1, index.getBuildCount());
+            assertNull(index.get(tempDir.toString()));
+            
+            var jarIndex = index.get(jar);
+            assertTrue(jarIndex.getPackageNames().contains("com.mysql.cj.jdbc"));
+            assertNotNull(jarIndex.getClassFile("com.mysql.cj.jdbc.Driver"));
+            assertNull   (jarIndex.getClassFile("com.mysql.cj.jdbc.NoSuchClass"));
+            assertTrue (PackageIndex.IndexFileOf(jar).isFile());
+            assertTrue (PackageIndex.IndexFileOf(jar).toPath().startsWith(cacheDir));
+            assertFalse(new File(jar + PackageIndex.INDEX_FILE_SUFFIX).exists());
+            
+            var files = new Vector<JavaFileObject>();
+            jarIndex.list("com.mysql.cj.jdbc", false, files);
+            assertTrue(files.stream().anyMatch(file -> file.isNameCompatible("Driver", JavaFileObject.Kind.CLASS)));
+            
+            // Another process - the saved index is used.
+            var another = new PackageIndex();
+            another.addAll(List.of(jar));
+            assertEquals(0, another.getBuildCount());
+            assertEquals(1, another.getLoadCount());
+            assertEquals(jarIndex.getPackageNames(), another.get(jar).getPackageNames());
+        } finally {
+            JavaCompiler.SetPersistentCompileCache(null, PersistentClassCache.DEFAULT_MAX_BYTES);
+        }
+    }
+    
+    @Test
+    void testIndexIsInMemoryWithoutPersistentCache(@TempDir Path tempDir) throws Exception {
+        var jar   = copyJar(tempDir);
+        var index = new PackageIndex();
+        index.addAll(List.of(jar));
+        assertEquals(1, index.getBuildCount());
+        assertNull(PackageIndex.IndexFileOf(jar));
+        assertEquals(List.of("connector.jar"), List.of(tempDir.toFile().list()));
+        
+        var another = new PackageIndex();
+        another.addAll(List.of(jar));
+        assertEquals(1, another.getBuildCount());
+        assertEquals(0, another.getLoadCount());
+    }
+    
+    @Test
+    void testJarIsNotKeptOpen(@TempDir Path tempDir) throws Exception {
+        var fdDir = Path.of("/proc/self/fd");
+        assumeTrue(Files.isDirectory(fdDir), "Needs the list of the open files of the process.");
+        
+        var jar   = copyJar(tempDir);
+        var index = new PackageIndex();
+        index.addAll(List.of(jar));
+        try (var input = index.get(jar).getClassFile("com.mysql.cj.jdbc.Driver").openInputStream()) {
+            assertTrue(input.readAllBytes().length > 0);
+        }
+        
+        try (var fds = Files.list(fdDir)) {
+            assertFalse(fds.anyMatch(fd -> jar.equals(readLink(fd))), "The jar file is still open.");
+        }
+    }
+    
+    static private String readLink(final Path pLink) {
+        try {
+            return Files.readSymbolicLink(pLink).toString();
+        } catch (Exception E) {
+            return null;
+        }
+    }
+    
+    @Test
+    void testChangedJarIsIndexedAgain(@TempDir Path tempDir) throws Exception {
+        var jar   = copyJar(tempDir);
+        var index = new PackageIndex();
+        index.addAll(List.of(jar));
+        assertEquals(1, index.getBuildCount());
+        
+        new File(jar).setLastModified(new File(jar).lastModified() - 60000);
+        assertNotNull(index.get(jar));
+        assertEquals(2, index.getBuildCount());
+        assertEquals(0, index.getLoadCount());
+        
+        Files.delete(Path.of(jar));
+        assertNull(index.get(jar));
+    }
+    
+    @Test
+    void testCompileAgainstIndexedJar(@TempDir Path tempDir) throws Exception {
+        var jar      = copyJar(tempDir);
+        var compiler = new JavaCompiler();
+        compiler.addJarFile(jar);
+        assertNotNull(PackageIndex.Instance.get(jar));
+        
+        var code = "import com.mysql.cj.jdbc.*;\n"
+                 + "public class IndexedUser { public static String name() { return Driver.class.getName(); } }";
+        compiler.addCode("IndexedUser.java", "", code);
+        assertNull(compiler.compile());
+        assertEquals("com.mysql.cj.jdbc.Driver", compiler.forName("IndexedUser").getMethod("name").invoke(null));
+        
+        compiler.addCode("IndexedBad.java", "", "public class IndexedBad { com.mysql.cj.jdbc.NoSuchClass bad; }");
+        assertNotNull(compiler.compile());
+    }
+
+}
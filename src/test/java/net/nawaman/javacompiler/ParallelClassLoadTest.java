@@ -0,0 +1,101 @@
+package net.nawaman.javacompiler;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.jupiter.api.Test;
+
+class ParallelClassLoadTest {
+    
+    static private final int CLASS_COUNT = 200;
+    
+    // Each class extends the one before so loading a class loads the ones before it (from any thread).
+    static private final String code = "public class PLoad%1$d extends %2$s { public static final int INDEX = %1$d; }";
+    
+    @Test
+    void testJCompilerIsParallelCapable() {
+        assertTrue(new JCompiler().isRegisteredAsParallelCapable());
+    }
+    
+    /** All the threads touch all the classes for the first time at once - each class must be defined only once. */
+    @Test
+    void testConcurrentFirstUse() throws Exception {
+        var compiler = newCompiler();
+        var classes  = loadAll(compiler, Math.max(4, Runtime.getRuntime().availableProcessors()));
+        for (int i = 0; i < CLASS_COUNT; i++) {
+            var loaded = compiler.forName("PLoad" + i);
+            for (var threadClasses : classes)
+                assertSame(loaded, threadClasses.get(i));
+            
+            assertEquals(i, loaded.getField("INDEX").getInt(null));
+            if (i > 0)
+                assertSame(compiler.forName("PLoad" + (i - 1)), loaded.getSuperclass());
+        }
+    }
+    
+    /** Load throughput by the number of the threads (the speedup is only visible with multiple cores). */
+    @Test
+    void testLoadThroughput() throws Exception {
+        var maxThreads = Math.max(2, Runtime.getRuntime().availableProcessors());
+        for (int threads = 1; threads <= maxThreads; threads *= 2) {
+            var compiler  = newCompiler();
+            var startTime = System.nanoTime();
+            loadAll(compiler, threads);
+            var time = System.nanoTime() - startTime;
+            
+            System.out.printf("Parallel class loading: %d thread(s) - %d classes in %.2fms (%.0f classes/s)%n",
+                    threads, CLASS_COUNT, time / 1000000.0, CLASS_COUNT * 1000000000.0 / time);
+        }
+    }
+    
+    static private JavaCompiler newCompiler() {
+        var compiler = new JavaCompiler();
+        for (int i = 0; i < CLASS_COUNT; i++) {
+            var superName = (i == 0) ? "Object" : "PLoad" + (i - 1);
+            compiler.addCode("PLoad" + i + ".java", "", String.format(code, i, superName));
+        }
+        assertNull(compiler.compile());
+        return compiler;
+    }
+    
+    /** Loads all the classes with each thread (in its own order) and returns the classes loaded by each thread */
+    static private ArrayList<ArrayList<Class<?>>> loadAll(
+            final JavaCompiler pCompiler,
+            final int          pThreadCount) throws Exception {
+        var executor = Executors.newFixedThreadPool(pThreadCount);
+        try {
+            var tasks = new ArrayList<Callable<ArrayList<Class<?>>>>();
+            for (int t = 0; t < pThreadCount; t++) {
+                final int thread = t;
+                tasks.add(() -> {
+                    var indexes = new ArrayList<Integer>();
+                    for (int i = 0; i < CLASS_COUNT; i++)
+                        indexes.add(i);
+                    Collections.shuffle(indexes, new Random(thread));
+                    
+                    var classes = new ArrayList<Class<?>>(Collections.nCopies(CLASS_COUNT, null));
+                    for (var index : indexes)
+                        classes.set(index, pCompiler.forName("PLoad" + index));
+                    return classes;
+                });
+            }
+            
+            var classes = new ArrayList<ArrayList<Class<?>>>();
+            for (Future<ArrayList<Class<?>>> future : executor.invokeAll(tasks))
+                classes.add(future.get());
+            return classes;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+}
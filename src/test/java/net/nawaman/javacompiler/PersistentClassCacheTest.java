@@ -0,0 +1,236 @@
+package net.nawaman.javacompiler;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import net.nawaman.javacompiler.helpers.TestCompiler;
+
+class PersistentClassCacheTest {
+    
+    @TempDir
+    Path tempDir;
+    
+    @Test
+    void testSurvivesReopen() throws Exception {
+        var directory = tempDir.toFile();
+        
+        var cache1 = new PersistentClassCache();
+        cache1.configure(directory, 1024 * 1024);
+        cache1.put("A", newResult("A", 100));
+        cache1.close();
+        
+        var cache2 = new PersistentClassCache();
+        cache2.configure(directory, 1024 * 1024);
+        var result = cache2.get("A");
+        assertNotNull(result);
+        assertEquals("A", result.classes[0].binaryName);
+        assertArrayEquals(newResult("A", 100).classes[0].bytes, result.classes[0].bytes);
+        assertEquals(1, result.units.length);
+        assertTrue(result.units[0].referencedTypes.contains("java.lang.String"));
+        cache2.close();
+    }
+    
+    @Test
+    void testRecoversWithoutIndex() throws Exception {
+        var directory = tempDir.toFile();
+        
+        var cache1 = new PersistentClassCache();
+        cache1.configure(directory, 1024 * 1024);
+        cache1.put("A", newResult("A", 100));
+        cache1.put("B", newResult("B", 100));
+        cache1.close();
+        
+        // As if the process crashed before the index was written.
+        new File(directory, PersistentClassCache.INDEX_FILE_NAME).delete();
+        
+        var cache2 = new PersistentClassCache();
+        cache2.configure(directory, 1024 * 1024);
+        assertNotNull(cache2.get("A"));
+        assertNotNull(cache2.get("B"));
+        cache2.close();
+    }
+    
+    @Test
+    void testCorruptedRecordIsDropped() throws Exception {
+        var directory = tempDir.toFile();
+        
+        var cache1 = new PersistentClassCache();
+        cache1.configure(directory, 1024 * 1024);
+        cache1.put("A", newResult("A", 100));
+        cache1.close();
+        
+        var dataFile = new File(directory, PersistentClassCache.DATA_FILE_NAME);
+        try (var file = new RandomAccessFile(dataFile, "rw")) {
+            file.seek(file.length() - 10);
+            file.write(~file.read());
+        }
+        
+        var cache2 = new PersistentClassCache();
+        cache2.configure(directory, 1024 * 1024);
+        assertNull(cache2.get("A"));
+        assertEquals(1, cache2.getCorruptedCount());
+        cache2.close();
+    }
+    
+    @Test
+    void testSizeIsBounded() throws Exception {
+        var cache = new PersistentClassCache();
+        cache.configure(tempDir.toFile(), 4 * 1024);
+        for (int i = 0; i < 20; i++)
+            cache.put("K" + i, newResult("C" + i, 500));
+        
+        assertTrue(cache.getDataSize() <= 4 * 1024);
+        assertTrue(cache.getCompactionCount() > 0);
+        assertNotNull(cache.get("K19"), "The most recent result should be kept.");
+        assertNull(cache.get("K0"), "The oldest result should be dropped.");
+        cache.close();
+    }
+    
+    @Test
+    void testIndexWritesAreBatched() throws Exception {
+        var directory = tempDir.toFile();
+        var indexPath = new File(directory, PersistentClassCache.INDEX_FILE_NAME).toPath();
+        
+        var cache1 = new PersistentClassCache();
+        cache1.configure(directory, 1024 * 1024);
+        var index = Files.readAllBytes(indexPath);
+        cache1.put("A", newResult("A", 100));
+        assertArrayEquals(index, Files.readAllBytes(indexPath));
+        
+        for (int i = 1; i < PersistentClassCache.INDEX_WRITE_INTERVAL; i++)
+            cache1.put("K" + i, newResult("C" + i, 100));
+        assertTrue(Files.size(indexPath) > index.length);
+        
+        index = Files.readAllBytes(indexPath);
+        cache1.put("B", newResult("B", 100));
+        cache1.close();
+        assertTrue(Files.size(indexPath) > index.length);
+        
+        var cache2 = new PersistentClassCache();
+        cache2.configure(directory, 1024 * 1024);
+        assertNotNull(cache2.get("A"));
+        assertNotNull(cache2.get("B"));
+        cache2.close();
+    }
+    
+    @Test
+    void testSharedDirectory() throws Exception {
+        var directory = tempDir.toFile();
+        
+        var cache1 = new PersistentClassCache();
+        var cache2 = new PersistentClassCache();
+        cache1.configure(directory, 1024 * 1024);
+        cache2.configure(directory, 1024 * 1024);
+        cache1.put("A", newResult("A", 100));
+        cache2.put("B", newResult("B", 100));
+        cache1.put("C", newResult("C", 100));
+        cache1.close();
+        cache2.close();
+        
+        var cache3 = new PersistentClassCache();
+        cache3.configure(directory, 1024 * 1024);
+        assertNotNull(cache3.get("A"));
+        assertNotNull(cache3.get("B"));
+        assertNotNull(cache3.get("C"));
+        assertEquals(0, cache3.getCorruptedCount());
+        cache3.close();
+    }
+    
+    @Test
+    void testGetSeesResultsKeptByAnotherCache() throws Exception {
+        var directory = tempDir.toFile();
+        
+        var cache1 = new PersistentClassCache();
+        var cache2 = new PersistentClassCache();
+        cache1.configure(directory, 1024 * 1024);
+        cache2.configure(directory, 1024 * 1024);
+        assertNull(cache2.get("A"));
+        
+        cache1.put("A", newResult("A", 100));
+        assertNotNull(cache2.get("A"));
+        assertEquals(1, cache2.getHitCount());
+        cache1.close();
+        cache2.close();
+    }
+    
+    @Test
+    void testCompactedByAnotherCache() throws Exception {
+        var directory = tempDir.toFile();
+        
+        var cache1 = new PersistentClassCache();
+        var cache2 = new PersistentClassCache();
+        cache1.configure(directory, 4 * 1024);
+        cache2.configure(directory, 4 * 1024);
+        for (int i = 0; i < 20; i++)
+            cache1.put("K" + i, newResult("C" + i, 500));
+        assertTrue(cache1.getCompactionCount() > 0);
+        
+        cache2.put("X", newResult("X", 100));
+        cache1.close();
+        cache2.close();
+        
+        var cache3 = new PersistentClassCache();
+        cache3.configure(directory, 4 * 1024);
+        assertNotNull(cache3.get("K19"));
+        assertNotNull(cache3.get("X"));
+        assertEquals(0, cache3.getCorruptedCount());
+        cache3.close();
+    }
+    
+    @Test
+    void testCompileFromPersistentCache() throws Exception {
+        var className = "TestClassPersisted";
+        var classCode = new StringBuilder();
+        classCode.append("public class " + className + " extends Thread {\n");
+        classCode.append("    @Override public void run() {\n");
+        classCode.append("        System.out.println(\"Persisted!\");\n");
+        classCode.append("    }\n");
+        classCode.append("}\n");
+        
+        JavaCompiler.SetPersistentCompileCache(tempDir.toString(), 1024 * 1024);
+        try {
+            new TestCompiler(new JavaCompiler())
+            .compileCode(className, classCode)
+            .validateOut("Persisted!");
+            
+            // As if the JVM was restarted.
+            JavaCompiler.ClearCompileCache();
+            JavaCompiler.SetPersistentCompileCache(tempDir.toString(), 1024 * 1024);
+            var hitCount = JavaCompiler.GetPersistentCompileCacheHitCount();
+            
+            new TestCompiler(new JavaCompiler())
+            .compileCode(className, classCode)
+            .validateOut("Persisted!");
+            
+            assertEquals(hitCount + 1, JavaCompiler.GetPersistentCompileCacheHitCount());
+        } finally {
+            JavaCompiler.SetPersistentCompileCache(null, PersistentClassCache.DEFAULT_MAX_BYTES);
+        }
+    }
+    
+    static private CompileResultCache.CachedResult newResult(final String pName, final int pSize) {
+        var bytes = new byte[pSize];
+        for (int i = 0; i < bytes.length; i++)
+            bytes[i] = (byte)(i * 31);
+        
+        var aClass = new CompileResultCache.CachedClass(pName, pName + ".class", null, bytes);
+        var aUnit  = new DependencyGraph.Unit(pName, "", "hash",
+                            java.util.Set.of(pName), java.util.Set.of("java.lang.String"));
+        return new CompileResultCache.CachedResult(
+                new CompileResultCache.CachedClass[] { aClass },
+                new DependencyGraph.Unit[] { aUnit },
+                10);
+    }
+
+}